@@ -0,0 +1,154 @@
+package com.acertainbookstore.business;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link BookAttributeIndex} keeps the books of a store sorted by price and
+ * ISBN, both overall and per author, to answer a {@link BookQuery} without
+ * scanning the whole catalog, and sorted by ISBN alone to list the catalog one
+ * page at a time. A query is narrowed to a range of the author index if it
+ * names an author, and of the price index otherwise; the attributes that change
+ * over time are then checked book by book by the store.
+ *
+ * <p>
+ * The price and author of a book never change, so a book only moves in the
+ * index when it is added or removed. The index is not thread-safe; the stores
+ * update it under their write lock and scan it under their read lock.
+ */
+public class BookAttributeIndex {
+
+	/** The order of the index: by price, then by ISBN. */
+	public static final Comparator<Book> PRICE_ORDER = Comparator.comparing(Book::getPrice)
+			.thenComparingInt(Book::getISBN);
+
+	/** The books ordered by price. */
+	private final TreeSet<BookStoreBook> byPrice = new TreeSet<>(PRICE_ORDER);
+
+	/** The books of every author ordered by price. */
+	private final Map<String, TreeSet<BookStoreBook>> byAuthor = new HashMap<>();
+
+	/** The books ordered by ISBN. */
+	private final TreeMap<Integer, BookStoreBook> byISBN = new TreeMap<>();
+
+	/**
+	 * Adds a book to the index.
+	 *
+	 * @param book
+	 *            the book
+	 */
+	public void add(BookStoreBook book) {
+		byPrice.add(book);
+		byISBN.put(book.getISBN(), book);
+		byAuthor.computeIfAbsent(book.getAuthor(), key -> new TreeSet<>(PRICE_ORDER)).add(book);
+	}
+
+	/**
+	 * Removes a book from the index.
+	 *
+	 * @param book
+	 *            the book
+	 */
+	public void remove(BookStoreBook book) {
+		byPrice.remove(book);
+		byISBN.remove(book.getISBN());
+		TreeSet<BookStoreBook> authorBooks = byAuthor.get(book.getAuthor());
+
+		if (authorBooks != null) {
+			authorBooks.remove(book);
+
+			if (authorBooks.isEmpty()) {
+				byAuthor.remove(book.getAuthor());
+			}
+		}
+	}
+
+	/**
+	 * Removes every book from the index.
+	 */
+	public void clear() {
+		byPrice.clear();
+		byISBN.clear();
+		byAuthor.clear();
+	}
+
+	/**
+	 * Gets the books matching the price, author and page of a query, in price
+	 * order. The returned set is a view of the index, so it is not copied and
+	 * can be scanned lazily until the page is full.
+	 *
+	 * @param query
+	 *            the query
+	 * @return the candidate books
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public NavigableSet<BookStoreBook> candidates(BookQuery query) throws BookStoreException {
+		if (query == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		if (query.getNumBooks() < 0) {
+			throw new BookStoreException("numBooks = " + query.getNumBooks() + ", but it must be positive");
+		}
+
+		TreeSet<BookStoreBook> books = (query.getAuthor() == null) ? byPrice : byAuthor.get(query.getAuthor());
+
+		if (books == null || query.getMinPrice() > query.getMaxPrice()) {
+			return Collections.emptyNavigableSet();
+		}
+
+		// The lowest possible key at the minimum price, or the last book of the
+		// previous page if it is beyond it.
+		BookStoreBook from = new BookStoreBook(Integer.MIN_VALUE, "", "", query.getMinPrice(), 0);
+		boolean fromInclusive = true;
+
+		if (query.getAfterISBN() != 0) {
+			BookStoreBook after = new BookStoreBook(query.getAfterISBN(), "", "", query.getAfterPrice(), 0);
+
+			if (PRICE_ORDER.compare(after, from) >= 0) {
+				from = after;
+				fromInclusive = false;
+			}
+		}
+
+		BookStoreBook to = new BookStoreBook(Integer.MAX_VALUE, "", "", query.getMaxPrice(), 0);
+
+		if (PRICE_ORDER.compare(from, to) > 0) {
+			return Collections.emptyNavigableSet();
+		}
+
+		return books.subSet(from, fromInclusive, to, true);
+	}
+
+	/**
+	 * Gets the books with an ISBN greater than the given one, in ISBN order.
+	 * The returned collection is a view of the index, so it is not copied and
+	 * can be scanned lazily until the page is full.
+	 *
+	 * @param afterISBN
+	 *            the ISBN of the last book of the previous page, or 0 for the
+	 *            first page
+	 * @param numBooks
+	 *            the maximum number of books in the page
+	 * @return the books
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public Collection<BookStoreBook> startingAfter(int afterISBN, int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		return byISBN.tailMap(afterISBN, false).values();
+	}
+}
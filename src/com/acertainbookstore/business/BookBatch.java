@@ -0,0 +1,131 @@
+package com.acertainbookstore.business;
+
+import java.util.Arrays;
+
+/**
+ * {@link BookBatch} holds the books of a batched operation, resolved once from
+ * their ISBNs while the operation is validated, with the number of copies of
+ * every book. The apply phase then works on the resolved books without
+ * looking the ISBNs up again. A batch grows to the largest operation it held
+ * and is cleared for the next one, so an owner that reuses it, e.g. under a
+ * write lock, validates and applies without allocating.
+ */
+public class BookBatch {
+
+	/** The initial number of books a batch holds. */
+	private static final int INITIAL_CAPACITY = 16;
+
+	/** The resolved books. */
+	private BookStoreBook[] books;
+
+	/** The ISBNs of the books. */
+	private int[] isbns;
+
+	/** The number of copies of every book. */
+	private int[] numCopies;
+
+	/** The number of books. */
+	private int size = 0;
+
+	/**
+	 * Instantiates a new {@link BookBatch}.
+	 */
+	public BookBatch() {
+		this(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * Instantiates a new {@link BookBatch}.
+	 *
+	 * @param capacity
+	 *            the initial number of books the batch holds
+	 */
+	public BookBatch(int capacity) {
+		books = new BookStoreBook[Math.max(capacity, 1)];
+		isbns = new int[books.length];
+		numCopies = new int[books.length];
+	}
+
+	/**
+	 * Removes the books, keeping the capacity.
+	 */
+	public void clear() {
+		Arrays.fill(books, 0, size, null);
+		size = 0;
+	}
+
+	/**
+	 * Adds a resolved book.
+	 *
+	 * @param book
+	 *            the book
+	 * @param copies
+	 *            the number of copies of the book
+	 */
+	public void add(BookStoreBook book, int copies) {
+		if (size == books.length) {
+			books = Arrays.copyOf(books, size * 2);
+			isbns = Arrays.copyOf(isbns, size * 2);
+			numCopies = Arrays.copyOf(numCopies, size * 2);
+		}
+
+		books[size] = book;
+		isbns[size] = book.getISBN();
+		numCopies[size] = copies;
+		size++;
+	}
+
+	/**
+	 * Gets the number of books.
+	 *
+	 * @return the size
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Gets a book.
+	 *
+	 * @param index
+	 *            the index of the book
+	 * @return the book
+	 */
+	public BookStoreBook getBook(int index) {
+		return books[index];
+	}
+
+	/**
+	 * Gets the number of copies of a book.
+	 *
+	 * @param index
+	 *            the index of the book
+	 * @return the number of copies
+	 */
+	public int getNumCopies(int index) {
+		return numCopies[index];
+	}
+
+	/**
+	 * Returns the ISBNs of the books in ascending order, e.g. the order the
+	 * books are locked in.
+	 *
+	 * @return a sorted copy of the ISBNs
+	 */
+	public int[] sortedISBNs() {
+		int[] sorted = Arrays.copyOf(isbns, size);
+		Arrays.sort(sorted);
+		return sorted;
+	}
+
+	/**
+	 * Records the books as changed in a journal.
+	 *
+	 * @param changeJournal
+	 *            the journal
+	 * @return the version of the change
+	 */
+	public long recordIn(CatalogChangeJournal changeJournal) {
+		return changeJournal.record(isbns, size);
+	}
+}
@@ -0,0 +1,211 @@
+package com.acertainbookstore.business;
+
+/**
+ * {@link BookQuery} selects stock books by their attributes: a price range,
+ * an author, whether they are in stock or editor picks, and a minimum average
+ * rating. The matches are returned in pages ordered by price and then ISBN.
+ * The next page is requested with {@link #startingAfter(StockBook)} and the
+ * last book of the current page; since the price and ISBN of a book never
+ * change, pages neither skip nor repeat books while the catalog is updated.
+ */
+public class BookQuery {
+
+	/** The minimum price, inclusive. */
+	private final float minPrice;
+
+	/** The maximum price, inclusive. */
+	private final float maxPrice;
+
+	/** The author, or null for any author. */
+	private final String author;
+
+	/** Whether only books with copies in stock match. */
+	private final boolean inStockOnly;
+
+	/** Whether only editor picks match. */
+	private final boolean editorPicksOnly;
+
+	/** The minimum average rating; unrated books have a rating of -1. */
+	private final float minAverageRating;
+
+	/** The maximum number of books in a page. */
+	private final int numBooks;
+
+	/** The price of the last book of the previous page. */
+	private final float afterPrice;
+
+	/** The ISBN of the last book of the previous page, or 0 for the first page. */
+	private final int afterISBN;
+
+	/**
+	 * Instantiates a new {@link BookQuery}. This constructor is necessary for
+	 * serialization and has no other purpose.
+	 */
+	public BookQuery() {
+		this(0, Float.MAX_VALUE, null, false, false, -1, 0);
+	}
+
+	/**
+	 * Instantiates a new {@link BookQuery} for the first page of matches.
+	 *
+	 * @param minPrice
+	 *            the minimum price, inclusive
+	 * @param maxPrice
+	 *            the maximum price, inclusive
+	 * @param author
+	 *            the author, or null for any author
+	 * @param inStockOnly
+	 *            whether only books with copies in stock match
+	 * @param editorPicksOnly
+	 *            whether only editor picks match
+	 * @param minAverageRating
+	 *            the minimum average rating, or -1 to include unrated books
+	 * @param numBooks
+	 *            the maximum number of books in a page
+	 */
+	public BookQuery(float minPrice, float maxPrice, String author, boolean inStockOnly, boolean editorPicksOnly,
+			float minAverageRating, int numBooks) {
+		this(minPrice, maxPrice, author, inStockOnly, editorPicksOnly, minAverageRating, numBooks, 0, 0);
+	}
+
+	/**
+	 * Instantiates a new {@link BookQuery}.
+	 *
+	 * @param minPrice
+	 *            the minimum price
+	 * @param maxPrice
+	 *            the maximum price
+	 * @param author
+	 *            the author
+	 * @param inStockOnly
+	 *            whether only books in stock match
+	 * @param editorPicksOnly
+	 *            whether only editor picks match
+	 * @param minAverageRating
+	 *            the minimum average rating
+	 * @param numBooks
+	 *            the maximum number of books in a page
+	 * @param afterPrice
+	 *            the price of the last book of the previous page
+	 * @param afterISBN
+	 *            the ISBN of the last book of the previous page
+	 */
+	private BookQuery(float minPrice, float maxPrice, String author, boolean inStockOnly, boolean editorPicksOnly,
+			float minAverageRating, int numBooks, float afterPrice, int afterISBN) {
+		this.minPrice = minPrice;
+		this.maxPrice = maxPrice;
+		this.author = author;
+		this.inStockOnly = inStockOnly;
+		this.editorPicksOnly = editorPicksOnly;
+		this.minAverageRating = minAverageRating;
+		this.numBooks = numBooks;
+		this.afterPrice = afterPrice;
+		this.afterISBN = afterISBN;
+	}
+
+	/**
+	 * Creates the query for the page following the given book.
+	 *
+	 * @param lastBook
+	 *            the last book of the current page
+	 * @return the query for the next page
+	 */
+	public BookQuery startingAfter(Book lastBook) {
+		return new BookQuery(minPrice, maxPrice, author, inStockOnly, editorPicksOnly, minAverageRating, numBooks,
+				lastBook.getPrice(), lastBook.getISBN());
+	}
+
+	/**
+	 * Checks if a book matches the attributes that may change over time, i.e.
+	 * all the attributes but the price and author.
+	 *
+	 * @param book
+	 *            the book
+	 * @return true, if the book matches
+	 */
+	public boolean matchesState(StockBook book) {
+		return (!inStockOnly || book.getNumCopies() > 0) && (!editorPicksOnly || book.isEditorPick())
+				&& book.getAverageRating() >= minAverageRating;
+	}
+
+	/**
+	 * Gets the minimum price.
+	 *
+	 * @return the minimum price
+	 */
+	public float getMinPrice() {
+		return minPrice;
+	}
+
+	/**
+	 * Gets the maximum price.
+	 *
+	 * @return the maximum price
+	 */
+	public float getMaxPrice() {
+		return maxPrice;
+	}
+
+	/**
+	 * Gets the author.
+	 *
+	 * @return the author, or null for any author
+	 */
+	public String getAuthor() {
+		return author;
+	}
+
+	/**
+	 * Checks if only books in stock match.
+	 *
+	 * @return true, if only books in stock match
+	 */
+	public boolean isInStockOnly() {
+		return inStockOnly;
+	}
+
+	/**
+	 * Checks if only editor picks match.
+	 *
+	 * @return true, if only editor picks match
+	 */
+	public boolean isEditorPicksOnly() {
+		return editorPicksOnly;
+	}
+
+	/**
+	 * Gets the minimum average rating.
+	 *
+	 * @return the minimum average rating
+	 */
+	public float getMinAverageRating() {
+		return minAverageRating;
+	}
+
+	/**
+	 * Gets the maximum number of books in a page.
+	 *
+	 * @return the number of books
+	 */
+	public int getNumBooks() {
+		return numBooks;
+	}
+
+	/**
+	 * Gets the price of the last book of the previous page.
+	 *
+	 * @return the price
+	 */
+	public float getAfterPrice() {
+		return afterPrice;
+	}
+
+	/**
+	 * Gets the ISBN of the last book of the previous page.
+	 *
+	 * @return the ISBN, or 0 for the first page
+	 */
+	public int getAfterISBN() {
+		return afterISBN;
+	}
+}
@@ -0,0 +1,194 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link BookSearchIndex} is an inverted index over the titles and authors of
+ * the books in a store. Titles and authors are split into lower-case terms,
+ * and every term maps to the ISBNs of the books containing it. The terms are
+ * kept sorted, so the books matching a prefix are found by scanning a range of
+ * the index.
+ *
+ * <p>
+ * A query matches a book if every term of the query is a prefix of a term of
+ * the title or author of the book. Matches are returned in ISBN order so pages
+ * are stable. The index is not thread-safe; the stores update it under their
+ * write lock and search it under their read lock.
+ */
+public class BookSearchIndex {
+
+	/** The ISBNs of the books containing every term. */
+	private final TreeMap<String, Set<Integer>> postings = new TreeMap<>();
+
+	/**
+	 * Adds a book to the index.
+	 *
+	 * @param book
+	 *            the book
+	 */
+	public void add(Book book) {
+		for (String term : terms(book)) {
+			postings.computeIfAbsent(term, key -> new HashSet<>()).add(book.getISBN());
+		}
+	}
+
+	/**
+	 * Removes a book from the index.
+	 *
+	 * @param book
+	 *            the book
+	 */
+	public void remove(Book book) {
+		for (String term : terms(book)) {
+			Set<Integer> isbns = postings.get(term);
+
+			if (isbns != null) {
+				isbns.remove(book.getISBN());
+
+				if (isbns.isEmpty()) {
+					postings.remove(term);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes every book from the index.
+	 */
+	public void clear() {
+		postings.clear();
+	}
+
+	/**
+	 * Searches the books matching a query.
+	 *
+	 * @param query
+	 *            the query
+	 * @param offset
+	 *            the number of matches to skip
+	 * @param numBooks
+	 *            the maximum number of matches to return
+	 * @return the ISBNs of the matches, in ascending order
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public List<Integer> search(String query, int offset, int numBooks) throws BookStoreException {
+		if (query == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		if (offset < 0) {
+			throw new BookStoreException("offset = " + offset + ", but it must be positive");
+		}
+
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		List<Set<Integer>> termMatches = new ArrayList<>();
+
+		for (String term : tokenize(query)) {
+			termMatches.add(prefixMatches(term));
+		}
+
+		if (termMatches.isEmpty()) {
+			return Collections.emptyList();
+		}
+
+		// Intersect starting from the most selective term.
+		termMatches.sort((a, b) -> Integer.compare(a.size(), b.size()));
+		TreeSet<Integer> matches = new TreeSet<>(termMatches.get(0));
+
+		for (int i = 1; i < termMatches.size() && !matches.isEmpty(); i++) {
+			matches.retainAll(termMatches.get(i));
+		}
+
+		List<Integer> page = new ArrayList<>();
+		int skipped = 0;
+
+		for (int isbn : matches) {
+			if (page.size() == numBooks) {
+				break;
+			}
+
+			if (skipped < offset) {
+				skipped++;
+			} else {
+				page.add(isbn);
+			}
+		}
+
+		return page;
+	}
+
+	/**
+	 * Gets the ISBNs of the books containing a term starting with a prefix.
+	 *
+	 * @param prefix
+	 *            the prefix
+	 * @return the ISBNs
+	 */
+	private Set<Integer> prefixMatches(String prefix) {
+		SortedMap<String, Set<Integer>> range = postings.subMap(prefix, prefix + Character.MAX_VALUE);
+
+		if (range.size() == 1) {
+			return range.values().iterator().next();
+		}
+
+		Set<Integer> isbns = new HashSet<>();
+
+		for (Map.Entry<String, Set<Integer>> entry : range.entrySet()) {
+			isbns.addAll(entry.getValue());
+		}
+
+		return isbns;
+	}
+
+	/**
+	 * Gets the terms of the title and author of a book.
+	 *
+	 * @param book
+	 *            the book
+	 * @return the terms
+	 */
+	private static Set<String> terms(Book book) {
+		Set<String> terms = new HashSet<>(tokenize(book.getTitle()));
+		terms.addAll(tokenize(book.getAuthor()));
+		return terms;
+	}
+
+	/**
+	 * Splits a text into lower-case terms of letters and digits.
+	 *
+	 * @param text
+	 *            the text
+	 * @return the terms
+	 */
+	public static List<String> tokenize(String text) {
+		List<String> terms = new ArrayList<>();
+
+		if (text == null) {
+			return terms;
+		}
+
+		for (String term : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+			if (!term.isEmpty()) {
+				terms.add(term);
+			}
+		}
+
+		return terms;
+	}
+}
@@ -1,14 +1,18 @@
 package com.acertainbookstore.business;
 
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-
 import com.acertainbookstore.utils.BookStoreUtility;
 
 /**
  * {@link BookStoreBook} implements all parts of the book. Only parts of it are
  * available in the bookstore client and stock manager, cf. the {@link Book} and
  * {@link StockBook} interfaces.
+ *
+ * <p>
+ * The immutable copies handed out by the reads are cached: the copy of the
+ * book lives as long as the book, since its title, author and price never
+ * change, and the copy of the stock is dropped by every change to the stock.
+ * The titles and authors are interned, so the books of the same author share
+ * one string.
  * 
  * @see Book
  * @see StockBook
@@ -31,7 +35,11 @@ public class BookStoreBook extends ImmutableBook {
 	/** Whether the book is editor picked. */
 	private boolean editorPick;
 
-	public final ReadWriteLock lock = new ReentrantReadWriteLock();
+	/** The cached {@link ImmutableBook} copy, or null before the first read. */
+	private ImmutableBook bookView;
+
+	/** The cached {@link StockBook} copy, or null if the stock changed since. */
+	private StockBook stockBookView;
 
 	/**
 	 * Instantiates a new {@link BookStoreBook}.
@@ -48,7 +56,7 @@ public class BookStoreBook extends ImmutableBook {
 	 *            the number of copies
 	 */
 	public BookStoreBook(int isbn, String title, String author, float price, int numCopies) {
-		super(isbn, title, author, price);
+		super(isbn, intern(title), intern(author), price);
 
 		this.setNumSaleMisses(0);
 		this.setNumTimesRated(0);
@@ -65,7 +73,8 @@ public class BookStoreBook extends ImmutableBook {
 	 *            the book to copy
 	 */
 	public BookStoreBook(StockBook bookToCopy) {
-		super(bookToCopy.getISBN(), bookToCopy.getTitle(), bookToCopy.getAuthor(), bookToCopy.getPrice());
+		super(bookToCopy.getISBN(), intern(bookToCopy.getTitle()), intern(bookToCopy.getAuthor()),
+				bookToCopy.getPrice());
 
 		this.setNumSaleMisses(bookToCopy.getNumSaleMisses());
 		this.setNumTimesRated(bookToCopy.getNumTimesRated());
@@ -74,6 +83,17 @@ public class BookStoreBook extends ImmutableBook {
 		this.setEditorPick(bookToCopy.isEditorPick());
 	}
 
+	/**
+	 * Returns the canonical copy of a string, shared by all the books.
+	 *
+	 * @param string
+	 *            the string, possibly null
+	 * @return the canonical copy
+	 */
+	private static String intern(String string) {
+		return string == null ? null : string.intern();
+	}
+
 	/**
 	 * Gets the total rating.
 	 *
@@ -136,6 +156,7 @@ public class BookStoreBook extends ImmutableBook {
 	 */
 	private void setTotalRating(long totalRating) {
 		this.totalRating = totalRating;
+		this.stockBookView = null;
 	}
 
 	/**
@@ -146,6 +167,7 @@ public class BookStoreBook extends ImmutableBook {
 	 */
 	private void setNumTimesRated(long numTimesRated) {
 		this.numTimesRated = numTimesRated;
+		this.stockBookView = null;
 	}
 
 	/**
@@ -156,6 +178,7 @@ public class BookStoreBook extends ImmutableBook {
 	 */
 	private void setNumCopies(int numCopies) {
 		this.numCopies = numCopies;
+		this.stockBookView = null;
 	}
 
 	/**
@@ -167,6 +190,7 @@ public class BookStoreBook extends ImmutableBook {
 	 */
 	private void setNumSaleMisses(long numSaleMisses) {
 		this.numSaleMisses = numSaleMisses;
+		this.stockBookView = null;
 	}
 
 	/**
@@ -178,6 +202,7 @@ public class BookStoreBook extends ImmutableBook {
 	 */
 	public void setEditorPick(boolean editorPick) {
 		this.editorPick = editorPick;
+		this.stockBookView = null;
 	}
 
 	/**
@@ -201,6 +226,7 @@ public class BookStoreBook extends ImmutableBook {
 	public boolean buyCopies(int numCopies) {
 		if (!BookStoreUtility.isInvalidNoCopies(numCopies) && areCopiesInStore(numCopies)) {
 			this.numCopies -= numCopies;
+			this.stockBookView = null;
 			return true;
 		}
 
@@ -217,6 +243,22 @@ public class BookStoreBook extends ImmutableBook {
 		if (!BookStoreUtility.isInvalidNoCopies(numNewCopies)) {
 			this.numCopies += numNewCopies;
 			this.numSaleMisses = 0;
+			this.stockBookView = null;
+		}
+	}
+
+	/**
+	 * Puts back <code>numCopies</code> taken out by a purchase that did not
+	 * happen. Unlike {@link #addCopies(int)}, which restocks the book, it
+	 * keeps the sale misses.
+	 *
+	 * @param numCopies
+	 *            the number of copies
+	 */
+	public void restoreCopies(int numCopies) {
+		if (!BookStoreUtility.isInvalidNoCopies(numCopies)) {
+			this.numCopies += numCopies;
+			this.stockBookView = null;
 		}
 	}
 
@@ -228,6 +270,7 @@ public class BookStoreBook extends ImmutableBook {
 	 */
 	public void addSaleMiss(int numSaleMisses) {
 		this.numSaleMisses += numSaleMisses;
+		this.stockBookView = null;
 	}
 
 	/**
@@ -240,6 +283,7 @@ public class BookStoreBook extends ImmutableBook {
 		if (!BookStoreUtility.isInvalidRating(rating)) {
 			this.totalRating += rating;
 			this.numTimesRated++;
+			this.stockBookView = null;
 		}
 	}
 
@@ -265,24 +309,40 @@ public class BookStoreBook extends ImmutableBook {
 	}
 
 	/**
-	 * Returns a {@link ImmutableBook} copy of the book.
+	 * Returns a {@link ImmutableBook} copy of the book, created on the first
+	 * call and shared by the later ones.
 	 *
 	 * @return the immutable book
 	 */
 	public ImmutableBook immutableBook() {
-		return new ImmutableBook(this.getISBN(), new String(this.getTitle()), new String(this.getAuthor()),
-				this.getPrice());
+		// Concurrent readers may both create a copy; either is correct, and
+		// the final fields of the copy make it safe to share without a lock.
+		ImmutableBook view = bookView;
+
+		if (view == null) {
+			view = new ImmutableBook(this.getISBN(), this.getTitle(), this.getAuthor(), this.getPrice());
+			bookView = view;
+		}
+
+		return view;
 	}
 
 	/**
-	 * Returns a {@link StockBook} copy of the book.
+	 * Returns a {@link StockBook} copy of the book, shared by the calls until
+	 * the stock changes.
 	 *
 	 * @return the stock book
 	 */
 	public StockBook immutableStockBook() {
-		return new ImmutableStockBook(this.getISBN(), new String(this.getTitle()), new String(this.getAuthor()),
-				this.getPrice(), this.numCopies, this.numSaleMisses, this.numTimesRated, this.totalRating,
-				this.editorPick);
+		StockBook view = stockBookView;
+
+		if (view == null) {
+			view = new ImmutableStockBook(this.getISBN(), this.getTitle(), this.getAuthor(), this.getPrice(),
+					this.numCopies, this.numSaleMisses, this.numTimesRated, this.totalRating, this.editorPick);
+			stockBookView = view;
+		}
+
+		return view;
 	}
 
 	/**
@@ -291,7 +351,7 @@ public class BookStoreBook extends ImmutableBook {
 	 * @return the book store book
 	 */
 	public BookStoreBook copy() {
-		return new BookStoreBook(this.getISBN(), new String(this.getTitle()), new String(this.getAuthor()),
-				this.getPrice(), this.numCopies);
+		return new BookStoreBook(this.getISBN(), this.getTitle(), this.getAuthor(), this.getPrice(),
+				this.numCopies);
 	}
 }
@@ -0,0 +1,189 @@
+package com.acertainbookstore.business;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * {@link CatalogChangeJournal} stamps every mutation of a store with a new
+ * catalog version and remembers the ISBNs of the books it touched. The journal
+ * holds a bounded number of entries in a ring; when it is full, the oldest
+ * entries are overwritten and the changes older than them can no longer be
+ * computed, so the clients asking for them must fall back to a full listing.
+ *
+ * <p>
+ * The journal is thread-safe, since the two-level locking store records
+ * changes to different books concurrently under its per-book locks.
+ */
+public class CatalogChangeJournal {
+
+	/** The default number of entries kept by the journal. */
+	public static final int DEFAULT_CAPACITY = 1 << 16;
+
+	/** The version of every entry. */
+	private final long[] versions;
+
+	/** The ISBN of every entry. */
+	private final int[] isbns;
+
+	/** The index of the next entry to write. */
+	private int next = 0;
+
+	/** The number of entries in the journal. */
+	private int size = 0;
+
+	/** The current version of the catalog. */
+	private long version = 0;
+
+	/**
+	 * The oldest version from which the changes are known; the entries of the
+	 * versions up to it have been overwritten or cleared.
+	 */
+	private long oldestVersion = 0;
+
+	/**
+	 * Instantiates a new {@link CatalogChangeJournal} with the default
+	 * capacity.
+	 */
+	public CatalogChangeJournal() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Instantiates a new {@link CatalogChangeJournal}.
+	 *
+	 * @param capacity
+	 *            the maximum number of entries
+	 */
+	public CatalogChangeJournal(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity = " + capacity + ", but it must be positive");
+		}
+
+		versions = new long[capacity];
+		isbns = new int[capacity];
+	}
+
+	/**
+	 * Records a mutation of a single book.
+	 *
+	 * @param isbn
+	 *            the ISBN of the book
+	 * @return the version of the mutation
+	 */
+	public synchronized long record(int isbn) {
+		version++;
+		append(isbn);
+		return version;
+	}
+
+	/**
+	 * Records a mutation of the books in the first entries of an array as a
+	 * single version, without boxing their ISBNs.
+	 *
+	 * @param changedISBNs
+	 *            the ISBNs of the books
+	 * @param count
+	 *            the number of ISBNs
+	 * @return the version of the mutation
+	 */
+	public synchronized long record(int[] changedISBNs, int count) {
+		version++;
+
+		for (int i = 0; i < count; i++) {
+			append(changedISBNs[i]);
+		}
+
+		return version;
+	}
+
+	/**
+	 * Records a mutation of a set of books as a single version.
+	 *
+	 * @param changedISBNs
+	 *            the ISBNs of the books
+	 * @return the version of the mutation
+	 */
+	public synchronized long record(Collection<Integer> changedISBNs) {
+		version++;
+
+		for (int isbn : changedISBNs) {
+			append(isbn);
+		}
+
+		return version;
+	}
+
+	/**
+	 * Records a mutation of every book, e.g. the removal of all books. The
+	 * entries are cleared, so the changes before it are only available as a
+	 * full listing.
+	 *
+	 * @return the version of the mutation
+	 */
+	public synchronized long recordAll() {
+		version++;
+		oldestVersion = version;
+		next = 0;
+		size = 0;
+		return version;
+	}
+
+	/**
+	 * Appends an entry at the current version, overwriting the oldest entry if
+	 * the journal is full.
+	 *
+	 * @param isbn
+	 *            the ISBN of the changed book
+	 */
+	private void append(int isbn) {
+		if (size == versions.length) {
+			// The changes of the overwritten version are no longer complete.
+			oldestVersion = Math.max(oldestVersion, versions[next]);
+		} else {
+			size++;
+		}
+
+		versions[next] = version;
+		isbns[next] = isbn;
+		next = (next + 1) % versions.length;
+	}
+
+	/**
+	 * Gets the current version of the catalog.
+	 *
+	 * @return the version
+	 */
+	public synchronized long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Gets the ISBNs of the books changed after a version.
+	 *
+	 * @param sinceVersion
+	 *            the version known by the client
+	 * @return the ISBNs, or null if the changes since the version are no
+	 *         longer in the journal or the version is unknown
+	 */
+	public synchronized Set<Integer> changedSince(long sinceVersion) {
+		if (sinceVersion < oldestVersion || sinceVersion > version) {
+			return null;
+		}
+
+		Set<Integer> changed = new HashSet<>();
+
+		// Walk back from the newest entry until the version known by the client.
+		for (int i = 0, index = next; i < size; i++) {
+			index = (index == 0) ? versions.length - 1 : index - 1;
+
+			if (versions[index] <= sinceVersion) {
+				break;
+			}
+
+			changed.add(isbns[index]);
+		}
+
+		return changed;
+	}
+}
@@ -0,0 +1,91 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link CatalogChanges} is the answer to
+ * {@link com.acertainbookstore.interfaces.StockManager#getChangesSince(long)}:
+ * the books added or changed and the ISBNs of the books removed since the
+ * version known by the client, together with the version they bring the
+ * client to. If the changes are no longer known, it is a full listing of the
+ * books instead, and the client must replace its copy of the catalog.
+ */
+public class CatalogChanges {
+
+	/** The version of the catalog the changes bring the client to. */
+	private final long version;
+
+	/** Whether the books are a full listing of the catalog. */
+	private final boolean fullListing;
+
+	/** The books added or changed, or all the books of a full listing. */
+	private final List<StockBook> books;
+
+	/** The ISBNs of the books removed; empty for a full listing. */
+	private final List<Integer> removedISBNs;
+
+	/**
+	 * Instantiates a new {@link CatalogChanges}. This constructor is necessary
+	 * for serialization and has no other purpose.
+	 */
+	public CatalogChanges() {
+		this(0, true, new ArrayList<>(), new ArrayList<>());
+	}
+
+	/**
+	 * Instantiates a new {@link CatalogChanges}.
+	 *
+	 * @param version
+	 *            the version of the catalog the changes bring the client to
+	 * @param fullListing
+	 *            whether the books are a full listing of the catalog
+	 * @param books
+	 *            the books added or changed, or all the books
+	 * @param removedISBNs
+	 *            the ISBNs of the books removed
+	 */
+	public CatalogChanges(long version, boolean fullListing, List<StockBook> books, List<Integer> removedISBNs) {
+		this.version = version;
+		this.fullListing = fullListing;
+		this.books = books;
+		this.removedISBNs = removedISBNs;
+	}
+
+	/**
+	 * Gets the version of the catalog the changes bring the client to, which is
+	 * the version to ask for the next changes from.
+	 *
+	 * @return the version
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Checks if the books are a full listing of the catalog.
+	 *
+	 * @return true, if the books are a full listing
+	 */
+	public boolean isFullListing() {
+		return fullListing;
+	}
+
+	/**
+	 * Gets the books added or changed, or all the books of a full listing.
+	 *
+	 * @return the books
+	 */
+	public List<StockBook> getBooks() {
+		return books;
+	}
+
+	/**
+	 * Gets the ISBNs of the books removed.
+	 *
+	 * @return the ISBNs
+	 */
+	public List<Integer> getRemovedISBNs() {
+		return removedISBNs;
+	}
+}
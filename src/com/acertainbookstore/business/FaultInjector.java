@@ -0,0 +1,298 @@
+package com.acertainbookstore.business;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link FaultInjector} injects delays and exceptions at named points of the
+ * store engines, e.g. to reproduce contention in load tests. Every point is
+ * off unless a fault is set on it, and a point that is off costs a single
+ * field read.
+ *
+ * <p>
+ * Every store method has a point that is passed once per call, inside the
+ * critical section of the method once the arguments are validated and before
+ * anything is changed: a delay there extends the time the locks are held, or
+ * the window of an optimistic transaction, and an exception there fails the
+ * call without changing anything. The points named after the method with a
+ * suffix are passed once per book; a delay there grows with the size of the
+ * batch, while an exception there interrupts the changes of a lock-based store
+ * half way, which is only meant for testing recovery.
+ *
+ * <p>
+ * The faults are set through the {@link Point} methods, or at startup from
+ * the system property {@link BookStoreConstants#PROPERTY_KEY_FAULTS}, a
+ * comma-separated list of <code>point=action</code> where the action is
+ * <code>delay:millis</code> or <code>throw</code>, optionally followed by
+ * <code>@probability</code>, e.g.
+ * <code>buyBooks.book=delay:1,addCopies=throw@0.01</code>.
+ */
+public final class FaultInjector {
+
+	/** The points by name. */
+	private static final Map<String, Point> POINTS = new LinkedHashMap<>();
+
+	/** The point of addBooks, once per call. */
+	public static final Point ADD_BOOKS = new Point("addBooks");
+
+	/** The point of addBooks, once per book added. */
+	public static final Point ADD_BOOKS_BOOK = new Point("addBooks.book");
+
+	/** The point of addCopies, once per call. */
+	public static final Point ADD_COPIES = new Point("addCopies");
+
+	/** The point of addCopies, once per book given copies. */
+	public static final Point ADD_COPIES_BOOK = new Point("addCopies.book");
+
+	/** The point of buyBooks, once per call that buys the books. */
+	public static final Point BUY_BOOKS = new Point("buyBooks");
+
+	/** The point of buyBooks, once per book checked for copies. */
+	public static final Point BUY_BOOKS_CHECK = new Point("buyBooks.check");
+
+	/** The point of buyBooks, once per book bought. */
+	public static final Point BUY_BOOKS_BOOK = new Point("buyBooks.book");
+
+	static {
+		configure(System.getProperty(BookStoreConstants.PROPERTY_KEY_FAULTS));
+	}
+
+	/**
+	 * {@link Fault} is a delay, an exception or both, injected with a
+	 * probability.
+	 */
+	private static final class Fault {
+
+		/** The delay in milliseconds. */
+		private final long delayMillis;
+
+		/** Whether an exception is thrown after the delay. */
+		private final boolean exception;
+
+		/** The probability of the fault at every pass. */
+		private final double probability;
+
+		/**
+		 * Instantiates a new {@link Fault}.
+		 *
+		 * @param delayMillis
+		 *            the delay in milliseconds
+		 * @param exception
+		 *            whether an exception is thrown
+		 * @param probability
+		 *            the probability of the fault
+		 */
+		private Fault(long delayMillis, boolean exception, double probability) {
+			this.delayMillis = delayMillis;
+			this.exception = exception;
+			this.probability = probability;
+		}
+	}
+
+	/**
+	 * {@link Point} is a named point of the store engines at which a fault
+	 * can be injected.
+	 */
+	public static final class Point {
+
+		/** The name. */
+		private final String name;
+
+		/** The fault, or null if the point is off. */
+		private volatile Fault fault = null;
+
+		/** The number of faults injected. */
+		private final AtomicLong numInjected = new AtomicLong(0);
+
+		/**
+		 * Instantiates a new {@link Point}.
+		 *
+		 * @param name
+		 *            the name
+		 */
+		private Point(String name) {
+			this.name = name;
+			POINTS.put(name, this);
+		}
+
+		/**
+		 * Gets the name.
+		 *
+		 * @return the name
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Injects the fault of the point, if any.
+		 *
+		 * @throws BookStoreException
+		 *             if the fault is an exception
+		 */
+		public void inject() throws BookStoreException {
+			Fault current = fault;
+
+			if (current != null) {
+				inject(current);
+			}
+		}
+
+		/**
+		 * Injects a fault.
+		 *
+		 * @param current
+		 *            the fault
+		 * @throws BookStoreException
+		 *             if the fault is an exception
+		 */
+		private void inject(Fault current) throws BookStoreException {
+			if (current.probability < 1 && ThreadLocalRandom.current().nextDouble() >= current.probability) {
+				return;
+			}
+
+			numInjected.incrementAndGet();
+
+			if (current.delayMillis > 0) {
+				try {
+					Thread.sleep(current.delayMillis);
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+				}
+			}
+
+			if (current.exception) {
+				throw new BookStoreException(BookStoreConstants.INJECTED_FAULT + name);
+			}
+		}
+
+		/**
+		 * Delays every pass through the point.
+		 *
+		 * @param delayMillis
+		 *            the delay in milliseconds
+		 */
+		public void delay(long delayMillis) {
+			delay(delayMillis, 1);
+		}
+
+		/**
+		 * Delays the passes through the point with a probability.
+		 *
+		 * @param delayMillis
+		 *            the delay in milliseconds
+		 * @param probability
+		 *            the probability of a delay at every pass
+		 */
+		public void delay(long delayMillis, double probability) {
+			set(new Fault(delayMillis, false, probability));
+		}
+
+		/**
+		 * Throws an exception at the passes through the point with a
+		 * probability.
+		 *
+		 * @param probability
+		 *            the probability of an exception at every pass
+		 */
+		public void fail(double probability) {
+			set(new Fault(0, true, probability));
+		}
+
+		/**
+		 * Turns the point off.
+		 */
+		public void clear() {
+			fault = null;
+		}
+
+		/**
+		 * Sets the fault of the point.
+		 *
+		 * @param newFault
+		 *            the fault
+		 */
+		private void set(Fault newFault) {
+			if (newFault.delayMillis < 0 || newFault.probability < 0 || newFault.probability > 1) {
+				throw new IllegalArgumentException("Invalid fault at " + name);
+			}
+
+			fault = newFault;
+		}
+
+		/**
+		 * Gets the number of faults injected.
+		 *
+		 * @return the number of faults injected
+		 */
+		public long getNumInjected() {
+			return numInjected.get();
+		}
+	}
+
+	/**
+	 * Prevents the instantiation of a new {@link FaultInjector}.
+	 */
+	private FaultInjector() {
+		// Prevent instances from being created.
+	}
+
+	/**
+	 * Gets the points by name.
+	 *
+	 * @return the points
+	 */
+	public static Map<String, Point> getPoints() {
+		return Collections.unmodifiableMap(POINTS);
+	}
+
+	/**
+	 * Turns every point off.
+	 */
+	public static void clearAll() {
+		for (Point point : POINTS.values()) {
+			point.clear();
+		}
+	}
+
+	/**
+	 * Sets the faults of a specification, in the format of the system
+	 * property.
+	 *
+	 * @param specification
+	 *            the specification, possibly null or empty
+	 */
+	public static void configure(String specification) {
+		if (specification == null || specification.trim().isEmpty()) {
+			return;
+		}
+
+		for (String entry : specification.split(",")) {
+			String[] pointAndAction = entry.trim().split("=", 2);
+			Point point = POINTS.get(pointAndAction[0].trim());
+
+			if (point == null || pointAndAction.length < 2) {
+				throw new IllegalArgumentException("Invalid fault " + entry);
+			}
+
+			String[] actionAndProbability = pointAndAction[1].trim().split("@", 2);
+			String action = actionAndProbability[0].trim();
+			double probability = actionAndProbability.length < 2 ? 1
+					: Double.parseDouble(actionAndProbability[1].trim());
+
+			if (action.equals("throw")) {
+				point.fail(probability);
+			} else if (action.startsWith("delay:")) {
+				point.delay(Long.parseLong(action.substring("delay:".length())), probability);
+			} else {
+				throw new IllegalArgumentException("Invalid fault " + entry);
+			}
+		}
+	}
+}
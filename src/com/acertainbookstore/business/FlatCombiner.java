@@ -0,0 +1,247 @@
+package com.acertainbookstore.business;
+
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link FlatCombiner} applies concurrent requests of one kind in batches
+ * under a single acquisition of a lock. Every caller queues its request; the
+ * caller that gets the lock becomes the combiner and applies the queued
+ * requests one after the other before releasing it, while the other callers
+ * wait for their request to be applied instead of competing for the lock.
+ * The caller of the oldest queued request blocks on the lock rather than
+ * polling it, as the next batch is bound to start with its request.
+ *
+ * <p>
+ * Every request keeps its own outcome: a request failing with an exception
+ * is reported to its caller only and does not affect the others in its
+ * batch.
+ *
+ * @param <T>
+ *            the type of the requests
+ */
+public class FlatCombiner<T> {
+
+	/**
+	 * {@link Operation} applies one request while the lock is held.
+	 *
+	 * @param <T>
+	 *            the type of the requests
+	 */
+	@FunctionalInterface
+	public interface Operation<T> {
+
+		/**
+		 * Applies the request.
+		 *
+		 * @param request
+		 *            the request
+		 * @throws BookStoreException
+		 *             the book store exception
+		 */
+		void apply(T request) throws BookStoreException;
+	}
+
+	/**
+	 * {@link PendingRequest} is a queued request and its outcome.
+	 *
+	 * @param <T>
+	 *            the type of the requests
+	 */
+	private static final class PendingRequest<T> {
+
+		/** The request. */
+		private final T request;
+
+		/** The caller waiting for the request to be applied. */
+		private final Thread caller = Thread.currentThread();
+
+		/** The exception the request failed with, if any. */
+		private BookStoreException exception = null;
+
+		/** The unexpected exception or error the request failed with, if any. */
+		private Throwable failure = null;
+
+		/**
+		 * Whether the request has been applied; written after its outcome, so
+		 * the caller reading it sees the outcome.
+		 */
+		private volatile boolean done = false;
+
+		/**
+		 * Instantiates a new {@link PendingRequest}.
+		 *
+		 * @param request
+		 *            the request
+		 */
+		private PendingRequest(T request) {
+			this.request = request;
+		}
+	}
+
+	/**
+	 * The time a caller waits before trying to become the combiner again, in
+	 * case the combiner left its request for the next batch.
+	 */
+	private static final long WAIT_NANOS = 100_000;
+
+	/** The lock the requests are applied under. */
+	private final Lock lock;
+
+	/** The operation applying a request. */
+	private final Operation<T> operation;
+
+	/** The maximum number of requests applied under one acquisition. */
+	private final int maxBatchSize;
+
+	/** The queued requests. */
+	private final ConcurrentLinkedQueue<PendingRequest<T>> pendingRequests = new ConcurrentLinkedQueue<>();
+
+	/** The number of batches applied. */
+	private final AtomicLong numBatches = new AtomicLong(0);
+
+	/** The number of requests applied. */
+	private final AtomicLong numRequests = new AtomicLong(0);
+
+	/**
+	 * Instantiates a new {@link FlatCombiner}.
+	 *
+	 * @param lock
+	 *            the lock the requests are applied under
+	 * @param operation
+	 *            the operation applying a request
+	 * @param maxBatchSize
+	 *            the maximum number of requests applied under one
+	 *            acquisition, bounding how long the combiner holds the lock
+	 */
+	public FlatCombiner(Lock lock, Operation<T> operation, int maxBatchSize) {
+		this.lock = lock;
+		this.operation = operation;
+		this.maxBatchSize = maxBatchSize;
+	}
+
+	/**
+	 * Applies a request, either as the combiner of a batch or in the batch of
+	 * another caller, and returns once it has been applied.
+	 *
+	 * @param request
+	 *            the request
+	 * @throws BookStoreException
+	 *             the exception the request failed with
+	 */
+	public void execute(T request) throws BookStoreException {
+		PendingRequest<T> pendingRequest = new PendingRequest<>(request);
+		pendingRequests.add(pendingRequest);
+		boolean interrupted = false;
+
+		while (!pendingRequest.done) {
+			if (pendingRequests.peek() == pendingRequest) {
+				// The next batch starts with this request, so there is nothing
+				// to gain from waiting for another combiner.
+				lock.lock();
+			} else if (!lock.tryLock()) {
+				LockSupport.parkNanos(this, WAIT_NANOS);
+
+				// The caller waits for its request, which cannot be withdrawn
+				// once queued; the interrupt is restored afterwards.
+				interrupted |= Thread.interrupted();
+				continue;
+			}
+
+			try {
+				combine();
+			} finally {
+				lock.unlock();
+			}
+
+			// Hand the requests queued meanwhile over to a new combiner.
+			PendingRequest<T> next = pendingRequests.peek();
+
+			if (next != null) {
+				LockSupport.unpark(next.caller);
+			}
+		}
+
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+
+		if (pendingRequest.failure instanceof Error) {
+			throw (Error) pendingRequest.failure;
+		}
+
+		if (pendingRequest.failure instanceof RuntimeException) {
+			throw (RuntimeException) pendingRequest.failure;
+		}
+
+		if (pendingRequest.failure != null) {
+			throw new UndeclaredThrowableException(pendingRequest.failure);
+		}
+
+		if (pendingRequest.exception != null) {
+			throw pendingRequest.exception;
+		}
+	}
+
+	/**
+	 * Applies a batch of queued requests while the lock is held, and wakes up
+	 * their callers.
+	 */
+	private void combine() {
+		PendingRequest<T> pendingRequest;
+		int batchSize = 0;
+
+		while (batchSize < maxBatchSize && (pendingRequest = pendingRequests.poll()) != null) {
+			try {
+				operation.apply(pendingRequest.request);
+			} catch (BookStoreException ex) {
+				pendingRequest.exception = ex;
+			} catch (Throwable ex) {
+				// Even an error is handed over to the caller of its request
+				// only, which would otherwise wait for it forever.
+				pendingRequest.failure = ex;
+			}
+
+			pendingRequest.done = true;
+			LockSupport.unpark(pendingRequest.caller);
+			batchSize++;
+		}
+
+		if (batchSize > 0) {
+			numBatches.incrementAndGet();
+			numRequests.addAndGet(batchSize);
+		}
+	}
+
+	/**
+	 * Gets the number of requests waiting to be applied.
+	 *
+	 * @return the number of requests
+	 */
+	public int getNumPending() {
+		return pendingRequests.size();
+	}
+
+	/**
+	 * Gets the number of batches applied.
+	 *
+	 * @return the number of batches
+	 */
+	public long getNumBatches() {
+		return numBatches.get();
+	}
+
+	/**
+	 * Gets the number of requests applied.
+	 *
+	 * @return the number of requests
+	 */
+	public long getNumRequests() {
+		return numRequests.get();
+	}
+}
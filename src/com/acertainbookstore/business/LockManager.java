@@ -0,0 +1,640 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreRetryableException;
+
+/**
+ * {@link LockManager} grants shared and exclusive locks on integer keys to
+ * transactions, for strict two-phase locking: a transaction acquires its
+ * locks as it goes and releases them all when it ends.
+ *
+ * <p>
+ * Locks are granted in arrival order: a request also waits for the
+ * incompatible requests queued before it, so a stream of shared locks cannot
+ * starve an exclusive one. Only a transaction upgrading its shared lock goes
+ * ahead of the queue, as the transactions queued for an exclusive lock wait
+ * for it anyway.
+ *
+ * <p>
+ * Deadlocks are handled by one of the {@link DeadlockPolicy} policies: the
+ * wait-for graph is searched for a cycle whenever a transaction is about to
+ * wait, or the transactions are ordered by age and only allowed to wait in
+ * one direction (wait-die and wound-wait). In addition, no transaction waits
+ * for a lock longer than the lock timeout. A transaction that must not wait
+ * is aborted with a {@link BookStoreRetryableException}; it has not changed
+ * anything yet, so it can be retried once it has released its locks.
+ */
+public class LockManager {
+
+	/** The modes of a lock. */
+	public enum LockMode {
+
+		/** Any number of transactions can hold the lock in shared mode. */
+		SHARED,
+
+		/** A single transaction holds the lock in exclusive mode. */
+		EXCLUSIVE
+	}
+
+	/** The policies preventing or breaking deadlocks. */
+	public enum DeadlockPolicy {
+
+		/**
+		 * A transaction about to wait searches the wait-for graph, and is
+		 * aborted if waiting would close a cycle.
+		 */
+		DETECT,
+
+		/**
+		 * An older transaction waits for a younger one, a younger transaction
+		 * requesting a lock held by an older one is aborted.
+		 */
+		WAIT_DIE,
+
+		/**
+		 * An older transaction requesting a lock held by a younger one wounds
+		 * it, aborting it at its next lock request or while it waits; a
+		 * younger transaction waits for an older one.
+		 */
+		WOUND_WAIT
+	}
+
+	/** The reasons for aborting a transaction. */
+	public enum AbortReason {
+
+		/** Waiting would have closed a cycle in the wait-for graph. */
+		DEADLOCK,
+
+		/** A younger transaction requested a lock held by an older one. */
+		DIED,
+
+		/** An older transaction requested a lock held by the transaction. */
+		WOUNDED,
+
+		/** The lock was not granted within the lock timeout. */
+		TIMEOUT
+	}
+
+	/**
+	 * {@link Transaction} holds the locks of one transaction. It must be ended
+	 * with {@link #close()} whether it succeeds or is aborted, which releases
+	 * all of its locks.
+	 */
+	public static final class Transaction implements AutoCloseable {
+
+		/** The lock manager. */
+		private final LockManager lockManager;
+
+		/** The start order of the transaction; smaller is older. */
+		private final long timestamp;
+
+		/** The condition the transaction waits on. */
+		private final Condition condition;
+
+		/** The modes of the locks held, by key. */
+		private final Map<Integer, LockMode> heldLocks = new HashMap<>();
+
+		/** The lock waited for, or null. */
+		private LockEntry waitingFor = null;
+
+		/** The mode of the lock waited for. */
+		private LockMode waitingMode = null;
+
+		/** Whether an older transaction has wounded this one. */
+		private boolean wounded = false;
+
+		/**
+		 * Instantiates a new {@link Transaction}.
+		 *
+		 * @param lockManager
+		 *            the lock manager
+		 * @param timestamp
+		 *            the start order of the transaction
+		 * @param condition
+		 *            the condition the transaction waits on
+		 */
+		private Transaction(LockManager lockManager, long timestamp, Condition condition) {
+			this.lockManager = lockManager;
+			this.timestamp = timestamp;
+			this.condition = condition;
+		}
+
+		/**
+		 * Acquires a lock, waiting for it if needed.
+		 *
+		 * @param key
+		 *            the key
+		 * @param mode
+		 *            the mode
+		 * @throws BookStoreRetryableException
+		 *             if the transaction is aborted
+		 */
+		public void lock(int key, LockMode mode) throws BookStoreRetryableException {
+			lockManager.lock(this, key, mode);
+		}
+
+		/**
+		 * Releases a shared lock before the transaction ends, for the reads
+		 * that need not be repeatable.
+		 *
+		 * @param key
+		 *            the key
+		 */
+		public void unlockShared(int key) {
+			lockManager.unlockShared(this, key);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.lang.AutoCloseable#close()
+		 */
+		@Override
+		public void close() {
+			lockManager.releaseAll(this);
+		}
+	}
+
+	/**
+	 * {@link LockEntry} is the state of the lock on one key.
+	 */
+	private static final class LockEntry {
+
+		/** The key. */
+		private final int key;
+
+		/** The transactions holding the lock in shared mode. */
+		private final Set<Transaction> sharedOwners = new HashSet<>();
+
+		/** The transaction holding the lock in exclusive mode, or null. */
+		private Transaction exclusiveOwner = null;
+
+		/** The transactions waiting for the lock, in arrival order. */
+		private final Set<Transaction> waiters = new LinkedHashSet<>();
+
+		/**
+		 * Instantiates a new {@link LockEntry}.
+		 *
+		 * @param key
+		 *            the key
+		 */
+		private LockEntry(int key) {
+			this.key = key;
+		}
+
+		/**
+		 * Gets the transactions preventing a transaction from getting the lock
+		 * in a mode: the owners and the waiters queued before it in an
+		 * incompatible mode.
+		 *
+		 * @param transaction
+		 *            the transaction
+		 * @param mode
+		 *            the mode
+		 * @return the transactions, empty if the lock can be granted
+		 */
+		private List<Transaction> blockers(Transaction transaction, LockMode mode) {
+			List<Transaction> blockers = new ArrayList<>();
+
+			if (exclusiveOwner != null && exclusiveOwner != transaction) {
+				blockers.add(exclusiveOwner);
+			}
+
+			if (mode == LockMode.EXCLUSIVE) {
+				for (Transaction owner : sharedOwners) {
+					if (owner != transaction) {
+						blockers.add(owner);
+					}
+				}
+			}
+
+			if (sharedOwners.contains(transaction)) {
+				return blockers;
+			}
+
+			for (Transaction waiter : waiters) {
+				if (waiter == transaction) {
+					break;
+				}
+
+				if (mode == LockMode.EXCLUSIVE || waiter.waitingMode == LockMode.EXCLUSIVE) {
+					blockers.add(waiter);
+				}
+			}
+
+			return blockers;
+		}
+
+		/**
+		 * Checks if nobody holds or waits for the lock.
+		 *
+		 * @return true, if the entry can be dropped
+		 */
+		private boolean isUnused() {
+			return exclusiveOwner == null && sharedOwners.isEmpty() && waiters.isEmpty();
+		}
+	}
+
+	/** The default lock timeout in milliseconds. */
+	public static final long DEFAULT_LOCK_TIMEOUT_MILLIS = 5000;
+
+	/** The policy handling deadlocks. */
+	private final DeadlockPolicy deadlockPolicy;
+
+	/** The lock timeout in nanoseconds. */
+	private final long lockTimeoutNanos;
+
+	/** The latch protecting the lock table and the transactions. */
+	private final ReentrantLock latch = new ReentrantLock();
+
+	/** The locks held or waited for, by key. */
+	private final Map<Integer, LockEntry> lockTable = new HashMap<>();
+
+	/** The start order of the next transaction. */
+	private long nextTimestamp = 0;
+
+	/** The number of lock requests that had to wait. */
+	private final AtomicLong numWaits = new AtomicLong(0);
+
+	/** The total time spent waiting for locks in nanoseconds. */
+	private final AtomicLong waitNanos = new AtomicLong(0);
+
+	/** The number of aborted transactions, by reason. */
+	private final Map<AbortReason, AtomicLong> numAborts = new EnumMap<>(AbortReason.class);
+
+	/**
+	 * Instantiates a new {@link LockManager}.
+	 *
+	 * @param deadlockPolicy
+	 *            the policy handling deadlocks
+	 * @param lockTimeoutMillis
+	 *            the longest time a transaction waits for a lock in
+	 *            milliseconds
+	 */
+	public LockManager(DeadlockPolicy deadlockPolicy, long lockTimeoutMillis) {
+		this.deadlockPolicy = deadlockPolicy;
+		this.lockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(lockTimeoutMillis);
+
+		for (AbortReason reason : AbortReason.values()) {
+			numAborts.put(reason, new AtomicLong(0));
+		}
+	}
+
+	/**
+	 * Starts a new transaction.
+	 *
+	 * @return the transaction
+	 */
+	public Transaction begin() {
+		latch.lock();
+		try {
+			return new Transaction(this, nextTimestamp++, latch.newCondition());
+		} finally {
+			latch.unlock();
+		}
+	}
+
+	/**
+	 * Acquires a lock for a transaction, waiting for it if the deadlock policy
+	 * allows it, and for at most the lock timeout.
+	 *
+	 * @param transaction
+	 *            the transaction
+	 * @param key
+	 *            the key
+	 * @param mode
+	 *            the mode
+	 * @throws BookStoreRetryableException
+	 *             if the transaction is aborted
+	 */
+	private void lock(Transaction transaction, int key, LockMode mode) throws BookStoreRetryableException {
+		latch.lock();
+		try {
+			if (transaction.wounded) {
+				throw abort(AbortReason.WOUNDED, key);
+			}
+
+			LockMode heldMode = transaction.heldLocks.get(key);
+
+			if (heldMode == LockMode.EXCLUSIVE || heldMode == mode) {
+				return;
+			}
+
+			LockEntry entry = lockTable.computeIfAbsent(key, LockEntry::new);
+			List<Transaction> blockers = entry.blockers(transaction, mode);
+
+			if (!blockers.isEmpty()) {
+				await(transaction, entry, mode, blockers);
+			}
+
+			if (mode == LockMode.EXCLUSIVE) {
+				entry.sharedOwners.remove(transaction);
+				entry.exclusiveOwner = transaction;
+			} else {
+				entry.sharedOwners.add(transaction);
+			}
+
+			transaction.heldLocks.put(key, mode);
+		} finally {
+			latch.unlock();
+		}
+	}
+
+	/**
+	 * Waits until a lock can be granted to a transaction, applying the
+	 * deadlock policy every time the transaction is about to wait. The
+	 * transaction keeps its place in the queue of the lock until it is granted
+	 * the lock or aborted. Called with the latch held.
+	 *
+	 * @param transaction
+	 *            the transaction
+	 * @param entry
+	 *            the lock
+	 * @param mode
+	 *            the mode
+	 * @param blockers
+	 *            the transactions preventing the lock from being granted
+	 * @throws BookStoreRetryableException
+	 *             if the transaction is aborted
+	 */
+	private void await(Transaction transaction, LockEntry entry, LockMode mode, List<Transaction> blockers)
+			throws BookStoreRetryableException {
+		long startTime = System.nanoTime();
+		long deadline = startTime + lockTimeoutNanos;
+		boolean granted = false;
+		numWaits.incrementAndGet();
+
+		transaction.waitingFor = entry;
+		transaction.waitingMode = mode;
+		entry.waiters.add(transaction);
+
+		try {
+			while (!blockers.isEmpty()) {
+				checkDeadlock(transaction, entry, mode, blockers);
+
+				long remainingNanos = deadline - System.nanoTime();
+
+				if (remainingNanos <= 0) {
+					throw abort(AbortReason.TIMEOUT, entry.key);
+				}
+
+				try {
+					transaction.condition.awaitNanos(remainingNanos);
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					throw abort(AbortReason.TIMEOUT, entry.key);
+				}
+
+				if (transaction.wounded) {
+					throw abort(AbortReason.WOUNDED, entry.key);
+				}
+
+				blockers = entry.blockers(transaction, mode);
+			}
+
+			granted = true;
+		} finally {
+			entry.waiters.remove(transaction);
+			transaction.waitingFor = null;
+			transaction.waitingMode = null;
+
+			// The waiters queued behind the transaction may no longer wait
+			// for anything.
+			entry.waiters.forEach(waiter -> waiter.condition.signal());
+
+			// Only an aborted waiter drops the entry: a granted one is about
+			// to own it, and must not own an entry others no longer see.
+			if (!granted && entry.isUnused()) {
+				lockTable.remove(entry.key);
+			}
+
+			waitNanos.addAndGet(System.nanoTime() - startTime);
+		}
+	}
+
+	/**
+	 * Applies the deadlock policy to a transaction about to wait for a lock.
+	 * Called with the latch held.
+	 *
+	 * @param transaction
+	 *            the transaction
+	 * @param entry
+	 *            the lock
+	 * @param mode
+	 *            the mode
+	 * @param blockers
+	 *            the transactions preventing the lock from being granted
+	 * @throws BookStoreRetryableException
+	 *             if the transaction must not wait
+	 */
+	private void checkDeadlock(Transaction transaction, LockEntry entry, LockMode mode, List<Transaction> blockers)
+			throws BookStoreRetryableException {
+		switch (deadlockPolicy) {
+		case DETECT:
+			if (reaches(blockers, transaction, new HashSet<>())) {
+				throw abort(AbortReason.DEADLOCK, entry.key);
+			}
+			break;
+
+		case WAIT_DIE:
+			for (Transaction blocker : blockers) {
+				if (blocker.timestamp < transaction.timestamp) {
+					throw abort(AbortReason.DIED, entry.key);
+				}
+			}
+			break;
+
+		case WOUND_WAIT:
+			for (Transaction blocker : blockers) {
+				if (blocker.timestamp > transaction.timestamp && !blocker.wounded) {
+					blocker.wounded = true;
+
+					// A waiting victim aborts at once, a running one at its
+					// next lock request.
+					blocker.condition.signal();
+				}
+			}
+			break;
+
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Checks if a transaction can be reached in the wait-for graph from a set
+	 * of transactions, i.e. if they wait for it directly or indirectly.
+	 * Called with the latch held.
+	 *
+	 * @param from
+	 *            the transactions
+	 * @param target
+	 *            the transaction
+	 * @param visited
+	 *            the transactions already searched
+	 * @return true, if the transaction can be reached
+	 */
+	private static boolean reaches(List<Transaction> from, Transaction target, Set<Transaction> visited) {
+		for (Transaction transaction : from) {
+			if (transaction == target) {
+				return true;
+			}
+
+			if (transaction.waitingFor != null && visited.add(transaction)
+					&& reaches(transaction.waitingFor.blockers(transaction, transaction.waitingMode), target, visited)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Counts an aborted transaction and creates the exception it is aborted
+	 * with. Its locks are released when it ends.
+	 *
+	 * @param reason
+	 *            the reason
+	 * @param key
+	 *            the key of the lock requested
+	 * @return the exception
+	 */
+	private BookStoreRetryableException abort(AbortReason reason, int key) {
+		numAborts.get(reason).incrementAndGet();
+		return new BookStoreRetryableException(
+				BookStoreConstants.TRANSACTION_ABORTED + reason.name().toLowerCase() + " on " + key);
+	}
+
+	/**
+	 * Releases a shared lock of a transaction.
+	 *
+	 * @param transaction
+	 *            the transaction
+	 * @param key
+	 *            the key
+	 */
+	private void unlockShared(Transaction transaction, int key) {
+		latch.lock();
+		try {
+			if (transaction.heldLocks.get(key) == LockMode.SHARED) {
+				transaction.heldLocks.remove(key);
+				release(transaction, key);
+			}
+		} finally {
+			latch.unlock();
+		}
+	}
+
+	/**
+	 * Releases all the locks of a transaction.
+	 *
+	 * @param transaction
+	 *            the transaction
+	 */
+	private void releaseAll(Transaction transaction) {
+		latch.lock();
+		try {
+			for (int key : transaction.heldLocks.keySet()) {
+				release(transaction, key);
+			}
+
+			transaction.heldLocks.clear();
+		} finally {
+			latch.unlock();
+		}
+	}
+
+	/**
+	 * Releases a lock of a transaction and wakes up the transactions waiting
+	 * for it. Called with the latch held.
+	 *
+	 * @param transaction
+	 *            the transaction
+	 * @param key
+	 *            the key
+	 */
+	private void release(Transaction transaction, int key) {
+		LockEntry entry = lockTable.get(key);
+
+		if (entry == null) {
+			return;
+		}
+
+		if (entry.exclusiveOwner == transaction) {
+			entry.exclusiveOwner = null;
+		}
+
+		entry.sharedOwners.remove(transaction);
+
+		if (entry.isUnused()) {
+			lockTable.remove(key);
+		} else {
+			entry.waiters.forEach(waiter -> waiter.condition.signal());
+		}
+	}
+
+	/**
+	 * Gets the policy handling deadlocks.
+	 *
+	 * @return the policy
+	 */
+	public DeadlockPolicy getDeadlockPolicy() {
+		return deadlockPolicy;
+	}
+
+	/**
+	 * Gets the number of lock requests that had to wait.
+	 *
+	 * @return the number of lock requests
+	 */
+	public long getNumWaits() {
+		return numWaits.get();
+	}
+
+	/**
+	 * Gets the total time spent waiting for locks.
+	 *
+	 * @return the time in nanoseconds
+	 */
+	public long getWaitNanos() {
+		return waitNanos.get();
+	}
+
+	/**
+	 * Gets the number of transactions aborted for a reason.
+	 *
+	 * @param reason
+	 *            the reason
+	 * @return the number of transactions
+	 */
+	public long getNumAborts(AbortReason reason) {
+		return numAborts.get(reason).get();
+	}
+
+	/**
+	 * Gets the number of locks currently held or waited for.
+	 *
+	 * @return the number of locks
+	 */
+	public int getNumLocks() {
+		latch.lock();
+		try {
+			return lockTable.size();
+		} finally {
+			latch.unlock();
+		}
+	}
+}
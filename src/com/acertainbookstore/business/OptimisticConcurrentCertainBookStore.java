@@ -0,0 +1,959 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.interfaces.StockRestorer;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+
+/**
+ * {@link OptimisticConcurrentCertainBookStore} implements the
+ * {@link BookStore} and
+ * {@link StockManager} functionalities.
+ *
+ * <p>
+ * The operations on the books run as optimistic transactions. Every
+ * committed state of a book is an immutable {@link BookStoreBook} stamped
+ * with the version of the commit that installed it. A transaction takes the
+ * current version of the store when it starts and reads the books without
+ * locks, retrying if it meets a book installed after it started, so
+ * everything it reads is consistent as of that version; it buffers its
+ * writes in private copies of the books. At commit the transaction checks,
+ * under the commit lock, that none of the books it read has changed since,
+ * then installs its copies under a new version. A transaction that fails the
+ * check is retried from the start; after
+ * {@link #MAX_OPTIMISTIC_ATTEMPTS} conflicts it runs while holding the commit
+ * lock, where no other transaction can commit, so it always completes.
+ *
+ * <p>
+ * The operations changing the set of books run under the write lock of the
+ * indexes and the commit lock, taken in that order, and are never retried.
+ * The reads going through the indexes hold their read lock, so the set of
+ * books does not change under them.
+ *
+ * @see BookStore
+ * @see StockManager
+ */
+public class OptimisticConcurrentCertainBookStore implements BookStore, StockManager, StockRestorer {
+
+	/**
+	 * The number of times a transaction is retried optimistically before it
+	 * runs holding the commit lock.
+	 */
+	public static final int MAX_OPTIMISTIC_ATTEMPTS = 16;
+
+	/**
+	 * {@link VersionedBook} is a committed state of a book and the version of
+	 * the commit that installed it.
+	 */
+	private static final class VersionedBook {
+
+		/** The version of the commit. */
+		private final long version;
+
+		/** The state of the book, which is never changed once committed. */
+		private final BookStoreBook book;
+
+		/**
+		 * Instantiates a new {@link VersionedBook}.
+		 *
+		 * @param version
+		 *            the version of the commit
+		 * @param book
+		 *            the state of the book
+		 */
+		private VersionedBook(long version, BookStoreBook book) {
+			this.version = version;
+			this.book = book;
+		}
+	}
+
+	/**
+	 * {@link ConflictException} unwinds a transaction that has read a book
+	 * changed by a concurrent commit. It is thrown often and caught right away,
+	 * so it carries no stack trace.
+	 */
+	private static final class ConflictException extends RuntimeException {
+
+		/** The Constant serialVersionUID. */
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * Instantiates a new {@link ConflictException}.
+		 */
+		private ConflictException() {
+			super(null, null, false, false);
+		}
+	}
+
+	/** The single instance of the conflict, since it carries no state. */
+	private static final ConflictException CONFLICT = new ConflictException();
+
+	/**
+	 * {@link Attempt} is the body of a transaction, run once per attempt.
+	 *
+	 * @param <R>
+	 *            the type of the result
+	 */
+	@FunctionalInterface
+	private interface Attempt<R> {
+
+		/**
+		 * Runs the body of the transaction.
+		 *
+		 * @param transaction
+		 *            the transaction
+		 * @return the result
+		 * @throws BookStoreException
+		 *             the book store exception
+		 */
+		R run(Transaction transaction) throws BookStoreException;
+	}
+
+	/**
+	 * {@link Transaction} is one attempt of an optimistic transaction: the
+	 * version it reads at, the books it has read and the copies it has
+	 * written.
+	 */
+	private final class Transaction {
+
+		/** The version of the store the transaction reads at. */
+		private final long readVersion = lastCommitVersion;
+
+		/** The committed states read, by ISBN. */
+		private final Map<Integer, VersionedBook> readSet = new HashMap<>();
+
+		/** The private copies written, by ISBN. */
+		private final Map<Integer, BookStoreBook> writeSet = new LinkedHashMap<>();
+
+		/**
+		 * Reads a book as of the version of the transaction, or the copy the
+		 * transaction has written.
+		 *
+		 * @param isbn
+		 *            the ISBN of the book
+		 * @return the book, or null if it is not in the store
+		 * @throws ConflictException
+		 *             if the book has changed since the transaction started
+		 */
+		private BookStoreBook read(int isbn) {
+			BookStoreBook written = writeSet.get(isbn);
+
+			if (written != null) {
+				return written;
+			}
+
+			VersionedBook versionedBook = bookMap.get(isbn);
+
+			if (versionedBook == null) {
+				// The book may have been removed since the transaction started.
+				if (lastRemovalVersion > readVersion) {
+					throw CONFLICT;
+				}
+
+				return null;
+			}
+
+			if (versionedBook.version > readVersion) {
+				throw CONFLICT;
+			}
+
+			readSet.put(isbn, versionedBook);
+			return versionedBook.book;
+		}
+
+		/**
+		 * Reads every book as of the version of the transaction.
+		 *
+		 * @return the books
+		 * @throws ConflictException
+		 *             if a book has been added, changed or removed since the
+		 *             transaction started
+		 */
+		private List<BookStoreBook> readAll() {
+			List<BookStoreBook> books = new ArrayList<>();
+
+			for (VersionedBook versionedBook : bookMap.values()) {
+				if (versionedBook.version > readVersion) {
+					throw CONFLICT;
+				}
+
+				books.add(versionedBook.book);
+			}
+
+			checkNoRemoval();
+			return books;
+		}
+
+		/**
+		 * Checks that no book has been removed since the transaction started,
+		 * once it has looked for books it might have missed.
+		 *
+		 * @throws ConflictException
+		 *             if a book has been removed
+		 */
+		private void checkNoRemoval() {
+			if (lastRemovalVersion > readVersion) {
+				throw CONFLICT;
+			}
+		}
+
+		/**
+		 * Gets the private copy of a book the transaction has read, which is
+		 * installed at commit.
+		 *
+		 * @param isbn
+		 *            the ISBN of the book
+		 * @return the copy
+		 */
+		private BookStoreBook write(int isbn) {
+			BookStoreBook written = writeSet.get(isbn);
+
+			if (written == null) {
+				written = new BookStoreBook(readSet.get(isbn).book.immutableStockBook());
+				writeSet.put(isbn, written);
+			}
+
+			return written;
+		}
+
+		/**
+		 * Commits the transaction: checks that the books read have not changed
+		 * and installs the copies written under a new version. A transaction
+		 * that has written nothing is consistent as of its version and has
+		 * nothing to check.
+		 *
+		 * @throws ConflictException
+		 *             if a book read has changed
+		 */
+		private void commit() {
+			if (writeSet.isEmpty()) {
+				return;
+			}
+
+			commitLock.lock();
+
+			try {
+				for (Map.Entry<Integer, VersionedBook> entry : readSet.entrySet()) {
+					if (bookMap.get(entry.getKey()) != entry.getValue()) {
+						throw CONFLICT;
+					}
+				}
+
+				long commitVersion = lastCommitVersion + 1;
+
+				for (Map.Entry<Integer, BookStoreBook> entry : writeSet.entrySet()) {
+					bookMap.put(entry.getKey(), new VersionedBook(commitVersion, entry.getValue()));
+				}
+
+				changeJournal.record(writeSet.keySet());
+
+				// Publishing the version makes the new books visible at once.
+				lastCommitVersion = commitVersion;
+				numCommits.incrementAndGet();
+			} finally {
+				commitLock.unlock();
+			}
+		}
+	}
+
+	/** The mapping of books from ISBN to their committed state. */
+	private final ConcurrentHashMap<Integer, VersionedBook> bookMap = new ConcurrentHashMap<>();
+
+	/**
+	 * The search index over the titles and authors of the books, guarded by
+	 * the index lock.
+	 */
+	private final BookSearchIndex searchIndex = new BookSearchIndex();
+
+	/**
+	 * The price and author index over the books, guarded by the index lock.
+	 * It only orders the books by attributes that never change, so it holds
+	 * the books as they were added and their current state is looked up.
+	 */
+	private final BookAttributeIndex attributeIndex = new BookAttributeIndex();
+
+	/** The journal of the changes to the books, stamping every mutation. */
+	private final CatalogChangeJournal changeJournal = new CatalogChangeJournal();
+
+	/** The lock serializing the commits. */
+	private final ReentrantLock commitLock = new ReentrantLock();
+
+	/** The lock of the indexes, written when the set of books changes. */
+	private final ReadWriteLock indexLock = new ReentrantReadWriteLock();
+
+	/** The version of the last commit. */
+	private volatile long lastCommitVersion = 0;
+
+	/**
+	 * The version of the last commit that removed books, set before they are
+	 * removed.
+	 */
+	private volatile long lastRemovalVersion = 0;
+
+	/** The number of transactions that committed writes. */
+	private final AtomicLong numCommits = new AtomicLong(0);
+
+	/** The number of attempts that conflicted with a concurrent commit. */
+	private final AtomicLong numConflicts = new AtomicLong(0);
+
+	/** The number of transactions that ran holding the commit lock. */
+	private final AtomicLong numPessimisticRuns = new AtomicLong(0);
+
+	/**
+	 * Instantiates a new {@link CertainBookStore}.
+	 */
+	public OptimisticConcurrentCertainBookStore() {
+	}
+
+	/**
+	 * Runs a transaction, retrying it until it commits without conflict.
+	 *
+	 * @param <R>
+	 *            the type of the result
+	 * @param attempt
+	 *            the body of the transaction
+	 * @return the result
+	 * @throws BookStoreException
+	 *             the exception of the body, thrown on a consistent read
+	 */
+	private <R> R execute(Attempt<R> attempt) throws BookStoreException {
+		for (int numAttempts = 0;; numAttempts++) {
+			boolean pessimistic = numAttempts >= MAX_OPTIMISTIC_ATTEMPTS;
+
+			if (pessimistic) {
+				commitLock.lock();
+				numPessimisticRuns.incrementAndGet();
+			}
+
+			try {
+				Transaction transaction = new Transaction();
+				R result = attempt.run(transaction);
+				transaction.commit();
+				return result;
+			} catch (ConflictException ex) {
+				numConflicts.incrementAndGet();
+			} finally {
+				if (pessimistic) {
+					commitLock.unlock();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads a book that must be in the store.
+	 *
+	 * @param transaction
+	 *            the transaction
+	 * @param ISBN
+	 *            the ISBN of the book
+	 * @return the book
+	 * @throws BookStoreException
+	 *             if the ISBN is invalid or the book is not in the store
+	 */
+	private BookStoreBook readInStock(Transaction transaction, Integer ISBN) throws BookStoreException {
+		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+		}
+
+		BookStoreBook book = transaction.read(ISBN);
+
+		if (book == null) { // Check if the book is in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+		}
+
+		return book;
+	}
+
+	private void validate(StockBook book) throws BookStoreException {
+		int isbn = book.getISBN();
+		String bookTitle = book.getTitle();
+		String bookAuthor = book.getAuthor();
+		int noCopies = book.getNumCopies();
+		float bookPrice = book.getPrice();
+
+		if (BookStoreUtility.isInvalidISBN(isbn)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookTitle)) { // Check if the book has valid title
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookAuthor)) { // Check if the book has valid author
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isInvalidNoCopies(noCopies)) { // Check if the book has at least one copy
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookPrice < 0.0) { // Check if the price of the book is valid
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookMap.containsKey(isbn)) {// Check if the book is not in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
+		}
+	}
+
+	private BookStoreBook validate(Transaction transaction, BookCopy bookCopy) throws BookStoreException {
+		int numCopies = bookCopy.getNumCopies();
+
+		// Check if the book has valid ISBN and in stock
+		BookStoreBook book = readInStock(transaction, bookCopy.getISBN());
+
+		if (BookStoreUtility.isInvalidNoCopies(numCopies)) { // Check if the number of the book copy is larger than zero
+			throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
+		}
+
+		return book;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		indexLock.writeLock().lock();
+		commitLock.lock();
+
+		try {
+			if (bookSet == null) {
+				throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+			}
+
+			// Check if all are there
+			for (StockBook book : bookSet) {
+				validate(book);
+			}
+
+			long commitVersion = lastCommitVersion + 1;
+
+			FaultInjector.ADD_BOOKS.inject();
+
+			for (StockBook book : bookSet) {
+				BookStoreBook bookStoreBook = new BookStoreBook(book);
+				bookMap.put(book.getISBN(), new VersionedBook(commitVersion, bookStoreBook));
+				searchIndex.add(book);
+				attributeIndex.add(bookStoreBook);
+				FaultInjector.ADD_BOOKS_BOOK.inject();
+			}
+
+			changeJournal.record(bookSet.stream().map(StockBook::getISBN).collect(Collectors.toList()));
+			lastCommitVersion = commitVersion;
+		} finally {
+			commitLock.unlock();
+			indexLock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		addCopies(bookCopiesSet, true);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockRestorer#restoreCopies(java.util.
+	 * Set)
+	 */
+	public void restoreCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		addCopies(bookCopiesSet, false);
+	}
+
+	/**
+	 * Adds copies of the existing books, either restocking them or putting
+	 * back the copies of a purchase that did not happen.
+	 *
+	 * @param bookCopiesSet
+	 *            the book copies set
+	 * @param restock
+	 *            true to reset the sale misses of the books
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private void addCopies(Set<BookCopy> bookCopiesSet, boolean restock) throws BookStoreException {
+		if (bookCopiesSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		execute(transaction -> {
+			for (BookCopy bookCopy : bookCopiesSet) {
+				validate(transaction, bookCopy);
+			}
+
+			FaultInjector.ADD_COPIES.inject();
+
+			// Update the number of copies
+			for (BookCopy bookCopy : bookCopiesSet) {
+				BookStoreBook book = transaction.write(bookCopy.getISBN());
+
+				if (restock) {
+					book.addCopies(bookCopy.getNumCopies());
+				} else {
+					book.restoreCopies(bookCopy.getNumCopies());
+				}
+
+				FaultInjector.ADD_COPIES_BOOK.inject();
+			}
+
+			return null;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	public List<StockBook> getBooks() throws BookStoreException {
+		return execute(transaction -> transaction.readAll().stream()
+				.map(book -> book.immutableStockBook())
+				.collect(Collectors.toList()));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks(int, int)
+	 */
+	public List<StockBook> getBooks(int afterISBN, int numBooks) throws BookStoreException {
+		indexLock.readLock().lock();
+
+		try {
+			return execute(transaction -> {
+				List<StockBook> result = new ArrayList<>();
+
+				for (BookStoreBook indexedBook : attributeIndex.startingAfter(afterISBN, numBooks)) {
+					if (result.size() == numBooks) {
+						break;
+					}
+
+					BookStoreBook book = transaction.read(indexedBook.getISBN());
+
+					if (book != null) {
+						result.add(book.immutableStockBook());
+					}
+				}
+
+				return result;
+			});
+		} finally {
+			indexLock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		// Check that all ISBNs that we add/remove are there first.
+		if (editorPicks == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		execute(transaction -> {
+			for (BookEditorPick editorPickArg : editorPicks) {
+				readInStock(transaction, editorPickArg.getISBN());
+			}
+
+			for (BookEditorPick editorPickArg : editorPicks) {
+				transaction.write(editorPickArg.getISBN()).setEditorPick(editorPickArg.isEditorPick());
+			}
+
+			return null;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		if (bookCopiesToBuy == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		execute(transaction -> {
+			// Check that all ISBNs that we buy are there first.
+			Map<Integer, Integer> salesMisses = new HashMap<>();
+
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				BookStoreBook book = validate(transaction, bookCopyToBuy);
+
+				if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
+					// If we cannot sell the copies of the book, it is a miss.
+					salesMisses.put(bookCopyToBuy.getISBN(), bookCopyToBuy.getNumCopies() - book.getNumCopies());
+				}
+				FaultInjector.BUY_BOOKS_CHECK.inject();
+			}
+
+			// We commit the misses and throw exception now since we want to see
+			// how many books in the order incurred misses which is used by
+			// books in demand
+			if (!salesMisses.isEmpty()) {
+				for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
+					transaction.write(saleMissEntry.getKey()).addSaleMiss(saleMissEntry.getValue());
+				}
+
+				transaction.commit();
+				throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+			}
+
+			FaultInjector.BUY_BOOKS.inject();
+
+			// Then make the purchase.
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				FaultInjector.BUY_BOOKS_BOOK.inject();
+				transaction.write(bookCopyToBuy.getISBN()).buyCopies(bookCopyToBuy.getNumCopies());
+			}
+
+			return null;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		return execute(transaction -> {
+			List<StockBook> result = new ArrayList<>();
+
+			for (Integer ISBN : isbnSet) {
+				result.add(readInStock(transaction, ISBN).immutableStockBook());
+			}
+
+			return result;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		return execute(transaction -> {
+			List<Book> result = new ArrayList<>();
+
+			for (Integer ISBN : isbnSet) {
+				result.add(readInStock(transaction, ISBN).immutableBook());
+			}
+
+			return result;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		List<BookStoreBook> listAllEditorPicks = execute(transaction -> transaction.readAll().stream()
+				.filter(book -> book.isEditorPick())
+				.collect(Collectors.toList()));
+
+		// Find numBooks random indices of books that will be picked.
+		Random rand = new Random();
+		Set<Integer> tobePicked = new HashSet<>();
+		int rangePicks = listAllEditorPicks.size();
+
+		if (rangePicks <= numBooks) {
+
+			// We need to add all books.
+			for (int i = 0; i < listAllEditorPicks.size(); i++) {
+				tobePicked.add(i);
+			}
+		} else {
+
+			// We need to pick randomly the books that need to be returned.
+			int randNum;
+
+			while (tobePicked.size() < numBooks) {
+				randNum = rand.nextInt(rangePicks);
+				tobePicked.add(randNum);
+			}
+		}
+
+		// Return all the books by the randomly chosen indices.
+		return tobePicked.stream()
+				.map(index -> listAllEditorPicks.get(index).immutableBook())
+				.collect(Collectors.toList());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#searchBooks(java.lang.
+	 * String, int, int)
+	 */
+	public List<Book> searchBooks(String query, int offset, int numBooks) throws BookStoreException {
+		indexLock.readLock().lock();
+
+		try {
+			List<Integer> isbns = searchIndex.search(query, offset, numBooks);
+
+			return execute(transaction -> {
+				List<Book> result = new ArrayList<>();
+
+				for (int isbn : isbns) {
+					BookStoreBook book = transaction.read(isbn);
+
+					if (book != null) {
+						result.add(book.immutableBook());
+					}
+				}
+
+				return result;
+			});
+		} finally {
+			indexLock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		throw new BookStoreException();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		throw new BookStoreException();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		throw new BookStoreException();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#queryBooks(com.
+	 * acertainbookstore.business.BookQuery)
+	 */
+	public List<StockBook> queryBooks(BookQuery query) throws BookStoreException {
+		indexLock.readLock().lock();
+
+		try {
+			return execute(transaction -> {
+				List<StockBook> result = new ArrayList<>();
+
+				for (BookStoreBook indexedBook : attributeIndex.candidates(query)) {
+					if (result.size() == query.getNumBooks()) {
+						break;
+					}
+
+					BookStoreBook book = transaction.read(indexedBook.getISBN());
+
+					if (book != null) {
+						StockBook stockBook = book.immutableStockBook();
+						if (query.matchesState(stockBook)) {
+							result.add(stockBook);
+						}
+					}
+				}
+
+				return result;
+			});
+		} finally {
+			indexLock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getChangesSince(long)
+	 */
+	public CatalogChanges getChangesSince(long version) throws BookStoreException {
+		return execute(transaction -> {
+			// The journal is written before a commit is published, so the
+			// books it names as changed after the transaction started conflict.
+			long currentVersion = changeJournal.getVersion();
+			Set<Integer> changedISBNs = changeJournal.changedSince(version);
+
+			if (changedISBNs == null) {
+				List<StockBook> books = transaction.readAll().stream()
+						.map(book -> book.immutableStockBook())
+						.collect(Collectors.toList());
+				return new CatalogChanges(currentVersion, true, books, new ArrayList<>());
+			}
+
+			List<StockBook> changedBooks = new ArrayList<>();
+			List<Integer> removedISBNs = new ArrayList<>();
+
+			for (int isbn : changedISBNs) {
+				BookStoreBook book = transaction.read(isbn);
+
+				if (book == null) {
+					removedISBNs.add(isbn);
+				} else {
+					changedBooks.add(book.immutableStockBook());
+				}
+			}
+
+			return new CatalogChanges(currentVersion, false, changedBooks, removedISBNs);
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	public void removeAllBooks() throws BookStoreException {
+		indexLock.writeLock().lock();
+		commitLock.lock();
+
+		try {
+			long commitVersion = lastCommitVersion + 1;
+			lastRemovalVersion = commitVersion;
+			bookMap.clear();
+			searchIndex.clear();
+			attributeIndex.clear();
+			changeJournal.recordAll();
+			lastCommitVersion = commitVersion;
+		} finally {
+			commitLock.unlock();
+			indexLock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		indexLock.writeLock().lock();
+		commitLock.lock();
+
+		try {
+
+			if (isbnSet == null) {
+				throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+			}
+
+			for (Integer ISBN : isbnSet) {
+				if (BookStoreUtility.isInvalidISBN(ISBN)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+				}
+
+				if (!bookMap.containsKey(ISBN)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+				}
+			}
+
+			long commitVersion = lastCommitVersion + 1;
+			lastRemovalVersion = commitVersion;
+
+			for (int isbn : isbnSet) {
+				BookStoreBook removedBook = bookMap.remove(isbn).book;
+				searchIndex.remove(removedBook);
+				attributeIndex.remove(removedBook);
+			}
+
+			changeJournal.record(isbnSet);
+			lastCommitVersion = commitVersion;
+		} finally {
+			commitLock.unlock();
+			indexLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Gets the number of transactions that committed writes.
+	 *
+	 * @return the number of commits
+	 */
+	public long getNumCommits() {
+		return numCommits.get();
+	}
+
+	/**
+	 * Gets the number of attempts that conflicted with a concurrent commit and
+	 * were retried.
+	 *
+	 * @return the number of conflicts
+	 */
+	public long getNumConflicts() {
+		return numConflicts.get();
+	}
+
+	/**
+	 * Gets the number of transactions that ran holding the commit lock after
+	 * too many conflicts.
+	 *
+	 * @return the number of transactions
+	 */
+	public long getNumPessimisticRuns() {
+		return numPessimisticRuns.get();
+	}
+}
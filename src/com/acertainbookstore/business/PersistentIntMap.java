@@ -0,0 +1,397 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * {@link PersistentIntMap} is an immutable map from int keys to values, laid
+ * out as a hash array mapped trie. Every node branches on five bits of the key
+ * and only stores the branches present, indexed through a bitmap. Adding or
+ * removing a key copies the nodes on the path to it and shares all the others
+ * with the previous map, so a change costs a handful of small allocations and
+ * every earlier map stays valid for the readers still holding it.
+ *
+ * @param <V>
+ *            the type of the values
+ */
+public final class PersistentIntMap<V> {
+
+	/** The number of key bits a node branches on. */
+	private static final int BITS_PER_LEVEL = 5;
+
+	/** The mask selecting the key bits of a level. */
+	private static final int LEVEL_MASK = (1 << BITS_PER_LEVEL) - 1;
+
+	/** The empty map. */
+	private static final PersistentIntMap<?> EMPTY = new PersistentIntMap<>(new Node(0, new Object[0]), 0);
+
+	/**
+	 * {@link Entry} is a key and its value, stored in a node.
+	 */
+	private static final class Entry {
+
+		/** The key. */
+		private final int key;
+
+		/** The value. */
+		private final Object value;
+
+		/**
+		 * Instantiates a new {@link Entry}.
+		 *
+		 * @param key
+		 *            the key
+		 * @param value
+		 *            the value
+		 */
+		private Entry(int key, Object value) {
+			this.key = key;
+			this.value = value;
+		}
+	}
+
+	/**
+	 * {@link Node} holds the entries and child nodes of the branches present
+	 * on its level, in the order of the branches.
+	 */
+	private static final class Node {
+
+		/** The branches present, one bit per branch. */
+		private final int bitmap;
+
+		/** The entries and child nodes of the branches present. */
+		private final Object[] children;
+
+		/**
+		 * Instantiates a new {@link Node}.
+		 *
+		 * @param bitmap
+		 *            the branches present
+		 * @param children
+		 *            the entries and child nodes
+		 */
+		private Node(int bitmap, Object[] children) {
+			this.bitmap = bitmap;
+			this.children = children;
+		}
+
+		/**
+		 * Gets the position of the child of a branch in the children.
+		 *
+		 * @param bit
+		 *            the bit of the branch
+		 * @return the position
+		 */
+		private int position(int bit) {
+			return Integer.bitCount(bitmap & (bit - 1));
+		}
+
+		/**
+		 * Returns a copy of the node with the child of a branch replaced.
+		 *
+		 * @param position
+		 *            the position of the child
+		 * @param child
+		 *            the new child
+		 * @return the new node
+		 */
+		private Node replace(int position, Object child) {
+			Object[] newChildren = children.clone();
+			newChildren[position] = child;
+			return new Node(bitmap, newChildren);
+		}
+
+		/**
+		 * Returns a copy of the node with a new branch.
+		 *
+		 * @param bit
+		 *            the bit of the branch
+		 * @param child
+		 *            the child of the branch
+		 * @return the new node
+		 */
+		private Node insert(int bit, Object child) {
+			int position = position(bit);
+			Object[] newChildren = new Object[children.length + 1];
+			System.arraycopy(children, 0, newChildren, 0, position);
+			newChildren[position] = child;
+			System.arraycopy(children, position, newChildren, position + 1, children.length - position);
+			return new Node(bitmap | bit, newChildren);
+		}
+
+		/**
+		 * Returns a copy of the node without a branch.
+		 *
+		 * @param bit
+		 *            the bit of the branch
+		 * @return the new node
+		 */
+		private Node delete(int bit) {
+			int position = position(bit);
+			Object[] newChildren = new Object[children.length - 1];
+			System.arraycopy(children, 0, newChildren, 0, position);
+			System.arraycopy(children, position + 1, newChildren, position, newChildren.length - position);
+			return new Node(bitmap & ~bit, newChildren);
+		}
+	}
+
+	/** The root node. */
+	private final Node root;
+
+	/** The number of keys. */
+	private final int size;
+
+	/**
+	 * Instantiates a new {@link PersistentIntMap}.
+	 *
+	 * @param root
+	 *            the root node
+	 * @param size
+	 *            the number of keys
+	 */
+	private PersistentIntMap(Node root, int size) {
+		this.root = root;
+		this.size = size;
+	}
+
+	/**
+	 * Returns the empty map.
+	 *
+	 * @param <V>
+	 *            the type of the values
+	 * @return the empty map
+	 */
+	@SuppressWarnings("unchecked")
+	public static <V> PersistentIntMap<V> empty() {
+		return (PersistentIntMap<V>) EMPTY;
+	}
+
+	/**
+	 * Gets the branch of a key on a level.
+	 *
+	 * @param key
+	 *            the key
+	 * @param shift
+	 *            the number of key bits consumed by the levels above
+	 * @return the bit of the branch
+	 */
+	private static int branch(int key, int shift) {
+		return 1 << ((key >>> shift) & LEVEL_MASK);
+	}
+
+	/**
+	 * Gets the value of a key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the value, or null if the key is not in the map
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(int key) {
+		Node node = root;
+
+		for (int shift = 0;; shift += BITS_PER_LEVEL) {
+			int bit = branch(key, shift);
+
+			if ((node.bitmap & bit) == 0) {
+				return null;
+			}
+
+			Object child = node.children[node.position(bit)];
+
+			if (child instanceof Node) {
+				node = (Node) child;
+			} else {
+				Entry entry = (Entry) child;
+				return entry.key == key ? (V) entry.value : null;
+			}
+		}
+	}
+
+	/**
+	 * Checks if a key is in the map.
+	 *
+	 * @param key
+	 *            the key
+	 * @return true, if the key is in the map
+	 */
+	public boolean containsKey(int key) {
+		return get(key) != null;
+	}
+
+	/**
+	 * Returns a map with a key set to a value, sharing the unchanged nodes
+	 * with this map.
+	 *
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value, not null
+	 * @return the new map
+	 */
+	public PersistentIntMap<V> put(int key, V value) {
+		if (value == null) {
+			throw new IllegalArgumentException("value must not be null");
+		}
+
+		boolean added = !containsKey(key);
+		return new PersistentIntMap<>(put(root, 0, new Entry(key, value)), added ? size + 1 : size);
+	}
+
+	/**
+	 * Sets an entry below a node.
+	 *
+	 * @param node
+	 *            the node
+	 * @param shift
+	 *            the number of key bits consumed by the levels above
+	 * @param entry
+	 *            the entry
+	 * @return the new node
+	 */
+	private static Node put(Node node, int shift, Entry entry) {
+		int bit = branch(entry.key, shift);
+
+		if ((node.bitmap & bit) == 0) {
+			return node.insert(bit, entry);
+		}
+
+		int position = node.position(bit);
+		Object child = node.children[position];
+
+		if (child instanceof Node) {
+			return node.replace(position, put((Node) child, shift + BITS_PER_LEVEL, entry));
+		}
+
+		Entry existing = (Entry) child;
+
+		if (existing.key == entry.key) {
+			return node.replace(position, entry);
+		}
+
+		// Two keys share the branch: they move one level down, where they
+		// differ sooner or later since the levels cover all the key bits.
+		Node split = put(new Node(branch(existing.key, shift + BITS_PER_LEVEL), new Object[] { existing }),
+				shift + BITS_PER_LEVEL, entry);
+		return node.replace(position, split);
+	}
+
+	/**
+	 * Returns a map without a key, sharing the unchanged nodes with this map.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the new map, or this map if the key is not in it
+	 */
+	public PersistentIntMap<V> remove(int key) {
+		if (!containsKey(key)) {
+			return this;
+		}
+
+		Object newRoot = remove(root, 0, key);
+		return new PersistentIntMap<>(newRoot instanceof Node ? (Node) newRoot
+				: new Node(branch(((Entry) newRoot).key, 0), new Object[] { newRoot }), size - 1);
+	}
+
+	/**
+	 * Removes a key present below a node.
+	 *
+	 * @param node
+	 *            the node
+	 * @param shift
+	 *            the number of key bits consumed by the levels above
+	 * @param key
+	 *            the key
+	 * @return the new node, or the only entry left below it so that the
+	 *         levels holding a single entry are collapsed
+	 */
+	private static Object remove(Node node, int shift, int key) {
+		int bit = branch(key, shift);
+		int position = node.position(bit);
+		Object child = node.children[position];
+		Node newNode;
+
+		if (child instanceof Node) {
+			newNode = node.replace(position, remove((Node) child, shift + BITS_PER_LEVEL, key));
+		} else {
+			newNode = node.delete(bit);
+		}
+
+		if (newNode.children.length == 1 && newNode.children[0] instanceof Entry) {
+			return newNode.children[0];
+		}
+
+		return newNode;
+	}
+
+	/**
+	 * Gets the number of keys.
+	 *
+	 * @return the size
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Checks if the map has no keys.
+	 *
+	 * @return true, if the map is empty
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Calls an action for every key and its value.
+	 *
+	 * @param action
+	 *            the action
+	 */
+	public void forEach(BiConsumer<Integer, ? super V> action) {
+		forEach(root, action);
+	}
+
+	/**
+	 * Calls an action for every key and its value below a node.
+	 *
+	 * @param node
+	 *            the node
+	 * @param action
+	 *            the action
+	 */
+	@SuppressWarnings("unchecked")
+	private static <V> void forEach(Node node, BiConsumer<Integer, ? super V> action) {
+		for (Object child : node.children) {
+			if (child instanceof Node) {
+				forEach((Node) child, action);
+			} else {
+				Entry entry = (Entry) child;
+				action.accept(entry.key, (V) entry.value);
+			}
+		}
+	}
+
+	/**
+	 * Lists the keys.
+	 *
+	 * @return the keys
+	 */
+	public List<Integer> keys() {
+		List<Integer> keys = new ArrayList<>(size);
+		forEach((key, value) -> keys.add(key));
+		return keys;
+	}
+
+	/**
+	 * Lists the values.
+	 *
+	 * @return the values
+	 */
+	public List<V> values() {
+		List<V> values = new ArrayList<>(size);
+		forEach((key, value) -> values.add(value));
+		return values;
+	}
+}
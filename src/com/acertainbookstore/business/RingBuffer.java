@@ -0,0 +1,116 @@
+package com.acertainbookstore.business;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * {@link RingBuffer} is a bounded queue with many producers and a single
+ * consumer, laid out as a preallocated array of slots indexed by sequence
+ * number. A producer claims the next sequence with a single atomic increment,
+ * fills the slot and publishes it by writing the sequence to the slot; the
+ * consumer takes the slots in sequence order once they are published. Neither
+ * side takes a lock, and a producer only waits when the buffer is full.
+ *
+ * @param <E>
+ *            the type of the events
+ */
+public class RingBuffer<E> {
+
+	/** The time a producer waits for the consumer when the buffer is full. */
+	private static final long FULL_WAIT_NANOS = 10_000;
+
+	/** The events, indexed by sequence modulo the capacity. */
+	private final Object[] slots;
+
+	/** The sequence last published in every slot. */
+	private final AtomicLongArray publishedSequences;
+
+	/** The mask turning a sequence into a slot index. */
+	private final int mask;
+
+	/** The next sequence to claim. */
+	private final AtomicLong nextSequence = new AtomicLong(0);
+
+	/** The next sequence to consume, only written by the consumer. */
+	private volatile long consumedSequence = 0;
+
+	/**
+	 * Instantiates a new {@link RingBuffer}.
+	 *
+	 * @param capacity
+	 *            the number of slots, a power of two
+	 */
+	public RingBuffer(int capacity) {
+		if (capacity < 1 || Integer.bitCount(capacity) != 1) {
+			throw new IllegalArgumentException("capacity must be a power of two");
+		}
+
+		slots = new Object[capacity];
+		publishedSequences = new AtomicLongArray(capacity);
+		mask = capacity - 1;
+
+		for (int i = 0; i < capacity; i++) {
+			publishedSequences.set(i, -1);
+		}
+	}
+
+	/**
+	 * Publishes an event, waiting while the buffer is full.
+	 *
+	 * @param event
+	 *            the event
+	 */
+	public void publish(E event) {
+		long sequence = nextSequence.getAndIncrement();
+
+		while (sequence - consumedSequence >= slots.length) {
+			LockSupport.parkNanos(this, FULL_WAIT_NANOS);
+		}
+
+		int index = (int) (sequence & mask);
+		slots[index] = event;
+
+		// The volatile write publishes the event to the consumer.
+		publishedSequences.set(index, sequence);
+	}
+
+	/**
+	 * Takes the next event; only called by the consumer.
+	 *
+	 * @return the event, or null if the next one is not published yet
+	 */
+	@SuppressWarnings("unchecked")
+	public E poll() {
+		long sequence = consumedSequence;
+		int index = (int) (sequence & mask);
+
+		if (publishedSequences.get(index) != sequence) {
+			return null;
+		}
+
+		E event = (E) slots[index];
+		slots[index] = null;
+		consumedSequence = sequence + 1;
+		return event;
+	}
+
+	/**
+	 * Checks if the next event is not published yet.
+	 *
+	 * @return true, if the consumer has nothing to take
+	 */
+	public boolean isEmpty() {
+		long sequence = consumedSequence;
+		return publishedSequences.get((int) (sequence & mask)) != sequence;
+	}
+
+	/**
+	 * Gets the number of slots.
+	 *
+	 * @return the capacity
+	 */
+	public int getCapacity() {
+		return slots.length;
+	}
+}
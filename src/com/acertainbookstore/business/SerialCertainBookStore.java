@@ -14,6 +14,7 @@ import java.util.stream.Collectors;
 
 import com.acertainbookstore.interfaces.BookStore;
 import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.interfaces.StockRestorer;
 import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
 import com.acertainbookstore.utils.BookStoreUtility;
@@ -24,11 +25,20 @@ import com.acertainbookstore.utils.BookStoreUtility;
  * @see BookStore
  * @see StockManager
  */
-public class SerialCertainBookStore implements BookStore, StockManager {
+public class SerialCertainBookStore implements BookStore, StockManager, StockRestorer {
 
 	/** The mapping of books from ISBN to {@link BookStoreBook}. */
 	private Map<Integer, BookStoreBook> bookMap = null;
 
+	/** The search index over the titles and authors of the books. */
+	private final BookSearchIndex searchIndex = new BookSearchIndex();
+
+	/** The price and author index over the books. */
+	private final BookAttributeIndex attributeIndex = new BookAttributeIndex();
+
+	/** The journal of the changes to the books, stamping every mutation. */
+	private final CatalogChangeJournal changeJournal = new CatalogChangeJournal();
+
 	/**
 	 * Instantiates a new {@link CertainBookStore}.
 	 */
@@ -112,10 +122,18 @@ public class SerialCertainBookStore implements BookStore, StockManager {
 			validate(book);
 		}
 
+		FaultInjector.ADD_BOOKS.inject();
+
 		for (StockBook book : bookSet) {
 				int isbn = book.getISBN();
-				bookMap.put(isbn, new BookStoreBook(book));
+				BookStoreBook bookStoreBook = new BookStoreBook(book);
+				bookMap.put(isbn, bookStoreBook);
+				searchIndex.add(book);
+				attributeIndex.add(bookStoreBook);
+				FaultInjector.ADD_BOOKS_BOOK.inject();
 			}
+
+		changeJournal.record(bookSet.stream().map(StockBook::getISBN).collect(Collectors.toList()));
 	}
 
 	/*
@@ -125,6 +143,32 @@ public class SerialCertainBookStore implements BookStore, StockManager {
 	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
 	 */
 	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		addCopies(bookCopiesSet, true);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.StockRestorer#restoreCopies(java.util.
+	 * Set)
+	 */
+	public void restoreCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		addCopies(bookCopiesSet, false);
+	}
+
+	/**
+	 * Adds copies of the existing books, either restocking them or putting
+	 * back the copies of a purchase that did not happen.
+	 *
+	 * @param bookCopiesSet
+	 *            the book copies set
+	 * @param restock
+	 *            true to reset the sale misses of the books
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private void addCopies(Set<BookCopy> bookCopiesSet, boolean restock) throws BookStoreException {
 		int isbn;
 		int numCopies;
 
@@ -138,18 +182,24 @@ public class SerialCertainBookStore implements BookStore, StockManager {
 
 		BookStoreBook book;
 
+		FaultInjector.ADD_COPIES.inject();
+
 		// Update the number of copies
 		for (BookCopy bookCopy : bookCopiesSet) {
 			isbn = bookCopy.getISBN();
 			numCopies = bookCopy.getNumCopies();
 			book = bookMap.get(isbn);
-			book.addCopies(numCopies);
-			try {
-				Thread.sleep(1);
-			} catch (InterruptedException e) {
-				e.printStackTrace();
+
+			if (restock) {
+				book.addCopies(numCopies);
+			} else {
+				book.restoreCopies(numCopies);
 			}
+
+			FaultInjector.ADD_COPIES_BOOK.inject();
 		}
+
+		changeJournal.record(bookCopiesSet.stream().map(BookCopy::getISBN).collect(Collectors.toList()));
 	}
 
 	/*
@@ -165,6 +215,25 @@ public class SerialCertainBookStore implements BookStore, StockManager {
                 .collect(Collectors.toList());
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks(int, int)
+	 */
+	public List<StockBook> getBooks(int afterISBN, int numBooks) throws BookStoreException {
+		List<StockBook> result = new ArrayList<>();
+
+		for (BookStoreBook book : attributeIndex.startingAfter(afterISBN, numBooks)) {
+			if (result.size() == numBooks) {
+				break;
+			}
+
+			result.add(book.immutableStockBook());
+		}
+
+		return result;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -187,6 +256,8 @@ public class SerialCertainBookStore implements BookStore, StockManager {
 		for (BookEditorPick editorPickArg : editorPicks) {
 			bookMap.get(editorPickArg.getISBN()).setEditorPick(editorPickArg.isEditorPick());
 		}
+
+		changeJournal.record(editorPicks.stream().map(BookEditorPick::getISBN).collect(Collectors.toList()));
 	}
 
 	/*
@@ -227,20 +298,21 @@ public class SerialCertainBookStore implements BookStore, StockManager {
 				book = bookMap.get(saleMissEntry.getKey());
 				book.addSaleMiss(saleMissEntry.getValue());
 			}
+
+			changeJournal.record(salesMisses.keySet());
 			throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
 		}
 
+		FaultInjector.BUY_BOOKS.inject();
+
 		// Then make the purchase.
 		for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
-			try {
-				Thread.sleep(1);
-			} catch (InterruptedException e) {
-				e.printStackTrace();
-			}
+			FaultInjector.BUY_BOOKS_BOOK.inject();
 			book = bookMap.get(bookCopyToBuy.getISBN());
 			book.buyCopies(bookCopyToBuy.getNumCopies());
-			
 		}
+
+		changeJournal.record(bookCopiesToBuy.stream().map(BookCopy::getISBN).collect(Collectors.toList()));
 	}
 
 	/*
@@ -327,6 +399,19 @@ public class SerialCertainBookStore implements BookStore, StockManager {
                 .collect(Collectors.toList());
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.BookStore#searchBooks(java.lang.
+	 * String, int, int)
+	 */
+	public List<Book> searchBooks(String query, int offset, int numBooks) throws BookStoreException {
+		List<Integer> isbns = searchIndex.search(query, offset, numBooks);
+		return isbns.stream()
+				.map(isbn -> bookMap.get(isbn).immutableBook())
+				.collect(Collectors.toList());
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -357,6 +442,59 @@ public class SerialCertainBookStore implements BookStore, StockManager {
 		throw new BookStoreException();
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#queryBooks(com.
+	 * acertainbookstore.business.BookQuery)
+	 */
+	public List<StockBook> queryBooks(BookQuery query) throws BookStoreException {
+		List<StockBook> result = new ArrayList<>();
+
+		for (BookStoreBook book : attributeIndex.candidates(query)) {
+			if (result.size() == query.getNumBooks()) {
+				break;
+			}
+
+			StockBook stockBook = book.immutableStockBook();
+			if (query.matchesState(stockBook)) {
+				result.add(stockBook);
+			}
+		}
+
+		return result;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.StockManager#getChangesSince(long)
+	 */
+	public CatalogChanges getChangesSince(long version) throws BookStoreException {
+		long currentVersion = changeJournal.getVersion();
+		Set<Integer> changedISBNs = changeJournal.changedSince(version);
+
+		if (changedISBNs == null) {
+			return new CatalogChanges(currentVersion, true, getBooks(), new ArrayList<>());
+		}
+
+		List<StockBook> changedBooks = new ArrayList<>();
+		List<Integer> removedISBNs = new ArrayList<>();
+
+		for (int isbn : changedISBNs) {
+			BookStoreBook book = bookMap.get(isbn);
+
+			if (book == null) {
+				removedISBNs.add(isbn);
+			} else {
+				changedBooks.add(book.immutableStockBook());
+			}
+		}
+
+		return new CatalogChanges(currentVersion, false, changedBooks, removedISBNs);
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -364,6 +502,9 @@ public class SerialCertainBookStore implements BookStore, StockManager {
 	 */
 	public void removeAllBooks() throws BookStoreException {
 		bookMap.clear();
+		searchIndex.clear();
+		attributeIndex.clear();
+		changeJournal.recordAll();
 	}
 
 	/*
@@ -388,7 +529,11 @@ public class SerialCertainBookStore implements BookStore, StockManager {
 		}
 
 		for (int isbn : isbnSet) {
-			bookMap.remove(isbn);
+			BookStoreBook removedBook = bookMap.remove(isbn);
+			searchIndex.remove(removedBook);
+			attributeIndex.remove(removedBook);
 		}
+
+		changeJournal.record(isbnSet);
 	}
 }
@@ -1,6 +1,6 @@
 package com.acertainbookstore.business;
 
-import java.util.Collection;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -13,6 +13,7 @@ import java.util.stream.Collectors;
 
 import com.acertainbookstore.interfaces.BookStore;
 import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.interfaces.StockRestorer;
 import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
 import com.acertainbookstore.utils.BookStoreUtility;
@@ -25,18 +26,60 @@ import com.acertainbookstore.utils.BookStoreUtility;
  * @see BookStore
  * @see StockManager
  */
-public class SingleLockConcurrentCertainBookStore implements BookStore, StockManager {
+public class SingleLockConcurrentCertainBookStore implements BookStore, StockManager, StockRestorer {
 
-	/** The mapping of books from ISBN to {@link BookStoreBook}. */
-	private HashMap<Integer, BookStoreBook> bookMap = null;
+	/**
+	 * The mapping of books from ISBN to {@link BookStoreBook}, keyed by the
+	 * primitive ISBNs so the lookups do not box them.
+	 */
+	private PersistentIntMap<BookStoreBook> bookMap = null;
+
+	/** The search index over the titles and authors of the books. */
+	private final BookSearchIndex searchIndex = new BookSearchIndex();
+
+	/** The price and author index over the books. */
+	private final BookAttributeIndex attributeIndex = new BookAttributeIndex();
+
+	/** The journal of the changes to the books, stamping every mutation. */
+	private final CatalogChangeJournal changeJournal = new CatalogChangeJournal();
 	private final ReadWriteLock lock = new ReentrantReadWriteLock();
 
+	/**
+	 * The books resolved by the batched operation holding the write lock,
+	 * reused by every such operation.
+	 */
+	private final BookBatch batch = new BookBatch();
+
+	/** The maximum number of purchases applied under one acquisition. */
+	public static final int MAX_COMBINED_PURCHASES = 64;
+
+	/**
+	 * The combiner applying concurrent purchases in batches under one
+	 * acquisition of the write lock, or null if every purchase takes the
+	 * lock itself.
+	 */
+	private final FlatCombiner<Set<BookCopy>> buyBooksCombiner;
+
 	/**
 	 * Instantiates a new {@link CertainBookStore}.
 	 */
 	public SingleLockConcurrentCertainBookStore() {
+		this(false);
+	}
+
+	/**
+	 * Instantiates a new {@link CertainBookStore}.
+	 *
+	 * @param combineBuyBooks
+	 *            whether concurrent purchases are applied in batches under
+	 *            one acquisition of the write lock
+	 */
+	public SingleLockConcurrentCertainBookStore(boolean combineBuyBooks) {
 		// Constructors are not synchronized
-		bookMap = new HashMap<Integer, BookStoreBook>();
+		bookMap = PersistentIntMap.empty();
+		buyBooksCombiner = combineBuyBooks
+				? new FlatCombiner<>(lock.writeLock(), this::applyBuyBooks, MAX_COMBINED_PURCHASES)
+				: null;
 		System.out.println("Single");
 	}
 
@@ -72,29 +115,43 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 		}
 	}
 
-	private void validate(BookCopy bookCopy) throws BookStoreException {
-		int isbn = bookCopy.getISBN();
-		int numCopies = bookCopy.getNumCopies();
+	/**
+	 * Validates book copies and resolves their books into the batch, looking
+	 * every ISBN up once. The messages are only built when a check fails.
+	 *
+	 * @param bookCopies
+	 *            the book copies
+	 * @throws BookStoreException
+	 *             if an ISBN is invalid or not in stock, or a number of
+	 *             copies is not positive
+	 */
+	private void resolve(Set<BookCopy> bookCopies) throws BookStoreException {
+		batch.clear();
+
+		for (BookCopy bookCopy : bookCopies) {
+			int numCopies = bookCopy.getNumCopies();
+			BookStoreBook book = resolveISBNInStock(bookCopy.getISBN()); // Check if the book has valid ISBN and in stock
 
-		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+			if (BookStoreUtility.isInvalidNoCopies(numCopies)) { // Check if the number of the book copy is larger than zero
+				throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
+			}
 
-		if (BookStoreUtility.isInvalidNoCopies(numCopies)) { // Check if the number of the book copy is larger than zero
-			throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
+			batch.add(book, numCopies);
 		}
 	}
 
-	private void validate(BookEditorPick editorPickArg) throws BookStoreException {
-		int isbn = editorPickArg.getISBN();
-		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
-	}
-
-	private void validateISBNInStock(Integer ISBN) throws BookStoreException {
-		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
-			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+	private BookStoreBook resolveISBNInStock(int isbn) throws BookStoreException {
+		if (BookStoreUtility.isInvalidISBN(isbn)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
 		}
-		if (!bookMap.containsKey(ISBN)) {// Check if the book is in stock
-			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+
+		BookStoreBook book = bookMap.get(isbn);
+
+		if (book == null) {// Check if the book is in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.NOT_AVAILABLE);
 		}
+
+		return book;
 	}
 
 	/*
@@ -116,15 +173,18 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 				validate(book);
 			}
 
+			FaultInjector.ADD_BOOKS.inject();
+
 			for (StockBook book : bookSet) {
 				int isbn = book.getISBN();
-				bookMap.put(isbn, new BookStoreBook(book));
-				try {
-					Thread.sleep(10);
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
+				BookStoreBook bookStoreBook = new BookStoreBook(book);
+				bookMap = bookMap.put(isbn, bookStoreBook);
+				searchIndex.add(book);
+				attributeIndex.add(bookStoreBook);
+				FaultInjector.ADD_BOOKS_BOOK.inject();
 			}
+
+			changeJournal.record(bookSet.stream().map(StockBook::getISBN).collect(Collectors.toList()));
 		} finally {
 			lock.writeLock().unlock();
 		}
@@ -137,33 +197,54 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
 	 */
 	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		addCopies(bookCopiesSet, true);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.StockRestorer#restoreCopies(java.util.
+	 * Set)
+	 */
+	public void restoreCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		addCopies(bookCopiesSet, false);
+	}
+
+	/**
+	 * Adds copies of the existing books, either restocking them or putting
+	 * back the copies of a purchase that did not happen.
+	 *
+	 * @param bookCopiesSet
+	 *            the book copies set
+	 * @param restock
+	 *            true to reset the sale misses of the books
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private void addCopies(Set<BookCopy> bookCopiesSet, boolean restock) throws BookStoreException {
 		lock.writeLock().lock();
 		try {
-			int isbn;
-			int numCopies;
-
 			if (bookCopiesSet == null) {
 				throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 			}
 
-			for (BookCopy bookCopy : bookCopiesSet) {
-				validate(bookCopy);
-			}
+			resolve(bookCopiesSet);
 
-			BookStoreBook book;
+			FaultInjector.ADD_COPIES.inject();
 
 			// Update the number of copies
-			for (BookCopy bookCopy : bookCopiesSet) {
-				isbn = bookCopy.getISBN();
-				numCopies = bookCopy.getNumCopies();
-				book = bookMap.get(isbn);
-				book.addCopies(numCopies);
-				try {
-					Thread.sleep(1);
-				} catch (InterruptedException e) {
-					e.printStackTrace();
+			for (int i = 0; i < batch.size(); i++) {
+				if (restock) {
+					batch.getBook(i).addCopies(batch.getNumCopies(i));
+				} else {
+					batch.getBook(i).restoreCopies(batch.getNumCopies(i));
 				}
+
+				FaultInjector.ADD_COPIES_BOOK.inject();
 			}
+
+			batch.recordIn(changeJournal);
 		} finally {
 			lock.writeLock().unlock();
 		}
@@ -177,9 +258,7 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 	public List<StockBook> getBooks() {
 		lock.readLock().lock();
 		try {
-			Collection<BookStoreBook> bookMapValues = bookMap.values();
-
-			List<StockBook> Result = bookMapValues.stream()
+			List<StockBook> Result = bookMap.values().stream()
 					.map(book -> book.immutableStockBook())
 					.collect(Collectors.toList());
 			return Result;
@@ -188,6 +267,30 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 		}
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks(int, int)
+	 */
+	public List<StockBook> getBooks(int afterISBN, int numBooks) throws BookStoreException {
+		lock.readLock().lock();
+		try {
+			List<StockBook> result = new ArrayList<>();
+
+			for (BookStoreBook book : attributeIndex.startingAfter(afterISBN, numBooks)) {
+				if (result.size() == numBooks) {
+					break;
+				}
+
+				result.add(book.immutableStockBook());
+			}
+
+			return result;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -205,12 +308,14 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 			}
 
 			for (BookEditorPick editorPickArg : editorPicks) {
-				validate(editorPickArg);
+				resolveISBNInStock(editorPickArg.getISBN()); // Check if the book has valid ISBN and in stock
 			}
 
 			for (BookEditorPick editorPickArg : editorPicks) {
 				bookMap.get(editorPickArg.getISBN()).setEditorPick(editorPickArg.isEditorPick());
 			}
+
+			changeJournal.record(editorPicks.stream().map(BookEditorPick::getISBN).collect(Collectors.toList()));
 		} finally {
 			lock.writeLock().unlock();
 		}
@@ -222,66 +327,75 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
 	 */
 	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		if (buyBooksCombiner != null) {
+			buyBooksCombiner.execute(bookCopiesToBuy);
+			return;
+		}
+
 		lock.writeLock().lock();
 		try {
-			if (bookCopiesToBuy == null) {
-				throw new BookStoreException(BookStoreConstants.NULL_INPUT);
-			}
+			applyBuyBooks(bookCopiesToBuy);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
 
-			// Check that all ISBNs that we buy are there first.
-			int isbn;
-			BookStoreBook book;
-			Boolean saleMiss = false;
+	/**
+	 * Buys books while the write lock is held. The purchase is all or
+	 * nothing: if a book is missing or has too few copies, no copy is bought.
+	 *
+	 * @param bookCopiesToBuy
+	 *            the book copies to buy
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private void applyBuyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		if (bookCopiesToBuy == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
 
-			Map<Integer, Integer> salesMisses = new HashMap<>();
- 
-			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
-				isbn = bookCopyToBuy.getISBN();
+		// Check that all ISBNs that we buy are there first.
+		resolve(bookCopiesToBuy);
+		boolean saleMiss = false;
 
-				validate(bookCopyToBuy);
+		for (int i = 0; i < batch.size(); i++) {
+			if (!batch.getBook(i).areCopiesInStore(batch.getNumCopies(i))) {
+				saleMiss = true;
+			}
+			FaultInjector.BUY_BOOKS_CHECK.inject();
+		}
 
-				book = bookMap.get(isbn);
+		// We throw exception now since we want to see how many books in the
+		// order incurred misses which is used by books in demand
+		if (saleMiss) {
+			// If we cannot sell the copies of a book, it is a miss.
+			Map<Integer, Integer> salesMisses = new HashMap<>();
 
-				// System.out.println("Num copies: " + book.getNumCopies() + " ISBN: " + isbn);
+			for (int i = 0; i < batch.size(); i++) {
+				BookStoreBook book = batch.getBook(i);
 
-				if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
-					// If we cannot sell the copies of the book, it is a miss.
-					salesMisses.put(isbn, bookCopyToBuy.getNumCopies() - book.getNumCopies());
-					saleMiss = true;
-				}
-				try {
-					Thread.sleep(1);
-				} catch (InterruptedException e) {
-					e.printStackTrace();
+				if (!book.areCopiesInStore(batch.getNumCopies(i))) {
+					salesMisses.put(book.getISBN(), batch.getNumCopies(i) - book.getNumCopies());
 				}
 			}
 
+			for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
+				bookMap.get(saleMissEntry.getKey()).addSaleMiss(saleMissEntry.getValue());
+			}
 
+			changeJournal.record(salesMisses.keySet());
+			throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+		}
 
-			// We throw exception now since we want to see how many books in the
-			// order incurred misses which is used by books in demand
-			if (saleMiss) {
-				for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
-					book = bookMap.get(saleMissEntry.getKey());
-					book.addSaleMiss(saleMissEntry.getValue());
-				}
-				throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
-			}
+		FaultInjector.BUY_BOOKS.inject();
 
-			// Then make the purchase.
-			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
-				try {
-					Thread.sleep(1);
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
-				book = bookMap.get(bookCopyToBuy.getISBN());
-				book.buyCopies(bookCopyToBuy.getNumCopies());
-				
-			}
-		} finally {
-			lock.writeLock().unlock();
+		// Then make the purchase.
+		for (int i = 0; i < batch.size(); i++) {
+			FaultInjector.BUY_BOOKS_BOOK.inject();
+			batch.getBook(i).buyCopies(batch.getNumCopies(i));
 		}
+
+		batch.recordIn(changeJournal);
 	}
 
 	/*
@@ -299,7 +413,7 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 			}
 
 			for (Integer ISBN : isbnSet) {
-				validateISBNInStock(ISBN);
+				resolveISBNInStock(ISBN);
 			}
 
 			List<StockBook> result = isbnSet.stream()
@@ -326,7 +440,7 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 
 			// Check that all ISBNs that we rate are there to start with.
 			for (Integer ISBN : isbnSet) {
-				validateISBNInStock(ISBN);
+				resolveISBNInStock(ISBN);
 			}
 
 			List<Book> result = isbnSet.stream()
@@ -351,8 +465,7 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 				throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
 			}
 
-			List<BookStoreBook> listAllEditorPicks = bookMap.entrySet().stream()
-					.map(pair -> pair.getValue())
+			List<BookStoreBook> listAllEditorPicks = bookMap.values().stream()
 					.filter(book -> book.isEditorPick())
 					.collect(Collectors.toList());
 
@@ -388,6 +501,24 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 		}
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.BookStore#searchBooks(java.lang.
+	 * String, int, int)
+	 */
+	public List<Book> searchBooks(String query, int offset, int numBooks) throws BookStoreException {
+		lock.readLock().lock();
+		try {
+			List<Integer> isbns = searchIndex.search(query, offset, numBooks);
+			return isbns.stream()
+					.map(isbn -> bookMap.get(isbn).immutableBook())
+					.collect(Collectors.toList());
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -418,6 +549,69 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 		throw new BookStoreException();
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#queryBooks(com.
+	 * acertainbookstore.business.BookQuery)
+	 */
+	public List<StockBook> queryBooks(BookQuery query) throws BookStoreException {
+		lock.readLock().lock();
+		try {
+			List<StockBook> result = new ArrayList<>();
+
+			for (BookStoreBook book : attributeIndex.candidates(query)) {
+				if (result.size() == query.getNumBooks()) {
+					break;
+				}
+
+				StockBook stockBook = book.immutableStockBook();
+				if (query.matchesState(stockBook)) {
+					result.add(stockBook);
+				}
+			}
+
+			return result;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.StockManager#getChangesSince(long)
+	 */
+	public CatalogChanges getChangesSince(long version) throws BookStoreException {
+		lock.readLock().lock();
+		try {
+			long currentVersion = changeJournal.getVersion();
+			Set<Integer> changedISBNs = changeJournal.changedSince(version);
+
+			if (changedISBNs == null) {
+				return new CatalogChanges(currentVersion, true, getBooks(), new ArrayList<>());
+			}
+
+			List<StockBook> changedBooks = new ArrayList<>();
+			List<Integer> removedISBNs = new ArrayList<>();
+
+			for (int isbn : changedISBNs) {
+				BookStoreBook book = bookMap.get(isbn);
+
+				if (book == null) {
+					removedISBNs.add(isbn);
+				} else {
+					changedBooks.add(book.immutableStockBook());
+				}
+			}
+
+			return new CatalogChanges(currentVersion, false, changedBooks, removedISBNs);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -426,7 +620,10 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 	public void removeAllBooks() throws BookStoreException {
 		lock.writeLock().lock();
 		try {
-			bookMap.clear();
+			bookMap = PersistentIntMap.empty();
+			searchIndex.clear();
+			attributeIndex.clear();
+			changeJournal.recordAll();
 		} finally {
 			lock.writeLock().unlock();
 		}
@@ -457,8 +654,13 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 			}
 
 			for (int isbn : isbnSet) {
-				bookMap.remove(isbn);
+				BookStoreBook removedBook = bookMap.get(isbn);
+				bookMap = bookMap.remove(isbn);
+				searchIndex.remove(removedBook);
+				attributeIndex.remove(removedBook);
 			}
+
+			changeJournal.record(isbnSet);
 		} finally {
 			lock.writeLock().unlock();
 		}
@@ -0,0 +1,883 @@
+package com.acertainbookstore.business;
+
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.interfaces.StockRestorer;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+
+/**
+ * {@link SingleWriterConcurrentCertainBookStore} implements the
+ * {@link BookStore} and
+ * {@link StockManager} functionalities.
+ *
+ * <p>
+ * A single writer thread owns the books and is the only one changing them.
+ * Every mutation is queued as a command in a {@link RingBuffer}; the writer
+ * takes the commands in order and applies them one after the other without
+ * any lock, then publishes an immutable snapshot of the books and their
+ * indexes, and only then wakes up the callers of the commands it applied. The
+ * reads take no lock either: they answer from the last published snapshot,
+ * which includes every mutation that has returned.
+ *
+ * <p>
+ * The writer applies all the commands queued meanwhile before publishing a
+ * snapshot, so a burst of mutations costs a single publication. A snapshot
+ * copies the map of the books, and rebuilds the indexes only if the set of
+ * books changed.
+ *
+ * @see BookStore
+ * @see StockManager
+ */
+public class SingleWriterConcurrentCertainBookStore implements BookStore, StockManager, StockRestorer {
+
+	/** The default number of commands the ring buffer holds. */
+	public static final int DEFAULT_CAPACITY = 1024;
+
+	/** The number of times the writer polls an empty buffer before parking. */
+	private static final int IDLE_SPINS = 100;
+
+	/** The number of times a caller checks its command before parking. */
+	private static final int CALLER_SPINS = 100;
+
+	/**
+	 * {@link Mutation} applies a command on the state owned by the writer.
+	 */
+	@FunctionalInterface
+	private interface Mutation {
+
+		/**
+		 * Applies the command.
+		 *
+		 * @throws BookStoreException
+		 *             the book store exception
+		 */
+		void apply() throws BookStoreException;
+	}
+
+	/**
+	 * {@link Command} is a queued mutation and its outcome.
+	 */
+	private static final class Command {
+
+		/** The mutation. */
+		private final Mutation mutation;
+
+		/** The caller waiting for the command to be applied. */
+		private final Thread caller = Thread.currentThread();
+
+		/** The exception the command failed with, if any. */
+		private BookStoreException exception = null;
+
+		/** The unexpected exception or error the command failed with, if any. */
+		private Throwable failure = null;
+
+		/**
+		 * Whether the command has been applied and published; written after
+		 * its outcome, so the caller reading it sees the outcome.
+		 */
+		private volatile boolean done = false;
+
+		/**
+		 * Instantiates a new {@link Command}.
+		 *
+		 * @param mutation
+		 *            the mutation
+		 */
+		private Command(Mutation mutation) {
+			this.mutation = mutation;
+		}
+	}
+
+	/**
+	 * {@link Snapshot} is an immutable view of the books, published by the
+	 * writer.
+	 */
+	private static final class Snapshot {
+
+		/** The books by ISBN, sharing unchanged nodes with the previous snapshot. */
+		private final PersistentIntMap<StockBook> books;
+
+		/** The search index over the titles and authors of the books. */
+		private final BookSearchIndex searchIndex;
+
+		/** The price and author index over the books. */
+		private final BookAttributeIndex attributeIndex;
+
+		/** The version of the change journal the snapshot includes. */
+		private final long journalVersion;
+
+		/**
+		 * Instantiates a new {@link Snapshot}.
+		 *
+		 * @param books
+		 *            the books by ISBN
+		 * @param searchIndex
+		 *            the search index
+		 * @param attributeIndex
+		 *            the attribute index
+		 * @param journalVersion
+		 *            the version of the change journal
+		 */
+		private Snapshot(PersistentIntMap<StockBook> books, BookSearchIndex searchIndex,
+				BookAttributeIndex attributeIndex, long journalVersion) {
+			this.books = books;
+			this.searchIndex = searchIndex;
+			this.attributeIndex = attributeIndex;
+			this.journalVersion = journalVersion;
+		}
+	}
+
+	/** The mapping of books from ISBN to {@link BookStoreBook}, owned by the writer. */
+	private final HashMap<Integer, BookStoreBook> bookMap = new HashMap<>();
+
+	/** The journal of the changes to the books, stamping every mutation. */
+	private final CatalogChangeJournal changeJournal = new CatalogChangeJournal();
+
+	/** The queue of the commands to the writer. */
+	private final RingBuffer<Command> commands;
+
+	/** The writer thread. */
+	private final Thread writer;
+
+	/** Whether the writer is parked, waiting for commands. */
+	private volatile boolean writerParked = false;
+
+	/** Whether the writer keeps running. */
+	private volatile boolean running = true;
+
+	/** The last published snapshot. */
+	private volatile Snapshot snapshot = new Snapshot(PersistentIntMap.empty(), new BookSearchIndex(),
+			new BookAttributeIndex(), 0);
+
+	/** The ISBNs of the books changed since the last snapshot, owned by the writer. */
+	private final Set<Integer> changedISBNs = new HashSet<>();
+
+	/** Whether the set of books changed since the last snapshot, owned by the writer. */
+	private boolean booksAddedOrRemoved = false;
+
+	/** The number of snapshots published. */
+	private final AtomicLong numSnapshots = new AtomicLong(0);
+
+	/** The number of commands applied. */
+	private final AtomicLong numCommands = new AtomicLong(0);
+
+	/**
+	 * Instantiates a new {@link CertainBookStore}.
+	 */
+	public SingleWriterConcurrentCertainBookStore() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Instantiates a new {@link CertainBookStore}.
+	 *
+	 * @param capacity
+	 *            the number of commands the ring buffer holds, a power of two
+	 */
+	public SingleWriterConcurrentCertainBookStore(int capacity) {
+		commands = new RingBuffer<>(capacity);
+		writer = new Thread(this::runWriter, "bookstore-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Stops the writer thread once the commands queued are applied.
+	 */
+	public void stop() {
+		running = false;
+		LockSupport.unpark(writer);
+	}
+
+	/**
+	 * Gets the number of snapshots published.
+	 *
+	 * @return the number of snapshots
+	 */
+	public long getNumSnapshots() {
+		return numSnapshots.get();
+	}
+
+	/**
+	 * Gets the number of commands applied.
+	 *
+	 * @return the number of commands
+	 */
+	public long getNumCommands() {
+		return numCommands.get();
+	}
+
+	/**
+	 * Runs the writer: applies the queued commands, publishes a snapshot and
+	 * wakes up their callers, and parks when there are no commands.
+	 */
+	private void runWriter() {
+		List<Command> batch = new ArrayList<>();
+		int idleSpins = 0;
+
+		while (running || !commands.isEmpty()) {
+			Command command;
+
+			while (batch.size() < commands.getCapacity() && (command = commands.poll()) != null) {
+				apply(command);
+				batch.add(command);
+			}
+
+			if (!batch.isEmpty()) {
+				try {
+					publishSnapshot();
+				} catch (Throwable ex) {
+					// The callers are told rather than left waiting, and the
+					// writer keeps serving the next commands.
+					for (Command applied : batch) {
+						if (applied.failure == null) {
+							applied.failure = ex;
+						}
+					}
+				}
+
+				for (Command applied : batch) {
+					applied.done = true;
+					LockSupport.unpark(applied.caller);
+				}
+
+				numCommands.addAndGet(batch.size());
+				batch.clear();
+				idleSpins = 0;
+			} else if (++idleSpins < IDLE_SPINS) {
+				Thread.yield();
+			} else {
+				// A producer publishing meanwhile sees the writer parked and
+				// wakes it up.
+				writerParked = true;
+
+				if (commands.isEmpty() && running) {
+					LockSupport.park(this);
+				}
+
+				writerParked = false;
+			}
+		}
+	}
+
+	/**
+	 * Applies a command on the writer thread, keeping its outcome.
+	 *
+	 * @param command
+	 *            the command
+	 */
+	private void apply(Command command) {
+		try {
+			command.mutation.apply();
+		} catch (BookStoreException ex) {
+			command.exception = ex;
+		} catch (Throwable ex) {
+			// Even an error only fails its own command, so that the writer
+			// keeps running.
+			command.failure = ex;
+		}
+	}
+
+	/**
+	 * Publishes a snapshot of the books changed since the last one.
+	 */
+	private void publishSnapshot() {
+		Snapshot previous = snapshot;
+
+		if (changedISBNs.isEmpty() && !booksAddedOrRemoved) {
+			return;
+		}
+
+		PersistentIntMap<StockBook> books;
+		BookSearchIndex searchIndex = previous.searchIndex;
+		BookAttributeIndex attributeIndex = previous.attributeIndex;
+
+		if (booksAddedOrRemoved) {
+			books = PersistentIntMap.empty();
+			searchIndex = new BookSearchIndex();
+			attributeIndex = new BookAttributeIndex();
+
+			for (BookStoreBook book : bookMap.values()) {
+				StockBook stockBook = book.immutableStockBook();
+				books = books.put(book.getISBN(), stockBook);
+				searchIndex.add(stockBook);
+				attributeIndex.add(new BookStoreBook(stockBook));
+			}
+		} else {
+			// Only the paths to the changed books are copied.
+			books = previous.books;
+
+			for (int isbn : changedISBNs) {
+				books = books.put(isbn, bookMap.get(isbn).immutableStockBook());
+			}
+		}
+
+		snapshot = new Snapshot(books, searchIndex, attributeIndex,
+				changeJournal.getVersion());
+		changedISBNs.clear();
+		booksAddedOrRemoved = false;
+		numSnapshots.incrementAndGet();
+	}
+
+	/**
+	 * Queues a mutation for the writer and waits until it is applied and
+	 * published.
+	 *
+	 * @param mutation
+	 *            the mutation
+	 * @throws BookStoreException
+	 *             the exception the mutation failed with
+	 */
+	private void execute(Mutation mutation) throws BookStoreException {
+		Command command = new Command(mutation);
+		commands.publish(command);
+
+		if (writerParked) {
+			LockSupport.unpark(writer);
+		}
+
+		boolean interrupted = false;
+		int spins = 0;
+
+		while (!command.done) {
+			if (++spins < CALLER_SPINS) {
+				Thread.yield();
+			} else {
+				LockSupport.park(this);
+
+				// The command cannot be withdrawn once queued; the interrupt is
+				// restored afterwards.
+				interrupted |= Thread.interrupted();
+			}
+		}
+
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+
+		if (command.failure instanceof Error) {
+			throw (Error) command.failure;
+		}
+
+		if (command.failure instanceof RuntimeException) {
+			throw (RuntimeException) command.failure;
+		}
+
+		if (command.failure != null) {
+			throw new UndeclaredThrowableException(command.failure);
+		}
+
+		if (command.exception != null) {
+			throw command.exception;
+		}
+	}
+
+	/**
+	 * Records changed books in the journal and for the next snapshot.
+	 *
+	 * @param isbns
+	 *            the ISBNs of the books
+	 */
+	private void recordChanges(Collection<Integer> isbns) {
+		changedISBNs.addAll(isbns);
+		changeJournal.record(isbns);
+	}
+
+	private void validate(StockBook book) throws BookStoreException {
+		int isbn = book.getISBN();
+		String bookTitle = book.getTitle();
+		String bookAuthor = book.getAuthor();
+		int noCopies = book.getNumCopies();
+		float bookPrice = book.getPrice();
+
+		if (BookStoreUtility.isInvalidISBN(isbn)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookTitle)) { // Check if the book has valid title
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookAuthor)) { // Check if the book has valid author
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isInvalidNoCopies(noCopies)) { // Check if the book has at least one copy
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookPrice < 0.0) { // Check if the price of the book is valid
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookMap.containsKey(isbn)) {// Check if the book is not in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
+		}
+	}
+
+	private void validate(BookCopy bookCopy) throws BookStoreException {
+		int isbn = bookCopy.getISBN();
+		int numCopies = bookCopy.getNumCopies();
+
+		validateISBNInStock(isbn, bookMap::containsKey); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidNoCopies(numCopies)) { // Check if the number of the book copy is larger than zero
+			throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
+		}
+	}
+
+	private static void validateISBNInStock(Integer ISBN, Predicate<Integer> inStock) throws BookStoreException {
+		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+		}
+		if (!inStock.test(ISBN)) {// Check if the book is in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		if (bookSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		execute(() -> {
+			// Check if all are there
+			for (StockBook book : bookSet) {
+				validate(book);
+			}
+
+			FaultInjector.ADD_BOOKS.inject();
+
+			for (StockBook book : bookSet) {
+				bookMap.put(book.getISBN(), new BookStoreBook(book));
+				FaultInjector.ADD_BOOKS_BOOK.inject();
+			}
+
+			booksAddedOrRemoved = true;
+			changeJournal.record(bookSet.stream().map(StockBook::getISBN).collect(Collectors.toList()));
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		addCopies(bookCopiesSet, true);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockRestorer#restoreCopies(java.util.
+	 * Set)
+	 */
+	public void restoreCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		addCopies(bookCopiesSet, false);
+	}
+
+	/**
+	 * Adds copies of the existing books, either restocking them or putting
+	 * back the copies of a purchase that did not happen.
+	 *
+	 * @param bookCopiesSet
+	 *            the book copies set
+	 * @param restock
+	 *            true to reset the sale misses of the books
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private void addCopies(Set<BookCopy> bookCopiesSet, boolean restock) throws BookStoreException {
+		if (bookCopiesSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		execute(() -> {
+			for (BookCopy bookCopy : bookCopiesSet) {
+				validate(bookCopy);
+			}
+
+			FaultInjector.ADD_COPIES.inject();
+
+			// Update the number of copies
+			for (BookCopy bookCopy : bookCopiesSet) {
+				BookStoreBook book = bookMap.get(bookCopy.getISBN());
+
+				if (restock) {
+					book.addCopies(bookCopy.getNumCopies());
+				} else {
+					book.restoreCopies(bookCopy.getNumCopies());
+				}
+
+				FaultInjector.ADD_COPIES_BOOK.inject();
+			}
+
+			recordChanges(bookCopiesSet.stream().map(BookCopy::getISBN).collect(Collectors.toList()));
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		// Check that all ISBNs that we add/remove are there first.
+		if (editorPicks == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		execute(() -> {
+			for (BookEditorPick editorPickArg : editorPicks) {
+				validateISBNInStock(editorPickArg.getISBN(), bookMap::containsKey);
+			}
+
+			for (BookEditorPick editorPickArg : editorPicks) {
+				bookMap.get(editorPickArg.getISBN()).setEditorPick(editorPickArg.isEditorPick());
+			}
+
+			recordChanges(editorPicks.stream().map(BookEditorPick::getISBN).collect(Collectors.toList()));
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		if (bookCopiesToBuy == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		execute(() -> {
+			// Check that all ISBNs that we buy are there first.
+			BookStoreBook book;
+			Map<Integer, Integer> salesMisses = new HashMap<>();
+
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				validate(bookCopyToBuy);
+				book = bookMap.get(bookCopyToBuy.getISBN());
+
+				if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
+					// If we cannot sell the copies of the book, it is a miss.
+					salesMisses.put(bookCopyToBuy.getISBN(), bookCopyToBuy.getNumCopies() - book.getNumCopies());
+				}
+				FaultInjector.BUY_BOOKS_CHECK.inject();
+			}
+
+			// We throw exception now since we want to see how many books in the
+			// order incurred misses which is used by books in demand
+			if (!salesMisses.isEmpty()) {
+				for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
+					bookMap.get(saleMissEntry.getKey()).addSaleMiss(saleMissEntry.getValue());
+				}
+
+				recordChanges(salesMisses.keySet());
+				throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+			}
+
+			FaultInjector.BUY_BOOKS.inject();
+
+			// Then make the purchase.
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				FaultInjector.BUY_BOOKS_BOOK.inject();
+				bookMap.get(bookCopyToBuy.getISBN()).buyCopies(bookCopyToBuy.getNumCopies());
+			}
+
+			recordChanges(bookCopiesToBuy.stream().map(BookCopy::getISBN).collect(Collectors.toList()));
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	public void removeAllBooks() throws BookStoreException {
+		execute(() -> {
+			bookMap.clear();
+			booksAddedOrRemoved = true;
+			changeJournal.recordAll();
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		execute(() -> {
+			for (Integer ISBN : isbnSet) {
+				validateISBNInStock(ISBN, bookMap::containsKey);
+			}
+
+			for (int isbn : isbnSet) {
+				bookMap.remove(isbn);
+			}
+
+			booksAddedOrRemoved = true;
+			changeJournal.record(isbnSet);
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	public List<StockBook> getBooks() {
+		return snapshot.books.values();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks(int, int)
+	 */
+	public List<StockBook> getBooks(int afterISBN, int numBooks) throws BookStoreException {
+		Snapshot current = snapshot;
+		List<StockBook> result = new ArrayList<>();
+
+		for (BookStoreBook book : current.attributeIndex.startingAfter(afterISBN, numBooks)) {
+			if (result.size() == numBooks) {
+				break;
+			}
+
+			result.add(current.books.get(book.getISBN()));
+		}
+
+		return result;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		Snapshot current = snapshot;
+
+		for (Integer ISBN : isbnSet) {
+			validateISBNInStock(ISBN, current.books::containsKey);
+		}
+
+		return isbnSet.stream()
+				.map(isbn -> current.books.get(isbn))
+				.collect(Collectors.toList());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		Snapshot current = snapshot;
+
+		// Check that all ISBNs that we rate are there to start with.
+		for (Integer ISBN : isbnSet) {
+			validateISBNInStock(ISBN, current.books::containsKey);
+		}
+
+		return isbnSet.stream()
+				.map(isbn -> immutableBook(current.books.get(isbn)))
+				.collect(Collectors.toList());
+	}
+
+	/**
+	 * Returns a {@link ImmutableBook} copy of a book of a snapshot.
+	 *
+	 * @param book
+	 *            the book
+	 * @return the immutable book
+	 */
+	private static Book immutableBook(StockBook book) {
+		return new ImmutableBook(book.getISBN(), book.getTitle(), book.getAuthor(), book.getPrice());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		List<StockBook> listAllEditorPicks = snapshot.books.values().stream()
+				.filter(book -> book.isEditorPick())
+				.collect(Collectors.toList());
+
+		// Find numBooks random indices of books that will be picked.
+		Random rand = new Random();
+		Set<Integer> tobePicked = new HashSet<>();
+		int rangePicks = listAllEditorPicks.size();
+
+		if (rangePicks <= numBooks) {
+
+			// We need to add all books.
+			for (int i = 0; i < listAllEditorPicks.size(); i++) {
+				tobePicked.add(i);
+			}
+		} else {
+
+			// We need to pick randomly the books that need to be returned.
+			int randNum;
+
+			while (tobePicked.size() < numBooks) {
+				randNum = rand.nextInt(rangePicks);
+				tobePicked.add(randNum);
+			}
+		}
+
+		// Return all the books by the randomly chosen indices.
+		return tobePicked.stream()
+				.map(index -> immutableBook(listAllEditorPicks.get(index)))
+				.collect(Collectors.toList());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#searchBooks(java.lang.
+	 * String, int, int)
+	 */
+	public List<Book> searchBooks(String query, int offset, int numBooks) throws BookStoreException {
+		Snapshot current = snapshot;
+		return current.searchIndex.search(query, offset, numBooks).stream()
+				.map(isbn -> immutableBook(current.books.get(isbn)))
+				.collect(Collectors.toList());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		throw new BookStoreException();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		throw new BookStoreException();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		throw new BookStoreException();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#queryBooks(com.
+	 * acertainbookstore.business.BookQuery)
+	 */
+	public List<StockBook> queryBooks(BookQuery query) throws BookStoreException {
+		Snapshot current = snapshot;
+		List<StockBook> result = new ArrayList<>();
+
+		for (BookStoreBook book : current.attributeIndex.candidates(query)) {
+			if (result.size() == query.getNumBooks()) {
+				break;
+			}
+
+			StockBook stockBook = current.books.get(book.getISBN());
+			if (query.matchesState(stockBook)) {
+				result.add(stockBook);
+			}
+		}
+
+		return result;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getChangesSince(long)
+	 */
+	public CatalogChanges getChangesSince(long version) throws BookStoreException {
+		// The journal may already name changes the snapshot does not include
+		// yet; they are sent again from the version of the snapshot.
+		Snapshot current = snapshot;
+		Set<Integer> changedISBNs = changeJournal.changedSince(version);
+
+		if (changedISBNs == null) {
+			return new CatalogChanges(current.journalVersion, true, current.books.values(),
+					new ArrayList<>());
+		}
+
+		List<StockBook> changedBooks = new ArrayList<>();
+		List<Integer> removedISBNs = new ArrayList<>();
+
+		for (int isbn : changedISBNs) {
+			StockBook book = current.books.get(isbn);
+
+			if (book == null) {
+				removedISBNs.add(isbn);
+			} else {
+				changedBooks.add(book);
+			}
+		}
+
+		return new CatalogChanges(current.journalVersion, false, changedBooks, removedISBNs);
+	}
+}
@@ -0,0 +1,213 @@
+package com.acertainbookstore.business;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * {@link StockChangeEvent} is pushed to the subscribers of the stock changes
+ * of a server. A {@link Type#CHANGED} event carries the new number of copies
+ * and sale misses of a book; consecutive changes of a book may be coalesced
+ * into its latest state. The version of an event is the catalog version of
+ * {@link com.acertainbookstore.interfaces.StockManager#getChangesSince(long)}
+ * that includes it, so a subscriber that missed events can catch up from the
+ * version of the last event it received.
+ */
+public final class StockChangeEvent {
+
+	/**
+	 * {@link Type} is the type of a {@link StockChangeEvent}.
+	 */
+	public enum Type {
+
+		/**
+		 * The subscription has started; the events that follow are the
+		 * changes after the version of this event.
+		 */
+		SUBSCRIBED,
+
+		/** The copies or sale misses of a book have changed. */
+		CHANGED,
+
+		/** A book has been removed. */
+		REMOVED,
+
+		/**
+		 * Events have been dropped, either because the subscriber was too slow
+		 * or because the changes are no longer known; the subscriber must
+		 * catch up through getChangesSince or a full listing.
+		 */
+		RESET;
+	}
+
+	/** The pattern of a field of the JSON form of an event. */
+	private static final Pattern FIELD = Pattern.compile("\"(\\w+)\":\"?([\\w.-]+)\"?");
+
+	/** The type. */
+	private final Type type;
+
+	/** The catalog version. */
+	private final long version;
+
+	/** The ISBN, or 0 for the events not about a book. */
+	private final int isbn;
+
+	/** The number of copies. */
+	private final int numCopies;
+
+	/** The number of sale misses. */
+	private final long numSaleMisses;
+
+	/**
+	 * Instantiates a new {@link StockChangeEvent}.
+	 *
+	 * @param type
+	 *            the type
+	 * @param version
+	 *            the catalog version
+	 * @param isbn
+	 *            the ISBN, or 0 for the events not about a book
+	 * @param numCopies
+	 *            the number of copies
+	 * @param numSaleMisses
+	 *            the number of sale misses
+	 */
+	public StockChangeEvent(Type type, long version, int isbn, int numCopies, long numSaleMisses) {
+		this.type = type;
+		this.version = version;
+		this.isbn = isbn;
+		this.numCopies = numCopies;
+		this.numSaleMisses = numSaleMisses;
+	}
+
+	/**
+	 * Creates the event of a changed book.
+	 *
+	 * @param version
+	 *            the catalog version
+	 * @param book
+	 *            the book
+	 * @return the event
+	 */
+	public static StockChangeEvent changed(long version, StockBook book) {
+		return new StockChangeEvent(Type.CHANGED, version, book.getISBN(), book.getNumCopies(), book.getNumSaleMisses());
+	}
+
+	/**
+	 * Creates the event of a removed book.
+	 *
+	 * @param version
+	 *            the catalog version
+	 * @param isbn
+	 *            the ISBN
+	 * @return the event
+	 */
+	public static StockChangeEvent removed(long version, int isbn) {
+		return new StockChangeEvent(Type.REMOVED, version, isbn, 0, 0);
+	}
+
+	/**
+	 * Creates an event of a type not about a book.
+	 *
+	 * @param type
+	 *            the type
+	 * @param version
+	 *            the catalog version
+	 * @return the event
+	 */
+	public static StockChangeEvent of(Type type, long version) {
+		return new StockChangeEvent(type, version, 0, 0, 0);
+	}
+
+	/**
+	 * Gets the type.
+	 *
+	 * @return the type
+	 */
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * Gets the catalog version.
+	 *
+	 * @return the version
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Gets the ISBN.
+	 *
+	 * @return the ISBN, or 0 for the events not about a book
+	 */
+	public int getISBN() {
+		return isbn;
+	}
+
+	/**
+	 * Gets the number of copies.
+	 *
+	 * @return the number of copies
+	 */
+	public int getNumCopies() {
+		return numCopies;
+	}
+
+	/**
+	 * Gets the number of sale misses.
+	 *
+	 * @return the number of sale misses
+	 */
+	public long getNumSaleMisses() {
+		return numSaleMisses;
+	}
+
+	/**
+	 * Converts the event to JSON.
+	 *
+	 * @return the JSON form of the event
+	 */
+	public String toJSON() {
+		return "{\"type\":\"" + type + "\",\"version\":" + version + ",\"isbn\":" + isbn + ",\"numCopies\":"
+				+ numCopies + ",\"numSaleMisses\":" + numSaleMisses + "}";
+	}
+
+	/**
+	 * Parses the JSON form of an event.
+	 *
+	 * @param json
+	 *            the JSON form of the event
+	 * @return the event
+	 * @throws IllegalArgumentException
+	 *             if the JSON is not an event
+	 */
+	public static StockChangeEvent fromJSON(String json) {
+		Map<String, String> fields = new HashMap<>();
+		Matcher matcher = FIELD.matcher(json);
+
+		while (matcher.find()) {
+			fields.put(matcher.group(1), matcher.group(2));
+		}
+
+		try {
+			return new StockChangeEvent(Type.valueOf(fields.get("type")), Long.parseLong(fields.get("version")),
+					Integer.parseInt(fields.get("isbn")), Integer.parseInt(fields.get("numCopies")),
+					Long.parseLong(fields.get("numSaleMisses")));
+		} catch (NullPointerException | NumberFormatException ex) {
+			throw new IllegalArgumentException("Not a stock change event: " + json, ex);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return toJSON();
+	}
+}
@@ -0,0 +1,726 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+
+import com.acertainbookstore.business.TransactionalMemory.Ref;
+import com.acertainbookstore.business.TransactionalMemory.Transaction;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.interfaces.StockRestorer;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+
+/**
+ * {@link TransactionalConcurrentCertainBookStore} implements the
+ * {@link BookStore} and
+ * {@link StockManager} functionalities.
+ *
+ * <p>
+ * The store keeps its state in a {@link TransactionalMemory}: the catalog is
+ * a transactional ref to an immutable map from ISBN to book, and every
+ * changing field of a book is a transactional ref of its own. Every operation
+ * is an atomic block, retried automatically until it commits, so an operation
+ * touching several books needs no locking of its own. Purchases of disjoint
+ * books commit independently; only the operations changing the set of books
+ * conflict with every other one.
+ *
+ * <p>
+ * The search and attribute indexes are not transactional. The operations
+ * changing the set of books hold the write lock of the indexes while they
+ * commit and update them, and the reads going through the indexes hold its
+ * read lock.
+ *
+ * @see BookStore
+ * @see StockManager
+ */
+public class TransactionalConcurrentCertainBookStore implements BookStore, StockManager, StockRestorer {
+
+	/**
+	 * {@link TransactionalBook} is a book whose changing fields are
+	 * transactional refs.
+	 */
+	private static final class TransactionalBook {
+
+		/** The book as it was added, only used for its attributes. */
+		private final BookStoreBook attributes;
+
+		/** The number of copies. */
+		private final Ref<Integer> numCopies;
+
+		/** The number of sale misses. */
+		private final Ref<Long> numSaleMisses;
+
+		/** The number of times the book was rated. */
+		private final Ref<Long> numTimesRated;
+
+		/** The total rating. */
+		private final Ref<Long> totalRating;
+
+		/** Whether the book is an editor pick. */
+		private final Ref<Boolean> editorPick;
+
+		/**
+		 * Instantiates a new {@link TransactionalBook}.
+		 *
+		 * @param memory
+		 *            the memory holding the refs
+		 * @param book
+		 *            the book as it is added
+		 */
+		private TransactionalBook(TransactionalMemory memory, StockBook book) {
+			attributes = new BookStoreBook(book);
+			numCopies = memory.newRef(book.getNumCopies());
+			numSaleMisses = memory.newRef(book.getNumSaleMisses());
+			numTimesRated = memory.newRef(book.getNumTimesRated());
+			totalRating = memory.newRef(book.getTotalRating());
+			editorPick = memory.newRef(book.isEditorPick());
+		}
+
+		/**
+		 * Returns a {@link StockBook} copy of the book as read by a
+		 * transaction.
+		 *
+		 * @param transaction
+		 *            the transaction
+		 * @return the stock book
+		 */
+		private StockBook immutableStockBook(Transaction transaction) {
+			return new ImmutableStockBook(attributes.getISBN(), attributes.getTitle(), attributes.getAuthor(),
+					attributes.getPrice(), transaction.get(numCopies), transaction.get(numSaleMisses),
+					transaction.get(numTimesRated), transaction.get(totalRating), transaction.get(editorPick));
+		}
+	}
+
+	/** The transactional memory holding the state of the store. */
+	private final TransactionalMemory memory = new TransactionalMemory();
+
+	/** The mapping of books from ISBN to {@link TransactionalBook}. */
+	private final Ref<Map<Integer, TransactionalBook>> catalog = memory.newRef(Collections.emptyMap());
+
+	/** The search index over the titles and authors of the books. */
+	private final BookSearchIndex searchIndex = new BookSearchIndex();
+
+	/** The price and author index over the books. */
+	private final BookAttributeIndex attributeIndex = new BookAttributeIndex();
+
+	/** The journal of the changes to the books, stamping every mutation. */
+	private final CatalogChangeJournal changeJournal = new CatalogChangeJournal();
+
+	/** The lock of the indexes, written when the set of books changes. */
+	private final ReadWriteLock indexLock = new ReentrantReadWriteLock();
+
+	/**
+	 * Instantiates a new {@link CertainBookStore}.
+	 */
+	public TransactionalConcurrentCertainBookStore() {
+	}
+
+	/**
+	 * Gets the transactional memory of the store, e.g. for its retries.
+	 *
+	 * @return the transactional memory
+	 */
+	public TransactionalMemory getMemory() {
+		return memory;
+	}
+
+	/**
+	 * Reads a book that must be in the store.
+	 *
+	 * @param transaction
+	 *            the transaction
+	 * @param ISBN
+	 *            the ISBN of the book
+	 * @return the book
+	 * @throws BookStoreException
+	 *             if the ISBN is invalid or the book is not in the store
+	 */
+	private TransactionalBook readInStock(Transaction transaction, Integer ISBN) throws BookStoreException {
+		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+		}
+
+		TransactionalBook book = transaction.get(catalog).get(ISBN);
+
+		if (book == null) { // Check if the book is in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+		}
+
+		return book;
+	}
+
+	private void validate(StockBook book, Map<Integer, TransactionalBook> books) throws BookStoreException {
+		int isbn = book.getISBN();
+		String bookTitle = book.getTitle();
+		String bookAuthor = book.getAuthor();
+		int noCopies = book.getNumCopies();
+		float bookPrice = book.getPrice();
+
+		if (BookStoreUtility.isInvalidISBN(isbn)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookTitle)) { // Check if the book has valid title
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookAuthor)) { // Check if the book has valid author
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isInvalidNoCopies(noCopies)) { // Check if the book has at least one copy
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookPrice < 0.0) { // Check if the price of the book is valid
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (books.containsKey(isbn)) {// Check if the book is not in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
+		}
+	}
+
+	private TransactionalBook validate(Transaction transaction, BookCopy bookCopy) throws BookStoreException {
+		int numCopies = bookCopy.getNumCopies();
+
+		// Check if the book has valid ISBN and in stock
+		TransactionalBook book = readInStock(transaction, bookCopy.getISBN());
+
+		if (BookStoreUtility.isInvalidNoCopies(numCopies)) { // Check if the number of the book copy is larger than zero
+			throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
+		}
+
+		return book;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		if (bookSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		indexLock.writeLock().lock();
+
+		try {
+			List<TransactionalBook> addedBooks = memory.atomic(transaction -> {
+				Map<Integer, TransactionalBook> books = transaction.get(catalog);
+
+				// Check if all are there
+				for (StockBook book : bookSet) {
+					validate(book, books);
+				}
+
+				Map<Integer, TransactionalBook> newBooks = new HashMap<>(books);
+				List<TransactionalBook> added = new ArrayList<>();
+
+				FaultInjector.ADD_BOOKS.inject();
+
+				for (StockBook book : bookSet) {
+					TransactionalBook transactionalBook = new TransactionalBook(memory, book);
+					newBooks.put(book.getISBN(), transactionalBook);
+					added.add(transactionalBook);
+					FaultInjector.ADD_BOOKS_BOOK.inject();
+				}
+
+				transaction.set(catalog, Collections.unmodifiableMap(newBooks));
+				return added;
+			});
+
+			for (TransactionalBook book : addedBooks) {
+				searchIndex.add(book.attributes);
+				attributeIndex.add(book.attributes);
+			}
+
+			changeJournal.record(bookSet.stream().map(StockBook::getISBN).collect(Collectors.toList()));
+		} finally {
+			indexLock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		addCopies(bookCopiesSet, true);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockRestorer#restoreCopies(java.util.
+	 * Set)
+	 */
+	public void restoreCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		addCopies(bookCopiesSet, false);
+	}
+
+	/**
+	 * Adds copies of the existing books, either restocking them or putting
+	 * back the copies of a purchase that did not happen.
+	 *
+	 * @param bookCopiesSet
+	 *            the book copies set
+	 * @param restock
+	 *            true to reset the sale misses of the books
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private void addCopies(Set<BookCopy> bookCopiesSet, boolean restock) throws BookStoreException {
+		if (bookCopiesSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		memory.atomic(transaction -> {
+			List<TransactionalBook> books = new ArrayList<>();
+
+			for (BookCopy bookCopy : bookCopiesSet) {
+				books.add(validate(transaction, bookCopy));
+			}
+
+			FaultInjector.ADD_COPIES.inject();
+
+			// Update the number of copies
+			int i = 0;
+
+			for (BookCopy bookCopy : bookCopiesSet) {
+				TransactionalBook book = books.get(i++);
+				transaction.set(book.numCopies, transaction.get(book.numCopies) + bookCopy.getNumCopies());
+
+				if (restock) {
+					transaction.set(book.numSaleMisses, 0L);
+				}
+
+				FaultInjector.ADD_COPIES_BOOK.inject();
+			}
+
+			return null;
+		});
+
+		changeJournal.record(bookCopiesSet.stream().map(BookCopy::getISBN).collect(Collectors.toList()));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	public List<StockBook> getBooks() throws BookStoreException {
+		return memory.atomic(transaction -> transaction.get(catalog).values().stream()
+				.map(book -> book.immutableStockBook(transaction))
+				.collect(Collectors.toList()));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks(int, int)
+	 */
+	public List<StockBook> getBooks(int afterISBN, int numBooks) throws BookStoreException {
+		indexLock.readLock().lock();
+
+		try {
+			return memory.atomic(transaction -> {
+				Map<Integer, TransactionalBook> books = transaction.get(catalog);
+				List<StockBook> result = new ArrayList<>();
+
+				for (BookStoreBook indexedBook : attributeIndex.startingAfter(afterISBN, numBooks)) {
+					if (result.size() == numBooks) {
+						break;
+					}
+
+					result.add(books.get(indexedBook.getISBN()).immutableStockBook(transaction));
+				}
+
+				return result;
+			});
+		} finally {
+			indexLock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		// Check that all ISBNs that we add/remove are there first.
+		if (editorPicks == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		memory.atomic(transaction -> {
+			List<TransactionalBook> books = new ArrayList<>();
+
+			for (BookEditorPick editorPickArg : editorPicks) {
+				books.add(readInStock(transaction, editorPickArg.getISBN()));
+			}
+
+			int i = 0;
+
+			for (BookEditorPick editorPickArg : editorPicks) {
+				transaction.set(books.get(i++).editorPick, editorPickArg.isEditorPick());
+			}
+
+			return null;
+		});
+
+		changeJournal.record(editorPicks.stream().map(BookEditorPick::getISBN).collect(Collectors.toList()));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		if (bookCopiesToBuy == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		// The block commits the misses of an order that cannot be satisfied
+		// and returns them, so that the exception is thrown after the commit.
+		Map<Integer, Integer> salesMisses = memory.atomic(transaction -> {
+			// Check that all ISBNs that we buy are there first.
+			Map<Integer, TransactionalBook> books = new HashMap<>();
+			Map<Integer, Integer> misses = new HashMap<>();
+
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				TransactionalBook book = validate(transaction, bookCopyToBuy);
+				int numCopies = transaction.get(book.numCopies);
+				books.put(bookCopyToBuy.getISBN(), book);
+
+				if (numCopies < bookCopyToBuy.getNumCopies()) {
+					// If we cannot sell the copies of the book, it is a miss.
+					misses.put(bookCopyToBuy.getISBN(), bookCopyToBuy.getNumCopies() - numCopies);
+				}
+				FaultInjector.BUY_BOOKS_CHECK.inject();
+			}
+
+			if (!misses.isEmpty()) {
+				for (Map.Entry<Integer, Integer> saleMissEntry : misses.entrySet()) {
+					TransactionalBook book = books.get(saleMissEntry.getKey());
+					transaction.set(book.numSaleMisses, transaction.get(book.numSaleMisses) + saleMissEntry.getValue());
+				}
+
+				return misses;
+			}
+
+			FaultInjector.BUY_BOOKS.inject();
+
+			// Then make the purchase.
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				FaultInjector.BUY_BOOKS_BOOK.inject();
+				TransactionalBook book = books.get(bookCopyToBuy.getISBN());
+				transaction.set(book.numCopies, transaction.get(book.numCopies) - bookCopyToBuy.getNumCopies());
+			}
+
+			return misses;
+		});
+
+		// We throw exception now since we want to see how many books in the
+		// order incurred misses which is used by books in demand
+		if (!salesMisses.isEmpty()) {
+			changeJournal.record(salesMisses.keySet());
+			throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+		}
+
+		changeJournal.record(bookCopiesToBuy.stream().map(BookCopy::getISBN).collect(Collectors.toList()));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		return memory.atomic(transaction -> {
+			List<StockBook> result = new ArrayList<>();
+
+			for (Integer ISBN : isbnSet) {
+				result.add(readInStock(transaction, ISBN).immutableStockBook(transaction));
+			}
+
+			return result;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		return memory.atomic(transaction -> {
+			List<Book> result = new ArrayList<>();
+
+			for (Integer ISBN : isbnSet) {
+				result.add(readInStock(transaction, ISBN).attributes.immutableBook());
+			}
+
+			return result;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		List<BookStoreBook> listAllEditorPicks = memory.atomic(transaction -> transaction.get(catalog).values()
+				.stream()
+				.filter(book -> transaction.get(book.editorPick))
+				.map(book -> book.attributes)
+				.collect(Collectors.toList()));
+
+		// Find numBooks random indices of books that will be picked.
+		Random rand = new Random();
+		Set<Integer> tobePicked = new HashSet<>();
+		int rangePicks = listAllEditorPicks.size();
+
+		if (rangePicks <= numBooks) {
+
+			// We need to add all books.
+			for (int i = 0; i < listAllEditorPicks.size(); i++) {
+				tobePicked.add(i);
+			}
+		} else {
+
+			// We need to pick randomly the books that need to be returned.
+			int randNum;
+
+			while (tobePicked.size() < numBooks) {
+				randNum = rand.nextInt(rangePicks);
+				tobePicked.add(randNum);
+			}
+		}
+
+		// Return all the books by the randomly chosen indices.
+		return tobePicked.stream()
+				.map(index -> listAllEditorPicks.get(index).immutableBook())
+				.collect(Collectors.toList());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#searchBooks(java.lang.
+	 * String, int, int)
+	 */
+	public List<Book> searchBooks(String query, int offset, int numBooks) throws BookStoreException {
+		indexLock.readLock().lock();
+
+		try {
+			List<Integer> isbns = searchIndex.search(query, offset, numBooks);
+
+			return memory.atomic(transaction -> {
+				Map<Integer, TransactionalBook> books = transaction.get(catalog);
+				return isbns.stream()
+						.map(isbn -> books.get(isbn).attributes.immutableBook())
+						.collect(Collectors.toList());
+			});
+		} finally {
+			indexLock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		throw new BookStoreException();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		throw new BookStoreException();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		throw new BookStoreException();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#queryBooks(com.
+	 * acertainbookstore.business.BookQuery)
+	 */
+	public List<StockBook> queryBooks(BookQuery query) throws BookStoreException {
+		indexLock.readLock().lock();
+
+		try {
+			return memory.atomic(transaction -> {
+				Map<Integer, TransactionalBook> books = transaction.get(catalog);
+				List<StockBook> result = new ArrayList<>();
+
+				for (BookStoreBook indexedBook : attributeIndex.candidates(query)) {
+					if (result.size() == query.getNumBooks()) {
+						break;
+					}
+
+					StockBook stockBook = books.get(indexedBook.getISBN()).immutableStockBook(transaction);
+					if (query.matchesState(stockBook)) {
+						result.add(stockBook);
+					}
+				}
+
+				return result;
+			});
+		} finally {
+			indexLock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getChangesSince(long)
+	 */
+	public CatalogChanges getChangesSince(long version) throws BookStoreException {
+		// The journal is written after a commit, so the books read afterwards
+		// are at least as recent as the version returned.
+		long currentVersion = changeJournal.getVersion();
+		Set<Integer> changedISBNs = changeJournal.changedSince(version);
+
+		if (changedISBNs == null) {
+			return new CatalogChanges(currentVersion, true, getBooks(), new ArrayList<>());
+		}
+
+		return memory.atomic(transaction -> {
+			Map<Integer, TransactionalBook> books = transaction.get(catalog);
+			List<StockBook> changedBooks = new ArrayList<>();
+			List<Integer> removedISBNs = new ArrayList<>();
+
+			for (int isbn : changedISBNs) {
+				TransactionalBook book = books.get(isbn);
+
+				if (book == null) {
+					removedISBNs.add(isbn);
+				} else {
+					changedBooks.add(book.immutableStockBook(transaction));
+				}
+			}
+
+			return new CatalogChanges(currentVersion, false, changedBooks, removedISBNs);
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	public void removeAllBooks() throws BookStoreException {
+		indexLock.writeLock().lock();
+
+		try {
+			memory.atomic(transaction -> {
+				transaction.set(catalog, Collections.emptyMap());
+				return null;
+			});
+
+			searchIndex.clear();
+			attributeIndex.clear();
+			changeJournal.recordAll();
+		} finally {
+			indexLock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		indexLock.writeLock().lock();
+
+		try {
+			List<TransactionalBook> removedBooks = memory.atomic(transaction -> {
+				Map<Integer, TransactionalBook> books = transaction.get(catalog);
+
+				for (Integer ISBN : isbnSet) {
+					readInStock(transaction, ISBN);
+				}
+
+				Map<Integer, TransactionalBook> newBooks = new HashMap<>(books);
+				List<TransactionalBook> removed = new ArrayList<>();
+
+				for (int isbn : isbnSet) {
+					removed.add(newBooks.remove(isbn));
+				}
+
+				transaction.set(catalog, Collections.unmodifiableMap(newBooks));
+				return removed;
+			});
+
+			for (TransactionalBook removedBook : removedBooks) {
+				searchIndex.remove(removedBook.attributes);
+				attributeIndex.remove(removedBook.attributes);
+			}
+
+			changeJournal.record(isbnSet);
+		} finally {
+			indexLock.writeLock().unlock();
+		}
+	}
+}
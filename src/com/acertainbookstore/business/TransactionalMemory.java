@@ -0,0 +1,344 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link TransactionalMemory} is a software transactional memory: shared state
+ * lives in transactional {@link Ref}s, and every access to them happens in an
+ * atomic block that either commits all its writes at once or retries.
+ *
+ * <p>
+ * It follows the TL2 design. A global clock is advanced by every commit that
+ * writes, and every ref carries the clock value of its last write. A
+ * transaction reads the clock when it starts and only accepts refs written up
+ * to that value, so every read sees a consistent snapshot, even in an attempt
+ * that will be retried. Writes are buffered. At commit, the transaction locks
+ * the refs it writes, advances the clock, checks that the refs it read have
+ * not been written since it started and publishes its writes. A transaction
+ * that meets a newer or locked ref is retried after a short random backoff;
+ * since locks are only tried, never waited for, transactions cannot deadlock.
+ *
+ * <p>
+ * A block retried {@link #MAX_OPTIMISTIC_ATTEMPTS} times could keep losing to
+ * the same writers, so it then runs holding the commit lock exclusively.
+ * Writing commits hold it shared, so no other commit can happen meanwhile and
+ * the block always completes.
+ */
+public class TransactionalMemory {
+
+	/**
+	 * The number of times a block is retried optimistically before it runs
+	 * holding the commit lock.
+	 */
+	public static final int MAX_OPTIMISTIC_ATTEMPTS = 16;
+
+	/**
+	 * {@link Ref} is a transactional reference to an immutable value.
+	 *
+	 * @param <T>
+	 *            the type of the value
+	 */
+	public static final class Ref<T> {
+
+		/**
+		 * The clock value of the last write shifted left by one, with the
+		 * lowest bit set while a committing transaction holds the ref.
+		 */
+		private final AtomicLong stamp;
+
+		/** The value, written under the lock of the ref. */
+		private volatile T value;
+
+		/**
+		 * Instantiates a new {@link Ref}.
+		 *
+		 * @param value
+		 *            the initial value
+		 */
+		private Ref(T value) {
+			this.value = value;
+			this.stamp = new AtomicLong(0);
+		}
+	}
+
+	/**
+	 * {@link Atomic} is an atomic block, run once per attempt.
+	 *
+	 * @param <R>
+	 *            the type of the result
+	 */
+	@FunctionalInterface
+	public interface Atomic<R> {
+
+		/**
+		 * Runs the block.
+		 *
+		 * @param transaction
+		 *            the transaction of the attempt
+		 * @return the result
+		 * @throws BookStoreException
+		 *             the book store exception, which abandons the writes of
+		 *             the block
+		 */
+		R run(Transaction transaction) throws BookStoreException;
+	}
+
+	/**
+	 * {@link RetryException} unwinds an attempt that has met a conflicting
+	 * write. It is thrown often and caught right away, so it carries no stack
+	 * trace.
+	 */
+	private static final class RetryException extends RuntimeException {
+
+		/** The Constant serialVersionUID. */
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * Instantiates a new {@link RetryException}.
+		 */
+		private RetryException() {
+			super(null, null, false, false);
+		}
+	}
+
+	/** The single instance of the retry, since it carries no state. */
+	private static final RetryException RETRY = new RetryException();
+
+	/** The longest backoff between two attempts in nanoseconds. */
+	private static final long MAX_BACKOFF_NANOS = 1_000_000;
+
+	/**
+	 * {@link Transaction} is one attempt of an atomic block.
+	 */
+	public final class Transaction {
+
+		/** The clock value the transaction reads at. */
+		private final long readVersion = clock.get();
+
+		/** The refs read. */
+		private final List<Ref<?>> readSet = new ArrayList<>();
+
+		/** The values written, by ref. */
+		private final Map<Ref<?>, Object> writeSet = new LinkedHashMap<>();
+
+		/**
+		 * Instantiates a new {@link Transaction}.
+		 */
+		private Transaction() {
+			// Only atomic blocks create transactions.
+		}
+
+		/**
+		 * Reads a ref.
+		 *
+		 * @param <T>
+		 *            the type of the value
+		 * @param ref
+		 *            the ref
+		 * @return the value the transaction has written, or else the value as
+		 *         of the start of the transaction
+		 */
+		@SuppressWarnings("unchecked")
+		public <T> T get(Ref<T> ref) {
+			if (writeSet.containsKey(ref)) {
+				return (T) writeSet.get(ref);
+			}
+
+			long stamp = ref.stamp.get();
+			T value = ref.value;
+
+			if ((stamp & 1) != 0 || stamp != ref.stamp.get() || (stamp >>> 1) > readVersion) {
+				throw RETRY;
+			}
+
+			readSet.add(ref);
+			return value;
+		}
+
+		/**
+		 * Writes a ref, visible to the other transactions once this one
+		 * commits.
+		 *
+		 * @param <T>
+		 *            the type of the value
+		 * @param ref
+		 *            the ref
+		 * @param value
+		 *            the value
+		 */
+		public <T> void set(Ref<T> ref, T value) {
+			writeSet.put(ref, value);
+		}
+
+		/**
+		 * Commits the writes of the transaction.
+		 *
+		 * @throws RetryException
+		 *             if a ref written is locked by another commit or a ref
+		 *             read has been written since the transaction started
+		 */
+		@SuppressWarnings("unchecked")
+		private void commit() {
+			if (writeSet.isEmpty()) {
+				return;
+			}
+
+			List<Ref<?>> locked = new ArrayList<>(writeSet.size());
+			commitLock.readLock().lock();
+
+			try {
+				for (Ref<?> ref : writeSet.keySet()) {
+					long stamp = ref.stamp.get();
+
+					if ((stamp & 1) != 0 || !ref.stamp.compareAndSet(stamp, stamp | 1)) {
+						throw RETRY;
+					}
+
+					locked.add(ref);
+				}
+
+				long writeVersion = clock.incrementAndGet();
+
+				// Nothing was committed since the transaction started, so
+				// nothing it read can have changed.
+				if (writeVersion != readVersion + 1) {
+					for (Ref<?> ref : readSet) {
+						long stamp = ref.stamp.get();
+
+						if ((stamp >>> 1) > readVersion || ((stamp & 1) != 0 && !writeSet.containsKey(ref))) {
+							throw RETRY;
+						}
+					}
+				}
+
+				for (Map.Entry<Ref<?>, Object> entry : writeSet.entrySet()) {
+					((Ref<Object>) entry.getKey()).value = entry.getValue();
+				}
+
+				for (Ref<?> ref : locked) {
+					ref.stamp.set(writeVersion << 1);
+				}
+
+				locked.clear();
+			} finally {
+				// Release the locks of an aborted commit, keeping the stamps.
+				for (Ref<?> ref : locked) {
+					ref.stamp.set(ref.stamp.get() & ~1L);
+				}
+
+				commitLock.readLock().unlock();
+			}
+		}
+	}
+
+	/** The global clock. */
+	private final AtomicLong clock = new AtomicLong(0);
+
+	/** The number of attempts that committed. */
+	private final AtomicLong numCommits = new AtomicLong(0);
+
+	/** The number of attempts that were retried. */
+	private final AtomicLong numRetries = new AtomicLong(0);
+
+	/** The number of blocks that ran holding the commit lock. */
+	private final AtomicLong numPessimisticRuns = new AtomicLong(0);
+
+	/**
+	 * The commit lock, held shared by the writing commits and exclusively by
+	 * a block retried too often.
+	 */
+	private final ReentrantReadWriteLock commitLock = new ReentrantReadWriteLock();
+
+	/**
+	 * Creates a ref. A ref created in an atomic block only becomes visible to
+	 * the other transactions through the refs the block writes.
+	 *
+	 * @param <T>
+	 *            the type of the value
+	 * @param value
+	 *            the initial value
+	 * @return the ref
+	 */
+	public <T> Ref<T> newRef(T value) {
+		return new Ref<>(value);
+	}
+
+	/**
+	 * Runs an atomic block, retrying it until it commits. A block failing
+	 * with a {@link BookStoreException} has read a consistent snapshot; its
+	 * writes are abandoned and the exception is thrown.
+	 *
+	 * @param <R>
+	 *            the type of the result
+	 * @param block
+	 *            the atomic block
+	 * @return the result of the attempt that committed
+	 * @throws BookStoreException
+	 *             the exception of the block
+	 */
+	public <R> R atomic(Atomic<R> block) throws BookStoreException {
+		long backoffNanos = 1_000;
+
+		for (int numAttempts = 0;; numAttempts++) {
+			boolean pessimistic = numAttempts >= MAX_OPTIMISTIC_ATTEMPTS;
+
+			if (pessimistic) {
+				commitLock.writeLock().lock();
+				numPessimisticRuns.incrementAndGet();
+			}
+
+			try {
+				Transaction transaction = new Transaction();
+				R result = block.run(transaction);
+				transaction.commit();
+				numCommits.incrementAndGet();
+				return result;
+			} catch (RetryException ex) {
+				numRetries.incrementAndGet();
+			} finally {
+				if (pessimistic) {
+					commitLock.writeLock().unlock();
+				}
+			}
+
+			LockSupport.parkNanos(ThreadLocalRandom.current().nextLong(backoffNanos));
+			backoffNanos = Math.min(backoffNanos * 2, MAX_BACKOFF_NANOS);
+		}
+	}
+
+	/**
+	 * Gets the number of atomic blocks that committed.
+	 *
+	 * @return the number of commits
+	 */
+	public long getNumCommits() {
+		return numCommits.get();
+	}
+
+	/**
+	 * Gets the number of attempts that were retried.
+	 *
+	 * @return the number of retries
+	 */
+	public long getNumRetries() {
+		return numRetries.get();
+	}
+
+	/**
+	 * Gets the number of blocks that ran holding the commit lock.
+	 *
+	 * @return the number of blocks
+	 */
+	public long getNumPessimisticRuns() {
+		return numPessimisticRuns.get();
+	}
+}
@@ -1,17 +1,22 @@
 package com.acertainbookstore.business;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.Random;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
+import com.acertainbookstore.business.LockManager.DeadlockPolicy;
+import com.acertainbookstore.business.LockManager.LockMode;
+import com.acertainbookstore.business.LockManager.Transaction;
 import com.acertainbookstore.interfaces.BookStore;
 import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.interfaces.StockRestorer;
 import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
 import com.acertainbookstore.utils.BookStoreUtility;
@@ -20,22 +25,118 @@ import com.acertainbookstore.utils.BookStoreUtility;
  * {@link TwoLevelLockingConcurrentCertainBookStore} implements the
  * {@link BookStore} and
  * {@link StockManager} functionalities.
- * 
+ *
+ * <p>
+ * Every operation is a transaction of the {@link LockManager}, following
+ * strict two-phase locking on two levels: the catalog is locked in shared
+ * mode by the operations on the books and in exclusive mode by the
+ * operations changing the set of books or the editor picks, and every book
+ * is locked in the mode it is accessed with. The books are locked in the
+ * order of their ISBNs and all locks are released when the operation ends.
+ * A transaction that would deadlock or waits longer than the lock timeout is
+ * aborted with a retryable exception before it has changed anything.
+ *
+ * <p>
+ * The books and the editor picks are held in an immutable {@link Catalog}
+ * that the operations changing the set of books or the editor picks replace
+ * under the exclusive catalog lock. The reads by ISBN and of the editor picks
+ * take the current catalog without the catalog lock and only lock the books
+ * they read; a serializable read retries if the catalog was replaced before
+ * it held all its book locks.
+ *
  * @see BookStore
  * @see StockManager
  */
-public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, StockManager {
+public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, StockManager, StockRestorer {
 
-	/** The mapping of books from ISBN to {@link BookStoreBook}. */
-	private Map<Integer, BookStoreBook> bookMap = null;
-	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	/** The isolation levels of the reads. */
+	public enum IsolationLevel {
+
+		/** The books read are locked until the operation ends. */
+		SERIALIZABLE,
+
+		/**
+		 * The books read are only locked while they are copied, so a read of
+		 * several books may see some of them before and some after a
+		 * concurrent purchase.
+		 */
+		READ_COMMITTED
+	}
+
+	/** The key of the catalog lock, below every valid ISBN. */
+	private static final int CATALOG = 0;
+
+	/**
+	 * {@link Catalog} is an immutable view of which books are in stock and
+	 * which of them are editor picks; the books themselves stay mutable under
+	 * their locks.
+	 */
+	private static final class Catalog {
+
+		/** The empty catalog. */
+		private static final Catalog EMPTY = new Catalog(PersistentIntMap.empty(), PersistentIntMap.empty());
+
+		/** The books by ISBN. */
+		private final PersistentIntMap<BookStoreBook> books;
+
+		/** The editor picks by ISBN. */
+		private final PersistentIntMap<BookStoreBook> editorPicks;
+
+		/**
+		 * Instantiates a new {@link Catalog}.
+		 *
+		 * @param books
+		 *            the books by ISBN
+		 * @param editorPicks
+		 *            the editor picks by ISBN
+		 */
+		private Catalog(PersistentIntMap<BookStoreBook> books, PersistentIntMap<BookStoreBook> editorPicks) {
+			this.books = books;
+			this.editorPicks = editorPicks;
+		}
+	}
+
+	/** The current catalog, only replaced under the exclusive catalog lock. */
+	private volatile Catalog catalog = Catalog.EMPTY;
+
+	/** The search index over the titles and authors of the books. */
+	private final BookSearchIndex searchIndex = new BookSearchIndex();
+
+	/** The price and author index over the books. */
+	private final BookAttributeIndex attributeIndex = new BookAttributeIndex();
+
+	/** The journal of the changes to the books, stamping every mutation. */
+	private final CatalogChangeJournal changeJournal = new CatalogChangeJournal();
+
+	/** The lock manager granting the catalog and book locks. */
+	private final LockManager lockManager;
+
+	/** The isolation level of the reads. */
+	private final IsolationLevel isolationLevel;
 
 	/**
 	 * Instantiates a new {@link CertainBookStore}.
 	 */
 	public TwoLevelLockingConcurrentCertainBookStore() {
+		this(DeadlockPolicy.DETECT, LockManager.DEFAULT_LOCK_TIMEOUT_MILLIS, IsolationLevel.SERIALIZABLE);
+	}
+
+	/**
+	 * Instantiates a new {@link CertainBookStore}.
+	 *
+	 * @param deadlockPolicy
+	 *            the policy handling deadlocks
+	 * @param lockTimeoutMillis
+	 *            the longest time an operation waits for a lock in
+	 *            milliseconds
+	 * @param isolationLevel
+	 *            the isolation level of the reads
+	 */
+	public TwoLevelLockingConcurrentCertainBookStore(DeadlockPolicy deadlockPolicy, long lockTimeoutMillis,
+			IsolationLevel isolationLevel) {
 		// Constructors are not synchronized
-		bookMap = new HashMap<>();
+		lockManager = new LockManager(deadlockPolicy, lockTimeoutMillis);
+		this.isolationLevel = isolationLevel;
 		System.out.println("Two");
 	}
 
@@ -66,39 +167,197 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
 		}
 
-		if (bookMap.containsKey(isbn)) {// Check if the book is not in stock
+		if (catalog.books.containsKey(isbn)) {// Check if the book is not in stock
 			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
 		}
 	}
 
-	private void validate(BookCopy bookCopy) throws BookStoreException {
-		int isbn = bookCopy.getISBN();
-		int numCopies = bookCopy.getNumCopies();
+	/**
+	 * Validates book copies and resolves their books, looking every ISBN up
+	 * once. The messages are only built when a check fails.
+	 *
+	 * @param bookCopies
+	 *            the book copies
+	 * @param catalog
+	 *            the catalog
+	 * @return the resolved books
+	 * @throws BookStoreException
+	 *             if an ISBN is invalid or not in stock, or a number of
+	 *             copies is not positive
+	 */
+	private BookBatch resolve(Set<BookCopy> bookCopies, Catalog catalog) throws BookStoreException {
+		BookBatch batch = new BookBatch(bookCopies.size());
+
+		for (BookCopy bookCopy : bookCopies) {
+			int numCopies = bookCopy.getNumCopies();
+			BookStoreBook book = resolveISBNInStock(bookCopy.getISBN(), catalog); // Check if the book has valid ISBN and in stock
 
-		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+			if (BookStoreUtility.isInvalidNoCopies(numCopies)) { // Check if the number of the book copy is larger than zero
+				throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
+			}
 
-		if (BookStoreUtility.isInvalidNoCopies(numCopies)) { // Check if the number of the book copy is larger than zero
-			throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
+			batch.add(book, numCopies);
 		}
+
+		return batch;
 	}
 
-	private void validate(BookEditorPick editorPickArg) throws BookStoreException {
-		int isbn = editorPickArg.getISBN();
-		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+	private BookStoreBook resolveISBNInStock(int isbn, Catalog catalog) throws BookStoreException {
+		if (BookStoreUtility.isInvalidISBN(isbn)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+		}
+
+		BookStoreBook book = catalog.books.get(isbn);
+
+		if (book == null) {// Check if the book is in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.NOT_AVAILABLE);
+		}
+
+		return book;
 	}
 
-	private void validateISBNInStock(Integer ISBN) throws BookStoreException {
-		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
-			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+	/**
+	 * Locks books in exclusive mode, in the order of their ISBNs.
+	 *
+	 * @param transaction
+	 *            the transaction
+	 * @param isbns
+	 *            the ISBNs of the books
+	 * @throws BookStoreException
+	 *             if the transaction is aborted
+	 */
+	private void lockBooks(Transaction transaction, Set<Integer> isbns) throws BookStoreException {
+		for (int isbn : new TreeSet<>(isbns)) {
+			transaction.lock(isbn, LockMode.EXCLUSIVE);
 		}
-		if (!bookMap.containsKey(ISBN)) {// Check if the book is in stock
-			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+	}
+
+	/**
+	 * Locks the books of a batch in exclusive mode, in the order of their
+	 * ISBNs.
+	 *
+	 * @param transaction
+	 *            the transaction
+	 * @param batch
+	 *            the books
+	 * @throws BookStoreException
+	 *             if the transaction is aborted
+	 */
+	private void lockBooks(Transaction transaction, BookBatch batch) throws BookStoreException {
+		for (int isbn : batch.sortedISBNs()) {
+			transaction.lock(isbn, LockMode.EXCLUSIVE);
 		}
 	}
 
+	/**
+	 * Reads a book under a shared lock, released at once unless the reads are
+	 * serializable.
+	 *
+	 * @param <T>
+	 *            the type of the copy
+	 * @param transaction
+	 *            the transaction
+	 * @param book
+	 *            the book
+	 * @param copy
+	 *            the function copying the book
+	 * @return the copy
+	 * @throws BookStoreException
+	 *             if the transaction is aborted
+	 */
+	private <T> T read(Transaction transaction, BookStoreBook book, Function<BookStoreBook, T> copy)
+			throws BookStoreException {
+		transaction.lock(book.getISBN(), LockMode.SHARED);
+		T result = copy.apply(book);
+
+		if (isolationLevel == IsolationLevel.READ_COMMITTED) {
+			transaction.unlockShared(book.getISBN());
+		}
+
+		return result;
+	}
+
+	/**
+	 * Reads books under shared locks taken in the order of their ISBNs.
+	 *
+	 * @param <T>
+	 *            the type of the copies
+	 * @param transaction
+	 *            the transaction
+	 * @param catalog
+	 *            the catalog
+	 * @param isbns
+	 *            the ISBNs of the books, all in the catalog
+	 * @param copy
+	 *            the function copying a book
+	 * @return the copies, in the order of the ISBNs given
+	 * @throws BookStoreException
+	 *             if the transaction is aborted
+	 */
+	private <T> List<T> readAll(Transaction transaction, Catalog catalog, Collection<Integer> isbns,
+			Function<BookStoreBook, T> copy) throws BookStoreException {
+		Map<Integer, T> copies = new HashMap<>();
+
+		for (int isbn : new TreeSet<>(isbns)) {
+			copies.put(isbn, read(transaction, catalog.books.get(isbn), copy));
+		}
+
+		return isbns.stream().map(copies::get).collect(Collectors.toList());
+	}
+
+	/**
+	 * Reads books of the current catalog without the catalog lock. The read
+	 * is repeated while the catalog is replaced before the reads of a
+	 * serializable transaction hold all their book locks, so the books read
+	 * are those of the catalog current when the read completed.
+	 *
+	 * @param <T>
+	 *            the type of the result
+	 * @param transaction
+	 *            the transaction
+	 * @param read
+	 *            the read of the books of a catalog
+	 * @return the result
+	 * @throws BookStoreException
+	 *             if the read fails or the transaction is aborted
+	 */
+	private <T> T readCatalog(Transaction transaction, CatalogRead<T> read) throws BookStoreException {
+		while (true) {
+			Catalog current = catalog;
+			T result = read.apply(transaction, current);
+
+			if (isolationLevel == IsolationLevel.READ_COMMITTED || current == catalog) {
+				return result;
+			}
+		}
+	}
+
+	/**
+	 * {@link CatalogRead} is a read of the books of a catalog.
+	 *
+	 * @param <T>
+	 *            the type of the result
+	 */
+	@FunctionalInterface
+	private interface CatalogRead<T> {
+
+		/**
+		 * Reads the books of a catalog.
+		 *
+		 * @param transaction
+		 *            the transaction
+		 * @param catalog
+		 *            the catalog
+		 * @return the result
+		 * @throws BookStoreException
+		 *             if the read fails or the transaction is aborted
+		 */
+		T apply(Transaction transaction, Catalog catalog) throws BookStoreException;
+	}
+
 	/*
 	 * (non-Javadoc)
-	 * 
+	 *
 	 * @see
 	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
 	 */
@@ -107,103 +366,160 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
-		// Check if all are there
-		for (StockBook book : bookSet) {
-			validate(book);
-		}
-		lock.writeLock().lock();
-		try {
+		try (Transaction transaction = lockManager.begin()) {
+			transaction.lock(CATALOG, LockMode.EXCLUSIVE);
+
+			// Check if all are there
+			for (StockBook book : bookSet) {
+				validate(book);
+			}
+
+			PersistentIntMap<BookStoreBook> books = catalog.books;
+			PersistentIntMap<BookStoreBook> editorPicks = catalog.editorPicks;
+
+			FaultInjector.ADD_BOOKS.inject();
 
 			for (StockBook book : bookSet) {
 				int isbn = book.getISBN();
-				bookMap.put(isbn, new BookStoreBook(book));
+				BookStoreBook bookStoreBook = new BookStoreBook(book);
+				books = books.put(isbn, bookStoreBook);
+
+				if (bookStoreBook.isEditorPick()) {
+					editorPicks = editorPicks.put(isbn, bookStoreBook);
+				}
+
+				searchIndex.add(book);
+				attributeIndex.add(bookStoreBook);
+				FaultInjector.ADD_BOOKS_BOOK.inject();
 			}
-		} finally {
-			lock.writeLock().unlock();
+
+			catalog = new Catalog(books, editorPicks);
+			changeJournal.record(bookSet.stream().map(StockBook::getISBN).collect(Collectors.toList()));
 		}
 	}
 
 	/*
 	 * (non-Javadoc)
-	 * 
+	 *
 	 * @see
 	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
 	 */
 	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
-		lock.readLock().lock();
-		try {
-			int isbn;
-			int numCopies;
+		addCopies(bookCopiesSet, true);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockRestorer#restoreCopies(java.util.
+	 * Set)
+	 */
+	public void restoreCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		addCopies(bookCopiesSet, false);
+	}
+
+	/**
+	 * Adds copies of the existing books, either restocking them or putting
+	 * back the copies of a purchase that did not happen.
+	 *
+	 * @param bookCopiesSet
+	 *            the book copies set
+	 * @param restock
+	 *            true to reset the sale misses of the books
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private void addCopies(Set<BookCopy> bookCopiesSet, boolean restock) throws BookStoreException {
+		try (Transaction transaction = lockManager.begin()) {
+			transaction.lock(CATALOG, LockMode.SHARED);
 
 			if (bookCopiesSet == null) {
 				throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 			}
 
-			for (BookCopy bookCopy : bookCopiesSet) {
-				validate(bookCopy);
-			}
+			BookBatch batch = resolve(bookCopiesSet, catalog);
+			lockBooks(transaction, batch);
 
-			BookStoreBook book;
+			FaultInjector.ADD_COPIES.inject();
 
 			// Update the number of copies
-			for (BookCopy bookCopy : bookCopiesSet) {
-				isbn = bookCopy.getISBN();
-				numCopies = bookCopy.getNumCopies();
-				book = bookMap.get(isbn);
-				book.lock.writeLock().lock();
-				try {
-					Thread.sleep(1);
-				} catch (InterruptedException e) {
-					e.printStackTrace();
+			for (int i = 0; i < batch.size(); i++) {
+				FaultInjector.ADD_COPIES_BOOK.inject();
+
+				if (restock) {
+					batch.getBook(i).addCopies(batch.getNumCopies(i));
+				} else {
+					batch.getBook(i).restoreCopies(batch.getNumCopies(i));
 				}
-				book.addCopies(numCopies);
 			}
 
-			for (BookCopy bookCopy : bookCopiesSet) {
-				isbn = bookCopy.getISBN();
-				book = bookMap.get(isbn);
-				book.lock.writeLock().unlock();
-			}
-		} finally {
-			lock.readLock().unlock();
+			// The changes are recorded before the books are unlocked, so a
+			// reader that sees the new version also sees the changed books.
+			batch.recordIn(changeJournal);
 		}
 	}
 
 	/*
 	 * (non-Javadoc)
-	 * 
+	 *
 	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
 	 */
-	public List<StockBook> getBooks() {
-		lock.readLock().lock();
-		try {
-			Collection<BookStoreBook> bookMapValues = bookMap.values();
+	public List<StockBook> getBooks() throws BookStoreException {
+		try (Transaction transaction = lockManager.begin()) {
+			return readCatalog(transaction, this::listBooks);
+		}
+	}
 
-			bookMapValues.stream().forEach(book -> book.lock.readLock().lock());
-			try {
-				List<StockBook> result = bookMapValues.stream()
-						.map(book -> book.immutableStockBook())
-						.collect(Collectors.toList());
+	/**
+	 * Lists all the books of a catalog.
+	 *
+	 * @param transaction
+	 *            the transaction
+	 * @param catalog
+	 *            the catalog
+	 * @return the books
+	 * @throws BookStoreException
+	 *             if the transaction is aborted
+	 */
+	private List<StockBook> listBooks(Transaction transaction, Catalog catalog) throws BookStoreException {
+		return readAll(transaction, catalog, catalog.books.keys(), BookStoreBook::immutableStockBook);
+	}
 
-				return result;
-			} finally {
-				bookMapValues.stream().forEach(book -> book.lock.readLock().unlock());
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks(int, int)
+	 */
+	public List<StockBook> getBooks(int afterISBN, int numBooks) throws BookStoreException {
+		try (Transaction transaction = lockManager.begin()) {
+			transaction.lock(CATALOG, LockMode.SHARED);
+			List<StockBook> result = new ArrayList<>();
+
+			for (BookStoreBook book : attributeIndex.startingAfter(afterISBN, numBooks)) {
+				if (result.size() == numBooks) {
+					break;
+				}
+
+				result.add(read(transaction, book, BookStoreBook::immutableStockBook));
 			}
-		} finally {
-			lock.readLock().unlock();
+
+			return result;
 		}
 	}
 
 	/*
 	 * (non-Javadoc)
-	 * 
+	 *
 	 * @see
 	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
 	 * .Set)
 	 */
 	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
-		lock.writeLock().lock();
-		try {
+		try (Transaction transaction = lockManager.begin()) {
+			// The editor picks are part of the catalog, so they are changed
+			// under the exclusive catalog lock.
+			transaction.lock(CATALOG, LockMode.EXCLUSIVE);
 
 			// Check that all ISBNs that we add/remove are there first.
 			if (editorPicks == null) {
@@ -211,52 +527,48 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 			}
 
 			for (BookEditorPick editorPickArg : editorPicks) {
-				validate(editorPickArg);
+				resolveISBNInStock(editorPickArg.getISBN(), catalog); // Check if the book has valid ISBN and in stock
 			}
 
+			// The books are read without the catalog lock, so the flags are
+			// changed under the book locks.
+			lockBooks(transaction, editorPicks.stream().map(BookEditorPick::getISBN).collect(Collectors.toSet()));
+			PersistentIntMap<BookStoreBook> books = catalog.books;
+			PersistentIntMap<BookStoreBook> newEditorPicks = catalog.editorPicks;
+
 			for (BookEditorPick editorPickArg : editorPicks) {
-				BookStoreBook book = bookMap.get(editorPickArg.getISBN());
-				book.lock.writeLock().lock();
+				int isbn = editorPickArg.getISBN();
+				BookStoreBook book = books.get(isbn);
 				book.setEditorPick(editorPickArg.isEditorPick());
-				book.lock.writeLock().unlock();
-
+				newEditorPicks = editorPickArg.isEditorPick() ? newEditorPicks.put(isbn, book)
+						: newEditorPicks.remove(isbn);
 			}
-		} finally {
-			lock.writeLock().unlock();
+
+			catalog = new Catalog(books, newEditorPicks);
+			changeJournal.record(editorPicks.stream().map(BookEditorPick::getISBN).collect(Collectors.toList()));
 		}
 	}
 
 	/*
 	 * (non-Javadoc)
-	 * 
+	 *
 	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
 	 */
 	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
-		lock.readLock().lock();
-		try {
+		try (Transaction transaction = lockManager.begin()) {
+			transaction.lock(CATALOG, LockMode.SHARED);
 
 			if (bookCopiesToBuy == null) {
 				throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 			}
 
 			// Check that all ISBNs that we buy are there first.
-			int isbn;
-			BookStoreBook book;
-			Boolean saleMiss = false;
-
-			Map<Integer, Integer> salesMisses = new HashMap<>();
-
-			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
-				isbn = bookCopyToBuy.getISBN();
+			BookBatch batch = resolve(bookCopiesToBuy, catalog);
+			lockBooks(transaction, batch);
+			boolean saleMiss = false;
 
-				validate(bookCopyToBuy);
-
-				book = bookMap.get(isbn);
-				book.lock.writeLock().lock();
-
-				if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
-					// If we cannot sell the copies of the book, it is a miss.
-					salesMisses.put(isbn, bookCopyToBuy.getNumCopies() - book.getNumCopies());
+			for (int i = 0; i < batch.size(); i++) {
+				if (!batch.getBook(i).areCopiesInStore(batch.getNumCopies(i))) {
 					saleMiss = true;
 				}
 			}
@@ -264,158 +576,164 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 			// We throw exception now since we want to see how many books in the
 			// order incurred misses which is used by books in demand
 			if (saleMiss) {
-				for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
-					book = bookMap.get(saleMissEntry.getKey());
-					book.addSaleMiss(saleMissEntry.getValue());
+				// If we cannot sell the copies of a book, it is a miss.
+				Map<Integer, Integer> salesMisses = new HashMap<>();
+
+				for (int i = 0; i < batch.size(); i++) {
+					BookStoreBook book = batch.getBook(i);
+
+					if (!book.areCopiesInStore(batch.getNumCopies(i))) {
+						salesMisses.put(book.getISBN(), batch.getNumCopies(i) - book.getNumCopies());
+					}
 				}
-				// also release all the locks
-				for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
-					isbn = bookCopyToBuy.getISBN();
-					book = bookMap.get(isbn);
-					book.lock.writeLock().unlock();
+
+				for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
+					catalog.books.get(saleMissEntry.getKey()).addSaleMiss(saleMissEntry.getValue());
 				}
+
+				changeJournal.record(salesMisses.keySet());
 				throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
 			}
 
+			FaultInjector.BUY_BOOKS.inject();
+
 			// Then make the purchase.
-			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
-				try {
-					Thread.sleep(1);
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
-				book = bookMap.get(bookCopyToBuy.getISBN());
-				book.buyCopies(bookCopyToBuy.getNumCopies());
-			}
-			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
-				book = bookMap.get(bookCopyToBuy.getISBN());
-				book.lock.writeLock().unlock();
+			for (int i = 0; i < batch.size(); i++) {
+				FaultInjector.BUY_BOOKS_BOOK.inject();
+				batch.getBook(i).buyCopies(batch.getNumCopies(i));
 			}
-		} finally {
-			lock.readLock().unlock();
+
+			batch.recordIn(changeJournal);
 		}
 	}
 
 	/*
 	 * (non-Javadoc)
-	 * 
+	 *
 	 * @see
 	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
 	 * Set)
 	 */
 	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
-		lock.readLock().lock();
-		try {
-			if (isbnSet == null) {
-				throw new BookStoreException(BookStoreConstants.NULL_INPUT);
-			}
-
-			for (Integer ISBN : isbnSet) {
-				validateISBNInStock(ISBN);
-			}
-			isbnSet.stream().forEach(isbn -> bookMap.get(isbn).lock.readLock().lock());
-
-			try {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
 
-				List<StockBook> result = isbnSet.stream()
-						.map(isbn -> bookMap.get(isbn).immutableStockBook())
-						.collect(Collectors.toList());
+		try (Transaction transaction = lockManager.begin()) {
+			return readCatalog(transaction, (reader, current) -> {
+				for (Integer ISBN : isbnSet) {
+					resolveISBNInStock(ISBN, current);
+				}
 
-				return result;
-			} finally {
-				isbnSet.stream().forEach(isbn -> bookMap.get(isbn).lock.readLock().unlock());
-			}
-		} finally {
-			lock.readLock().unlock();
+				return readAll(reader, current, isbnSet, BookStoreBook::immutableStockBook);
+			});
 		}
 	}
 
 	/*
 	 * (non-Javadoc)
-	 * 
+	 *
 	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
 	 */
 	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
-		lock.readLock().lock();
-		try {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
 
-			if (isbnSet == null) {
-				throw new BookStoreException(BookStoreConstants.NULL_INPUT);
-			}
+		try (Transaction transaction = lockManager.begin()) {
+			return readCatalog(transaction, (reader, current) -> {
+				// Check that all ISBNs that we rate are there to start with.
+				for (Integer ISBN : isbnSet) {
+					resolveISBNInStock(ISBN, current);
+				}
 
-			// Check that all ISBNs that we rate are there to start with.
-			for (Integer ISBN : isbnSet) {
-				validateISBNInStock(ISBN);
-			}
-			isbnSet.stream().forEach(isbn -> bookMap.get(isbn).lock.readLock().lock());
-			try {
-				return isbnSet.stream()
-						.map(isbn -> bookMap.get(isbn).immutableBook())
-						.collect(Collectors.toList());
-			} finally {
-				isbnSet.stream().forEach(isbn -> bookMap.get(isbn).lock.readLock().unlock());
-			}
-		} finally {
-			lock.readLock().unlock();
+				return readAll(reader, current, isbnSet, BookStoreBook::immutableBook);
+			});
 		}
 	}
 
 	/*
 	 * (non-Javadoc)
-	 * 
+	 *
 	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
 	 */
 	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
-		lock.readLock().lock();
-		try {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
 
-			if (numBooks < 0) {
-				throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
-			}
+		try (Transaction transaction = lockManager.begin()) {
+			return readCatalog(transaction, (reader, current) -> pickEditorPicks(reader, current, numBooks));
+		}
+	}
 
-			List<BookStoreBook> listAllEditorPicks = bookMap.entrySet().stream()
-					.map(pair -> pair.getValue())
-					.filter(book -> book.isEditorPick())
-					.collect(Collectors.toList());
+	/**
+	 * Picks editor picks of a catalog at random.
+	 *
+	 * @param transaction
+	 *            the transaction
+	 * @param catalog
+	 *            the catalog
+	 * @param numBooks
+	 *            the number of editor picks
+	 * @return the editor picks
+	 * @throws BookStoreException
+	 *             if the transaction is aborted
+	 */
+	private List<Book> pickEditorPicks(Transaction transaction, Catalog catalog, int numBooks)
+			throws BookStoreException {
+		List<BookStoreBook> listAllEditorPicks = catalog.editorPicks.values();
 
-			// Find numBooks random indices of books that will be picked.
-			Random rand = new Random();
-			Set<Integer> tobePicked = new HashSet<>();
-			int rangePicks = listAllEditorPicks.size();
+		// Find numBooks random indices of books that will be picked.
+		Random rand = new Random();
+		Set<Integer> tobePicked = new HashSet<>();
+		int rangePicks = listAllEditorPicks.size();
 
-			if (rangePicks <= numBooks) {
+		if (rangePicks <= numBooks) {
 
-				// We need to add all books.
-				for (int i = 0; i < listAllEditorPicks.size(); i++) {
-					tobePicked.add(i);
-				}
-			} else {
-				// We need to pick randomly the books that need to be returned.
-				int randNum;
+			// We need to add all books.
+			for (int i = 0; i < listAllEditorPicks.size(); i++) {
+				tobePicked.add(i);
+			}
+		} else {
+			// We need to pick randomly the books that need to be returned.
+			int randNum;
 
-				while (tobePicked.size() < numBooks) {
-					randNum = rand.nextInt(rangePicks);
-					tobePicked.add(randNum);
-				}
+			while (tobePicked.size() < numBooks) {
+				randNum = rand.nextInt(rangePicks);
+				tobePicked.add(randNum);
 			}
+		}
 
-			List<BookStoreBook> books = tobePicked.stream().map(index -> listAllEditorPicks.get(index))
+		// Return all the books by the randomly chosen indices.
+		Set<Integer> isbns = tobePicked.stream().map(index -> listAllEditorPicks.get(index).getISBN())
+				.collect(Collectors.toSet());
+		return readAll(transaction, catalog, isbns, BookStoreBook::immutableBook);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#searchBooks(java.lang.
+	 * String, int, int)
+	 */
+	public List<Book> searchBooks(String query, int offset, int numBooks) throws BookStoreException {
+		try (Transaction transaction = lockManager.begin()) {
+			transaction.lock(CATALOG, LockMode.SHARED);
+
+			// Titles, authors and prices never change, so the books need not
+			// be locked.
+			List<Integer> isbns = searchIndex.search(query, offset, numBooks);
+			PersistentIntMap<BookStoreBook> books = catalog.books;
+			return isbns.stream()
+					.map(isbn -> books.get(isbn).immutableBook())
 					.collect(Collectors.toList());
-			books.forEach(book -> book.lock.readLock().lock());
-			try {
-				// Return all the books by the randomly chosen indices.
-				return books.stream().map(book -> book.immutableBook()).collect(Collectors.toList());
-			} finally {
-				books.forEach(book -> book.lock.readLock().unlock());
-			}
-		} finally {
-			lock.readLock().unlock();
 		}
 	}
 
 	/*
 	 * (non-Javadoc)
-	 * 
+	 *
 	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
 	 */
 	@Override
@@ -425,7 +743,7 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 
 	/*
 	 * (non-Javadoc)
-	 * 
+	 *
 	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
 	 */
 	@Override
@@ -435,7 +753,7 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 
 	/*
 	 * (non-Javadoc)
-	 * 
+	 *
 	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
 	 */
 	@Override
@@ -445,36 +763,131 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 
 	/*
 	 * (non-Javadoc)
-	 * 
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#queryBooks(com.
+	 * acertainbookstore.business.BookQuery)
+	 */
+	public List<StockBook> queryBooks(BookQuery query) throws BookStoreException {
+		try (Transaction transaction = lockManager.begin()) {
+			transaction.lock(CATALOG, LockMode.SHARED);
+			List<StockBook> result = new ArrayList<>();
+
+			for (BookStoreBook book : attributeIndex.candidates(query)) {
+				if (result.size() == query.getNumBooks()) {
+					break;
+				}
+
+				StockBook stockBook = read(transaction, book, BookStoreBook::immutableStockBook);
+
+				if (query.matchesState(stockBook)) {
+					result.add(stockBook);
+				}
+			}
+
+			return result;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getChangesSince(long)
+	 */
+	public CatalogChanges getChangesSince(long version) throws BookStoreException {
+		try (Transaction transaction = lockManager.begin()) {
+			transaction.lock(CATALOG, LockMode.SHARED);
+
+			// The version is read first: the books read afterwards include
+			// every change up to it, and possibly newer ones that the client
+			// will be sent again in its next call.
+			long currentVersion = changeJournal.getVersion();
+			Set<Integer> changedISBNs = changeJournal.changedSince(version);
+			Catalog current = catalog;
+
+			if (changedISBNs == null) {
+				return new CatalogChanges(currentVersion, true, listBooks(transaction, current), new ArrayList<>());
+			}
+
+			List<StockBook> changedBooks = new ArrayList<>();
+			List<Integer> removedISBNs = new ArrayList<>();
+
+			for (int isbn : new TreeSet<>(changedISBNs)) {
+				BookStoreBook book = current.books.get(isbn);
+
+				if (book == null) {
+					removedISBNs.add(isbn);
+				} else {
+					changedBooks.add(read(transaction, book, BookStoreBook::immutableStockBook));
+				}
+			}
+
+			return new CatalogChanges(currentVersion, false, changedBooks, removedISBNs);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
 	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
 	 */
 	public void removeAllBooks() throws BookStoreException {
-		bookMap.clear();
+		try (Transaction transaction = lockManager.begin()) {
+			transaction.lock(CATALOG, LockMode.EXCLUSIVE);
+			catalog = Catalog.EMPTY;
+			searchIndex.clear();
+			attributeIndex.clear();
+			changeJournal.recordAll();
+		}
 	}
 
 	/*
 	 * (non-Javadoc)
-	 * 
+	 *
 	 * @see
 	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
 	 */
 	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
-		if (isbnSet == null) {
-			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
-		}
+		try (Transaction transaction = lockManager.begin()) {
+			transaction.lock(CATALOG, LockMode.EXCLUSIVE);
 
-		for (Integer ISBN : isbnSet) {
-			if (BookStoreUtility.isInvalidISBN(ISBN)) {
-				throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+			if (isbnSet == null) {
+				throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 			}
 
-			if (!bookMap.containsKey(ISBN)) {
-				throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+			for (Integer ISBN : isbnSet) {
+				if (BookStoreUtility.isInvalidISBN(ISBN)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+				}
+
+				if (!catalog.books.containsKey(ISBN)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+				}
 			}
-		}
 
-		for (int isbn : isbnSet) {
-			bookMap.remove(isbn);
+			PersistentIntMap<BookStoreBook> books = catalog.books;
+			PersistentIntMap<BookStoreBook> editorPicks = catalog.editorPicks;
+
+			for (int isbn : isbnSet) {
+				BookStoreBook removedBook = books.get(isbn);
+				books = books.remove(isbn);
+				editorPicks = editorPicks.remove(isbn);
+				searchIndex.remove(removedBook);
+				attributeIndex.remove(removedBook);
+			}
+
+			catalog = new Catalog(books, editorPicks);
+
+			changeJournal.record(isbnSet);
 		}
 	}
+
+	/**
+	 * Gets the lock manager, e.g. to read its wait and abort counts.
+	 *
+	 * @return the lock manager
+	 */
+	public LockManager getLockManager() {
+		return lockManager;
+	}
 }
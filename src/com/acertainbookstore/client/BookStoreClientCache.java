@@ -0,0 +1,182 @@
+package com.acertainbookstore.client;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.acertainbookstore.business.Book;
+
+/**
+ * {@link BookStoreClientCache} is a bounded read-through cache of the books
+ * returned to a {@link BookStoreHTTPProxy}. Entries are evicted in least
+ * recently used order once the capacity is reached and expire after a fixed
+ * time to live. The whole cache is invalidated as soon as the server reports a
+ * newer catalog version.
+ *
+ * @see BookStoreHTTPProxy
+ */
+public class BookStoreClientCache {
+
+	/**
+	 * {@link CachedBook} holds a cached book together with its expiry time.
+	 */
+	private static final class CachedBook {
+
+		/** The book. */
+		private final Book book;
+
+		/** The expiry time in nanoseconds. */
+		private final long expiresAt;
+
+		/**
+		 * Instantiates a new {@link CachedBook}.
+		 *
+		 * @param book
+		 *            the book
+		 * @param expiresAt
+		 *            the expiry time in nanoseconds
+		 */
+		private CachedBook(Book book, long expiresAt) {
+			this.book = book;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	/** The cached books in least recently used order. */
+	private final LinkedHashMap<Integer, CachedBook> books;
+
+	/** The time to live of an entry in nanoseconds. */
+	private final long timeToLiveNanos;
+
+	/** The latest catalog version seen from the server. */
+	private long version = 0;
+
+	/**
+	 * Instantiates a new {@link BookStoreClientCache}.
+	 *
+	 * @param capacity
+	 *            the maximum number of cached books
+	 * @param timeToLiveMillis
+	 *            the time to live of an entry in milliseconds
+	 */
+	public BookStoreClientCache(final int capacity, long timeToLiveMillis) {
+		if (capacity < 1 || timeToLiveMillis < 1) {
+			throw new IllegalArgumentException("The cache capacity and time to live must be positive");
+		}
+
+		this.timeToLiveNanos = timeToLiveMillis * 1000000L;
+		this.books = new LinkedHashMap<Integer, CachedBook>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, CachedBook> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * Gets the cached book with the given ISBN.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the book, or null if it is not cached or has expired
+	 */
+	public synchronized Book get(int isbn) {
+		CachedBook cachedBook = books.get(isbn);
+
+		if (cachedBook == null) {
+			return null;
+		}
+
+		if (System.nanoTime() - cachedBook.expiresAt > 0) {
+			books.remove(isbn);
+			return null;
+		}
+
+		return cachedBook.book;
+	}
+
+	/**
+	 * Gets the cached books with the given ISBNs, all cached under the same
+	 * catalog version.
+	 *
+	 * @param isbns
+	 *            the ISBNs
+	 * @param hits
+	 *            the list the cached books are added to
+	 * @param misses
+	 *            the collection the ISBNs of the books that are not cached or
+	 *            have expired are added to
+	 * @return the catalog version of the cached books
+	 */
+	public synchronized long getAll(Collection<Integer> isbns, List<Book> hits, Collection<Integer> misses) {
+		for (Integer isbn : isbns) {
+			Book book = (isbn == null) ? null : get(isbn);
+
+			if (book == null) {
+				misses.add(isbn);
+			} else {
+				hits.add(book);
+			}
+		}
+
+		return version;
+	}
+
+	/**
+	 * Records the catalog version of a server response and drops all cached
+	 * books if the catalog changed since they were cached.
+	 *
+	 * @param responseVersion
+	 *            the catalog version of the response
+	 */
+	public synchronized void observeVersion(long responseVersion) {
+		if (responseVersion > version) {
+			books.clear();
+			version = responseVersion;
+		}
+	}
+
+	/**
+	 * Caches the books of a server response. Books stamped with an older
+	 * catalog version than the latest one seen are not cached.
+	 *
+	 * @param responseVersion
+	 *            the catalog version of the response
+	 * @param responseBooks
+	 *            the books of the response
+	 */
+	public synchronized void putAll(long responseVersion, List<Book> responseBooks) {
+		observeVersion(responseVersion);
+
+		if (responseVersion < version) {
+			return;
+		}
+
+		long expiresAt = System.nanoTime() + timeToLiveNanos;
+
+		for (Book book : responseBooks) {
+			books.put(book.getISBN(), new CachedBook(book, expiresAt));
+		}
+	}
+
+	/**
+	 * Removes all cached books.
+	 */
+	public synchronized void clear() {
+		books.clear();
+	}
+
+	/**
+	 * Gets the number of cached books, including expired ones that have not
+	 * been evicted yet.
+	 *
+	 * @return the size
+	 */
+	public synchronized int size() {
+		return books.size();
+	}
+}
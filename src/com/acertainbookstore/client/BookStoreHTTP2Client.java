@@ -0,0 +1,457 @@
+package com.acertainbookstore.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpURI;
+import org.eclipse.jetty.http.HttpVersion;
+import org.eclipse.jetty.http.MetaData;
+import org.eclipse.jetty.http2.ErrorCode;
+import org.eclipse.jetty.http2.api.Session;
+import org.eclipse.jetty.http2.api.Stream;
+import org.eclipse.jetty.http2.client.HTTP2Client;
+import org.eclipse.jetty.http2.frames.DataFrame;
+import org.eclipse.jetty.http2.frames.HeadersFrame;
+import org.eclipse.jetty.http2.frames.ResetFrame;
+import org.eclipse.jetty.http2.frames.SettingsFrame;
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.util.FuturePromise;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+import com.acertainbookstore.interfaces.BookStoreSerializer;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreContentEncoding;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreRequest;
+import com.acertainbookstore.utils.BookStoreResponse;
+import com.acertainbookstore.utils.BookStoreUtility;
+
+/**
+ * {@link BookStoreHTTP2Client} performs the request and response exchanges of
+ * the HTTP proxies over HTTP/2 cleartext (h2c). All the requests sent to a
+ * server are multiplexed as streams over a single connection, opened on the
+ * first request and again once the server or the idle timeout closes it.
+ * <p>
+ * The requests in excess of the concurrent streams the server allows on a
+ * connection wait for a stream instead of failing. A stream the server
+ * refuses anyway was not processed, so its request is sent again.
+ */
+public class BookStoreHTTP2Client {
+
+	/**
+	 * The number of times a request refused by the server is sent again.
+	 */
+	public static final int MAX_REFUSED_RETRIES = 3;
+
+	/** The client. */
+	private final HTTP2Client client;
+
+	/** The open connections, by host and port. */
+	private final Map<String, Connection> connections = new HashMap<>();
+
+	/**
+	 * Initializes a new {@link BookStoreHTTP2Client}.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	public BookStoreHTTP2Client() throws Exception {
+		client = new HTTP2Client();
+
+		// Max number of threads.
+		client.setExecutor(new QueuedThreadPool(BookStoreClientConstants.CLIENT_MAX_THREADSPOOL_THREADS));
+
+		// Seconds timeout; if no server reply, the request expires.
+		client.setConnectTimeout(BookStoreClientConstants.CLIENT_MAX_TIMEOUT_MILLISECS);
+
+		client.start();
+	}
+
+	/**
+	 * Gets the connection to the server of a URI, connecting to it if needed.
+	 *
+	 * @param uri
+	 *            the URI
+	 * @return the connection
+	 * @throws InterruptedException
+	 *             the interrupted exception
+	 * @throws ExecutionException
+	 *             the execution exception
+	 * @throws TimeoutException
+	 *             the timeout exception
+	 */
+	private synchronized Connection getConnection(HttpURI uri)
+			throws InterruptedException, ExecutionException, TimeoutException {
+		String authority = uri.getHost() + ":" + uri.getPort();
+		Connection connection = connections.get(authority);
+
+		if (connection == null || connection.session.isClosed()) {
+			StreamPermits streams = new StreamPermits(BookStoreConstants.HTTP2_MAX_CONCURRENT_STREAMS);
+			FuturePromise<Session> promise = new FuturePromise<>();
+			client.connect(new InetSocketAddress(uri.getHost(), uri.getPort()), new Session.Listener.Adapter() {
+				@Override
+				public void onSettings(Session session, SettingsFrame frame) {
+					Integer maxConcurrentStreams = frame.getSettings().get(SettingsFrame.MAX_CONCURRENT_STREAMS);
+
+					if (maxConcurrentStreams != null) {
+						streams.resize(maxConcurrentStreams);
+					}
+				}
+			}, promise);
+			Session session = promise.get(BookStoreClientConstants.CLIENT_MAX_TIMEOUT_MILLISECS,
+					TimeUnit.MILLISECONDS);
+			connection = new Connection(session, streams);
+			connections.put(authority, connection);
+		}
+
+		return connection;
+	}
+
+	/**
+	 * Gets the number of concurrent streams the client opens to a server, once
+	 * connected to it.
+	 *
+	 * @param urlString
+	 *            a URL of the server
+	 * @return the number of streams, or 0 if the client is not connected to
+	 *         the server
+	 */
+	public synchronized int getMaxStreams(String urlString) {
+		HttpURI uri = new HttpURI(urlString);
+		Connection connection = connections.get(uri.getHost() + ":" + uri.getPort());
+		return connection == null ? 0 : connection.streams.getMaxStreams();
+	}
+
+	/**
+	 * Performs an HTTP exchange over HTTP/2, as
+	 * {@link BookStoreUtility#performHttpExchange} does over HTTP/1.1.
+	 *
+	 * @param bookStoreRequest
+	 *            the book store request
+	 * @param serializer
+	 *            the serializer
+	 * @param acceptEncoding
+	 *            the Accept-Encoding header listing the compressions
+	 *            accepted, or null to accept none
+	 * @return the book store response
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public BookStoreResponse performHttpExchange(BookStoreRequest bookStoreRequest, BookStoreSerializer serializer,
+			String acceptEncoding) throws BookStoreException {
+		byte[] content;
+
+		switch (bookStoreRequest.getMethod()) {
+		case GET:
+			content = null;
+			break;
+
+		case POST:
+			try {
+				content = serializer.serialize(bookStoreRequest.getInputValue());
+			} catch (IOException ex) {
+				throw new BookStoreException("Serialization error", ex);
+			}
+
+			break;
+
+		default:
+			throw new IllegalArgumentException("HTTP Method not supported.");
+		}
+
+		HttpURI uri = new HttpURI(bookStoreRequest.getURLString());
+		HttpFields fields = new HttpFields();
+		fields.put(HttpHeader.ACCEPT_ENCODING,
+				BookStoreUtility.isEmpty(acceptEncoding) ? BookStoreContentEncoding.IDENTITY : acceptEncoding);
+
+		if (content != null) {
+			fields.put(HttpHeader.CONTENT_LENGTH, String.valueOf(content.length));
+		}
+
+		MetaData.Request metaData = new MetaData.Request(bookStoreRequest.getMethod().asString(), uri,
+				HttpVersion.HTTP_2, fields);
+
+		ResponseListener listener;
+		byte[] responseContent;
+		int attempt = 0;
+
+		do {
+			listener = new ResponseListener();
+			responseContent = exchange(uri, metaData, content, listener, attempt++ < MAX_REFUSED_RETRIES);
+		} while (responseContent == null);
+
+		responseContent = BookStoreUtility.decodeContent(responseContent, listener.contentEncoding);
+		return BookStoreUtility.deserializeResponse(responseContent, serializer);
+	}
+
+	/**
+	 * Sends a request on a new stream and waits for its response, once a
+	 * stream to the server is available.
+	 *
+	 * @param uri
+	 *            the URI
+	 * @param metaData
+	 *            the headers of the request
+	 * @param content
+	 *            the content of the request, or null
+	 * @param listener
+	 *            the listener of the stream
+	 * @param retryIfRefused
+	 *            whether the request may be sent again if the server refuses
+	 *            the stream
+	 * @return the content of the response, or null if the server refused the
+	 *         stream and the request may be sent again
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private byte[] exchange(HttpURI uri, MetaData.Request metaData, byte[] content, ResponseListener listener,
+			boolean retryIfRefused) throws BookStoreException {
+		Connection connection;
+		Stream stream = null;
+
+		try {
+			connection = acquireStream(uri);
+		} catch (InterruptedException ex) {
+			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_SENDING, ex);
+		} catch (TimeoutException ex) {
+			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_TIMEOUT, ex);
+		} catch (ExecutionException ex) {
+			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_EXCEPTION, ex);
+		}
+
+		try {
+			FuturePromise<Stream> promise = new FuturePromise<>();
+			connection.session.newStream(new HeadersFrame(metaData, null, content == null), promise, listener);
+			stream = promise.get(BookStoreClientConstants.CLIENT_MAX_TIMEOUT_MILLISECS, TimeUnit.MILLISECONDS);
+
+			if (content != null) {
+				stream.data(new DataFrame(stream.getId(), ByteBuffer.wrap(content), true), new Callback() {
+					@Override
+					public void failed(Throwable ex) {
+						listener.response.completeExceptionally(ex);
+					}
+				});
+			}
+
+			return listener.response.get(BookStoreClientConstants.CLIENT_MAX_TIMEOUT_MILLISECS,
+					TimeUnit.MILLISECONDS);
+		} catch (InterruptedException ex) {
+			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_SENDING, ex);
+		} catch (TimeoutException ex) {
+			// Frees the stream on the server, and its slot on the connection.
+			if (stream != null) {
+				stream.reset(new ResetFrame(stream.getId(), ErrorCode.CANCEL_STREAM_ERROR.code), Callback.NOOP);
+			}
+
+			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_TIMEOUT, ex);
+		} catch (ExecutionException ex) {
+			if (listener.refused && retryIfRefused) {
+				return null;
+			}
+
+			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_EXCEPTION, ex);
+		} finally {
+			connection.streams.release();
+		}
+	}
+
+	/**
+	 * Waits for a stream to the server of a URI to be available.
+	 *
+	 * @param uri
+	 *            the URI
+	 * @return the connection on which the stream is available
+	 * @throws InterruptedException
+	 *             the interrupted exception
+	 * @throws ExecutionException
+	 *             the execution exception
+	 * @throws TimeoutException
+	 *             the timeout exception
+	 */
+	private Connection acquireStream(HttpURI uri) throws InterruptedException, ExecutionException, TimeoutException {
+		while (true) {
+			Connection connection = getConnection(uri);
+			connection.streams.acquire();
+
+			// A connection closed while waiting is replaced by a new one, with
+			// its own streams.
+			if (!connection.session.isClosed()) {
+				return connection;
+			}
+
+			connection.streams.release();
+		}
+	}
+
+	/**
+	 * Stops the client, closing its sessions.
+	 */
+	public void stop() {
+		try {
+			client.stop();
+		} catch (Exception ex) {
+			System.err.println(ex.getStackTrace());
+		}
+	}
+
+	/**
+	 * {@link Connection} is a session to a server and the permits to open its
+	 * streams.
+	 */
+	private static final class Connection {
+
+		/** The session. */
+		private final Session session;
+
+		/** The permits to open a stream. */
+		private final StreamPermits streams;
+
+		/**
+		 * Instantiates a new {@link Connection}.
+		 *
+		 * @param session
+		 *            the session
+		 * @param streams
+		 *            the permits to open a stream
+		 */
+		private Connection(Session session, StreamPermits streams) {
+			this.session = session;
+			this.streams = streams;
+		}
+	}
+
+	/**
+	 * {@link StreamPermits} are the permits to open a stream on a connection,
+	 * sized after the concurrent streams the server allows. A sixteenth of
+	 * them is kept as a margin, since the server may still count a stream the
+	 * client is done with.
+	 */
+	@SuppressWarnings("serial")
+	private static final class StreamPermits extends Semaphore {
+
+		/** The number of permits. */
+		private int maxStreams;
+
+		/**
+		 * Instantiates new {@link StreamPermits}.
+		 *
+		 * @param maxConcurrentStreams
+		 *            the concurrent streams the server is expected to allow
+		 */
+		private StreamPermits(int maxConcurrentStreams) {
+			super(0);
+			resize(maxConcurrentStreams);
+		}
+
+		/**
+		 * Resizes the permits after the concurrent streams the server allows.
+		 * The streams open beyond the new size hold their permits until they
+		 * end.
+		 *
+		 * @param maxConcurrentStreams
+		 *            the concurrent streams the server allows
+		 */
+		private synchronized void resize(int maxConcurrentStreams) {
+			int newMaxStreams = Math.max(1, maxConcurrentStreams - maxConcurrentStreams / 16);
+
+			if (newMaxStreams > maxStreams) {
+				release(newMaxStreams - maxStreams);
+			} else {
+				reducePermits(maxStreams - newMaxStreams);
+			}
+
+			maxStreams = newMaxStreams;
+		}
+
+		/**
+		 * Gets the number of permits.
+		 *
+		 * @return the number of permits
+		 */
+		private synchronized int getMaxStreams() {
+			return maxStreams;
+		}
+	}
+
+	/**
+	 * {@link ResponseListener} gathers the content of the response of a
+	 * stream.
+	 */
+	private static class ResponseListener extends Stream.Listener.Adapter {
+
+		/** The content of the response, once it is all received. */
+		private final CompletableFuture<byte[]> response = new CompletableFuture<>();
+
+		/** The content received so far. */
+		private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+
+		/** The Content-Encoding header of the response, or null. */
+		private volatile String contentEncoding;
+
+		/** Whether the server refused the stream without processing it. */
+		private volatile boolean refused = false;
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see org.eclipse.jetty.http2.api.Stream.Listener.Adapter#onHeaders(
+		 * org.eclipse.jetty.http2.api.Stream,
+		 * org.eclipse.jetty.http2.frames.HeadersFrame)
+		 */
+		@Override
+		public void onHeaders(Stream stream, HeadersFrame frame) {
+			if (frame.getMetaData() instanceof MetaData.Response) {
+				contentEncoding = frame.getMetaData().getFields().get(HttpHeader.CONTENT_ENCODING);
+			}
+
+			if (frame.isEndStream()) {
+				response.complete(content.toByteArray());
+			}
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see org.eclipse.jetty.http2.api.Stream.Listener.Adapter#onData(org.
+		 * eclipse.jetty.http2.api.Stream,
+		 * org.eclipse.jetty.http2.frames.DataFrame,
+		 * org.eclipse.jetty.util.Callback)
+		 */
+		@Override
+		public void onData(Stream stream, DataFrame frame, Callback callback) {
+			// The buffer is recycled once the callback succeeds.
+			byte[] data = BufferUtil.toArray(frame.getData());
+			content.write(data, 0, data.length);
+			callback.succeeded();
+
+			if (frame.isEndStream()) {
+				response.complete(content.toByteArray());
+			}
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see org.eclipse.jetty.http2.api.Stream.Listener.Adapter#onReset(org.
+		 * eclipse.jetty.http2.api.Stream,
+		 * org.eclipse.jetty.http2.frames.ResetFrame)
+		 */
+		@Override
+		public void onReset(Stream stream, ResetFrame frame) {
+			refused = frame.getError() == ErrorCode.REFUSED_STREAM_ERROR.code;
+			response.completeExceptionally(new IOException("Stream reset: " + ErrorCode.from(frame.getError())));
+		}
+	}
+}
@@ -1,6 +1,8 @@
 package com.acertainbookstore.client;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import org.eclipse.jetty.client.HttpClient;
@@ -10,6 +12,7 @@ import com.acertainbookstore.business.Book;
 import com.acertainbookstore.business.BookCopy;
 import com.acertainbookstore.business.BookRating;
 import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.BookStoreParticipant;
 import com.acertainbookstore.utils.BookStoreKryoSerializer;
 import com.acertainbookstore.interfaces.BookStoreSerializer;
 import com.acertainbookstore.utils.BookStoreXStreamSerializer;
@@ -22,24 +25,40 @@ import com.acertainbookstore.utils.BookStoreUtility;
 
 /**
  * {@link BookStoreHTTPProxy} implements the client level synchronous
- * {@link CertainBookStore} API declared in the {@link BookStore} class.
+ * {@link CertainBookStore} API declared in the {@link BookStore} class, and the
+ * {@link BookStoreParticipant} API used to coordinate purchases across shards.
  * 
  * @see BookStore
+ * @see BookStoreParticipant
  * @see CertainBookStore
  */
-public class BookStoreHTTPProxy implements BookStore {
+public class BookStoreHTTPProxy implements BookStore, BookStoreParticipant {
 
 	/** The client. */
 	protected HttpClient client;
 
+	/** The HTTP/2 client, or null if the requests are sent over HTTP/1.1. */
+	private final BookStoreHTTP2Client http2Client;
+
+	/**
+	 * The Accept-Encoding header listing the compressions of the responses
+	 * accepted, or null to accept none.
+	 */
+	private final String acceptEncoding = System.getProperty(BookStoreConstants.PROPERTY_KEY_COMPRESSION);
+
 	/** The server address. */
 	protected String serverAddress;
 
 	/** The serializer. */
 	private static ThreadLocal<BookStoreSerializer> serializer;
 
+	/** The book cache, or null if caching is disabled. */
+	private final BookStoreClientCache cache;
+
 	/**
-	 * Initializes a new {@link BookStoreHTTPProxy}.
+	 * Initializes a new {@link BookStoreHTTPProxy} without a book cache,
+	 * sending its requests over HTTP/2 if the <code>http2</code> property is
+	 * set.
 	 *
 	 * @param serverAddress
 	 *            the server address
@@ -47,6 +66,59 @@ public class BookStoreHTTPProxy implements BookStore {
 	 *             the exception
 	 */
 	public BookStoreHTTPProxy(String serverAddress) throws Exception {
+		this(serverAddress, null, Boolean.parseBoolean(System.getProperty(BookStoreConstants.PROPERTY_KEY_HTTP2)));
+	}
+
+	/**
+	 * Initializes a new {@link BookStoreHTTPProxy} without a book cache,
+	 * sending its requests over HTTP/2 or HTTP/1.1.
+	 *
+	 * @param serverAddress
+	 *            the server address
+	 * @param http2
+	 *            true to send the requests over HTTP/2 cleartext
+	 * @throws Exception
+	 *             the exception
+	 */
+	public BookStoreHTTPProxy(String serverAddress, boolean http2) throws Exception {
+		this(serverAddress, null, http2);
+	}
+
+	/**
+	 * Initializes a new {@link BookStoreHTTPProxy} which caches up to
+	 * <code>cacheCapacity</code> books returned by
+	 * {@link #getBooks(Set)} for at most <code>cacheTimeToLiveMillis</code>
+	 * milliseconds.
+	 *
+	 * @param serverAddress
+	 *            the server address
+	 * @param cacheCapacity
+	 *            the maximum number of cached books
+	 * @param cacheTimeToLiveMillis
+	 *            the time to live of a cached book in milliseconds
+	 * @throws Exception
+	 *             the exception
+	 */
+	public BookStoreHTTPProxy(String serverAddress, int cacheCapacity, long cacheTimeToLiveMillis)
+			throws Exception {
+		this(serverAddress, new BookStoreClientCache(cacheCapacity, cacheTimeToLiveMillis),
+				Boolean.parseBoolean(System.getProperty(BookStoreConstants.PROPERTY_KEY_HTTP2)));
+	}
+
+	/**
+	 * Initializes a new {@link BookStoreHTTPProxy}.
+	 *
+	 * @param serverAddress
+	 *            the server address
+	 * @param cache
+	 *            the book cache, or null to disable caching
+	 * @param http2
+	 *            true to send the requests over HTTP/2 cleartext
+	 * @throws Exception
+	 *             the exception
+	 */
+	private BookStoreHTTPProxy(String serverAddress, BookStoreClientCache cache, boolean http2) throws Exception {
+		this.cache = cache;
 
 		// Setup the type of serializer.
 		if (BookStoreConstants.BINARY_SERIALIZATION) {
@@ -68,6 +140,7 @@ public class BookStoreHTTPProxy implements BookStore {
 		client.setConnectTimeout(BookStoreClientConstants.CLIENT_MAX_TIMEOUT_MILLISECS);
 
 		client.start();
+		http2Client = http2 ? new BookStoreHTTP2Client() : null;
 	}
 
 	/**
@@ -97,7 +170,8 @@ public class BookStoreHTTPProxy implements BookStore {
 	public void buyBooks(Set<BookCopy> isbnSet) throws BookStoreException {
 		String urlString = serverAddress + "/" + BookStoreMessageTag.BUYBOOKS;
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, isbnSet);
-		BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+		BookStoreResponse bookStoreResponse = performHttpExchange(bookStoreRequest);
+		observeVersion(bookStoreResponse);
 	}
 
 	/*
@@ -107,11 +181,64 @@ public class BookStoreHTTPProxy implements BookStore {
 	 */
 	@SuppressWarnings("unchecked")
 	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (cache == null || isbnSet == null) {
+			return (List<Book>) fetchBooks(isbnSet).getList();
+		}
+
+		List<Book> result = new ArrayList<>();
+		Set<Integer> missingIsbns = new HashSet<>();
+		long cachedVersion = cache.getAll(isbnSet, result, missingIsbns);
+
+		// Only the cache misses go to the server.
+		if (!missingIsbns.isEmpty()) {
+			BookStoreResponse bookStoreResponse = fetchBooks(missingIsbns);
+
+			// The catalog changed since the hits were cached, so the whole set
+			// is fetched again rather than merging books of two versions.
+			if (bookStoreResponse.getVersion() > cachedVersion) {
+				return (List<Book>) fetchBooks(isbnSet).getList();
+			}
+
+			result.addAll((List<Book>) bookStoreResponse.getList());
+		}
+
+		return result;
+	}
+
+	/**
+	 * Gets the books from the server and caches them if caching is enabled.
+	 *
+	 * @param isbnSet
+	 *            the ISBN set
+	 * @return the response holding the books
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@SuppressWarnings("unchecked")
+	private BookStoreResponse fetchBooks(Set<Integer> isbnSet) throws BookStoreException {
 		String urlString = serverAddress + "/" + BookStoreMessageTag.GETBOOKS;
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, isbnSet);
-		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
-				serializer.get());
-		return (List<Book>) bookStoreResponse.getList();
+		BookStoreResponse bookStoreResponse = performHttpExchange(bookStoreRequest);
+		List<Book> books = (List<Book>) bookStoreResponse.getList();
+
+		if (cache != null) {
+			cache.putAll(bookStoreResponse.getVersion(), books);
+		}
+
+		return bookStoreResponse;
+	}
+
+	/**
+	 * Invalidates the book cache if the response reports a newer catalog
+	 * version.
+	 *
+	 * @param bookStoreResponse
+	 *            the book store response
+	 */
+	private void observeVersion(BookStoreResponse bookStoreResponse) {
+		if (cache != null) {
+			cache.observeVersion(bookStoreResponse.getVersion());
+		}
 	}
 
 	/*
@@ -129,11 +256,80 @@ public class BookStoreHTTPProxy implements BookStore {
 				+ BookStoreConstants.BOOK_NUM_PARAM + "=" + urlEncodedNumBooks;
 
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
-		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
-				serializer.get());
+		BookStoreResponse bookStoreResponse = performHttpExchange(bookStoreRequest);
+		observeVersion(bookStoreResponse);
+		return (List<Book>) bookStoreResponse.getList();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.BookStore#searchBooks(java.lang.
+	 * String, int, int)
+	 */
+	@SuppressWarnings("unchecked")
+	public List<Book> searchBooks(String query, int offset, int numBooks) throws BookStoreException {
+		if (query == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		String urlString = serverAddress + "/" + BookStoreMessageTag.SEARCHBOOKS + "?"
+				+ BookStoreConstants.QUERY_PARAM + "=" + URLEncoder.encode(query, StandardCharsets.UTF_8) + "&"
+				+ BookStoreConstants.OFFSET_PARAM + "=" + offset + "&" + BookStoreConstants.BOOK_NUM_PARAM + "="
+				+ numBooks;
+
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
+		BookStoreResponse bookStoreResponse = performHttpExchange(bookStoreRequest);
+		observeVersion(bookStoreResponse);
 		return (List<Book>) bookStoreResponse.getList();
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreParticipant#prepareBuyBooks(java.
+	 * lang.String, java.util.Set)
+	 */
+	@Override
+	public void prepareBuyBooks(String transactionId, Set<BookCopy> booksToBuy) throws BookStoreException {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.PREPAREBUYBOOKS + "?"
+				+ BookStoreConstants.TRANSACTION_ID_PARAM + "=" + URLEncoder.encode(transactionId, StandardCharsets.UTF_8);
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, booksToBuy);
+		BookStoreResponse bookStoreResponse = performHttpExchange(bookStoreRequest);
+		observeVersion(bookStoreResponse);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreParticipant#commitBuyBooks(java.
+	 * lang.String)
+	 */
+	@Override
+	public void commitBuyBooks(String transactionId) throws BookStoreException {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.COMMITBUYBOOKS + "?"
+				+ BookStoreConstants.TRANSACTION_ID_PARAM + "=" + URLEncoder.encode(transactionId, StandardCharsets.UTF_8);
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, "");
+		performHttpExchange(bookStoreRequest);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreParticipant#abortBuyBooks(java.
+	 * lang.String)
+	 */
+	@Override
+	public void abortBuyBooks(String transactionId) throws BookStoreException {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.ABORTBUYBOOKS + "?"
+				+ BookStoreConstants.TRANSACTION_ID_PARAM + "=" + URLEncoder.encode(transactionId, StandardCharsets.UTF_8);
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, "");
+		performHttpExchange(bookStoreRequest);
+	}
+
 	/**
 	 * Stops the proxy.
 	 */
@@ -143,6 +339,28 @@ public class BookStoreHTTPProxy implements BookStore {
 		} catch (Exception ex) {
 			System.err.println(ex.getStackTrace());
 		}
+
+		if (http2Client != null) {
+			http2Client.stop();
+		}
+	}
+
+	/**
+	 * Performs an HTTP exchange over HTTP/2 if enabled, else over HTTP/1.1,
+	 * accepting the compressions set by the <code>compression</code> property.
+	 *
+	 * @param bookStoreRequest
+	 *            the book store request
+	 * @return the book store response
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private BookStoreResponse performHttpExchange(BookStoreRequest bookStoreRequest) throws BookStoreException {
+		if (http2Client != null) {
+			return http2Client.performHttpExchange(bookStoreRequest, serializer.get(), acceptEncoding);
+		}
+
+		return BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get(), acceptEncoding);
 	}
 
 	/*
@@ -152,7 +370,10 @@ public class BookStoreHTTPProxy implements BookStore {
 	 */
 	@Override
 	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
-		throw new BookStoreException();
+		String urlString = serverAddress + "/" + BookStoreMessageTag.RATEBOOKS;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, bookRating);
+		BookStoreResponse bookStoreResponse = performHttpExchange(bookStoreRequest);
+		observeVersion(bookStoreResponse);
 	}
 
 	/*
@@ -161,7 +382,16 @@ public class BookStoreHTTPProxy implements BookStore {
 	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
 	 */
 	@Override
+	@SuppressWarnings("unchecked")
 	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
-		throw new BookStoreException();
+		String urlEncodedNumBooks = URLEncoder.encode(Integer.toString(numBooks), StandardCharsets.UTF_8);
+
+		String urlString = serverAddress + "/" + BookStoreMessageTag.GETTOPRATEDBOOKS + "?"
+				+ BookStoreConstants.BOOK_NUM_PARAM + "=" + urlEncodedNumBooks;
+
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
+		BookStoreResponse bookStoreResponse = performHttpExchange(bookStoreRequest);
+		observeVersion(bookStoreResponse);
+		return (List<Book>) bookStoreResponse.getList();
 	}
 }
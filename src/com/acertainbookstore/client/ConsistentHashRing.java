@@ -0,0 +1,103 @@
+package com.acertainbookstore.client;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * {@link ConsistentHashRing} maps ISBNs to shards by consistent hashing. Every
+ * shard is placed on the ring at several virtual points derived from its
+ * address, and an ISBN belongs to the shard of the first point at or after its
+ * own hash. Adding or removing a shard therefore only moves the ISBNs adjacent
+ * to its points.
+ *
+ * @see ShardedBookStoreHTTPProxy
+ */
+public class ConsistentHashRing {
+
+	/** The default number of virtual points per shard. */
+	public static final int DEFAULT_VIRTUAL_NODES = 128;
+
+	/** The ring, mapping points to shard indices. */
+	private final TreeMap<Integer, Integer> ring = new TreeMap<>();
+
+	/** The number of shards. */
+	private final int numShards;
+
+	/**
+	 * Instantiates a new {@link ConsistentHashRing} with
+	 * {@link #DEFAULT_VIRTUAL_NODES} points per shard.
+	 *
+	 * @param shardNames
+	 *            the unique names of the shards, e.g. their addresses
+	 */
+	public ConsistentHashRing(List<String> shardNames) {
+		this(shardNames, DEFAULT_VIRTUAL_NODES);
+	}
+
+	/**
+	 * Instantiates a new {@link ConsistentHashRing}.
+	 *
+	 * @param shardNames
+	 *            the unique names of the shards, e.g. their addresses
+	 * @param virtualNodes
+	 *            the number of virtual points per shard
+	 */
+	public ConsistentHashRing(List<String> shardNames, int virtualNodes) {
+		if (shardNames == null || shardNames.isEmpty() || virtualNodes < 1) {
+			throw new IllegalArgumentException("The ring needs at least one shard and one virtual node");
+		}
+
+		this.numShards = shardNames.size();
+
+		for (int shard = 0; shard < numShards; shard++) {
+			for (int node = 0; node < virtualNodes; node++) {
+				ring.putIfAbsent(hash((shardNames.get(shard) + "#" + node).hashCode()), shard);
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of shards.
+	 *
+	 * @return the number of shards
+	 */
+	public int getNumShards() {
+		return numShards;
+	}
+
+	/**
+	 * Gets the shard owning the ISBN.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the shard index
+	 */
+	public int getShard(int isbn) {
+		Map.Entry<Integer, Integer> entry = ring.ceilingEntry(hash(isbn));
+
+		if (entry == null) {
+			entry = ring.firstEntry();
+		}
+
+		return entry.getValue();
+	}
+
+	/**
+	 * Spreads the bits of a value over the whole integer range, using the
+	 * MurmurHash3 finalizer.
+	 *
+	 * @param value
+	 *            the value
+	 * @return the hash
+	 */
+	private static int hash(int value) {
+		int h = value;
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+}
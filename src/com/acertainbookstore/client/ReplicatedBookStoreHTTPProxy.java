@@ -0,0 +1,331 @@
+package com.acertainbookstore.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookQuery;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.CatalogChanges;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link ReplicatedBookStoreHTTPProxy} implements the {@link BookStore} and
+ * {@link StockManager} APIs on top of a primary server and its read replicas.
+ * Mutations are sent to the primary. Reads are spread round-robin over the
+ * replicas; if a replica cannot be reached or is out of sync with the
+ * primary the next one is tried, and the primary is used when no replica
+ * answers.
+ *
+ * @see com.acertainbookstore.server.ReplicatingCertainBookStore
+ * @see BookStore
+ * @see StockManager
+ */
+public class ReplicatedBookStoreHTTPProxy implements BookStore, StockManager {
+
+	/**
+	 * {@link ReadOperation} is a read executed against one server.
+	 *
+	 * @param <R>
+	 *            the result type
+	 */
+	private interface ReadOperation<R> {
+
+		/**
+		 * Executes the read against the server.
+		 *
+		 * @param bookStore
+		 *            the book store proxy of the server
+		 * @param stockManager
+		 *            the stock manager proxy of the server
+		 * @return the result
+		 * @throws BookStoreException
+		 *             the book store exception
+		 */
+		R execute(BookStoreHTTPProxy bookStore, StockManagerHTTPProxy stockManager) throws BookStoreException;
+	}
+
+	/** The book store proxy of the primary. */
+	private final BookStoreHTTPProxy primaryBookStore;
+
+	/** The stock manager proxy of the primary. */
+	private final StockManagerHTTPProxy primaryStockManager;
+
+	/** The book store proxies of the replicas. */
+	private final List<BookStoreHTTPProxy> replicaBookStores = new ArrayList<>();
+
+	/** The stock manager proxies of the replicas. */
+	private final List<StockManagerHTTPProxy> replicaStockManagers = new ArrayList<>();
+
+	/** The counter choosing the next replica to read from. */
+	private final AtomicInteger nextReplica = new AtomicInteger(0);
+
+	/**
+	 * Initializes a new {@link ReplicatedBookStoreHTTPProxy}.
+	 *
+	 * @param primaryAddress
+	 *            the address of the primary server
+	 * @param replicaAddresses
+	 *            the addresses of the backup servers serving reads
+	 * @throws Exception
+	 *             the exception
+	 */
+	public ReplicatedBookStoreHTTPProxy(String primaryAddress, List<String> replicaAddresses) throws Exception {
+		primaryBookStore = new BookStoreHTTPProxy(primaryAddress);
+		primaryStockManager = new StockManagerHTTPProxy(primaryAddress + "/stock");
+
+		for (String replicaAddress : replicaAddresses) {
+			replicaBookStores.add(new BookStoreHTTPProxy(replicaAddress));
+			replicaStockManagers.add(new StockManagerHTTPProxy(replicaAddress + "/stock"));
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	@Override
+	public void buyBooks(Set<BookCopy> booksToBuy) throws BookStoreException {
+		primaryBookStore.buyBooks(booksToBuy);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		primaryBookStore.rateBooks(bookRating);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	@Override
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		return read((bookStore, stockManager) -> bookStore.getBooks(isbnSet));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		return read((bookStore, stockManager) -> bookStore.getTopRatedBooks(numBooks));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	@Override
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		return read((bookStore, stockManager) -> bookStore.getEditorPicks(numBooks));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#searchBooks(java.lang.
+	 * String, int, int)
+	 */
+	@Override
+	public List<Book> searchBooks(String query, int offset, int numBooks) throws BookStoreException {
+		return read((bookStore, stockManager) -> bookStore.searchBooks(query, offset, numBooks));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	@Override
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		primaryStockManager.addBooks(bookSet);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	@Override
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		primaryStockManager.addCopies(bookCopiesSet);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	@Override
+	public List<StockBook> getBooks() throws BookStoreException {
+		return read((bookStore, stockManager) -> stockManager.getBooks());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks(int, int)
+	 */
+	@Override
+	public List<StockBook> getBooks(int afterISBN, int numBooks) throws BookStoreException {
+		return read((bookStore, stockManager) -> stockManager.getBooks(afterISBN, numBooks));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	@Override
+	public List<StockBook> getBooksByISBN(Set<Integer> isbns) throws BookStoreException {
+		return read((bookStore, stockManager) -> stockManager.getBooksByISBN(isbns));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		return read((bookStore, stockManager) -> stockManager.getBooksInDemand());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	@Override
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		primaryStockManager.updateEditorPicks(editorPicks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#queryBooks(com.
+	 * acertainbookstore.business.BookQuery)
+	 */
+	@Override
+	public List<StockBook> queryBooks(BookQuery query) throws BookStoreException {
+		return read((bookStore, stockManager) -> stockManager.queryBooks(query));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getChangesSince(long)
+	 */
+	@Override
+	public CatalogChanges getChangesSince(long version) throws BookStoreException {
+		// Every server numbers its own versions, so a client must keep asking
+		// the same one; the primary is the only server that never lags.
+		return primaryStockManager.getChangesSince(version);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	@Override
+	public void removeAllBooks() throws BookStoreException {
+		primaryStockManager.removeAllBooks();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	@Override
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		primaryStockManager.removeBooks(isbnSet);
+	}
+
+	/**
+	 * Stops the proxy.
+	 */
+	public void stop() {
+		primaryBookStore.stop();
+		primaryStockManager.stop();
+		replicaBookStores.forEach(BookStoreHTTPProxy::stop);
+		replicaStockManagers.forEach(StockManagerHTTPProxy::stop);
+	}
+
+	/**
+	 * Executes a read on the next replica, failing over to the other replicas
+	 * and finally to the primary if a server cannot be reached or is out of
+	 * sync.
+	 *
+	 * @param <R>
+	 *            the result type
+	 * @param operation
+	 *            the read
+	 * @return the result
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private <R> R read(ReadOperation<R> operation) throws BookStoreException {
+		int numReplicas = replicaBookStores.size();
+		int first = Math.floorMod(nextReplica.getAndIncrement(), Math.max(numReplicas, 1));
+
+		for (int i = 0; i < numReplicas; i++) {
+			int replica = (first + i) % numReplicas;
+
+			try {
+				return operation.execute(replicaBookStores.get(replica), replicaStockManagers.get(replica));
+			} catch (BookStoreException ex) {
+				if (!isUnavailable(ex)) {
+					throw ex;
+				}
+			}
+		}
+
+		return operation.execute(primaryBookStore, primaryStockManager);
+	}
+
+	/**
+	 * Checks if an exception was caused by failing to reach the server, or by
+	 * a backup refusing reads as it is out of sync, rather than by the server
+	 * rejecting the request.
+	 *
+	 * @param ex
+	 *            the exception
+	 * @return true, if the server cannot serve the read
+	 */
+	private static boolean isUnavailable(BookStoreException ex) {
+		String message = ex.getMessage();
+		return BookStoreConstants.OUT_OF_SYNC_BACKUP.equals(message)
+				|| BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_SENDING.equals(message)
+				|| BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_TIMEOUT.equals(message)
+				|| BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_EXCEPTION.equals(message);
+	}
+}
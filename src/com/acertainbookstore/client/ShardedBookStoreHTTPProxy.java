@@ -0,0 +1,676 @@
+package com.acertainbookstore.client;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.ToIntFunction;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.BookAttributeIndex;
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookQuery;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.CatalogChanges;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link ShardedBookStoreHTTPProxy} implements the {@link BookStore} and
+ * {@link StockManager} APIs on top of several bookstore servers, each of which
+ * holds the books whose ISBNs are assigned to it by a
+ * {@link ConsistentHashRing}. Requests are split by shard and sent to the
+ * shards in parallel, and the results are merged.
+ *
+ * <p>
+ * Purchases that touch a single shard are sent to it directly. Purchases that
+ * span several shards use a two-phase commit through the
+ * {@link com.acertainbookstore.interfaces.BookStoreParticipant} API of the
+ * shards, so they stay all-or-nothing. {@link #addBooks(Set)} is undone on the
+ * other shards if one shard rejects its books; the remaining update methods
+ * are all-or-nothing per shard only.
+ *
+ * @see BookStore
+ * @see StockManager
+ * @see ConsistentHashRing
+ */
+public class ShardedBookStoreHTTPProxy implements BookStore, StockManager {
+
+	/**
+	 * {@link ShardOperation} is an operation executed against one shard.
+	 *
+	 * @param <R>
+	 *            the result type
+	 */
+	private interface ShardOperation<R> {
+
+		/**
+		 * Executes the operation against the shard.
+		 *
+		 * @param shard
+		 *            the shard index
+		 * @return the result
+		 * @throws BookStoreException
+		 *             the book store exception
+		 */
+		R execute(int shard) throws BookStoreException;
+	}
+
+	/** The ring assigning ISBNs to shards. */
+	private final ConsistentHashRing ring;
+
+	/** The book store proxies, one per shard. */
+	private final List<BookStoreHTTPProxy> bookStores = new ArrayList<>();
+
+	/** The stock manager proxies, one per shard. */
+	private final List<StockManagerHTTPProxy> stockManagers = new ArrayList<>();
+
+	/** The executor sending the requests to the shards in parallel. */
+	private final ExecutorService executor;
+
+	/** The maximum number of attempts to send the commit of a purchase. */
+	private static final int MAX_COMMIT_ATTEMPTS = 3;
+
+	/** The maximum number of merged catalog versions remembered. */
+	private static final int MAX_MERGED_VERSIONS = 1024;
+
+	/**
+	 * The versions of the shards behind every merged catalog version handed
+	 * out by {@link #getChangesSince(long)}, evicting the oldest ones.
+	 */
+	private final Map<Long, long[]> mergedVersions = new LinkedHashMap<Long, long[]>() {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, long[]> eldest) {
+			return size() > MAX_MERGED_VERSIONS;
+		}
+	};
+
+	/** The last merged catalog version handed out. */
+	private long lastMergedVersion = 0;
+
+	/**
+	 * Initializes a new {@link ShardedBookStoreHTTPProxy}.
+	 *
+	 * @param serverAddresses
+	 *            the addresses of the shard servers, e.g.
+	 *            <code>http://localhost:8081</code>
+	 * @throws Exception
+	 *             the exception
+	 */
+	public ShardedBookStoreHTTPProxy(List<String> serverAddresses) throws Exception {
+		ring = new ConsistentHashRing(serverAddresses);
+
+		for (String serverAddress : serverAddresses) {
+			bookStores.add(new BookStoreHTTPProxy(serverAddress));
+			stockManagers.add(new StockManagerHTTPProxy(serverAddress + "/stock"));
+		}
+
+		// Every caller sends to several shards at once, so the pool grows with
+		// the callers instead of queueing their requests behind each other.
+		executor = Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "shard-request");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Gets the number of shards.
+	 *
+	 * @return the number of shards
+	 */
+	public int getNumShards() {
+		return ring.getNumShards();
+	}
+
+	/**
+	 * Gets the shard owning the ISBN.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the shard index
+	 */
+	public int getShard(int isbn) {
+		return ring.getShard(isbn);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	@Override
+	public void buyBooks(Set<BookCopy> booksToBuy) throws BookStoreException {
+		Map<Integer, Set<BookCopy>> booksByShard = partition(booksToBuy, BookCopy::getISBN);
+
+		if (booksByShard.size() == 1) {
+			Map.Entry<Integer, Set<BookCopy>> entry = booksByShard.entrySet().iterator().next();
+			bookStores.get(entry.getKey()).buyBooks(entry.getValue());
+			return;
+		}
+
+		String transactionId = UUID.randomUUID().toString();
+
+		try {
+			onShards(booksByShard.keySet(), shard -> {
+				bookStores.get(shard).prepareBuyBooks(transactionId, booksByShard.get(shard));
+				return null;
+			});
+		} catch (BookStoreException ex) {
+			// Shards that did not prepare the transaction ignore the abort. A
+			// failed abort must not hide why the purchase failed.
+			try {
+				onShards(booksByShard.keySet(), shard -> {
+					bookStores.get(shard).abortBuyBooks(transactionId);
+					return null;
+				});
+			} catch (BookStoreException abortEx) {
+				ex.addSuppressed(abortEx);
+			}
+
+			throw ex;
+		}
+
+		// Every shard prepared the transaction, so it is committed, and the
+		// shards keep the copies reserved until their commit arrives.
+		onShards(booksByShard.keySet(), shard -> {
+			commitBuyBooks(shard, transactionId);
+			return null;
+		});
+	}
+
+	/**
+	 * Commits a prepared purchase on a shard, sending the commit again if it
+	 * may not have reached the shard.
+	 *
+	 * @param shard
+	 *            the shard index
+	 * @param transactionId
+	 *            the transaction ID
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private void commitBuyBooks(int shard, String transactionId) throws BookStoreException {
+		for (int attempt = 1;; attempt++) {
+			try {
+				bookStores.get(shard).commitBuyBooks(transactionId);
+				return;
+			} catch (BookStoreException ex) {
+				// Only the coordinator ends a prepared transaction, so a shard
+				// no longer knowing it applied an earlier attempt of the commit.
+				if (attempt > 1 && (BookStoreConstants.TRANSACTION + transactionId + BookStoreConstants.NOT_AVAILABLE)
+						.equals(ex.getMessage())) {
+					return;
+				}
+
+				if (attempt == MAX_COMMIT_ATTEMPTS || !isRequestFailure(ex)) {
+					throw ex;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks whether an exception reports that a request failed to reach its
+	 * server or to return.
+	 *
+	 * @param ex
+	 *            the exception
+	 * @return true, if the request failed
+	 */
+	private static boolean isRequestFailure(BookStoreException ex) {
+		String message = ex.getMessage();
+		return BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_SENDING.equals(message)
+				|| BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_TIMEOUT.equals(message)
+				|| BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_EXCEPTION.equals(message);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		Map<Integer, Set<BookRating>> ratingsByShard = partition(bookRating, BookRating::getISBN);
+
+		onShards(ratingsByShard.keySet(), shard -> {
+			bookStores.get(shard).rateBooks(ratingsByShard.get(shard));
+			return null;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	@Override
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		Map<Integer, Set<Integer>> isbnsByShard = partition(isbnSet, Integer::intValue);
+		return concat(onShards(isbnsByShard.keySet(), shard -> bookStores.get(shard).getBooks(isbnsByShard.get(shard))));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		List<Book> candidates = concat(onShards(allShards(), shard -> bookStores.get(shard).getTopRatedBooks(numBooks)));
+
+		// The customer view has no ratings, so they are looked up on the shards.
+		Set<Integer> candidateIsbns = new HashSet<>();
+		candidates.forEach(book -> candidateIsbns.add(book.getISBN()));
+		Map<Integer, Float> ratings = new HashMap<>();
+		getBooksByISBN(candidateIsbns).forEach(book -> ratings.put(book.getISBN(), book.getAverageRating()));
+
+		// A candidate removed in between has no rating, and is dropped.
+		candidates.removeIf(book -> !ratings.containsKey(book.getISBN()));
+		candidates.sort(Comparator.comparing((Book book) -> ratings.get(book.getISBN())).reversed());
+		return new ArrayList<>(candidates.subList(0, Math.min(numBooks, candidates.size())));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	@Override
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		// Every shard returns up to numBooks random picks, of which numBooks are
+		// chosen at random.
+		List<Book> candidates = concat(onShards(allShards(), shard -> bookStores.get(shard).getEditorPicks(numBooks)));
+		Collections.shuffle(candidates);
+		return new ArrayList<>(candidates.subList(0, Math.min(numBooks, candidates.size())));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#searchBooks(java.lang.
+	 * String, int, int)
+	 */
+	@Override
+	public List<Book> searchBooks(String query, int offset, int numBooks) throws BookStoreException {
+		if (offset < 0) {
+			throw new BookStoreException("offset = " + offset + ", but it must be positive");
+		}
+
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		// Every shard returns its first offset + numBooks matches in ISBN order,
+		// which contain the requested page of the merged matches.
+		int numCandidates = (int) Math.min((long) offset + numBooks, Integer.MAX_VALUE);
+		List<Book> candidates = concat(
+				onShards(allShards(), shard -> bookStores.get(shard).searchBooks(query, 0, numCandidates)));
+		candidates.sort(Comparator.comparingInt(Book::getISBN));
+		int from = Math.min(offset, candidates.size());
+		int to = Math.min(numCandidates, candidates.size());
+		return new ArrayList<>(candidates.subList(from, to));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	@Override
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		Map<Integer, Set<StockBook>> booksByShard = partition(bookSet, StockBook::getISBN);
+		Set<Integer> addedShards = Collections.synchronizedSet(new HashSet<>());
+
+		try {
+			onShards(booksByShard.keySet(), shard -> {
+				stockManagers.get(shard).addBooks(booksByShard.get(shard));
+				addedShards.add(shard);
+				return null;
+			});
+		} catch (BookStoreException ex) {
+			// Undo the shards that accepted their books.
+			onShards(addedShards, shard -> {
+				Set<Integer> isbns = new HashSet<>();
+				booksByShard.get(shard).forEach(book -> isbns.add(book.getISBN()));
+				stockManagers.get(shard).removeBooks(isbns);
+				return null;
+			});
+			throw ex;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	@Override
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		Map<Integer, Set<BookCopy>> copiesByShard = partition(bookCopiesSet, BookCopy::getISBN);
+
+		onShards(copiesByShard.keySet(), shard -> {
+			stockManagers.get(shard).addCopies(copiesByShard.get(shard));
+			return null;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	@Override
+	public List<StockBook> getBooks() throws BookStoreException {
+		return concat(onShards(allShards(), shard -> stockManagers.get(shard).getBooks()));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks(int, int)
+	 */
+	@Override
+	public List<StockBook> getBooks(int afterISBN, int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		// Every shard returns its next page in ISBN order, which together
+		// contain the next page of the merged catalog.
+		List<StockBook> candidates = concat(
+				onShards(allShards(), shard -> stockManagers.get(shard).getBooks(afterISBN, numBooks)));
+		candidates.sort(Comparator.comparingInt(StockBook::getISBN));
+		return new ArrayList<>(candidates.subList(0, Math.min(numBooks, candidates.size())));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	@Override
+	public List<StockBook> getBooksByISBN(Set<Integer> isbns) throws BookStoreException {
+		Map<Integer, Set<Integer>> isbnsByShard = partition(isbns, Integer::intValue);
+		return concat(
+				onShards(isbnsByShard.keySet(), shard -> stockManagers.get(shard).getBooksByISBN(isbnsByShard.get(shard))));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		return concat(onShards(allShards(), shard -> stockManagers.get(shard).getBooksInDemand()));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	@Override
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		Map<Integer, Set<BookEditorPick>> picksByShard = partition(editorPicks, BookEditorPick::getISBN);
+
+		onShards(picksByShard.keySet(), shard -> {
+			stockManagers.get(shard).updateEditorPicks(picksByShard.get(shard));
+			return null;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#queryBooks(com.
+	 * acertainbookstore.business.BookQuery)
+	 */
+	@Override
+	public List<StockBook> queryBooks(BookQuery query) throws BookStoreException {
+		if (query == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		// Every shard returns its next page in price order, which together
+		// contain the next page of the merged matches.
+		List<StockBook> candidates = concat(onShards(allShards(), shard -> stockManagers.get(shard).queryBooks(query)));
+		candidates.sort(BookAttributeIndex.PRICE_ORDER);
+		return new ArrayList<>(candidates.subList(0, Math.min(query.getNumBooks(), candidates.size())));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getChangesSince(long)
+	 */
+	@Override
+	public CatalogChanges getChangesSince(long version) throws BookStoreException {
+		// Every shard numbers its own versions, so the version handed to the
+		// client stands for the versions of all the shards; unknown versions
+		// ask every shard for a full listing.
+		long[] shardVersions;
+
+		synchronized (mergedVersions) {
+			shardVersions = mergedVersions.get(version);
+		}
+
+		List<CatalogChanges> shardChanges = onShards(allShards(), shard -> stockManagers.get(shard)
+				.getChangesSince((shardVersions == null) ? -1 : shardVersions[shard]));
+		boolean fullListing = shardChanges.stream().anyMatch(CatalogChanges::isFullListing);
+
+		if (fullListing) {
+			// The merged catalog can only be listed in full if every shard is.
+			List<Integer> partialShards = new ArrayList<>();
+
+			for (int shard = 0; shard < shardChanges.size(); shard++) {
+				if (!shardChanges.get(shard).isFullListing()) {
+					partialShards.add(shard);
+				}
+			}
+
+			List<CatalogChanges> fullListings = onShards(partialShards,
+					shard -> stockManagers.get(shard).getChangesSince(-1));
+
+			for (int i = 0; i < partialShards.size(); i++) {
+				shardChanges.set(partialShards.get(i), fullListings.get(i));
+			}
+		}
+
+		long[] newShardVersions = new long[shardChanges.size()];
+		List<StockBook> books = new ArrayList<>();
+		List<Integer> removedISBNs = new ArrayList<>();
+
+		for (int shard = 0; shard < shardChanges.size(); shard++) {
+			newShardVersions[shard] = shardChanges.get(shard).getVersion();
+			books.addAll(shardChanges.get(shard).getBooks());
+			removedISBNs.addAll(shardChanges.get(shard).getRemovedISBNs());
+		}
+
+		long mergedVersion;
+
+		synchronized (mergedVersions) {
+			mergedVersion = ++lastMergedVersion;
+			mergedVersions.put(mergedVersion, newShardVersions);
+		}
+
+		return new CatalogChanges(mergedVersion, fullListing, books, removedISBNs);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	@Override
+	public void removeAllBooks() throws BookStoreException {
+		onShards(allShards(), shard -> {
+			stockManagers.get(shard).removeAllBooks();
+			return null;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	@Override
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		Map<Integer, Set<Integer>> isbnsByShard = partition(isbnSet, Integer::intValue);
+
+		// Check that every shard has its books before removing any of them.
+		getBooksByISBN(isbnSet);
+
+		onShards(isbnsByShard.keySet(), shard -> {
+			stockManagers.get(shard).removeBooks(isbnsByShard.get(shard));
+			return null;
+		});
+	}
+
+	/**
+	 * Stops the proxy.
+	 */
+	public void stop() {
+		executor.shutdown();
+		bookStores.forEach(BookStoreHTTPProxy::stop);
+		stockManagers.forEach(StockManagerHTTPProxy::stop);
+	}
+
+	/**
+	 * Splits the elements of a request by the shard owning their ISBNs.
+	 *
+	 * @param <T>
+	 *            the element type
+	 * @param elements
+	 *            the elements
+	 * @param isbnOf
+	 *            the function returning the ISBN of an element
+	 * @return the elements by shard
+	 * @throws BookStoreException
+	 *             if the elements are null
+	 */
+	private <T> Map<Integer, Set<T>> partition(Set<T> elements, ToIntFunction<T> isbnOf) throws BookStoreException {
+		if (elements == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		Map<Integer, Set<T>> elementsByShard = new HashMap<>();
+
+		for (T element : elements) {
+			elementsByShard.computeIfAbsent(ring.getShard(isbnOf.applyAsInt(element)), shard -> new HashSet<>())
+					.add(element);
+		}
+
+		return elementsByShard;
+	}
+
+	/**
+	 * Gets the indices of all shards.
+	 *
+	 * @return the shard indices
+	 */
+	private List<Integer> allShards() {
+		List<Integer> shards = new ArrayList<>();
+
+		for (int shard = 0; shard < ring.getNumShards(); shard++) {
+			shards.add(shard);
+		}
+
+		return shards;
+	}
+
+	/**
+	 * Executes the operation against the shards in parallel and waits for all
+	 * of them to finish.
+	 *
+	 * @param <R>
+	 *            the result type
+	 * @param shards
+	 *            the shard indices
+	 * @param operation
+	 *            the operation
+	 * @return the results, in the order of the shards
+	 * @throws BookStoreException
+	 *             the first exception thrown by a shard
+	 */
+	private <R> List<R> onShards(Collection<Integer> shards, ShardOperation<R> operation) throws BookStoreException {
+		List<Future<R>> futures = new ArrayList<>();
+
+		for (int shard : new ArrayList<>(shards)) {
+			futures.add(executor.submit(() -> operation.execute(shard)));
+		}
+
+		List<R> results = new ArrayList<>();
+		BookStoreException exception = null;
+
+		for (Future<R> future : futures) {
+			try {
+				results.add(future.get());
+			} catch (ExecutionException ex) {
+				if (exception == null) {
+					exception = (ex.getCause() instanceof BookStoreException) ? (BookStoreException) ex.getCause()
+							: new BookStoreException(ex.getCause());
+				}
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+
+				if (exception == null) {
+					exception = new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_SENDING, ex);
+				}
+			}
+		}
+
+		if (exception != null) {
+			throw exception;
+		}
+
+		return results;
+	}
+
+	/**
+	 * Concatenates the lists returned by the shards.
+	 *
+	 * @param <T>
+	 *            the element type
+	 * @param lists
+	 *            the lists
+	 * @return the concatenated list
+	 */
+	private static <T> List<T> concat(List<List<T>> lists) {
+		List<T> result = new ArrayList<>();
+		lists.forEach(result::addAll);
+		return result;
+	}
+}
@@ -0,0 +1,119 @@
+package com.acertainbookstore.client;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.util.InputStreamResponseListener;
+import org.eclipse.jetty.http.HttpMethod;
+
+import com.acertainbookstore.business.StockChangeEvent;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link StockChangeSubscription} receives the stock change events pushed by
+ * a server as server-sent events. The events are read by a daemon thread of
+ * the subscription and passed to the consumer in the order they arrive, until
+ * the subscription is closed or the connection ends.
+ *
+ * @see StockManagerHTTPProxy#subscribeStockChanges(Consumer)
+ */
+public class StockChangeSubscription implements AutoCloseable {
+
+	/** The subscription request. */
+	private final Request request;
+
+	/** The thread reading the events. */
+	private final Thread reader;
+
+	/**
+	 * Opens a new {@link StockChangeSubscription}.
+	 *
+	 * @param client
+	 *            the HTTP client
+	 * @param urlString
+	 *            the URL of the subscription
+	 * @param consumer
+	 *            the consumer of the events
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	StockChangeSubscription(HttpClient client, String urlString, Consumer<StockChangeEvent> consumer)
+			throws BookStoreException {
+		InputStreamResponseListener listener = new InputStreamResponseListener();
+		request = client.newRequest(urlString).method(HttpMethod.GET);
+		request.send(listener);
+
+		try {
+			listener.get(BookStoreClientConstants.CLIENT_MAX_TIMEOUT_MILLISECS, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException ex) {
+			request.abort(ex);
+			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_SENDING, ex);
+		} catch (TimeoutException ex) {
+			request.abort(ex);
+			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_TIMEOUT, ex);
+		} catch (ExecutionException ex) {
+			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_EXCEPTION, ex);
+		}
+
+		reader = new Thread(() -> read(listener, consumer), "stock-change-subscription");
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	/**
+	 * Reads the events until the connection ends. An event is a block of
+	 * lines ended by an empty line; its data line holds the JSON form of the
+	 * event, and the lines starting with a colon are heartbeats.
+	 *
+	 * @param listener
+	 *            the listener of the subscription response
+	 * @param consumer
+	 *            the consumer of the events
+	 */
+	private static void read(InputStreamResponseListener listener, Consumer<StockChangeEvent> consumer) {
+		try (BufferedReader in = new BufferedReader(
+				new InputStreamReader(listener.getInputStream(), StandardCharsets.UTF_8))) {
+			String data = null;
+
+			for (String line = in.readLine(); line != null; line = in.readLine()) {
+				if (line.isEmpty()) {
+					if (data != null) {
+						consumer.accept(StockChangeEvent.fromJSON(data));
+						data = null;
+					}
+				} else if (line.startsWith("data:")) {
+					data = line.substring("data:".length()).trim();
+				}
+			}
+		} catch (IOException ex) {
+			// The subscription was closed or the connection was lost.
+		}
+	}
+
+	/**
+	 * Checks if the subscription is still receiving events.
+	 *
+	 * @return true, if the subscription is open
+	 */
+	public boolean isOpen() {
+		return reader.isAlive();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.AutoCloseable#close()
+	 */
+	@Override
+	public void close() {
+		request.abort(new IOException("The subscription was closed"));
+	}
+}
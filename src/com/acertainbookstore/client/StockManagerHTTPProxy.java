@@ -2,13 +2,17 @@ package com.acertainbookstore.client;
 
 import java.util.List;
 import java.util.Set;
+import java.util.function.Consumer;
 
 import org.eclipse.jetty.client.HttpClient;
 import org.eclipse.jetty.util.thread.QueuedThreadPool;
 
 import com.acertainbookstore.business.BookCopy;
 import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookQuery;
+import com.acertainbookstore.business.CatalogChanges;
 import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.business.StockChangeEvent;
 import com.acertainbookstore.utils.BookStoreKryoSerializer;
 import com.acertainbookstore.interfaces.BookStoreSerializer;
 import com.acertainbookstore.utils.BookStoreXStreamSerializer;
@@ -33,6 +37,15 @@ public class StockManagerHTTPProxy implements StockManager {
 	/** The client. */
 	protected HttpClient client;
 
+	/** The HTTP/2 client, or null if the requests are sent over HTTP/1.1. */
+	private final BookStoreHTTP2Client http2Client;
+
+	/**
+	 * The Accept-Encoding header listing the compressions of the responses
+	 * accepted, or null to accept none.
+	 */
+	private final String acceptEncoding = System.getProperty(BookStoreConstants.PROPERTY_KEY_COMPRESSION);
+
 	/** The server address. */
 	protected String serverAddress;
 
@@ -40,7 +53,8 @@ public class StockManagerHTTPProxy implements StockManager {
 	private static ThreadLocal<BookStoreSerializer> serializer;
 
 	/**
-	 * Initializes a new {@link StockManagerHTTPProxy}.
+	 * Initializes a new {@link StockManagerHTTPProxy}, sending its requests
+	 * over HTTP/2 if the <code>http2</code> property is set.
 	 *
 	 * @param serverAddress
 	 *            the server address
@@ -48,6 +62,22 @@ public class StockManagerHTTPProxy implements StockManager {
 	 *             the exception
 	 */
 	public StockManagerHTTPProxy(String serverAddress) throws Exception {
+		this(serverAddress, Boolean.parseBoolean(System.getProperty(BookStoreConstants.PROPERTY_KEY_HTTP2)));
+	}
+
+	/**
+	 * Initializes a new {@link StockManagerHTTPProxy} sending its requests
+	 * over HTTP/2 or HTTP/1.1. The streamed listings and the stock change
+	 * subscriptions always use HTTP/1.1.
+	 *
+	 * @param serverAddress
+	 *            the server address
+	 * @param http2
+	 *            true to send the requests over HTTP/2 cleartext
+	 * @throws Exception
+	 *             the exception
+	 */
+	public StockManagerHTTPProxy(String serverAddress, boolean http2) throws Exception {
 
 		// Setup the type of serializer.
 		if (BookStoreConstants.BINARY_SERIALIZATION) {
@@ -69,6 +99,7 @@ public class StockManagerHTTPProxy implements StockManager {
 		client.setConnectTimeout(BookStoreClientConstants.CLIENT_MAX_TIMEOUT_MILLISECS);
 
 		client.start();
+		http2Client = http2 ? new BookStoreHTTP2Client() : null;
 	}
 
 	/**
@@ -99,7 +130,7 @@ public class StockManagerHTTPProxy implements StockManager {
 	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
 		String urlString = serverAddress + "/" + BookStoreMessageTag.ADDBOOKS;
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, bookSet);
-		BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+		performHttpExchange(bookStoreRequest);
 	}
 
 	/*
@@ -111,7 +142,7 @@ public class StockManagerHTTPProxy implements StockManager {
 	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
 		String urlString = serverAddress + "/" + BookStoreMessageTag.ADDCOPIES;
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, bookCopiesSet);
-		BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+		performHttpExchange(bookStoreRequest);
 	}
 
 	/*
@@ -123,11 +154,46 @@ public class StockManagerHTTPProxy implements StockManager {
 	public List<StockBook> getBooks() throws BookStoreException {
 		String urlString = serverAddress + "/" + BookStoreMessageTag.LISTBOOKS;
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
-		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
-				serializer.get());
+		BookStoreResponse bookStoreResponse = performHttpExchange(bookStoreRequest);
 		return (List<StockBook>) bookStoreResponse.getList();
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks(int, int)
+	 */
+	@SuppressWarnings("unchecked")
+	public List<StockBook> getBooks(int afterISBN, int numBooks) throws BookStoreException {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.LISTBOOKS + "?"
+				+ BookStoreConstants.AFTER_ISBN_PARAM + "=" + afterISBN + "&" + BookStoreConstants.BOOK_NUM_PARAM + "="
+				+ numBooks;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
+		BookStoreResponse bookStoreResponse = performHttpExchange(bookStoreRequest);
+		return (List<StockBook>) bookStoreResponse.getList();
+	}
+
+	/**
+	 * Streams all the books of the bookstore in ISBN order. The server sends
+	 * the books in chunks of pageSize books as it reads them, and every book is
+	 * passed to the consumer as soon as its chunk arrives, so neither side
+	 * holds the whole listing in memory.
+	 *
+	 * @param pageSize
+	 *            the number of books in a chunk
+	 * @param consumer
+	 *            the consumer of the books
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@SuppressWarnings("unchecked")
+	public void streamBooks(int pageSize, Consumer<StockBook> consumer) throws BookStoreException {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.STREAMBOOKS + "?"
+				+ BookStoreConstants.BOOK_NUM_PARAM + "=" + pageSize;
+		BookStoreUtility.performStreamingHttpExchange(client, urlString, serializer.get(),
+				bookStoreResponse -> ((List<StockBook>) bookStoreResponse.getList()).forEach(consumer));
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -138,7 +204,7 @@ public class StockManagerHTTPProxy implements StockManager {
 	public void updateEditorPicks(Set<BookEditorPick> editorPicksValues) throws BookStoreException {
 		String urlString = serverAddress + "/" + BookStoreMessageTag.UPDATEEDITORPICKS + "?";
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, editorPicksValues);
-		BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+		performHttpExchange(bookStoreRequest);
 	}
 
 	/*
@@ -163,7 +229,7 @@ public class StockManagerHTTPProxy implements StockManager {
 		// need to send any data; this request is just a signal to remove all
 		// books.
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, "");
-		BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+		performHttpExchange(bookStoreRequest);
 	}
 
 	/*
@@ -175,7 +241,7 @@ public class StockManagerHTTPProxy implements StockManager {
 	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
 		String urlString = serverAddress + "/" + BookStoreMessageTag.REMOVEBOOKS;
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, isbnSet);
-		BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+		performHttpExchange(bookStoreRequest);
 	}
 
 	/*
@@ -189,11 +255,58 @@ public class StockManagerHTTPProxy implements StockManager {
 	public List<StockBook> getBooksByISBN(Set<Integer> isbns) throws BookStoreException {
 		String urlString = serverAddress + "/" + BookStoreMessageTag.GETSTOCKBOOKSBYISBN;
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, isbns);
-		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
-				serializer.get());
+		BookStoreResponse bookStoreResponse = performHttpExchange(bookStoreRequest);
+		return (List<StockBook>) bookStoreResponse.getList();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#queryBooks(com.
+	 * acertainbookstore.business.BookQuery)
+	 */
+	@SuppressWarnings("unchecked")
+	public List<StockBook> queryBooks(BookQuery query) throws BookStoreException {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.QUERYBOOKS;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, query);
+		BookStoreResponse bookStoreResponse = performHttpExchange(bookStoreRequest);
 		return (List<StockBook>) bookStoreResponse.getList();
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.StockManager#getChangesSince(long)
+	 */
+	public CatalogChanges getChangesSince(long version) throws BookStoreException {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.GETCHANGES + "?"
+				+ BookStoreConstants.VERSION_PARAM + "=" + version;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
+		BookStoreResponse bookStoreResponse = performHttpExchange(bookStoreRequest);
+		return (CatalogChanges) bookStoreResponse.getList().get(0);
+	}
+
+	/**
+	 * Subscribes to the stock changes of the server. The first event is a
+	 * {@link StockChangeEvent.Type#SUBSCRIBED} event holding the version from
+	 * which the changes are pushed; a {@link StockChangeEvent.Type#RESET}
+	 * event means that events were dropped, and the catalog must be read again
+	 * through {@link #getChangesSince(long)}.
+	 *
+	 * @param consumer
+	 *            the consumer of the events, called by the thread of the
+	 *            subscription
+	 * @return the subscription, to be closed when no longer needed
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public StockChangeSubscription subscribeStockChanges(Consumer<StockChangeEvent> consumer)
+			throws BookStoreException {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.SUBSCRIBESTOCKCHANGES;
+		return new StockChangeSubscription(client, urlString, consumer);
+	}
+
 	/**
 	 * Stops the proxy.
 	 */
@@ -203,5 +316,27 @@ public class StockManagerHTTPProxy implements StockManager {
 		} catch (Exception ex) {
 			System.err.println(ex.getStackTrace());
 		}
+
+		if (http2Client != null) {
+			http2Client.stop();
+		}
+	}
+
+	/**
+	 * Performs an HTTP exchange over HTTP/2 if enabled, else over HTTP/1.1,
+	 * accepting the compressions set by the <code>compression</code> property.
+	 *
+	 * @param bookStoreRequest
+	 *            the book store request
+	 * @return the book store response
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private BookStoreResponse performHttpExchange(BookStoreRequest bookStoreRequest) throws BookStoreException {
+		if (http2Client != null) {
+			return http2Client.performHttpExchange(bookStoreRequest, serializer.get(), acceptEncoding);
+		}
+
+		return BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get(), acceptEncoding);
 	}
 }
@@ -0,0 +1,132 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.acertainbookstore.server.AdaptiveConcurrencyLimit;
+import com.acertainbookstore.server.AdmissionController;
+import com.acertainbookstore.utils.BookStoreMessageTag;
+
+/**
+ * {@link AdmissionControlTest} tests the concurrency limits with which the
+ * server rejects the requests it cannot process quickly.
+ */
+public class AdmissionControlTest {
+
+	/** A latency without queueing. */
+	private static final long FAST_NANOS = 1_000_000;
+
+	/** A latency with a lot of queueing. */
+	private static final long SLOW_NANOS = 50_000_000;
+
+	/**
+	 * Tests that the requests beyond the limit are rejected until a request
+	 * is released.
+	 */
+	@Test
+	public void testRejectBeyondLimit() {
+		AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(2, 1, 4);
+
+		assertTrue(limit.tryAcquire());
+		assertTrue(limit.tryAcquire());
+		assertFalse(limit.tryAcquire());
+		assertEquals(2, limit.getInFlight());
+		assertEquals(1, limit.getNumRejected());
+
+		limit.release(FAST_NANOS);
+		assertTrue(limit.tryAcquire());
+	}
+
+	/**
+	 * Tests that the limit shrinks when the latency grows well above its
+	 * baseline, but not below the smallest limit.
+	 */
+	@Test
+	public void testBackoffOnLatency() {
+		AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(10, 2, 20);
+
+		for (int i = 0; i < 10; i++) {
+			assertTrue(limit.tryAcquire());
+			limit.release(FAST_NANOS);
+		}
+
+		assertEquals(10, limit.getLimit());
+
+		for (int i = 0; i < 20; i++) {
+			assertTrue(limit.tryAcquire());
+			limit.release(SLOW_NANOS);
+		}
+
+		int shrunk = limit.getLimit();
+		assertTrue(shrunk < 10);
+
+		for (int i = 0; i < 500; i++) {
+			limit.tryAcquire();
+			limit.release(SLOW_NANOS);
+		}
+
+		assertEquals(2, limit.getLimit());
+	}
+
+	/**
+	 * Tests that the limit only grows while the requests come close to it,
+	 * and not above the largest limit.
+	 */
+	@Test
+	public void testGrowthUnderSaturation() {
+		AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(4, 1, 8);
+
+		// One request at a time does not need a larger limit.
+		for (int i = 0; i < 100; i++) {
+			assertTrue(limit.tryAcquire());
+			limit.release(FAST_NANOS);
+		}
+
+		assertEquals(4, limit.getLimit());
+
+		for (int i = 0; i < 100; i++) {
+			int admitted = 0;
+
+			while (limit.tryAcquire()) {
+				admitted++;
+			}
+
+			for (int j = 0; j < admitted; j++) {
+				limit.release(FAST_NANOS);
+			}
+		}
+
+		assertEquals(8, limit.getLimit());
+	}
+
+	/**
+	 * Tests that every message has its own limit, and that the messages that
+	 * must be processed for the servers to stay consistent are never limited.
+	 */
+	@Test
+	public void testPerMessageLimits() {
+		AdmissionController admissionController = new AdmissionController(1, 1, 1);
+
+		assertTrue(admissionController.tryAcquire(BookStoreMessageTag.BUYBOOKS));
+		assertFalse(admissionController.tryAcquire(BookStoreMessageTag.BUYBOOKS));
+		assertTrue(admissionController.tryAcquire(BookStoreMessageTag.GETBOOKS));
+
+		for (int i = 0; i < 10; i++) {
+			assertTrue(admissionController.tryAcquire(BookStoreMessageTag.REPLICATE));
+			assertTrue(admissionController.tryAcquire(BookStoreMessageTag.COMMITBUYBOOKS));
+			assertTrue(admissionController.tryAcquire(BookStoreMessageTag.SUBSCRIBESTOCKCHANGES));
+		}
+
+		assertNull(admissionController.getLimit(BookStoreMessageTag.REPLICATE));
+
+		admissionController.release(BookStoreMessageTag.BUYBOOKS, FAST_NANOS);
+		assertTrue(admissionController.tryAcquire(BookStoreMessageTag.BUYBOOKS));
+
+		AdmissionController unlimited = AdmissionController.unlimited();
+
+		for (int i = 0; i < 1000; i++) {
+			assertTrue(unlimited.tryAcquire(BookStoreMessageTag.BUYBOOKS));
+		}
+	}
+}
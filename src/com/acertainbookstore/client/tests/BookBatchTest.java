@@ -0,0 +1,91 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.acertainbookstore.business.BookBatch;
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookStoreBook;
+import com.acertainbookstore.business.CatalogChangeJournal;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.SingleLockConcurrentCertainBookStore;
+import com.acertainbookstore.business.StockBook;
+
+/**
+ * {@link BookBatchTest} tests the batches of resolved books and the
+ * allocations of the batched operations using them.
+ */
+public class BookBatchTest {
+
+	/** The ISBN of the first book of the tests. */
+	private static final int FIRST_ISBN = 3044700;
+
+	/**
+	 * Tests that a batch grows past its capacity, keeps its books in order
+	 * and records them in a journal as one version.
+	 */
+	@Test
+	public void testBatch() {
+		BookBatch batch = new BookBatch(2);
+
+		for (int i = 4; i >= 0; i--) {
+			batch.add(new BookStoreBook(FIRST_ISBN + i, "Batched", "Ann Author", 10, 5), i + 1);
+		}
+
+		assertEquals(5, batch.size());
+		assertEquals(FIRST_ISBN + 4, batch.getBook(0).getISBN());
+		assertEquals(5, batch.getNumCopies(0));
+		assertArrayEquals(new int[] { FIRST_ISBN, FIRST_ISBN + 1, FIRST_ISBN + 2, FIRST_ISBN + 3, FIRST_ISBN + 4 },
+				batch.sortedISBNs());
+
+		CatalogChangeJournal changeJournal = new CatalogChangeJournal();
+		assertEquals(1, batch.recordIn(changeJournal));
+		assertEquals(5, changeJournal.changedSince(0).size());
+
+		batch.clear();
+		assertEquals(0, batch.size());
+		assertEquals(0, batch.sortedISBNs().length);
+	}
+
+	/**
+	 * Tests that the allocations of a successful purchase in the single lock
+	 * store do not grow with the number of books bought.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testPurchaseAllocations() throws Exception {
+		final int numBooks = 32;
+		SingleLockConcurrentCertainBookStore store = new SingleLockConcurrentCertainBookStore();
+		Set<StockBook> books = new HashSet<>();
+		Set<BookCopy> order = new HashSet<>();
+
+		for (int i = 0; i < numBooks; i++) {
+			books.add(new ImmutableStockBook(FIRST_ISBN + i, "Batched", "Ann Author", 10, 100, 0, 0, 0, false));
+			order.add(new BookCopy(FIRST_ISBN + i, 1));
+		}
+
+		store.addBooks(books);
+
+		// The first purchases grow the batch and load the classes.
+		store.buyBooks(order);
+		store.buyBooks(order);
+
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+		long startBytes = threads.getThreadAllocatedBytes(threadId);
+		store.buyBooks(order);
+		long allocatedBytes = threads.getThreadAllocatedBytes(threadId) - startBytes;
+
+		// Only the iterator over the order may be allocated, not a box or a
+		// lookup per book.
+		assertTrue("allocated " + allocatedBytes + " bytes", allocatedBytes < 16 * numBooks);
+	}
+}
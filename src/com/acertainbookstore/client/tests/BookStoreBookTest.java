@@ -0,0 +1,83 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.acertainbookstore.business.BookStoreBook;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+
+/**
+ * {@link BookStoreBookTest} tests the cached immutable copies of a
+ * {@link BookStoreBook}.
+ */
+public class BookStoreBookTest {
+
+	/**
+	 * Tests that the copy of the book is created once and outlives changes to
+	 * the stock.
+	 */
+	@Test
+	public void testBookCopyCached() {
+		BookStoreBook book = new BookStoreBook(3044610, "Cached", "Ann Author", 10, 5);
+
+		assertSame(book.immutableBook(), book.immutableBook());
+		StockBook before = book.immutableStockBook();
+		book.buyCopies(1);
+
+		assertSame(book.immutableBook(), book.immutableBook());
+		assertEquals(5, before.getNumCopies());
+		assertEquals(4, book.immutableStockBook().getNumCopies());
+	}
+
+	/**
+	 * Tests that the copy of the stock is shared until the stock changes, and
+	 * recreated after every kind of change.
+	 */
+	@Test
+	public void testStockCopyInvalidated() {
+		BookStoreBook book = new BookStoreBook(3044611, "Cached", "Ann Author", 10, 5);
+		StockBook copy = book.immutableStockBook();
+		assertSame(copy, book.immutableStockBook());
+
+		book.buyCopies(2);
+		assertNotSame(copy, copy = book.immutableStockBook());
+		assertEquals(3, copy.getNumCopies());
+
+		book.addSaleMiss(1);
+		assertNotSame(copy, copy = book.immutableStockBook());
+		assertEquals(1, copy.getNumSaleMisses());
+
+		book.addCopies(1);
+		assertNotSame(copy, copy = book.immutableStockBook());
+		assertEquals(4, copy.getNumCopies());
+		assertEquals(0, copy.getNumSaleMisses());
+
+		book.addRating(4);
+		assertNotSame(copy, copy = book.immutableStockBook());
+		assertEquals(4, copy.getTotalRating());
+
+		book.setEditorPick(true);
+		assertNotSame(copy, copy = book.immutableStockBook());
+		assertTrue(copy.isEditorPick());
+
+		// A purchase that fails changes nothing.
+		book.buyCopies(10);
+		assertSame(copy, book.immutableStockBook());
+	}
+
+	/**
+	 * Tests that books share their titles and authors.
+	 */
+	@Test
+	public void testStringsShared() {
+		BookStoreBook first = new BookStoreBook(3044612, "Shared", new String("Ann Author"), 10, 5);
+		BookStoreBook second = new BookStoreBook(new ImmutableStockBook(3044613, new String("Shared"),
+				new String("Ann Author"), 10, 5, 0, 0, 0, false));
+
+		assertSame(first.getAuthor(), second.getAuthor());
+		assertSame(first.getTitle(), second.getTitle());
+		assertSame(first.getAuthor(), first.immutableStockBook().getAuthor());
+	}
+}
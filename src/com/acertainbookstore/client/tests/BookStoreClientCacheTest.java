@@ -0,0 +1,286 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.ImmutableBook;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.client.BookStoreClientCache;
+import com.acertainbookstore.client.BookStoreHTTPProxy;
+import com.acertainbookstore.client.StockManagerHTTPProxy;
+import com.acertainbookstore.server.BookStoreHTTPServer;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link BookStoreClientCacheTest} tests the {@link BookStoreClientCache} on
+ * its own, and behind a {@link BookStoreHTTPProxy} talking to a local
+ * {@link BookStoreHTTPServer} process.
+ */
+public class BookStoreClientCacheTest {
+
+	/** The port of the server. */
+	private static final int PORT = 8105;
+
+	/** The Constant TEST_ISBN. */
+	private static final int TEST_ISBN = 3044560;
+
+	/** The Constant NUM_COPIES. */
+	private static final int NUM_COPIES = 5;
+
+	/** The time to live of the cached books of the proxy. */
+	private static final long TIME_TO_LIVE_MILLIS = 60000;
+
+	/** The server process. */
+	private static Process server;
+
+	/** The store, caching the books it gets. */
+	private static BookStoreHTTPProxy client;
+
+	/** The stock manager. */
+	private static StockManagerHTTPProxy storeManager;
+
+	/**
+	 * Starts the server.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		ProcessBuilder processBuilder = new ProcessBuilder(java,
+				"-D" + BookStoreConstants.PROPERTY_KEY_SERVER_PORT + "=" + PORT, "-cp",
+				System.getProperty("java.class.path"), BookStoreHTTPServer.class.getName());
+		processBuilder.redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.DISCARD);
+		server = processBuilder.start();
+
+		String serverAddress = "http://localhost:" + PORT;
+		client = new BookStoreHTTPProxy(serverAddress, 10, TIME_TO_LIVE_MILLIS);
+		storeManager = new StockManagerHTTPProxy(serverAddress + "/stock");
+
+		// Wait until the server accepts requests.
+		for (int attempt = 0;; attempt++) {
+			try {
+				storeManager.getBooks();
+				break;
+			} catch (BookStoreException ex) {
+				if (attempt == 100) {
+					throw ex;
+				}
+
+				Thread.sleep(100);
+			}
+		}
+	}
+
+	/**
+	 * Method to add two books, executed before every test case is run.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Before
+	public void initializeBooks() throws BookStoreException {
+		Set<StockBook> booksToAdd = new HashSet<>();
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN, "Harry Potter and JUnit", "JK Unit", (float) 10, NUM_COPIES,
+				0, 0, 0, false));
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 1, "The Art of Computer Science", "Donald Knuth",
+				(float) 300, NUM_COPIES, 0, 0, 0, false));
+		storeManager.addBooks(booksToAdd);
+	}
+
+	/**
+	 * Method to clean up the book store, execute after every test case is run.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@After
+	public void cleanupBooks() throws BookStoreException {
+		storeManager.removeAllBooks();
+	}
+
+	/**
+	 * Gets a set of ISBNs.
+	 *
+	 * @param isbns
+	 *            the ISBNs
+	 * @return the set
+	 */
+	private static Set<Integer> isbnSet(Integer... isbns) {
+		return new HashSet<>(Arrays.asList(isbns));
+	}
+
+	/**
+	 * Gets a book with the given ISBN.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the book
+	 */
+	private static Book newBook(int isbn) {
+		return new ImmutableBook(isbn, "Book " + isbn, "Author " + isbn, (float) 10);
+	}
+
+	/**
+	 * Tests that only the books missing from the cache are fetched from the
+	 * server, and that the whole set is fetched again when the response for
+	 * the misses reports a newer catalog version than the cached hits.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testOnlyMissesAreFetched() throws BookStoreException {
+		assertEquals(1, client.getBooks(isbnSet(TEST_ISBN)).size());
+
+		// The proxy has not seen the removal, and the server would now reject
+		// the ISBN, so a hit must not reach it.
+		storeManager.removeBooks(isbnSet(TEST_ISBN));
+		List<Book> books = client.getBooks(isbnSet(TEST_ISBN));
+		assertEquals(1, books.size());
+		assertEquals(TEST_ISBN, books.get(0).getISBN());
+
+		// The response for the miss carries the newer version, so the removed
+		// book is not merged into the result.
+		try {
+			client.getBooks(isbnSet(TEST_ISBN, TEST_ISBN + 1));
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		try {
+			client.getBooks(isbnSet(TEST_ISBN));
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		books = client.getBooks(isbnSet(TEST_ISBN + 1));
+		assertEquals(1, books.size());
+		assertEquals(TEST_ISBN + 1, books.get(0).getISBN());
+	}
+
+	/**
+	 * Tests that adding books and buying copies do not invalidate the cached
+	 * books.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testAdditionsAndPurchasesKeepCache() throws BookStoreException {
+		assertEquals(1, client.getBooks(isbnSet(TEST_ISBN)).size());
+
+		Set<StockBook> booksToAdd = new HashSet<>();
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 2, "The C Programming Language", "Dennis Ritchie",
+				(float) 50, NUM_COPIES, 0, 0, 0, false));
+		storeManager.addBooks(booksToAdd);
+
+		Set<BookCopy> booksToBuy = new HashSet<>();
+		booksToBuy.add(new BookCopy(TEST_ISBN + 2, 1));
+		client.buyBooks(booksToBuy);
+
+		// Only a hit can still return the removed book.
+		storeManager.removeBooks(isbnSet(TEST_ISBN));
+		List<Book> books = client.getBooks(isbnSet(TEST_ISBN));
+		assertEquals(1, books.size());
+		assertEquals(TEST_ISBN, books.get(0).getISBN());
+	}
+
+	/**
+	 * Tests that the least recently used book is evicted once the capacity is
+	 * reached.
+	 */
+	@Test
+	public void testLeastRecentlyUsedEviction() {
+		BookStoreClientCache cache = new BookStoreClientCache(2, TIME_TO_LIVE_MILLIS);
+		cache.putAll(0, Arrays.asList(newBook(1), newBook(2)));
+
+		// Using the first book makes the second one the eldest.
+		assertNotNull(cache.get(1));
+		cache.putAll(0, Arrays.asList(newBook(3)));
+
+		assertEquals(2, cache.size());
+		assertNotNull(cache.get(1));
+		assertNull(cache.get(2));
+		assertNotNull(cache.get(3));
+	}
+
+	/**
+	 * Tests that a book expires once its time to live elapses.
+	 *
+	 * @throws InterruptedException
+	 *             the interrupted exception
+	 */
+	@Test
+	public void testTimeToLiveExpiry() throws InterruptedException {
+		BookStoreClientCache cache = new BookStoreClientCache(2, 50);
+		cache.putAll(0, Arrays.asList(newBook(1)));
+		assertNotNull(cache.get(1));
+
+		Thread.sleep(100);
+		assertNull(cache.get(1));
+		assertEquals(0, cache.size());
+	}
+
+	/**
+	 * Tests that a newer catalog version drops all the cached books.
+	 */
+	@Test
+	public void testNewerVersionClearsCache() {
+		BookStoreClientCache cache = new BookStoreClientCache(2, TIME_TO_LIVE_MILLIS);
+		cache.putAll(1, Arrays.asList(newBook(1), newBook(2)));
+
+		cache.observeVersion(1);
+		assertEquals(2, cache.size());
+
+		cache.observeVersion(2);
+		assertEquals(0, cache.size());
+	}
+
+	/**
+	 * Tests that the books of a response older than the latest version seen
+	 * are not cached.
+	 */
+	@Test
+	public void testOlderVersionNotCached() {
+		BookStoreClientCache cache = new BookStoreClientCache(2, TIME_TO_LIVE_MILLIS);
+		cache.observeVersion(2);
+
+		cache.putAll(1, Arrays.asList(newBook(1)));
+		assertNull(cache.get(1));
+
+		cache.putAll(2, Arrays.asList(newBook(1)));
+		assertNotNull(cache.get(1));
+	}
+
+	/**
+	 * Stops the proxies and the server.
+	 */
+	@AfterClass
+	public static void tearDownAfterClass() {
+		if (client != null) {
+			client.stop();
+			storeManager.stop();
+		}
+
+		server.destroy();
+	}
+}
@@ -0,0 +1,211 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.acertainbookstore.server.BookStoreRequestCoalescer;
+import com.acertainbookstore.server.BookStoreResponseContent;
+import com.acertainbookstore.utils.BookStoreContentEncoding;
+import com.acertainbookstore.utils.BookStoreMessageTag;
+
+/**
+ * {@link BookStoreRequestCoalescerTest} tests the sharing of one response
+ * among identical concurrent read-only requests.
+ */
+public class BookStoreRequestCoalescerTest {
+
+	/** The number of identical concurrent requests. */
+	private static final int NUM_REQUESTS = 8;
+
+	/** The coalescer. */
+	private BookStoreRequestCoalescer coalescer;
+
+	/** The threads sending the requests. */
+	private ExecutorService executor;
+
+	/**
+	 * Sets up the coalescer and the threads.
+	 */
+	@Before
+	public void setUp() {
+		coalescer = new BookStoreRequestCoalescer();
+		executor = Executors.newCachedThreadPool();
+	}
+
+	/**
+	 * Stops the threads.
+	 */
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Waits for a latch within a computation.
+	 *
+	 * @param latch
+	 *            the latch
+	 * @throws IOException
+	 *             if the wait is interrupted
+	 */
+	private static void await(CountDownLatch latch) throws IOException {
+		try {
+			latch.await();
+		} catch (InterruptedException ex) {
+			throw new IOException(ex);
+		}
+	}
+
+	/**
+	 * Waits until the given number of requests have joined a computation.
+	 *
+	 * @param numCoalesced
+	 *            the number of requests
+	 * @throws InterruptedException
+	 *             the interrupted exception
+	 */
+	private void awaitCoalesced(long numCoalesced) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+
+		while (coalescer.getNumCoalesced() < numCoalesced) {
+			assertTrue("The requests were not coalesced", System.currentTimeMillis() < deadline);
+			Thread.sleep(1);
+		}
+	}
+
+	/**
+	 * Tests that identical concurrent requests share one computation and one
+	 * response buffer, while a request with another payload does not.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testIdenticalRequestsShareResponse() throws Exception {
+		CountDownLatch computing = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger numComputations = new AtomicInteger(0);
+		List<Future<BookStoreResponseContent>> responses = new ArrayList<>();
+
+		responses.add(executor.submit(() -> coalescer.execute(BookStoreMessageTag.GETBOOKS, null, new byte[] { 1 },
+				() -> {
+					numComputations.incrementAndGet();
+					computing.countDown();
+					await(release);
+					return new byte[] { 42 };
+				})));
+		assertTrue(computing.await(5, TimeUnit.SECONDS));
+
+		for (int i = 1; i < NUM_REQUESTS; i++) {
+			responses.add(executor.submit(() -> coalescer.execute(BookStoreMessageTag.GETBOOKS, null,
+					new byte[] { 1 }, () -> {
+						numComputations.incrementAndGet();
+						return new byte[] { 42 };
+					})));
+		}
+
+		awaitCoalesced(NUM_REQUESTS - 1);
+
+		// Another payload or another message is computed on its own.
+		assertArrayEquals(new byte[] { 7 },
+				coalescer.execute(BookStoreMessageTag.GETBOOKS, null, new byte[] { 2 }, () -> new byte[] { 7 }).getContent());
+		assertArrayEquals(new byte[] { 8 }, coalescer.execute(BookStoreMessageTag.GETSTOCKBOOKSBYISBN, null,
+				new byte[] { 1 }, () -> new byte[] { 8 }).getContent());
+
+		release.countDown();
+		BookStoreResponseContent first = responses.get(0).get(5, TimeUnit.SECONDS);
+
+		for (Future<BookStoreResponseContent> response : responses) {
+			assertSame(first, response.get(5, TimeUnit.SECONDS));
+		}
+
+		// The shared response is compressed once per encoding.
+		assertSame(first.getContent(BookStoreContentEncoding.GZIP),
+				responses.get(1).get().getContent(BookStoreContentEncoding.GZIP));
+
+		assertEquals(1, numComputations.get());
+		assertEquals(NUM_REQUESTS - 1, coalescer.getNumCoalesced());
+	}
+
+	/**
+	 * Tests that a request arriving after a mutation has completed does not
+	 * join a computation that started before it.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testMutationSplitsRequests() throws Exception {
+		CountDownLatch computing = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+
+		Future<BookStoreResponseContent> before = executor.submit(() -> coalescer.execute(BookStoreMessageTag.LISTBOOKS, "", null,
+				() -> {
+					computing.countDown();
+					await(release);
+					return new byte[] { 1 };
+				}));
+		assertTrue(computing.await(5, TimeUnit.SECONDS));
+
+		coalescer.invalidate();
+		assertArrayEquals(new byte[] { 2 },
+				coalescer.execute(BookStoreMessageTag.LISTBOOKS, "", null, () -> new byte[] { 2 }).getContent());
+
+		release.countDown();
+		assertArrayEquals(new byte[] { 1 }, before.get(5, TimeUnit.SECONDS).getContent());
+		assertEquals(0, coalescer.getNumCoalesced());
+	}
+
+	/**
+	 * Tests that the requests sharing a failed computation all fail.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testFailureIsShared() throws Exception {
+		CountDownLatch computing = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+
+		Future<BookStoreResponseContent> leader = executor.submit(() -> coalescer.execute(BookStoreMessageTag.QUERYBOOKS, null,
+				new byte[] { 3 }, () -> {
+					computing.countDown();
+					await(release);
+					throw new IOException("The store failed");
+				}));
+		assertTrue(computing.await(5, TimeUnit.SECONDS));
+
+		Future<BookStoreResponseContent> follower = executor.submit(() -> coalescer.execute(BookStoreMessageTag.QUERYBOOKS, null,
+				new byte[] { 3 }, () -> new byte[] { 3 }));
+		awaitCoalesced(1);
+		release.countDown();
+
+		for (Future<BookStoreResponseContent> response : Arrays.asList(leader, follower)) {
+			try {
+				response.get(5, TimeUnit.SECONDS);
+				fail("The failure was not shared");
+			} catch (ExecutionException ex) {
+				assertTrue(ex.getCause() instanceof IOException);
+			}
+		}
+
+		// A later request computes again.
+		assertArrayEquals(new byte[] { 4 },
+				coalescer.execute(BookStoreMessageTag.QUERYBOOKS, null, new byte[] { 3 }, () -> new byte[] { 4 }).getContent());
+	}
+}
@@ -0,0 +1,250 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.client.BookStoreHTTPProxy;
+import com.acertainbookstore.client.StockManagerHTTPProxy;
+import com.acertainbookstore.server.BookStoreHTTPServer;
+import com.acertainbookstore.server.BookStoreResponseCache;
+import com.acertainbookstore.server.BookStoreResponseContent;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreMessageTag;
+
+/**
+ * {@link BookStoreResponseCacheTest} tests the {@link BookStoreResponseCache}
+ * on its own, and the caching of the editor picks by a local
+ * {@link BookStoreHTTPServer} process.
+ */
+public class BookStoreResponseCacheTest {
+
+	/** The port of the server. */
+	private static final int PORT = 8106;
+
+	/** The Constant TEST_ISBN. */
+	private static final int TEST_ISBN = 3044560;
+
+	/** The Constant NUM_COPIES. */
+	private static final int NUM_COPIES = 5;
+
+	/** The number of editor picks added before every test. */
+	private static final int NUM_EDITOR_PICKS = 20;
+
+	/** The server process. */
+	private static Process server;
+
+	/** The store. */
+	private static BookStoreHTTPProxy client;
+
+	/** The stock manager. */
+	private static StockManagerHTTPProxy storeManager;
+
+	/**
+	 * Starts the server.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		ProcessBuilder processBuilder = new ProcessBuilder(java,
+				"-D" + BookStoreConstants.PROPERTY_KEY_SERVER_PORT + "=" + PORT, "-cp",
+				System.getProperty("java.class.path"), BookStoreHTTPServer.class.getName());
+		processBuilder.redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.DISCARD);
+		server = processBuilder.start();
+
+		String serverAddress = "http://localhost:" + PORT;
+		client = new BookStoreHTTPProxy(serverAddress);
+		storeManager = new StockManagerHTTPProxy(serverAddress + "/stock");
+
+		// Wait until the server accepts requests.
+		for (int attempt = 0;; attempt++) {
+			try {
+				storeManager.getBooks();
+				break;
+			} catch (BookStoreException ex) {
+				if (attempt == 100) {
+					throw ex;
+				}
+
+				Thread.sleep(100);
+			}
+		}
+	}
+
+	/**
+	 * Method to add the editor picks, executed before every test case is run.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Before
+	public void initializeBooks() throws BookStoreException {
+		Set<StockBook> booksToAdd = new HashSet<>();
+
+		for (int i = 0; i < NUM_EDITOR_PICKS; i++) {
+			booksToAdd.add(newEditorPick(TEST_ISBN + i));
+		}
+
+		storeManager.addBooks(booksToAdd);
+	}
+
+	/**
+	 * Method to clean up the book store, execute after every test case is run.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@After
+	public void cleanupBooks() throws BookStoreException {
+		storeManager.removeAllBooks();
+	}
+
+	/**
+	 * Gets a book picked by the editors.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the book
+	 */
+	private static StockBook newEditorPick(int isbn) {
+		return new ImmutableStockBook(isbn, "Book " + isbn, "Author " + isbn, (float) 10, NUM_COPIES, 0, 0, 0, true);
+	}
+
+	/**
+	 * Gets the number of editor picks the server returns when asked for all
+	 * of them.
+	 *
+	 * @return the number of editor picks
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private static int countEditorPicks() throws BookStoreException {
+		return client.getEditorPicks(2 * NUM_EDITOR_PICKS).size();
+	}
+
+	/**
+	 * Tests that a cached random selection of editor picks is served again.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testHit() throws BookStoreException {
+		List<Book> picks = client.getEditorPicks(1);
+
+		// Without the cache, ten equal draws out of twenty are unlikely.
+		for (int i = 0; i < 10; i++) {
+			assertEquals(picks, client.getEditorPicks(1));
+		}
+	}
+
+	/**
+	 * Tests that every mutation of the editor picks or the catalog invalidates
+	 * the cached responses.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testInvalidation() throws BookStoreException {
+		assertEquals(NUM_EDITOR_PICKS, countEditorPicks());
+
+		// BookStoreMessageTag.ADDBOOKS
+		Set<StockBook> booksToAdd = new HashSet<>();
+		booksToAdd.add(newEditorPick(TEST_ISBN + NUM_EDITOR_PICKS));
+		storeManager.addBooks(booksToAdd);
+		assertEquals(NUM_EDITOR_PICKS + 1, countEditorPicks());
+
+		// BookStoreMessageTag.UPDATEEDITORPICKS
+		Set<BookEditorPick> editorPicks = new HashSet<>();
+		editorPicks.add(new BookEditorPick(TEST_ISBN, false));
+		storeManager.updateEditorPicks(editorPicks);
+		assertEquals(NUM_EDITOR_PICKS, countEditorPicks());
+
+		// BookStoreMessageTag.REMOVEBOOKS
+		Set<Integer> isbnsToRemove = new HashSet<>();
+		isbnsToRemove.add(TEST_ISBN + 1);
+		storeManager.removeBooks(isbnsToRemove);
+		assertEquals(NUM_EDITOR_PICKS - 1, countEditorPicks());
+
+		// BookStoreMessageTag.REMOVEALLBOOKS
+		storeManager.removeAllBooks();
+		assertEquals(0, countEditorPicks());
+	}
+
+	/**
+	 * Tests that a response computed before an invalidation is not cached.
+	 */
+	@Test
+	public void testGenerationRace() {
+		BookStoreResponseCache cache = new BookStoreResponseCache();
+		String key = BookStoreMessageTag.GETEDITORPICKS + "?1";
+
+		long generation = cache.getGeneration();
+		cache.put(key, generation, new BookStoreResponseContent(new byte[] { 1 }));
+		assertArrayEquals(new byte[] { 1 }, cache.get(key).getContent());
+
+		// A mutation invalidates the cache while the next response is
+		// computed.
+		generation = cache.getGeneration();
+		cache.invalidate();
+		cache.put(key, generation, new BookStoreResponseContent(new byte[] { 2 }));
+		assertNull(cache.get(key));
+
+		cache.put(key, cache.getGeneration(), new BookStoreResponseContent(new byte[] { 3 }));
+		assertArrayEquals(new byte[] { 3 }, cache.get(key).getContent());
+	}
+
+	/**
+	 * Tests that a full cache keeps serving and replacing its entries but
+	 * caches no new key until it is invalidated.
+	 */
+	@Test
+	public void testCapacity() {
+		BookStoreResponseCache cache = new BookStoreResponseCache(2);
+		long generation = cache.getGeneration();
+
+		cache.put("a", generation, new BookStoreResponseContent(new byte[] { 1 }));
+		cache.put("b", generation, new BookStoreResponseContent(new byte[] { 2 }));
+		cache.put("c", generation, new BookStoreResponseContent(new byte[] { 3 }));
+		assertEquals(2, cache.size());
+		assertNull(cache.get("c"));
+
+		cache.put("a", generation, new BookStoreResponseContent(new byte[] { 4 }));
+		assertArrayEquals(new byte[] { 4 }, cache.get("a").getContent());
+
+		cache.invalidate();
+		cache.put("c", cache.getGeneration(), new BookStoreResponseContent(new byte[] { 3 }));
+		assertArrayEquals(new byte[] { 3 }, cache.get("c").getContent());
+	}
+
+	/**
+	 * Stops the proxies and the server.
+	 */
+	@AfterClass
+	public static void tearDownAfterClass() {
+		if (client != null) {
+			client.stop();
+			storeManager.stop();
+		}
+
+		server.destroy();
+	}
+}
@@ -0,0 +1,258 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.OptimisticConcurrentCertainBookStore;
+import com.acertainbookstore.business.SerialCertainBookStore;
+import com.acertainbookstore.business.SingleLockConcurrentCertainBookStore;
+import com.acertainbookstore.business.SingleWriterConcurrentCertainBookStore;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.business.TransactionalConcurrentCertainBookStore;
+import com.acertainbookstore.business.TwoLevelLockingConcurrentCertainBookStore;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.interfaces.StockRestorer;
+import com.acertainbookstore.server.BookStoreShardParticipant;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link BookStoreShardParticipantTest} tests the reservations of the
+ * {@link BookStoreShardParticipant} on every store engine.
+ */
+public class BookStoreShardParticipantTest {
+
+	/** The Constant TEST_ISBN. */
+	private static final int TEST_ISBN = 3044560;
+
+	/** The Constant NUM_COPIES. */
+	private static final int NUM_COPIES = 5;
+
+	/** The single-writer store, which must be stopped. */
+	private SingleWriterConcurrentCertainBookStore singleWriterStore;
+
+	/** The stores of every engine. */
+	private List<Object> stores;
+
+	/**
+	 * Creates a store of every engine.
+	 */
+	@Before
+	public void setUp() {
+		singleWriterStore = new SingleWriterConcurrentCertainBookStore();
+		stores = Arrays.asList(new SerialCertainBookStore(), new SingleLockConcurrentCertainBookStore(),
+				new TwoLevelLockingConcurrentCertainBookStore(), new OptimisticConcurrentCertainBookStore(),
+				new TransactionalConcurrentCertainBookStore(), singleWriterStore);
+	}
+
+	/**
+	 * Stops the single-writer store.
+	 */
+	@After
+	public void tearDown() {
+		singleWriterStore.stop();
+	}
+
+	/**
+	 * Adds the default book to a store.
+	 *
+	 * @param stockManager
+	 *            the stock manager of the store
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private static void addDefaultBook(StockManager stockManager) throws BookStoreException {
+		Set<StockBook> booksToAdd = new HashSet<>();
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN, "Harry Potter and JUnit", "JK Unit", (float) 10, NUM_COPIES,
+				0, 0, 0, false));
+		stockManager.addBooks(booksToAdd);
+	}
+
+	/**
+	 * Gets the default book of a store.
+	 *
+	 * @param stockManager
+	 *            the stock manager of the store
+	 * @return the book
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private static StockBook getDefaultBook(StockManager stockManager) throws BookStoreException {
+		return stockManager.getBooksByISBN(new HashSet<>(Arrays.asList(TEST_ISBN))).get(0);
+	}
+
+	/**
+	 * Gets a set holding a copy of the default book.
+	 *
+	 * @param numCopies
+	 *            the number of copies
+	 * @return the set
+	 */
+	private static Set<BookCopy> copies(int numCopies) {
+		Set<BookCopy> bookCopies = new HashSet<>();
+		bookCopies.add(new BookCopy(TEST_ISBN, numCopies));
+		return bookCopies;
+	}
+
+	/**
+	 * Tests that a prepared purchase takes the copies out of stock until it is
+	 * aborted, and that the abort keeps the sale misses of the books.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testAbortKeepsSaleMisses() throws BookStoreException {
+		for (Object store : stores) {
+			String engine = store.getClass().getSimpleName();
+			StockManager stockManager = (StockManager) store;
+			BookStoreShardParticipant participant = new BookStoreShardParticipant((BookStore) store,
+					(StockRestorer) store);
+			addDefaultBook(stockManager);
+
+			try {
+				((BookStore) store).buyBooks(copies(NUM_COPIES + 1));
+				fail(engine);
+			} catch (BookStoreException ex) {
+				;
+			}
+
+			participant.prepareBuyBooks("t1", copies(2));
+			assertEquals(engine, NUM_COPIES - 2, getDefaultBook(stockManager).getNumCopies());
+
+			participant.abortBuyBooks("t1");
+			StockBook book = getDefaultBook(stockManager);
+			assertEquals(engine, NUM_COPIES, book.getNumCopies());
+			assertEquals(engine, 1, book.getNumSaleMisses());
+
+			// A restock still resets them.
+			stockManager.addCopies(copies(1));
+			assertEquals(engine, 0, getDefaultBook(stockManager).getNumSaleMisses());
+		}
+	}
+
+	/**
+	 * Tests that a prepared transaction keeps its copies reserved until the
+	 * coordinator commits it, however late the commit arrives.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testReservationKeptUntilCommit() throws Exception {
+		SingleLockConcurrentCertainBookStore store = new SingleLockConcurrentCertainBookStore();
+		BookStoreShardParticipant participant = new BookStoreShardParticipant(store, store);
+		addDefaultBook(store);
+
+		participant.prepareBuyBooks("t1", copies(2));
+		participant.prepareBuyBooks("t2", copies(1));
+		participant.commitBuyBooks("t2");
+		assertEquals(1, participant.getNumPreparedTransactions());
+
+		Thread.sleep(100);
+		assertEquals(1, participant.getNumPreparedTransactions());
+		assertEquals(NUM_COPIES - 3, getDefaultBook(store).getNumCopies());
+
+		participant.commitBuyBooks("t1");
+		assertEquals(0, participant.getNumPreparedTransactions());
+		assertEquals(NUM_COPIES - 3, getDefaultBook(store).getNumCopies());
+
+		// The transaction is over, so neither decision applies to it anymore.
+		try {
+			participant.commitBuyBooks("t1");
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		participant.abortBuyBooks("t1");
+		assertEquals(NUM_COPIES - 3, getDefaultBook(store).getNumCopies());
+	}
+
+	/**
+	 * Tests that a second prepare of a transaction fails without reserving any
+	 * copies, and that a failed prepare leaves no transaction behind.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testDuplicateAndFailedPrepare() throws BookStoreException {
+		SingleLockConcurrentCertainBookStore store = new SingleLockConcurrentCertainBookStore();
+		BookStoreShardParticipant participant = new BookStoreShardParticipant(store, store);
+		addDefaultBook(store);
+
+		participant.prepareBuyBooks("t1", copies(2));
+
+		try {
+			participant.prepareBuyBooks("t1", copies(1));
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		assertEquals(NUM_COPIES - 2, getDefaultBook(store).getNumCopies());
+
+		try {
+			participant.prepareBuyBooks("t2", copies(NUM_COPIES));
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		assertEquals(1, participant.getNumPreparedTransactions());
+
+		// The failed transaction can be prepared again.
+		participant.prepareBuyBooks("t2", copies(1));
+		assertEquals(2, participant.getNumPreparedTransactions());
+	}
+
+	/**
+	 * Tests that an abort arriving while the transaction is being prepared
+	 * makes the prepare fail and puts the copies back into stock.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testAbortDuringPrepare() throws BookStoreException {
+		BookStoreShardParticipant[] participant = new BookStoreShardParticipant[1];
+		SingleLockConcurrentCertainBookStore store = new SingleLockConcurrentCertainBookStore() {
+
+			@Override
+			public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+				participant[0].abortBuyBooks("t1");
+				super.buyBooks(bookCopiesToBuy);
+			}
+		};
+		participant[0] = new BookStoreShardParticipant(store, store);
+		addDefaultBook(store);
+
+		try {
+			participant[0].prepareBuyBooks("t1", copies(2));
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		assertEquals(0, participant[0].getNumPreparedTransactions());
+		assertEquals(NUM_COPIES, getDefaultBook(store).getNumCopies());
+
+		try {
+			participant[0].commitBuyBooks("t1");
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+	}
+}
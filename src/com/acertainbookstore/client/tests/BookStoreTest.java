@@ -18,10 +18,14 @@ import org.junit.Test;
 
 import com.acertainbookstore.business.Book;
 import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.FaultInjector;
+import com.acertainbookstore.business.OptimisticConcurrentCertainBookStore;
 import com.acertainbookstore.business.SingleLockConcurrentCertainBookStore;
+import com.acertainbookstore.business.SingleWriterConcurrentCertainBookStore;
 import com.acertainbookstore.business.ImmutableStockBook;
 import com.acertainbookstore.business.SerialCertainBookStore;
 import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.business.TransactionalConcurrentCertainBookStore;
 import com.acertainbookstore.business.TwoLevelLockingConcurrentCertainBookStore;
 import com.acertainbookstore.client.BookStoreHTTPProxy;
 import com.acertainbookstore.client.StockManagerHTTPProxy;
@@ -68,7 +72,19 @@ public class BookStoreTest {
 			singleLock = (singleLockProperty != null) ? Boolean.parseBoolean(singleLockProperty) : singleLock;
 
 			if (localTest) {
-				if (singleLock) {
+				if (Boolean.parseBoolean(System.getProperty(BookStoreConstants.PROPERTY_KEY_OPTIMISTIC))) {
+					OptimisticConcurrentCertainBookStore store = new OptimisticConcurrentCertainBookStore();
+					storeManager = store;
+					client = store;
+				} else if (Boolean.parseBoolean(System.getProperty(BookStoreConstants.PROPERTY_KEY_TRANSACTIONAL))) {
+					TransactionalConcurrentCertainBookStore store = new TransactionalConcurrentCertainBookStore();
+					storeManager = store;
+					client = store;
+				} else if (Boolean.parseBoolean(System.getProperty(BookStoreConstants.PROPERTY_KEY_SINGLE_WRITER))) {
+					SingleWriterConcurrentCertainBookStore store = new SingleWriterConcurrentCertainBookStore();
+					storeManager = store;
+					client = store;
+				} else if (singleLock) {
 					SingleLockConcurrentCertainBookStore store = new SingleLockConcurrentCertainBookStore();
 					storeManager = store;
 					client = store;
@@ -131,13 +147,15 @@ public class BookStoreTest {
 	}
 
 	/**
-	 * Method to clean up the book store, execute after every test case is run.
+	 * Method to clean up the book store and the faults injected, execute after
+	 * every test case is run.
 	 *
 	 * @throws BookStoreException
 	 *                            the book store exception
 	 */
 	@After
 	public void cleanupBooks() throws BookStoreException {
+		FaultInjector.clearAll();
 		storeManager.removeAllBooks();
 	}
 
@@ -543,6 +561,9 @@ public class BookStoreTest {
 		}
 		int numberOfThreads = 20;
 
+		// Slow the purchases down so that the copies added keep up with them
+		FaultInjector.BUY_BOOKS.delay(1);
+
 		// start a thread that buys 1 books 🦟
 		Thread[] clients = new Thread[numberOfThreads];
 		for (int i = 0; i < numberOfThreads; i++) {
@@ -623,6 +644,63 @@ public class BookStoreTest {
 		assertTrue(threads_bought == 1);
 	}
 
+	/**
+	 * Tests that books are found by prefixes of the words of their title and
+	 * author, and that every term of a query must match.
+	 *
+	 * @throws BookStoreException
+	 *                            the book store exception
+	 */
+	@Test
+	public void testSearchBooks() throws BookStoreException {
+		addBooks(TEST_ISBN + 1, NUM_COPIES);
+
+		List<Book> books = client.searchBooks("harry", 0, 10);
+		assertEquals(1, books.size());
+		assertEquals(TEST_ISBN, books.get(0).getISBN());
+
+		// Terms are prefixes and case is ignored.
+		assertEquals(1, client.searchBooks("POT JUn", 0, 10).size());
+		assertEquals(1, client.searchBooks("testin", 0, 10).size());
+
+		// Every term must match.
+		assertEquals(0, client.searchBooks("harry thrones", 0, 10).size());
+
+		// Matches are paged in ISBN order.
+		addBooks(TEST_ISBN + 2, NUM_COPIES);
+		assertEquals(2, client.searchBooks("thrones", 0, 10).size());
+		assertEquals(TEST_ISBN + 2, client.searchBooks("thrones", 1, 10).get(0).getISBN());
+		assertEquals(TEST_ISBN + 1, client.searchBooks("thrones", 0, 1).get(0).getISBN());
+
+		try {
+			client.searchBooks("harry", -1, 10);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+	}
+
+	/**
+	 * Tests that removed books are no longer found.
+	 *
+	 * @throws BookStoreException
+	 *                            the book store exception
+	 */
+	@Test
+	public void testSearchBooksAfterRemove() throws BookStoreException {
+		addBooks(TEST_ISBN + 1, NUM_COPIES);
+
+		Set<Integer> isbnsToRemove = new HashSet<Integer>();
+		isbnsToRemove.add(TEST_ISBN);
+		storeManager.removeBooks(isbnsToRemove);
+
+		assertTrue(client.searchBooks("harry", 0, 10).isEmpty());
+		assertEquals(1, client.searchBooks("thrones", 0, 10).size());
+
+		storeManager.removeAllBooks();
+		assertTrue(client.searchBooks("thrones", 0, 10).isEmpty());
+	}
+
 	/**
 	 * Tear down after class.
 	 *
@@ -0,0 +1,79 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.junit.Test;
+
+import com.acertainbookstore.business.CatalogChangeJournal;
+
+/**
+ * {@link CatalogChangeJournalTest} tests the bounded journal behind
+ * {@link com.acertainbookstore.interfaces.StockManager#getChangesSince(long)}.
+ */
+public class CatalogChangeJournalTest {
+
+	/**
+	 * Tests that the changes since a version are the ISBNs recorded after it.
+	 */
+	@Test
+	public void testChangedSince() {
+		CatalogChangeJournal journal = new CatalogChangeJournal(8);
+		long first = journal.record(Arrays.asList(1, 2));
+		long second = journal.record(3);
+		journal.record(Arrays.asList(2, 4));
+
+		assertEquals(new HashSet<>(Arrays.asList(1, 2, 3, 4)), journal.changedSince(0));
+		assertEquals(new HashSet<>(Arrays.asList(2, 3, 4)), journal.changedSince(first));
+		assertEquals(new HashSet<>(Arrays.asList(2, 4)), journal.changedSince(second));
+		assertTrue(journal.changedSince(journal.getVersion()).isEmpty());
+		assertNull(journal.changedSince(journal.getVersion() + 1));
+		assertNull(journal.changedSince(-1));
+	}
+
+	/**
+	 * Tests that the versions whose changes were overwritten are no longer
+	 * available, while the newer ones still are.
+	 */
+	@Test
+	public void testEviction() {
+		CatalogChangeJournal journal = new CatalogChangeJournal(4);
+		long first = journal.record(Arrays.asList(1, 2));
+		long second = journal.record(Arrays.asList(3, 4));
+
+		// The third version overwrites an entry of the first.
+		long third = journal.record(5);
+
+		assertNull(journal.changedSince(0));
+		assertEquals(new HashSet<>(Arrays.asList(3, 4, 5)), journal.changedSince(first));
+		assertEquals(new HashSet<>(Arrays.asList(5)), journal.changedSince(second));
+
+		// Overwriting the last entry of the first version loses nothing newer.
+		journal.record(6);
+		assertEquals(new HashSet<>(Arrays.asList(3, 4, 5, 6)), journal.changedSince(first));
+
+		// Overwriting a single entry of the second version makes it incomplete.
+		journal.record(7);
+		assertNull(journal.changedSince(first));
+		assertEquals(new HashSet<>(Arrays.asList(5, 6, 7)), journal.changedSince(second));
+		assertEquals(new HashSet<>(Arrays.asList(6, 7)), journal.changedSince(third));
+	}
+
+	/**
+	 * Tests that recording a change of every book forgets the older changes.
+	 */
+	@Test
+	public void testRecordAll() {
+		CatalogChangeJournal journal = new CatalogChangeJournal(8);
+		long first = journal.record(1);
+		long cleared = journal.recordAll();
+
+		assertNull(journal.changedSince(first));
+		assertTrue(journal.changedSince(cleared).isEmpty());
+
+		journal.record(2);
+		assertEquals(new HashSet<>(Arrays.asList(2)), journal.changedSince(cleared));
+	}
+}
@@ -0,0 +1,245 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.http.HttpHeader;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.client.StockManagerHTTPProxy;
+import com.acertainbookstore.server.BookStoreHTTPServer;
+import com.acertainbookstore.server.BookStoreResponseContent;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreContentEncoding;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreMessageTag;
+
+/**
+ * {@link CompressionTest} tests the compression of the large responses of a
+ * local {@link BookStoreHTTPServer} process, negotiated by the HTTP proxies
+ * over HTTP/1.1 and HTTP/2.
+ *
+ * @see BookStoreContentEncoding
+ */
+public class CompressionTest {
+
+	/** The port of the server. */
+	private static final int PORT = 8104;
+
+	/** The Constant TEST_ISBN. */
+	private static final int TEST_ISBN = 3044560;
+
+	/** The Constant NUM_COPIES. */
+	private static final int NUM_COPIES = 5;
+
+	/** The number of books, enough for the listing to be compressed. */
+	private static final int NUM_BOOKS = 2000;
+
+	/** The server address. */
+	private static final String SERVER_ADDRESS = "http://localhost:" + PORT;
+
+	/** The server process. */
+	private static Process server;
+
+	/** The stock manager, accepting no compression. */
+	private static StockManagerHTTPProxy storeManager;
+
+	/** The client sending raw requests, which decodes nothing by itself. */
+	private static HttpClient client;
+
+	/**
+	 * Starts the server.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		ProcessBuilder processBuilder = new ProcessBuilder(java,
+				"-D" + BookStoreConstants.PROPERTY_KEY_SERVER_PORT + "=" + PORT, "-cp",
+				System.getProperty("java.class.path"), BookStoreHTTPServer.class.getName());
+		processBuilder.redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.DISCARD);
+		server = processBuilder.start();
+
+		storeManager = new StockManagerHTTPProxy(SERVER_ADDRESS + "/stock", false);
+		client = new HttpClient();
+		client.start();
+		client.getContentDecoderFactories().clear();
+
+		// Wait until the server accepts requests.
+		for (int attempt = 0;; attempt++) {
+			try {
+				storeManager.getBooks();
+				break;
+			} catch (BookStoreException ex) {
+				if (attempt == 100) {
+					throw ex;
+				}
+
+				Thread.sleep(100);
+			}
+		}
+	}
+
+	/**
+	 * Method to add the books, executed before every test case is run.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Before
+	public void initializeBooks() throws BookStoreException {
+		Set<StockBook> booksToAdd = new HashSet<>();
+
+		for (int i = 0; i < NUM_BOOKS; i++) {
+			booksToAdd.add(new ImmutableStockBook(TEST_ISBN + i, "Book " + i, "Author " + i, (float) 10, NUM_COPIES,
+					0, 0, 0, false));
+		}
+
+		storeManager.addBooks(booksToAdd);
+	}
+
+	/**
+	 * Method to clean up the book store, execute after every test case is run.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@After
+	public void cleanupBooks() throws BookStoreException {
+		storeManager.removeAllBooks();
+		System.clearProperty(BookStoreConstants.PROPERTY_KEY_COMPRESSION);
+	}
+
+	/**
+	 * Tests that the server picks the first encoding the client accepts.
+	 */
+	@Test
+	public void testNegotiate() {
+		assertNull(BookStoreContentEncoding.negotiate(null));
+		assertNull(BookStoreContentEncoding.negotiate(BookStoreContentEncoding.IDENTITY));
+		assertNull(BookStoreContentEncoding.negotiate("br, gzip;q=0"));
+		assertEquals(BookStoreContentEncoding.GZIP, BookStoreContentEncoding.negotiate("br, gzip, deflate"));
+		assertEquals(BookStoreContentEncoding.DEFLATE, BookStoreContentEncoding.negotiate("gzip; q=0, DEFLATE"));
+	}
+
+	/**
+	 * Tests that every encoding gives the content back.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testEncodeDecode() throws Exception {
+		byte[] content = new byte[100000];
+
+		for (int i = 0; i < content.length; i++) {
+			content[i] = (byte) (i % 7);
+		}
+
+		for (BookStoreContentEncoding encoding : BookStoreContentEncoding.values()) {
+			byte[] encoded = encoding.encode(content);
+			assertTrue(encoding.name(), encoded.length < content.length);
+			assertArrayEquals(encoding.name(), content, encoding.decode(encoded));
+		}
+	}
+
+	/**
+	 * Tests that a shared response is compressed once per encoding.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testSharedResponseEncodedOnce() throws Exception {
+		byte[] content = new byte[BookStoreConstants.COMPRESSION_THRESHOLD_BYTES];
+		BookStoreResponseContent responseContent = new BookStoreResponseContent(content);
+
+		for (BookStoreContentEncoding encoding : BookStoreContentEncoding.values()) {
+			byte[] encoded = responseContent.getContent(encoding);
+			assertSame(encoding.name(), encoded, responseContent.getContent(encoding));
+			assertArrayEquals(encoding.name(), content, encoding.decode(encoded));
+		}
+
+		assertSame(content, responseContent.getContent());
+	}
+
+	/**
+	 * Tests that only the responses above the threshold are compressed, and
+	 * only when the client accepts it.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testCompressesLargeResponsesOnly() throws Exception {
+		String listBooksURL = SERVER_ADDRESS + "/stock/" + BookStoreMessageTag.LISTBOOKS;
+		ContentResponse identity = client.newRequest(listBooksURL)
+				.header(HttpHeader.ACCEPT_ENCODING, BookStoreContentEncoding.IDENTITY).send();
+		assertNull(identity.getHeaders().get(HttpHeader.CONTENT_ENCODING));
+		assertTrue(identity.getContent().length >= BookStoreConstants.COMPRESSION_THRESHOLD_BYTES);
+
+		ContentResponse deflated = client.newRequest(listBooksURL).header(HttpHeader.ACCEPT_ENCODING, "deflate")
+				.send();
+		assertEquals("deflate", deflated.getHeaders().get(HttpHeader.CONTENT_ENCODING));
+		assertArrayEquals(identity.getContent(), BookStoreContentEncoding.DEFLATE.decode(deflated.getContent()));
+
+		String pageURL = listBooksURL + "?" + BookStoreConstants.BOOK_NUM_PARAM + "=1";
+		ContentResponse small = client.newRequest(pageURL).header(HttpHeader.ACCEPT_ENCODING, "deflate").send();
+		assertNull(small.getHeaders().get(HttpHeader.CONTENT_ENCODING));
+	}
+
+	/**
+	 * Tests the listing of the proxies accepting every encoding, over both
+	 * transports.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testProxies() throws Exception {
+		for (BookStoreContentEncoding encoding : BookStoreContentEncoding.values()) {
+			System.setProperty(BookStoreConstants.PROPERTY_KEY_COMPRESSION, encoding.getName());
+
+			for (boolean http2 : new boolean[] { false, true }) {
+				StockManagerHTTPProxy proxy = new StockManagerHTTPProxy(SERVER_ADDRESS + "/stock", http2);
+
+				try {
+					List<StockBook> books = proxy.getBooks();
+					assertEquals(encoding + " http2=" + http2, NUM_BOOKS, books.size());
+				} finally {
+					proxy.stop();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stops the clients and the server.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@AfterClass
+	public static void tearDownAfterClass() throws Exception {
+		if (client != null) {
+			client.stop();
+			storeManager.stop();
+		}
+
+		server.destroy();
+	}
+}
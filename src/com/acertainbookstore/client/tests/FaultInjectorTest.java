@@ -0,0 +1,119 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.FaultInjector;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.SingleLockConcurrentCertainBookStore;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link FaultInjectorTest} tests the delays and exceptions injected at the
+ * points of the store engines.
+ */
+public class FaultInjectorTest {
+
+	/** The ISBN of the book of the tests. */
+	private static final int TEST_ISBN = 3044800;
+
+	/**
+	 * Turns every point off after a test.
+	 */
+	@After
+	public void tearDown() {
+		FaultInjector.clearAll();
+	}
+
+	/**
+	 * Creates a single lock store holding the book of the tests.
+	 *
+	 * @return the store
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private SingleLockConcurrentCertainBookStore createStore() throws BookStoreException {
+		SingleLockConcurrentCertainBookStore store = new SingleLockConcurrentCertainBookStore();
+		Set<StockBook> books = new HashSet<>();
+		books.add(new ImmutableStockBook(TEST_ISBN, "Faulty", "Ann Author", 10, 5, 0, 0, 0, false));
+		store.addBooks(books);
+		return store;
+	}
+
+	/**
+	 * Tests that a specification sets the faults of its points and that an
+	 * invalid specification is rejected.
+	 */
+	@Test
+	public void testConfigure() {
+		FaultInjector.configure(null);
+		FaultInjector.configure("buyBooks=delay:5, addCopies.book=throw@0.5");
+		assertTrue(FaultInjector.getPoints().containsKey("buyBooks.check"));
+
+		for (String invalid : new String[] { "noSuchPoint=throw", "buyBooks", "buyBooks=sleep:5",
+				"buyBooks=throw@2" }) {
+			try {
+				FaultInjector.configure(invalid);
+				fail("accepted " + invalid);
+			} catch (IllegalArgumentException ex) {
+				;
+			}
+		}
+	}
+
+	/**
+	 * Tests that a delay is injected once per call and extends the call.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testDelay() throws BookStoreException {
+		SingleLockConcurrentCertainBookStore store = createStore();
+		FaultInjector.BUY_BOOKS.delay(50);
+		long injected = FaultInjector.BUY_BOOKS.getNumInjected();
+
+		long start = System.nanoTime();
+		store.buyBooks(Collections.singleton(new BookCopy(TEST_ISBN, 1)));
+		long elapsedMillis = (System.nanoTime() - start) / 1000000;
+
+		assertTrue("took " + elapsedMillis + " ms", elapsedMillis >= 50);
+		assertEquals(injected + 1, FaultInjector.BUY_BOOKS.getNumInjected());
+	}
+
+	/**
+	 * Tests that an injected exception fails the call without changing the
+	 * stock, and that the call succeeds once the point is off.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testException() throws BookStoreException {
+		SingleLockConcurrentCertainBookStore store = createStore();
+		Set<BookCopy> order = Collections.singleton(new BookCopy(TEST_ISBN, 2));
+		FaultInjector.configure("buyBooks=throw");
+
+		try {
+			store.buyBooks(order);
+			fail("no fault injected");
+		} catch (BookStoreException ex) {
+			assertEquals(BookStoreConstants.INJECTED_FAULT + "buyBooks", ex.getMessage());
+		}
+
+		assertEquals(5, store.getBooks().get(0).getNumCopies());
+
+		FaultInjector.BUY_BOOKS.clear();
+		store.buyBooks(order);
+		assertEquals(3, store.getBooks().get(0).getNumCopies());
+	}
+}
@@ -0,0 +1,269 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.FlatCombiner;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.SingleLockConcurrentCertainBookStore;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link FlatCombinerTest} tests the batching of concurrent purchases under a
+ * single acquisition of the write lock.
+ */
+public class FlatCombinerTest {
+
+	/** The number of concurrent callers. */
+	private static final int NUM_CALLERS = 8;
+
+	/** The threads of the callers. */
+	private ExecutorService executor;
+
+	/**
+	 * Sets up the threads.
+	 */
+	@Before
+	public void setUp() {
+		executor = Executors.newFixedThreadPool(NUM_CALLERS);
+	}
+
+	/**
+	 * Stops the threads.
+	 */
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Tests that the requests queued while the lock is held are applied in a
+	 * single batch, and that a failing request only fails its own caller.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testBatchKeepsOutcomes() throws Exception {
+		ReentrantLock lock = new ReentrantLock();
+		List<Integer> applied = Collections.synchronizedList(new ArrayList<>());
+		FlatCombiner<Integer> combiner = new FlatCombiner<>(lock, request -> {
+			assertTrue(lock.isHeldByCurrentThread());
+
+			if (request < 0) {
+				throw new BookStoreException("Negative request");
+			}
+
+			applied.add(request);
+		}, NUM_CALLERS);
+
+		List<Future<?>> outcomes = new ArrayList<>();
+		lock.lock();
+
+		try {
+			for (int i = 0; i < NUM_CALLERS; i++) {
+				int request = (i == 3) ? -1 : i;
+				outcomes.add(executor.submit(() -> {
+					combiner.execute(request);
+					return null;
+				}));
+			}
+
+			long deadline = System.currentTimeMillis() + 5000;
+
+			while (combiner.getNumPending() < NUM_CALLERS) {
+				assertTrue(System.currentTimeMillis() < deadline);
+				Thread.sleep(1);
+			}
+		} finally {
+			lock.unlock();
+		}
+
+		for (int i = 0; i < NUM_CALLERS; i++) {
+			try {
+				outcomes.get(i).get(5, TimeUnit.SECONDS);
+				assertNotEquals(3, i);
+			} catch (ExecutionException ex) {
+				assertEquals(3, i);
+				assertTrue(ex.getCause() instanceof BookStoreException);
+			}
+		}
+
+		assertEquals(NUM_CALLERS - 1, applied.size());
+		assertEquals(1, combiner.getNumBatches());
+		assertEquals(NUM_CALLERS, combiner.getNumRequests());
+	}
+
+	/**
+	 * Tests that an error thrown by a request is rethrown to its caller only,
+	 * while the other requests of the batch are still applied.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testErrorFailsOnlyItsCaller() throws Exception {
+		ReentrantLock lock = new ReentrantLock();
+		List<Integer> applied = Collections.synchronizedList(new ArrayList<>());
+		FlatCombiner<Integer> combiner = new FlatCombiner<>(lock, request -> {
+			if (request == 0) {
+				throw new AssertionError("Fatal request");
+			}
+
+			applied.add(request);
+		}, NUM_CALLERS);
+
+		List<Future<?>> outcomes = new ArrayList<>();
+		lock.lock();
+
+		try {
+			for (int i = 0; i < NUM_CALLERS; i++) {
+				int request = i;
+				outcomes.add(executor.submit(() -> {
+					combiner.execute(request);
+					return null;
+				}));
+			}
+
+			long deadline = System.currentTimeMillis() + 5000;
+
+			while (combiner.getNumPending() < NUM_CALLERS) {
+				assertTrue(System.currentTimeMillis() < deadline);
+				Thread.sleep(1);
+			}
+		} finally {
+			lock.unlock();
+		}
+
+		for (int i = 0; i < NUM_CALLERS; i++) {
+			try {
+				outcomes.get(i).get(5, TimeUnit.SECONDS);
+				assertNotEquals(0, i);
+			} catch (ExecutionException ex) {
+				assertEquals(0, i);
+				assertTrue(ex.getCause() instanceof AssertionError);
+			}
+		}
+
+		assertEquals(NUM_CALLERS - 1, applied.size());
+	}
+
+	/**
+	 * Tests that the caller of the oldest queued request waits on the lock
+	 * itself rather than polling it.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testHeadBlocksOnLock() throws Exception {
+		ReentrantLock lock = new ReentrantLock();
+		List<Integer> applied = Collections.synchronizedList(new ArrayList<>());
+		FlatCombiner<Integer> combiner = new FlatCombiner<>(lock, applied::add, NUM_CALLERS);
+		Future<?> outcome;
+		lock.lock();
+
+		try {
+			outcome = executor.submit(() -> {
+				combiner.execute(1);
+				return null;
+			});
+
+			long deadline = System.currentTimeMillis() + 5000;
+
+			while (!lock.hasQueuedThreads()) {
+				assertTrue(System.currentTimeMillis() < deadline);
+				Thread.sleep(1);
+			}
+
+			assertEquals(1, combiner.getNumPending());
+		} finally {
+			lock.unlock();
+		}
+
+		outcome.get(5, TimeUnit.SECONDS);
+		assertEquals(Collections.singletonList(1), applied);
+	}
+
+	/**
+	 * Tests that concurrent purchases in a combining store sell every copy
+	 * exactly once, while the orders that cannot be satisfied fail on their
+	 * own and buy nothing.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testConcurrentPurchases() throws Exception {
+		final int isbn = 3044560;
+		final int otherISBN = 3044561;
+		final int purchasesPerCaller = 20;
+		SingleLockConcurrentCertainBookStore store = new SingleLockConcurrentCertainBookStore(true);
+
+		Set<StockBook> books = new HashSet<>();
+		books.add(new ImmutableStockBook(isbn, "Flash Sale", "Ann Author", 10, NUM_CALLERS * purchasesPerCaller, 0, 0,
+				0, false));
+		books.add(new ImmutableStockBook(otherISBN, "Sold Out", "Ann Author", 10, 1, 0, 0, 0, false));
+		store.addBooks(books);
+
+		List<Future<Integer>> outcomes = new ArrayList<>();
+
+		for (int i = 0; i < NUM_CALLERS; i++) {
+			outcomes.add(executor.submit(() -> {
+				int numFailed = 0;
+
+				for (int j = 0; j < purchasesPerCaller; j++) {
+					Set<BookCopy> order = new HashSet<>();
+					order.add(new BookCopy(isbn, 1));
+					store.buyBooks(order);
+
+					// Together with a book that has too few copies, nothing
+					// is bought.
+					order.add(new BookCopy(otherISBN, 2));
+
+					try {
+						store.buyBooks(order);
+					} catch (BookStoreException ex) {
+						numFailed++;
+					}
+				}
+
+				return numFailed;
+			}));
+		}
+
+		for (Future<Integer> outcome : outcomes) {
+			assertEquals(purchasesPerCaller, (int) outcome.get(60, TimeUnit.SECONDS));
+		}
+
+		Set<Integer> isbns = new HashSet<>();
+		isbns.add(isbn);
+		isbns.add(otherISBN);
+
+		for (StockBook book : store.getBooksByISBN(isbns)) {
+			if (book.getISBN() == isbn) {
+				assertEquals(0, book.getNumCopies());
+			} else {
+				assertEquals(1, book.getNumCopies());
+				assertEquals(NUM_CALLERS * purchasesPerCaller, book.getNumSaleMisses());
+			}
+		}
+	}
+}
@@ -0,0 +1,259 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.client.BookStoreHTTP2Client;
+import com.acertainbookstore.client.BookStoreHTTPProxy;
+import com.acertainbookstore.client.StockManagerHTTPProxy;
+import com.acertainbookstore.interfaces.BookStoreSerializer;
+import com.acertainbookstore.server.BookStoreHTTPServer;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreKryoSerializer;
+import com.acertainbookstore.utils.BookStoreMessageTag;
+import com.acertainbookstore.utils.BookStoreRequest;
+import com.acertainbookstore.utils.BookStoreXStreamSerializer;
+
+/**
+ * {@link HTTP2ProxyTest} tests the HTTP proxies sending their requests over
+ * HTTP/2 cleartext to a local {@link BookStoreHTTPServer} process, which keeps
+ * serving HTTP/1.1 on the same port.
+ */
+public class HTTP2ProxyTest {
+
+	/** The port of the server. */
+	private static final int PORT = 8103;
+
+	/** The Constant TEST_ISBN. */
+	private static final int TEST_ISBN = 3044560;
+
+	/** The Constant NUM_COPIES. */
+	private static final int NUM_COPIES = 5;
+
+	/** The number of concurrent requests, above the streams of a connection. */
+	private static final int NUM_CONCURRENT_REQUESTS = 4 * BookStoreConstants.HTTP2_MAX_CONCURRENT_STREAMS;
+
+	/** The server process. */
+	private static Process server;
+
+	/** The store, over HTTP/2. */
+	private static BookStoreHTTPProxy client;
+
+	/** The stock manager, over HTTP/2. */
+	private static StockManagerHTTPProxy storeManager;
+
+	/** The stock manager, over HTTP/1.1. */
+	private static StockManagerHTTPProxy http1StoreManager;
+
+	/**
+	 * Starts the server.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		// Admission control would reject the bursts of concurrent requests.
+		ProcessBuilder processBuilder = new ProcessBuilder(java,
+				"-D" + BookStoreConstants.PROPERTY_KEY_SERVER_PORT + "=" + PORT,
+				"-D" + BookStoreConstants.PROPERTY_KEY_ADMISSION_CONTROL + "=false", "-cp",
+				System.getProperty("java.class.path"), BookStoreHTTPServer.class.getName());
+		processBuilder.redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.DISCARD);
+		server = processBuilder.start();
+
+		String serverAddress = "http://localhost:" + PORT;
+		client = new BookStoreHTTPProxy(serverAddress, true);
+		storeManager = new StockManagerHTTPProxy(serverAddress + "/stock", true);
+		http1StoreManager = new StockManagerHTTPProxy(serverAddress + "/stock", false);
+
+		// Wait until the server accepts requests.
+		for (int attempt = 0;; attempt++) {
+			try {
+				storeManager.getBooks();
+				break;
+			} catch (BookStoreException ex) {
+				if (attempt == 100) {
+					throw ex;
+				}
+
+				Thread.sleep(100);
+			}
+		}
+	}
+
+	/**
+	 * Helper method to get the default book used by initializeBooks.
+	 *
+	 * @return the default book
+	 */
+	public StockBook getDefaultBook() {
+		return new ImmutableStockBook(TEST_ISBN, "Harry Potter and JUnit", "JK Unit", (float) 10, NUM_COPIES, 0, 0, 0,
+				false);
+	}
+
+	/**
+	 * Method to add a book, executed before every test case is run.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Before
+	public void initializeBooks() throws BookStoreException {
+		Set<StockBook> booksToAdd = new HashSet<>();
+		booksToAdd.add(getDefaultBook());
+		storeManager.addBooks(booksToAdd);
+	}
+
+	/**
+	 * Method to clean up the book store, execute after every test case is run.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@After
+	public void cleanupBooks() throws BookStoreException {
+		storeManager.removeAllBooks();
+	}
+
+	/**
+	 * Tests that a purchase over HTTP/2 is seen over HTTP/1.1.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testBuyBooksSeenOverHTTP1() throws BookStoreException {
+		Set<BookCopy> booksToBuy = new HashSet<>();
+		booksToBuy.add(new BookCopy(TEST_ISBN, 2));
+		client.buyBooks(booksToBuy);
+
+		List<StockBook> books = http1StoreManager.getBooks();
+		assertEquals(1, books.size());
+		assertEquals(NUM_COPIES - 2, books.get(0).getNumCopies());
+	}
+
+	/**
+	 * Tests that the exception thrown by the server is rethrown over HTTP/2.
+	 */
+	@Test
+	public void testServerException() {
+		Set<BookCopy> booksToBuy = new HashSet<>();
+		booksToBuy.add(new BookCopy(TEST_ISBN, NUM_COPIES + 1));
+
+		try {
+			client.buyBooks(booksToBuy);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+	}
+
+	/**
+	 * Tests that more concurrent requests than the streams of a connection all
+	 * succeed.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testConcurrentRequests() throws Exception {
+		Set<Integer> isbns = new HashSet<>();
+		isbns.add(TEST_ISBN);
+
+		ExecutorService executor = Executors.newFixedThreadPool(NUM_CONCURRENT_REQUESTS);
+		List<Future<List<Book>>> futures = new ArrayList<>();
+
+		try {
+			for (int i = 0; i < NUM_CONCURRENT_REQUESTS; i++) {
+				futures.add(executor.submit(() -> client.getBooks(isbns)));
+			}
+
+			for (Future<List<Book>> future : futures) {
+				List<Book> books = future.get();
+				assertEquals(1, books.size());
+				assertEquals(TEST_ISBN, books.get(0).getISBN());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Tests a response larger than the flow control window of a stream.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testLargeResponse() throws BookStoreException {
+		Set<StockBook> booksToAdd = new HashSet<>();
+
+		for (int i = 1; i <= 2000; i++) {
+			booksToAdd.add(new ImmutableStockBook(TEST_ISBN + i, "Book " + i, "Author " + i, (float) 10, NUM_COPIES,
+					0, 0, 0, false));
+		}
+
+		storeManager.addBooks(booksToAdd);
+		assertEquals(booksToAdd.size() + 1, storeManager.getBooks().size());
+	}
+
+	/**
+	 * Tests that the client sizes the streams it opens after the concurrent
+	 * streams the server announces, keeping a margin.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testStreamsSizedFromSettings() throws Exception {
+		String urlString = "http://localhost:" + PORT + "/stock/" + BookStoreMessageTag.LISTBOOKS;
+		BookStoreSerializer serializer = BookStoreConstants.BINARY_SERIALIZATION ? new BookStoreKryoSerializer()
+				: new BookStoreXStreamSerializer();
+		BookStoreHTTP2Client http2Client = new BookStoreHTTP2Client();
+
+		try {
+			assertEquals(0, http2Client.getMaxStreams(urlString));
+			http2Client.performHttpExchange(BookStoreRequest.newGetRequest(urlString), serializer, null);
+
+			int maxStreams = http2Client.getMaxStreams(urlString);
+			assertTrue(maxStreams > 0);
+			assertTrue(maxStreams < BookStoreConstants.HTTP2_MAX_CONCURRENT_STREAMS);
+		} finally {
+			http2Client.stop();
+		}
+	}
+
+	/**
+	 * Stops the proxies and the server.
+	 */
+	@AfterClass
+	public static void tearDownAfterClass() {
+		if (client != null) {
+			client.stop();
+			storeManager.stop();
+			http1StoreManager.stop();
+		}
+
+		server.destroy();
+	}
+}
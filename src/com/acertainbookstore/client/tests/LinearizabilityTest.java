@@ -0,0 +1,292 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.FaultInjector;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.OptimisticConcurrentCertainBookStore;
+import com.acertainbookstore.business.SingleLockConcurrentCertainBookStore;
+import com.acertainbookstore.business.SingleWriterConcurrentCertainBookStore;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.business.TransactionalConcurrentCertainBookStore;
+import com.acertainbookstore.business.TwoLevelLockingConcurrentCertainBookStore;
+import com.acertainbookstore.client.workload.BookStoreHistory;
+import com.acertainbookstore.client.workload.BookStoreHistory.Operation;
+import com.acertainbookstore.client.workload.BookStoreHistory.Outcome;
+import com.acertainbookstore.client.workload.BookStoreHistory.Type;
+import com.acertainbookstore.client.workload.LinearizabilityChecker;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+
+/**
+ * {@link LinearizabilityTest} tests the linearizability checker on histories
+ * written by hand, and checks the histories of concurrent operations recorded
+ * against every concurrent store.
+ */
+public class LinearizabilityTest {
+
+	/** The number of concurrent callers. */
+	private static final int NUM_CALLERS = 4;
+
+	/** The number of operations of every caller. */
+	private static final int OPERATIONS_PER_CALLER = 40;
+
+	/** The ISBN of the first book. */
+	private static final int FIRST_ISBN = 3044900;
+
+	/** The number of books. */
+	private static final int NUM_BOOKS = 3;
+
+	/** The threads of the callers. */
+	private ExecutorService executor;
+
+	/**
+	 * Sets up the threads and slows the operations down so that they overlap.
+	 */
+	@Before
+	public void setUp() {
+		executor = Executors.newFixedThreadPool(NUM_CALLERS);
+		FaultInjector.BUY_BOOKS_BOOK.delay(1, 0.5);
+		FaultInjector.ADD_COPIES_BOOK.delay(1, 0.5);
+	}
+
+	/**
+	 * Stops the threads.
+	 */
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+		FaultInjector.clearAll();
+	}
+
+	/**
+	 * Creates the books of the tests.
+	 *
+	 * @param numCopies
+	 *            the number of copies of every book
+	 * @return the books
+	 */
+	private static List<StockBook> createBooks(int numCopies) {
+		List<StockBook> books = new ArrayList<>();
+
+		for (int i = 0; i < NUM_BOOKS; i++) {
+			books.add(new ImmutableStockBook(FIRST_ISBN + i, "Linear", "Ann Author", 10, numCopies, 0, 0, 0, false));
+		}
+
+		return books;
+	}
+
+	/**
+	 * Creates an operation on one copy of the first book.
+	 *
+	 * @param type
+	 *            the type
+	 * @param invocationNanos
+	 *            the time the operation was invoked
+	 * @param responseNanos
+	 *            the time the operation returned
+	 * @param outcome
+	 *            the outcome
+	 * @return the operation
+	 */
+	private static Operation operation(Type type, long invocationNanos, long responseNanos, Outcome outcome) {
+		return new Operation(type, Collections.singleton(new BookCopy(FIRST_ISBN, 1)), invocationNanos, responseNanos,
+				outcome, null);
+	}
+
+	/**
+	 * Creates a listing observing a number of copies of every book.
+	 *
+	 * @param invocationNanos
+	 *            the time the listing was invoked
+	 * @param responseNanos
+	 *            the time the listing returned
+	 * @param firstCopies
+	 *            the number of copies of the first book
+	 * @param otherCopies
+	 *            the number of copies of the other books
+	 * @return the listing
+	 */
+	private static Operation listing(long invocationNanos, long responseNanos, int firstCopies, int otherCopies) {
+		Map<Integer, Integer> observedCopies = new HashMap<>();
+
+		for (int i = 0; i < NUM_BOOKS; i++) {
+			observedCopies.put(FIRST_ISBN + i, (i == 0) ? firstCopies : otherCopies);
+		}
+
+		return new Operation(Type.GET_BOOKS, null, invocationNanos, responseNanos, Outcome.SUCCEEDED, observedCopies);
+	}
+
+	/**
+	 * Tests that the checker orders overlapping operations as needed, respects
+	 * real time only when linearizing, and rejects histories no order explains.
+	 */
+	@Test
+	public void testChecker() {
+		LinearizabilityChecker checker = new LinearizabilityChecker(createBooks(1));
+
+		// The listing overlaps the purchase of the last copy, so it may come
+		// first; the second purchase then fails.
+		Operation firstPurchase = operation(Type.BUY_BOOKS, 0, 10, Outcome.SUCCEEDED);
+		Operation overlappingListing = listing(5, 15, 1, 1);
+		Operation secondPurchase = operation(Type.BUY_BOOKS, 20, 30, Outcome.FAILED);
+		assertEquals(Arrays.asList(overlappingListing, firstPurchase, secondPurchase),
+				checker.linearize(Arrays.asList(firstPurchase, secondPurchase, overlappingListing)));
+
+		// A listing after the purchase returned cannot miss it, unless real
+		// time is ignored.
+		Operation staleListing = listing(20, 30, 1, 1);
+		assertNull(checker.linearize(Arrays.asList(firstPurchase, staleListing)));
+		assertEquals(Arrays.asList(staleListing, firstPurchase),
+				checker.serialize(Arrays.asList(firstPurchase, staleListing)));
+
+		// The last copy cannot be sold twice, in any order.
+		Operation concurrentPurchase = operation(Type.BUY_BOOKS, 5, 15, Outcome.SUCCEEDED);
+		assertNull(checker.serialize(Arrays.asList(firstPurchase, concurrentPurchase)));
+
+		// Unless copies were added in between.
+		Operation addition = operation(Type.ADD_COPIES, 2, 12, Outcome.SUCCEEDED);
+		assertNotNull(checker.linearize(Arrays.asList(firstPurchase, concurrentPurchase, addition)));
+		assertNull(checker.linearize(Arrays.asList(firstPurchase, concurrentPurchase, addition, listing(20, 30, 1, 1))));
+
+		// An aborted purchase did not take a copy.
+		Operation abortedPurchase = operation(Type.BUY_BOOKS, 5, 15, Outcome.ABORTED);
+		assertEquals(Arrays.asList(firstPurchase), checker.linearize(Arrays.asList(firstPurchase, abortedPurchase)));
+	}
+
+	/**
+	 * Records concurrent purchases, additions and listings against a store
+	 * holding the books of the tests, and checks that they are linearizable.
+	 *
+	 * @param bookStore
+	 *            the book store
+	 * @param stockManager
+	 *            the stock manager
+	 * @throws Exception
+	 *             the exception
+	 */
+	private void checkLinearizable(BookStore bookStore, StockManager stockManager) throws Exception {
+		List<StockBook> books = createBooks(3);
+		stockManager.addBooks(new HashSet<>(books));
+		BookStoreHistory history = new BookStoreHistory(bookStore, stockManager);
+		List<Future<?>> callers = new ArrayList<>();
+
+		for (int i = 0; i < NUM_CALLERS; i++) {
+			callers.add(executor.submit(() -> {
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+
+				for (int j = 0; j < OPERATIONS_PER_CALLER; j++) {
+					Set<BookCopy> bookCopies = new HashSet<>();
+					int first = random.nextInt(NUM_BOOKS);
+					bookCopies.add(new BookCopy(FIRST_ISBN + first, 1 + random.nextInt(2)));
+
+					if (random.nextBoolean()) {
+						bookCopies.add(new BookCopy(FIRST_ISBN + (first + 1) % NUM_BOOKS, 1));
+					}
+
+					int choice = random.nextInt(10);
+
+					if (choice < 5) {
+						history.buyBooks(bookCopies);
+					} else if (choice < 7) {
+						history.addCopies(bookCopies);
+					} else {
+						history.getBooks();
+					}
+				}
+			}));
+		}
+
+		for (Future<?> caller : callers) {
+			caller.get(60, TimeUnit.SECONDS);
+		}
+
+		List<Operation> operations = history.getOperations();
+		assertEquals(NUM_CALLERS * OPERATIONS_PER_CALLER, operations.size());
+		assertNotNull("not linearizable: " + operations, new LinearizabilityChecker(books).linearize(operations));
+	}
+
+	/**
+	 * Tests that the single lock store is linearizable.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testSingleLockStore() throws Exception {
+		SingleLockConcurrentCertainBookStore store = new SingleLockConcurrentCertainBookStore();
+		checkLinearizable(store, store);
+	}
+
+	/**
+	 * Tests that the two-level locking store is linearizable.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testTwoLevelLockingStore() throws Exception {
+		TwoLevelLockingConcurrentCertainBookStore store = new TwoLevelLockingConcurrentCertainBookStore();
+		checkLinearizable(store, store);
+	}
+
+	/**
+	 * Tests that the optimistic store is linearizable.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testOptimisticStore() throws Exception {
+		OptimisticConcurrentCertainBookStore store = new OptimisticConcurrentCertainBookStore();
+		checkLinearizable(store, store);
+	}
+
+	/**
+	 * Tests that the transactional memory store is linearizable.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testTransactionalStore() throws Exception {
+		TransactionalConcurrentCertainBookStore store = new TransactionalConcurrentCertainBookStore();
+		checkLinearizable(store, store);
+	}
+
+	/**
+	 * Tests that the single writer store is linearizable.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testSingleWriterStore() throws Exception {
+		SingleWriterConcurrentCertainBookStore store = new SingleWriterConcurrentCertainBookStore();
+
+		try {
+			checkLinearizable(store, store);
+		} finally {
+			store.stop();
+		}
+	}
+}
@@ -0,0 +1,332 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.LockManager;
+import com.acertainbookstore.business.LockManager.AbortReason;
+import com.acertainbookstore.business.LockManager.DeadlockPolicy;
+import com.acertainbookstore.business.LockManager.LockMode;
+import com.acertainbookstore.business.LockManager.Transaction;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.business.TwoLevelLockingConcurrentCertainBookStore;
+import com.acertainbookstore.business.TwoLevelLockingConcurrentCertainBookStore.IsolationLevel;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreRetryableException;
+
+/**
+ * {@link LockManagerTest} tests the lock manager behind the two-level locking
+ * store: lock modes, timeouts and the deadlock policies.
+ */
+public class LockManagerTest {
+
+	/** A lock timeout longer than any test. */
+	private static final long LONG_TIMEOUT_MILLIS = 30000;
+
+	/** The threads running the transactions that wait. */
+	private ExecutorService executor;
+
+	/**
+	 * Sets up the threads.
+	 */
+	@Before
+	public void setUp() {
+		executor = Executors.newCachedThreadPool();
+	}
+
+	/**
+	 * Stops the threads.
+	 */
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Waits until the given number of lock requests have waited.
+	 *
+	 * @param lockManager
+	 *            the lock manager
+	 * @param numWaits
+	 *            the number of lock requests
+	 * @throws InterruptedException
+	 *             the interrupted exception
+	 */
+	private static void awaitWaits(LockManager lockManager, long numWaits) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+
+		while (lockManager.getNumWaits() < numWaits) {
+			assertTrue("The lock request did not wait", System.currentTimeMillis() < deadline);
+			Thread.sleep(1);
+		}
+
+		// The waiting transaction registers as a waiter right after counting.
+		Thread.sleep(50);
+	}
+
+	/**
+	 * Requests an exclusive lock in a background thread.
+	 *
+	 * @param transaction
+	 *            the transaction
+	 * @param key
+	 *            the key
+	 * @return the outcome of the request
+	 */
+	private Future<?> lockInBackground(Transaction transaction, int key) {
+		return executor.submit(() -> {
+			transaction.lock(key, LockMode.EXCLUSIVE);
+			return null;
+		});
+	}
+
+	/**
+	 * Asserts that a lock request failed with a retryable exception.
+	 *
+	 * @param outcome
+	 *            the outcome of the request
+	 * @throws Exception
+	 *             the exception
+	 */
+	private static void assertAborted(Future<?> outcome) throws Exception {
+		try {
+			outcome.get(5, TimeUnit.SECONDS);
+			fail("The transaction was not aborted");
+		} catch (ExecutionException ex) {
+			assertTrue(ex.getCause() instanceof BookStoreRetryableException);
+		}
+	}
+
+	/**
+	 * Tests that shared locks are compatible with each other but not with an
+	 * exclusive lock, which times out while they are held.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testLockModesAndTimeout() throws Exception {
+		LockManager lockManager = new LockManager(DeadlockPolicy.DETECT, 100);
+		Transaction first = lockManager.begin();
+		Transaction second = lockManager.begin();
+		first.lock(1, LockMode.SHARED);
+		second.lock(1, LockMode.SHARED);
+
+		try (Transaction writer = lockManager.begin()) {
+			writer.lock(1, LockMode.EXCLUSIVE);
+			fail("The exclusive lock was granted");
+		} catch (BookStoreRetryableException ex) {
+			assertEquals(1, lockManager.getNumAborts(AbortReason.TIMEOUT));
+		}
+
+		first.close();
+		second.close();
+
+		try (Transaction writer = lockManager.begin()) {
+			writer.lock(1, LockMode.EXCLUSIVE);
+			writer.lock(1, LockMode.SHARED);
+		}
+
+		assertEquals(0, lockManager.getNumLocks());
+		assertTrue(lockManager.getWaitNanos() >= TimeUnit.MILLISECONDS.toNanos(100));
+	}
+
+	/**
+	 * Tests that the transaction closing a cycle in the wait-for graph is
+	 * aborted, and that the other one then gets its lock.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testDeadlockDetection() throws Exception {
+		LockManager lockManager = new LockManager(DeadlockPolicy.DETECT, LONG_TIMEOUT_MILLIS);
+		Transaction first = lockManager.begin();
+		Transaction second = lockManager.begin();
+		first.lock(1, LockMode.EXCLUSIVE);
+		second.lock(2, LockMode.SHARED);
+
+		Future<?> firstWaits = lockInBackground(first, 2);
+		awaitWaits(lockManager, 1);
+
+		try {
+			second.lock(1, LockMode.SHARED);
+			fail("The deadlock was not detected");
+		} catch (BookStoreRetryableException ex) {
+			assertEquals(1, lockManager.getNumAborts(AbortReason.DEADLOCK));
+		}
+
+		second.close();
+		firstWaits.get(5, TimeUnit.SECONDS);
+		first.close();
+		assertEquals(0, lockManager.getNumLocks());
+	}
+
+	/**
+	 * Tests that with wait-die an older transaction waits for a younger one,
+	 * while a younger transaction is aborted at once.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testWaitDie() throws Exception {
+		LockManager lockManager = new LockManager(DeadlockPolicy.WAIT_DIE, LONG_TIMEOUT_MILLIS);
+		Transaction older = lockManager.begin();
+		Transaction younger = lockManager.begin();
+		older.lock(1, LockMode.EXCLUSIVE);
+		younger.lock(2, LockMode.EXCLUSIVE);
+
+		try {
+			younger.lock(1, LockMode.EXCLUSIVE);
+			fail("The younger transaction did not die");
+		} catch (BookStoreRetryableException ex) {
+			assertEquals(1, lockManager.getNumAborts(AbortReason.DIED));
+		}
+
+		Future<?> olderWaits = lockInBackground(older, 2);
+		awaitWaits(lockManager, 2);
+		younger.close();
+		olderWaits.get(5, TimeUnit.SECONDS);
+		older.close();
+	}
+
+	/**
+	 * Tests that with wound-wait an older transaction aborts a younger one
+	 * holding its lock, whether the younger one waits or runs.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testWoundWait() throws Exception {
+		LockManager lockManager = new LockManager(DeadlockPolicy.WOUND_WAIT, LONG_TIMEOUT_MILLIS);
+		Transaction oldest = lockManager.begin();
+		Transaction older = lockManager.begin();
+		Transaction younger = lockManager.begin();
+		oldest.lock(2, LockMode.EXCLUSIVE);
+		younger.lock(1, LockMode.EXCLUSIVE);
+
+		// The younger transaction waits for the oldest, then gets wounded by
+		// the older one while waiting.
+		Future<?> youngerWaits = lockInBackground(younger, 2);
+		awaitWaits(lockManager, 1);
+
+		Future<?> olderWaits = lockInBackground(older, 1);
+
+		assertAborted(youngerWaits);
+		assertEquals(1, lockManager.getNumAborts(AbortReason.WOUNDED));
+		younger.close();
+		olderWaits.get(5, TimeUnit.SECONDS);
+
+		// A running transaction is aborted at its next lock request.
+		Future<?> oldestWaits;
+
+		try (Transaction youngest = lockManager.begin()) {
+			youngest.lock(3, LockMode.EXCLUSIVE);
+			oldestWaits = lockInBackground(oldest, 3);
+			awaitWaits(lockManager, 3);
+
+			try {
+				youngest.lock(4, LockMode.EXCLUSIVE);
+				fail("The wounded transaction was not aborted");
+			} catch (BookStoreRetryableException ex) {
+				assertEquals(2, lockManager.getNumAborts(AbortReason.WOUNDED));
+			}
+		}
+
+		oldestWaits.get(5, TimeUnit.SECONDS);
+		older.close();
+		oldest.close();
+		assertEquals(0, lockManager.getNumLocks());
+	}
+
+	/**
+	 * Tests that the locks are granted in arrival order: a shared lock
+	 * requested after a waiting exclusive one waits behind it, although it is
+	 * compatible with the shared lock held.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testLocksAreGrantedInArrivalOrder() throws Exception {
+		LockManager lockManager = new LockManager(DeadlockPolicy.DETECT, LONG_TIMEOUT_MILLIS);
+		Transaction firstReader = lockManager.begin();
+		Transaction writer = lockManager.begin();
+		Transaction secondReader = lockManager.begin();
+		firstReader.lock(1, LockMode.SHARED);
+
+		Future<?> writerWaits = lockInBackground(writer, 1);
+		awaitWaits(lockManager, 1);
+
+		Future<?> secondReaderWaits = executor.submit(() -> {
+			secondReader.lock(1, LockMode.SHARED);
+			return null;
+		});
+		awaitWaits(lockManager, 2);
+		assertFalse(secondReaderWaits.isDone());
+
+		firstReader.close();
+		writerWaits.get(5, TimeUnit.SECONDS);
+		assertFalse(secondReaderWaits.isDone());
+
+		writer.close();
+		secondReaderWaits.get(5, TimeUnit.SECONDS);
+		secondReader.close();
+		assertEquals(0, lockManager.getNumLocks());
+	}
+
+	/**
+	 * Tests that the two-level locking store releases every lock, including
+	 * after a failed purchase, under both isolation levels.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testStoreReleasesLocks() throws Exception {
+		for (IsolationLevel isolationLevel : IsolationLevel.values()) {
+			TwoLevelLockingConcurrentCertainBookStore store = new TwoLevelLockingConcurrentCertainBookStore(
+					DeadlockPolicy.DETECT, 1000, isolationLevel);
+			Set<StockBook> books = new HashSet<>();
+			books.add(new ImmutableStockBook(1, "First", "Ann Author", 10, 1, 0, 0, 0, false));
+			books.add(new ImmutableStockBook(2, "Second", "Ann Author", 10, 1, 0, 0, 0, false));
+			store.addBooks(books);
+
+			Set<BookCopy> order = new HashSet<>();
+			order.add(new BookCopy(1, 1));
+			order.add(new BookCopy(2, 2));
+
+			try {
+				store.buyBooks(order);
+				fail("The purchase of too many copies succeeded");
+			} catch (BookStoreException ex) {
+				// Expected.
+			}
+
+			order = new HashSet<>();
+			order.add(new BookCopy(1, 1));
+			order.add(new BookCopy(2, 1));
+			store.buyBooks(order);
+
+			assertEquals(2, store.getBooks().size());
+			assertEquals(0, store.getBooks().get(0).getNumCopies());
+			assertEquals(0, store.getLockManager().getNumLocks());
+			assertEquals(0, store.getLockManager().getNumWaits());
+		}
+	}
+}
@@ -0,0 +1,228 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.FaultInjector;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.OptimisticConcurrentCertainBookStore;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link OptimisticStoreTest} tests the optimistic concurrency control store:
+ * purchases validated at commit, consistent reads and the retries on
+ * conflict.
+ */
+public class OptimisticStoreTest {
+
+	/** The number of concurrent callers. */
+	private static final int NUM_CALLERS = 8;
+
+	/** The ISBN of the first book. */
+	private static final int FIRST_ISBN = 3044570;
+
+	/** The ISBN of the second book. */
+	private static final int SECOND_ISBN = 3044571;
+
+	/** The store. */
+	private OptimisticConcurrentCertainBookStore store;
+
+	/** The threads of the callers. */
+	private ExecutorService executor;
+
+	/**
+	 * Sets up the store and the threads.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Before
+	public void setUp() throws BookStoreException {
+		store = new OptimisticConcurrentCertainBookStore();
+		executor = Executors.newFixedThreadPool(NUM_CALLERS + 1);
+
+		// Hold every purchase open long enough to overlap with the others.
+		FaultInjector.BUY_BOOKS_BOOK.delay(1);
+	}
+
+	/**
+	 * Stops the threads.
+	 */
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+		FaultInjector.clearAll();
+	}
+
+	/**
+	 * Adds the two books of the tests.
+	 *
+	 * @param numCopies
+	 *            the number of copies of every book
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private void addBooks(int numCopies) throws BookStoreException {
+		Set<StockBook> books = new HashSet<>();
+		books.add(new ImmutableStockBook(FIRST_ISBN, "First Edition", "Ann Author", 10, numCopies, 0, 0, 0, false));
+		books.add(new ImmutableStockBook(SECOND_ISBN, "Second Edition", "Ann Author", 10, numCopies, 0, 0, 0, false));
+		store.addBooks(books);
+	}
+
+	/**
+	 * Gets the two books of the tests, in the order of their ISBNs.
+	 *
+	 * @return the books
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private List<StockBook> getBooks() throws BookStoreException {
+		Set<Integer> isbns = new HashSet<>();
+		isbns.add(FIRST_ISBN);
+		isbns.add(SECOND_ISBN);
+		List<StockBook> books = new ArrayList<>(store.getBooksByISBN(isbns));
+		books.sort((first, second) -> Integer.compare(first.getISBN(), second.getISBN()));
+		return books;
+	}
+
+	/**
+	 * Tests that concurrent purchases of the same books sell every copy
+	 * exactly once, retrying the purchases that conflict, and that the orders
+	 * that cannot be satisfied record their misses and buy nothing.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testConcurrentPurchases() throws Exception {
+		final int purchasesPerCaller = 20;
+		addBooks(NUM_CALLERS * purchasesPerCaller);
+		List<Future<Integer>> outcomes = new ArrayList<>();
+
+		for (int i = 0; i < NUM_CALLERS; i++) {
+			outcomes.add(executor.submit(() -> {
+				int numFailed = 0;
+
+				for (int j = 0; j < purchasesPerCaller + 1; j++) {
+					Set<BookCopy> order = new HashSet<>();
+					order.add(new BookCopy(FIRST_ISBN, 1));
+					order.add(new BookCopy(SECOND_ISBN, 1));
+
+					try {
+						store.buyBooks(order);
+					} catch (BookStoreException ex) {
+						numFailed++;
+					}
+				}
+
+				return numFailed;
+			}));
+		}
+
+		int numFailed = 0;
+
+		for (Future<Integer> outcome : outcomes) {
+			numFailed += outcome.get(60, TimeUnit.SECONDS);
+		}
+
+		assertEquals(NUM_CALLERS, numFailed);
+
+		for (StockBook book : getBooks()) {
+			assertEquals(0, book.getNumCopies());
+			assertEquals(NUM_CALLERS, book.getNumSaleMisses());
+		}
+
+		assertTrue(store.getNumConflicts() > 0);
+	}
+
+	/**
+	 * Tests that reads never see a purchase of two books half applied.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testConsistentReads() throws Exception {
+		final int numPurchases = 200;
+		addBooks(numPurchases);
+		AtomicBoolean done = new AtomicBoolean(false);
+		List<Future<Integer>> readers = new ArrayList<>();
+
+		for (int i = 0; i < NUM_CALLERS; i++) {
+			boolean fullListing = (i % 2 == 0);
+			readers.add(executor.submit(() -> {
+				int numReads = 0;
+
+				while (!done.get()) {
+					List<StockBook> books = fullListing ? store.getBooks() : getBooks();
+					assertEquals(2, books.size());
+					assertEquals(books.get(0).getNumCopies(), books.get(1).getNumCopies());
+					numReads++;
+				}
+
+				return numReads;
+			}));
+		}
+
+		Set<BookCopy> order = new HashSet<>();
+		order.add(new BookCopy(FIRST_ISBN, 1));
+		order.add(new BookCopy(SECOND_ISBN, 1));
+
+		for (int i = 0; i < numPurchases; i++) {
+			store.buyBooks(order);
+		}
+
+		done.set(true);
+
+		for (Future<Integer> reader : readers) {
+			assertTrue(reader.get(60, TimeUnit.SECONDS) > 0);
+		}
+
+		assertEquals(numPurchases, store.getNumCommits());
+	}
+
+	/**
+	 * Tests that a book removed and added again is found through the indexes
+	 * with its new state only.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testRemoveAndAddAgain() throws Exception {
+		addBooks(1);
+		Set<Integer> isbns = new HashSet<>();
+		isbns.add(FIRST_ISBN);
+		store.removeBooks(isbns);
+
+		try {
+			store.getBooksByISBN(isbns);
+			fail("A removed book was found");
+		} catch (BookStoreException ex) {
+			// Expected.
+		}
+
+		Set<StockBook> books = new HashSet<>();
+		books.add(new ImmutableStockBook(FIRST_ISBN, "First Edition", "Ann Author", 10, 7, 0, 0, 0, false));
+		store.addBooks(books);
+
+		assertEquals(2, store.searchBooks("edition", 0, 10).size());
+		assertEquals(7, store.getBooks(FIRST_ISBN - 1, 1).get(0).getNumCopies());
+		assertEquals(2, store.getBooks().size());
+	}
+}
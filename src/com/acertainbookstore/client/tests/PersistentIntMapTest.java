@@ -0,0 +1,149 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.LockManager.LockMode;
+import com.acertainbookstore.business.LockManager.Transaction;
+import com.acertainbookstore.business.PersistentIntMap;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.business.TwoLevelLockingConcurrentCertainBookStore;
+
+/**
+ * {@link PersistentIntMapTest} tests the persistent map and the catalog of
+ * the two-level store built on it.
+ */
+public class PersistentIntMapTest {
+
+	/** The threads of the readers. */
+	private ExecutorService executor;
+
+	/**
+	 * Sets up the threads.
+	 */
+	@Before
+	public void setUp() {
+		executor = Executors.newSingleThreadExecutor();
+	}
+
+	/**
+	 * Stops the threads.
+	 */
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Tests that random puts and removes give the same mappings as a
+	 * {@link HashMap}, including for negative keys and keys sharing their low
+	 * bits.
+	 */
+	@Test
+	public void testAgainstHashMap() {
+		Random random = new Random(42);
+		Map<Integer, Integer> expected = new HashMap<>();
+		PersistentIntMap<Integer> map = PersistentIntMap.empty();
+
+		for (int i = 0; i < 20000; i++) {
+			int key = random.nextBoolean() ? random.nextInt(512) << 20 : random.nextInt(2048) - 1024;
+
+			if (random.nextInt(3) == 0) {
+				expected.remove(key);
+				map = map.remove(key);
+			} else {
+				expected.put(key, i);
+				map = map.put(key, i);
+			}
+
+			assertEquals(expected.get(key), map.get(key));
+		}
+
+		assertEquals(expected.size(), map.size());
+
+		for (Map.Entry<Integer, Integer> entry : expected.entrySet()) {
+			assertEquals(entry.getValue(), map.get(entry.getKey()));
+		}
+
+		assertEquals(expected.keySet(), new HashSet<>(map.keys()));
+		assertEquals(expected.size(), map.values().size());
+	}
+
+	/**
+	 * Tests that a map is not changed by the maps derived from it.
+	 */
+	@Test
+	public void testEarlierMapsUnchanged() {
+		PersistentIntMap<String> empty = PersistentIntMap.empty();
+		PersistentIntMap<String> one = empty.put(1, "one");
+		PersistentIntMap<String> two = one.put(33, "thirty-three").put(1, "uno");
+		PersistentIntMap<String> three = two.remove(1);
+
+		assertTrue(empty.isEmpty());
+		assertNull(empty.get(1));
+		assertEquals("one", one.get(1));
+		assertEquals(1, one.size());
+		assertEquals("uno", two.get(1));
+		assertEquals("thirty-three", two.get(33));
+		assertEquals(2, two.size());
+		assertNull(three.get(1));
+		assertEquals("thirty-three", three.get(33));
+		assertEquals(1, three.size());
+		assertSame(three, three.remove(1));
+	}
+
+	/**
+	 * Tests that the two-level store reads books by ISBN and its editor picks
+	 * while the catalog is locked in exclusive mode.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testReadsWithoutCatalogLock() throws Exception {
+		final int isbn = 3044600;
+		TwoLevelLockingConcurrentCertainBookStore store = new TwoLevelLockingConcurrentCertainBookStore();
+		Set<StockBook> books = new HashSet<>();
+		books.add(new ImmutableStockBook(isbn, "Lock Free", "Ann Author", 10, 5, 0, 0, 0, false));
+		store.addBooks(books);
+
+		Set<BookEditorPick> editorPicks = new HashSet<>();
+		editorPicks.add(new BookEditorPick(isbn, true));
+		store.updateEditorPicks(editorPicks);
+
+		Set<Integer> isbns = new HashSet<>();
+		isbns.add(isbn);
+
+		// The catalog lock has the key below every valid ISBN.
+		try (Transaction transaction = store.getLockManager().begin()) {
+			transaction.lock(0, LockMode.EXCLUSIVE);
+
+			Future<List<StockBook>> booksByISBN = executor.submit(() -> store.getBooksByISBN(isbns));
+			assertEquals(5, booksByISBN.get(10, TimeUnit.SECONDS).get(0).getNumCopies());
+			assertEquals(1, executor.submit(() -> store.getEditorPicks(5)).get(10, TimeUnit.SECONDS).size());
+			assertEquals(1, executor.submit(() -> store.getBooks()).get(10, TimeUnit.SECONDS).size());
+		}
+
+		editorPicks.clear();
+		editorPicks.add(new BookEditorPick(isbn, false));
+		store.updateEditorPicks(editorPicks);
+		assertTrue(store.getEditorPicks(5).isEmpty());
+		assertFalse(store.getBooksByISBN(isbns).get(0).isEditorPick());
+	}
+}
@@ -0,0 +1,501 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.client.ReplicatedBookStoreHTTPProxy;
+import com.acertainbookstore.client.StockManagerHTTPProxy;
+import com.acertainbookstore.interfaces.BookStoreSerializer;
+import com.acertainbookstore.server.BookStoreHTTPServer;
+import com.acertainbookstore.server.BookStoreReplicator;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreKryoSerializer;
+import com.acertainbookstore.utils.BookStoreMessageTag;
+import com.acertainbookstore.utils.BookStoreRequest;
+import com.acertainbookstore.utils.BookStoreUtility;
+import com.acertainbookstore.utils.BookStoreXStreamSerializer;
+
+/**
+ * {@link ReplicatedBookStoreTest} tests the {@link ReplicatedBookStoreHTTPProxy}
+ * against a local primary {@link BookStoreHTTPServer} process and its backup
+ * processes.
+ *
+ * @see ReplicatedBookStoreHTTPProxy
+ */
+public class ReplicatedBookStoreTest {
+
+	/** The port of the primary server. */
+	private static final int PRIMARY_PORT = 8100;
+
+	/** The ports of the backup servers. */
+	private static final int[] BACKUP_PORTS = { 8101, 8102 };
+
+	/** The port of a backup server fed by the tests instead of the primary. */
+	private static final int DETACHED_BACKUP_PORT = 8107;
+
+	/** The address of the backup server fed by the tests. */
+	private static final String DETACHED_BACKUP_ADDRESS = "http://localhost:" + DETACHED_BACKUP_PORT;
+
+	/** The Constant TEST_ISBN. */
+	private static final int TEST_ISBN = 3044560;
+
+	/** The Constant NUM_COPIES. */
+	private static final int NUM_COPIES = 5;
+
+	/** The backup server processes. */
+	private static List<Process> backups = new ArrayList<>();
+
+	/** The primary server process. */
+	private static Process primary;
+
+	/** The replicated store. */
+	private static ReplicatedBookStoreHTTPProxy store;
+
+	/** The stock manager of the first backup. */
+	private static StockManagerHTTPProxy firstBackup;
+
+	/**
+	 * Starts the primary and backup servers.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		List<String> backupAddresses = new ArrayList<>();
+
+		for (int port : BACKUP_PORTS) {
+			backups.add(startServer(port, "-D" + BookStoreConstants.PROPERTY_KEY_BACKUP + "=true"));
+			backupAddresses.add("http://localhost:" + port);
+		}
+
+		primary = startServer(PRIMARY_PORT,
+				"-D" + BookStoreConstants.PROPERTY_KEY_BACKUPS + "=" + String.join(",", backupAddresses));
+
+		List<String> serverAddresses = new ArrayList<>(backupAddresses);
+		serverAddresses.add("http://localhost:" + PRIMARY_PORT);
+
+		// Wait until every server accepts requests.
+		for (String serverAddress : serverAddresses) {
+			StockManagerHTTPProxy server = new StockManagerHTTPProxy(serverAddress + "/stock");
+
+			for (int attempt = 0;; attempt++) {
+				try {
+					server.getBooks();
+					break;
+				} catch (BookStoreException ex) {
+					if (attempt == 100) {
+						throw ex;
+					}
+
+					Thread.sleep(100);
+				}
+			}
+
+			server.stop();
+		}
+
+		store = new ReplicatedBookStoreHTTPProxy("http://localhost:" + PRIMARY_PORT, backupAddresses);
+		firstBackup = new StockManagerHTTPProxy(backupAddresses.get(0) + "/stock");
+	}
+
+	/**
+	 * Starts a server process.
+	 *
+	 * @param port
+	 *            the port
+	 * @param roleProperty
+	 *            the system property setting the role of the server
+	 * @return the process
+	 * @throws Exception
+	 *             the exception
+	 */
+	private static Process startServer(int port, String roleProperty) throws Exception {
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		ProcessBuilder processBuilder = new ProcessBuilder(java,
+				"-D" + BookStoreConstants.PROPERTY_KEY_SERVER_PORT + "=" + port, roleProperty, "-cp",
+				System.getProperty("java.class.path"), BookStoreHTTPServer.class.getName());
+		processBuilder.redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.DISCARD);
+		return processBuilder.start();
+	}
+
+	/**
+	 * Helper method to get the default book used by initializeBooks.
+	 *
+	 * @return the default book
+	 */
+	public StockBook getDefaultBook() {
+		return new ImmutableStockBook(TEST_ISBN, "Harry Potter and JUnit", "JK Unit", (float) 10, NUM_COPIES, 0, 0, 0,
+				false);
+	}
+
+	/**
+	 * Method to add a book, executed before every test case is run.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Before
+	public void initializeBooks() throws BookStoreException {
+		Set<StockBook> booksToAdd = new HashSet<>();
+		booksToAdd.add(getDefaultBook());
+		store.addBooks(booksToAdd);
+	}
+
+	/**
+	 * Method to clean up the book store, execute after every test case is run.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@After
+	public void cleanupBooks() throws BookStoreException {
+		store.removeAllBooks();
+	}
+
+	/**
+	 * Tests that the mutations sent to the primary are applied on a backup.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testBackupAppliesMutations() throws BookStoreException {
+		Set<BookCopy> booksToBuy = new HashSet<>();
+		booksToBuy.add(new BookCopy(TEST_ISBN, 2));
+		store.buyBooks(booksToBuy);
+
+		List<StockBook> backupBooks = firstBackup.getBooks();
+		assertEquals(1, backupBooks.size());
+		assertEquals(NUM_COPIES - 2, backupBooks.get(0).getNumCopies());
+
+		// A failed purchase records its sale misses on the backup too.
+		booksToBuy.clear();
+		booksToBuy.add(new BookCopy(TEST_ISBN, NUM_COPIES));
+
+		try {
+			store.buyBooks(booksToBuy);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		assertEquals(2, firstBackup.getBooks().get(0).getNumSaleMisses());
+	}
+
+	/**
+	 * Tests that a backup rejects mutations sent by clients.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testBackupRejectsMutations() throws BookStoreException {
+		try {
+			firstBackup.removeAllBooks();
+			fail();
+		} catch (BookStoreException ex) {
+			assertEquals(BookStoreConstants.READ_ONLY_BACKUP, ex.getMessage());
+		}
+
+		assertEquals(1, store.getBooks().size());
+	}
+
+	/**
+	 * Tests that reads and writes keep working after a backup is lost.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 * @throws InterruptedException
+	 *             the interrupted exception
+	 */
+	@Test
+	public void testSurvivesLossOfBackup() throws BookStoreException, InterruptedException {
+		Process lostBackup = backups.get(backups.size() - 1);
+		lostBackup.destroy();
+		lostBackup.waitFor();
+
+		Set<BookCopy> booksToBuy = new HashSet<>();
+		booksToBuy.add(new BookCopy(TEST_ISBN, 1));
+
+		for (int i = 0; i < BACKUP_PORTS.length + 1; i++) {
+			store.buyBooks(booksToBuy);
+			assertEquals(NUM_COPIES - 1 - i, store.getBooks().get(0).getNumCopies());
+		}
+
+		assertEquals(NUM_COPIES - BACKUP_PORTS.length - 1, firstBackup.getBooks().get(0).getNumCopies());
+	}
+
+	/**
+	 * Sends a replicated mutation to a backup, as its primary would.
+	 *
+	 * @param client
+	 *            the client
+	 * @param backupAddress
+	 *            the address of the backup
+	 * @param sequence
+	 *            the sequence number of the mutation
+	 * @param messageTag
+	 *            the message tag of the mutation
+	 * @param argument
+	 *            the argument of the mutation
+	 * @param succeeded
+	 *            whether the mutation succeeded on the primary
+	 * @throws BookStoreException
+	 *             if the backup did not acknowledge the mutation
+	 */
+	private static void replicate(HttpClient client, String backupAddress, long sequence,
+			BookStoreMessageTag messageTag, Object argument, boolean succeeded) throws BookStoreException {
+		BookStoreSerializer serializer = BookStoreConstants.BINARY_SERIALIZATION ? new BookStoreKryoSerializer()
+				: new BookStoreXStreamSerializer();
+		String urlString = backupAddress + "/" + BookStoreMessageTag.REPLICATE + "?"
+				+ BookStoreConstants.SEQUENCE_PARAM + "=" + sequence + "&" + BookStoreConstants.MESSAGE_TAG_PARAM
+				+ "=" + messageTag + "&" + BookStoreConstants.SUCCEEDED_PARAM + "=" + succeeded;
+		BookStoreUtility.performHttpExchange(client, BookStoreRequest.newPostRequest(urlString, argument), serializer);
+	}
+
+	/**
+	 * Starts a backup without a primary, and replicates the default book to
+	 * it.
+	 *
+	 * @param client
+	 *            the client replicating the mutations
+	 * @return the backup process
+	 * @throws Exception
+	 *             the exception
+	 */
+	private Process startDetachedBackup(HttpClient client) throws Exception {
+		Process detachedBackup = startServer(DETACHED_BACKUP_PORT,
+				"-D" + BookStoreConstants.PROPERTY_KEY_BACKUP + "=true");
+		Set<StockBook> booksToAdd = new HashSet<>();
+		booksToAdd.add(getDefaultBook());
+
+		// Wait until the backup accepts requests.
+		for (int attempt = 0;; attempt++) {
+			try {
+				replicate(client, DETACHED_BACKUP_ADDRESS, 1, BookStoreMessageTag.ADDBOOKS, booksToAdd, true);
+				return detachedBackup;
+			} catch (BookStoreException ex) {
+				if (attempt == 100) {
+					detachedBackup.destroy();
+					throw ex;
+				}
+
+				Thread.sleep(100);
+			}
+		}
+	}
+
+	/**
+	 * Asserts that a backup refuses the reads of the clients.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	private static void assertRefusesReads() throws Exception {
+		StockManagerHTTPProxy backupStockManager = new StockManagerHTTPProxy(DETACHED_BACKUP_ADDRESS + "/stock");
+
+		try {
+			backupStockManager.getBooks();
+			fail();
+		} catch (BookStoreException ex) {
+			assertEquals(BookStoreConstants.OUT_OF_SYNC_BACKUP, ex.getMessage());
+		} finally {
+			backupStockManager.stop();
+		}
+	}
+
+	/**
+	 * Tests that a backup refuses a replicated mutation whose outcome differs
+	 * from the one on the primary, in both directions, and then stops
+	 * applying mutations and serving reads.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testBackupDetectsDivergence() throws Exception {
+		HttpClient client = new HttpClient();
+		client.start();
+
+		Set<BookCopy> tooManyCopies = new HashSet<>();
+		tooManyCopies.add(new BookCopy(TEST_ISBN, NUM_COPIES + 1));
+		Set<BookCopy> oneCopy = new HashSet<>();
+		oneCopy.add(new BookCopy(TEST_ISBN, 1));
+
+		try {
+			for (boolean primarySucceeded : new boolean[] { false, true }) {
+				Process detachedBackup = startDetachedBackup(client);
+
+				try {
+					replicate(client, DETACHED_BACKUP_ADDRESS, 2, BookStoreMessageTag.BUYBOOKS, tooManyCopies, false);
+					replicate(client, DETACHED_BACKUP_ADDRESS, 3, BookStoreMessageTag.BUYBOOKS, oneCopy, true);
+
+					try {
+						replicate(client, DETACHED_BACKUP_ADDRESS, 4, BookStoreMessageTag.BUYBOOKS,
+								primarySucceeded ? tooManyCopies : oneCopy, primarySucceeded);
+						fail();
+					} catch (BookStoreException ex) {
+						assertEquals(BookStoreConstants.SEQUENCE + 4 + BookStoreConstants.DIVERGED, ex.getMessage());
+					}
+
+					try {
+						replicate(client, DETACHED_BACKUP_ADDRESS, 5, BookStoreMessageTag.BUYBOOKS, oneCopy, true);
+						fail();
+					} catch (BookStoreException ex) {
+						assertEquals(BookStoreConstants.SEQUENCE + 5 + BookStoreConstants.OUT_OF_ORDER,
+								ex.getMessage());
+					}
+
+					assertRefusesReads();
+				} finally {
+					detachedBackup.destroy();
+					detachedBackup.waitFor();
+				}
+			}
+		} finally {
+			client.stop();
+		}
+	}
+
+	/**
+	 * Tests that a backup applies the replicated mutations in sequence order
+	 * when they arrive out of order.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testBackupReordersMutations() throws Exception {
+		HttpClient client = new HttpClient();
+		client.start();
+		Process detachedBackup = startDetachedBackup(client);
+
+		Set<BookCopy> oneCopy = new HashSet<>();
+		oneCopy.add(new BookCopy(TEST_ISBN, 1));
+		Set<BookCopy> tooManyCopies = new HashSet<>();
+		tooManyCopies.add(new BookCopy(TEST_ISBN, NUM_COPIES));
+
+		try {
+			// Applied before the first purchase, the second one would succeed.
+			CompletableFuture<Void> laterMutation = CompletableFuture.runAsync(() -> {
+				try {
+					replicate(client, DETACHED_BACKUP_ADDRESS, 3, BookStoreMessageTag.BUYBOOKS, tooManyCopies, false);
+				} catch (BookStoreException ex) {
+					throw new CompletionException(ex);
+				}
+			});
+
+			Thread.sleep(BookStoreReplicator.HEARTBEAT_INTERVAL_MILLIS);
+			assertFalse(laterMutation.isDone());
+			replicate(client, DETACHED_BACKUP_ADDRESS, 2, BookStoreMessageTag.BUYBOOKS, oneCopy, true);
+			laterMutation.join();
+
+			StockManagerHTTPProxy backupStockManager = new StockManagerHTTPProxy(DETACHED_BACKUP_ADDRESS + "/stock");
+
+			try {
+				StockBook book = backupStockManager.getBooks().get(0);
+				assertEquals(NUM_COPIES - 1, book.getNumCopies());
+				assertEquals(1, book.getNumSaleMisses());
+			} finally {
+				backupStockManager.stop();
+			}
+		} finally {
+			client.stop();
+			detachedBackup.destroy();
+			detachedBackup.waitFor();
+		}
+	}
+
+	/**
+	 * Tests that a backup told by its primary that it was dropped stops
+	 * serving reads right away, rather than when its lease runs out.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testDroppedBackupRefusesReads() throws Exception {
+		HttpClient client = new HttpClient();
+		client.start();
+		Process detachedBackup = startDetachedBackup(client);
+
+		try {
+			BookStoreSerializer serializer = BookStoreConstants.BINARY_SERIALIZATION ? new BookStoreKryoSerializer()
+					: new BookStoreXStreamSerializer();
+			String urlString = DETACHED_BACKUP_ADDRESS + "/" + BookStoreMessageTag.REPLICATE + "?"
+					+ BookStoreConstants.DROPPED_PARAM + "=true";
+			BookStoreUtility.performHttpExchange(client, BookStoreRequest.newPostRequest(urlString, ""), serializer);
+
+			assertRefusesReads();
+		} finally {
+			client.stop();
+			detachedBackup.destroy();
+			detachedBackup.waitFor();
+		}
+	}
+
+	/**
+	 * Tests that a backup serves reads only within the lease renewed by its
+	 * primary.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testBackupLeaseExpires() throws Exception {
+		HttpClient client = new HttpClient();
+		client.start();
+		Process detachedBackup = startDetachedBackup(client);
+
+		try {
+			StockManagerHTTPProxy backupStockManager = new StockManagerHTTPProxy(DETACHED_BACKUP_ADDRESS + "/stock");
+
+			try {
+				assertEquals(1, backupStockManager.getBooks().size());
+			} finally {
+				backupStockManager.stop();
+			}
+
+			// Nobody sends the heartbeats of a primary.
+			Thread.sleep(BookStoreReplicator.LEASE_MILLIS + BookStoreReplicator.HEARTBEAT_INTERVAL_MILLIS);
+			assertRefusesReads();
+		} finally {
+			client.stop();
+			detachedBackup.destroy();
+			detachedBackup.waitFor();
+		}
+	}
+
+	/**
+	 * Stops the replicated store and the servers.
+	 */
+	@AfterClass
+	public static void tearDownAfterClass() {
+		if (store != null) {
+			store.stop();
+			firstBackup.stop();
+		}
+
+		primary.destroy();
+		backups.forEach(Process::destroy);
+	}
+}
@@ -0,0 +1,376 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookQuery;
+import com.acertainbookstore.business.CatalogChanges;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.client.ShardedBookStoreHTTPProxy;
+import com.acertainbookstore.client.StockManagerHTTPProxy;
+import com.acertainbookstore.server.BookStoreHTTPServer;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link ShardedBookStoreTest} tests the {@link ShardedBookStoreHTTPProxy}
+ * against several local {@link BookStoreHTTPServer} processes.
+ *
+ * @see ShardedBookStoreHTTPProxy
+ */
+public class ShardedBookStoreTest {
+
+	/** The ports of the shard servers. */
+	private static final int[] SHARD_PORTS = { 8091, 8092, 8093 };
+
+	/** The number of books added before every test. */
+	private static final int NUM_BOOKS = 30;
+
+	/** The Constant NUM_COPIES. */
+	private static final int NUM_COPIES = 5;
+
+	/** The shard server processes. */
+	private static List<Process> servers = new ArrayList<>();
+
+	/** The sharded store. */
+	private static ShardedBookStoreHTTPProxy store;
+
+	/**
+	 * Starts the shard servers and connects the sharded store to them.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		List<String> serverAddresses = new ArrayList<>();
+
+		for (int port : SHARD_PORTS) {
+			ProcessBuilder processBuilder = new ProcessBuilder(java,
+					"-D" + BookStoreConstants.PROPERTY_KEY_SERVER_PORT + "=" + port, "-cp",
+					System.getProperty("java.class.path"), BookStoreHTTPServer.class.getName());
+			processBuilder.redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.DISCARD);
+			servers.add(processBuilder.start());
+			serverAddresses.add("http://localhost:" + port);
+		}
+
+		store = new ShardedBookStoreHTTPProxy(serverAddresses);
+
+		// Wait until every shard accepts requests.
+		for (String serverAddress : serverAddresses) {
+			StockManagerHTTPProxy shard = new StockManagerHTTPProxy(serverAddress + "/stock");
+
+			for (int attempt = 0;; attempt++) {
+				try {
+					shard.removeAllBooks();
+					break;
+				} catch (BookStoreException ex) {
+					if (attempt == 100) {
+						throw ex;
+					}
+
+					Thread.sleep(100);
+				}
+			}
+
+			shard.stop();
+		}
+	}
+
+	/**
+	 * Adds books 1 to {@link #NUM_BOOKS}, executed before every test case is
+	 * run.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Before
+	public void initializeBooks() throws BookStoreException {
+		Set<StockBook> booksToAdd = new HashSet<>();
+
+		for (int isbn = 1; isbn <= NUM_BOOKS; isbn++) {
+			booksToAdd.add(new ImmutableStockBook(isbn, "Book " + isbn, "Author " + isbn, 10f, NUM_COPIES, 0, 0, 0,
+					false));
+		}
+
+		store.addBooks(booksToAdd);
+	}
+
+	/**
+	 * Removes all books, executed after every test case is run.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@After
+	public void cleanupBooks() throws BookStoreException {
+		store.removeAllBooks();
+	}
+
+	/**
+	 * Tests that the books are spread over the shards and gathered again.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testBooksAreSpreadAndGathered() throws BookStoreException {
+		Set<Integer> shards = new HashSet<>();
+		Set<Integer> isbns = new HashSet<>();
+
+		for (int isbn = 1; isbn <= NUM_BOOKS; isbn++) {
+			shards.add(store.getShard(isbn));
+			isbns.add(isbn);
+		}
+
+		assertTrue(shards.size() > 1);
+		assertEquals(NUM_BOOKS, store.getBooks().size());
+
+		List<Book> books = store.getBooks(isbns);
+		assertEquals(NUM_BOOKS, books.size());
+	}
+
+	/**
+	 * Tests that search results from every shard are merged into ISBN-ordered
+	 * pages.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testSearchAcrossShards() throws BookStoreException {
+		List<Book> firstPage = store.searchBooks("book", 0, 10);
+		List<Book> secondPage = store.searchBooks("book", 10, 10);
+
+		assertEquals(10, firstPage.size());
+		assertEquals(10, secondPage.size());
+
+		for (int i = 0; i < 10; i++) {
+			assertEquals(i + 1, firstPage.get(i).getISBN());
+			assertEquals(i + 11, secondPage.get(i).getISBN());
+		}
+
+		assertEquals(NUM_BOOKS, store.searchBooks("auth", 0, NUM_BOOKS + 1).size());
+	}
+
+	/**
+	 * Tests that query pages from every shard are merged in price order.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testQueryAcrossShards() throws BookStoreException {
+		BookQuery query = new BookQuery(0, Float.MAX_VALUE, null, true, false, -1, 7);
+		List<Integer> isbns = new ArrayList<>();
+
+		List<StockBook> page = store.queryBooks(query);
+
+		while (!page.isEmpty()) {
+			assertTrue(page.size() <= 7);
+			page.forEach(book -> isbns.add(book.getISBN()));
+			page = store.queryBooks(query.startingAfter(page.get(page.size() - 1)));
+		}
+
+		// All books have the same price, so they come in ISBN order.
+		assertEquals(NUM_BOOKS, isbns.size());
+
+		for (int i = 0; i < NUM_BOOKS; i++) {
+			assertEquals(i + 1, (int) isbns.get(i));
+		}
+	}
+
+	/**
+	 * Tests that the catalog is listed one page at a time across the shards.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testGetBooksPagesAcrossShards() throws BookStoreException {
+		List<Integer> isbns = new ArrayList<>();
+		List<StockBook> page = store.getBooks(0, 8);
+
+		while (!page.isEmpty()) {
+			page.forEach(book -> isbns.add(book.getISBN()));
+			page = store.getBooks(page.get(page.size() - 1).getISBN(), 8);
+		}
+
+		assertEquals(NUM_BOOKS, isbns.size());
+
+		for (int i = 0; i < NUM_BOOKS; i++) {
+			assertEquals(i + 1, (int) isbns.get(i));
+		}
+	}
+
+	/**
+	 * Tests that the changes of every shard are merged under a single version.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testChangesAcrossShards() throws BookStoreException {
+		CatalogChanges listing = store.getChangesSince(-1);
+		assertTrue(listing.isFullListing());
+		assertEquals(NUM_BOOKS, listing.getBooks().size());
+
+		Set<BookCopy> copies = new HashSet<>();
+
+		for (int isbn = 1; isbn <= 4; isbn++) {
+			copies.add(new BookCopy(isbn, 1));
+		}
+
+		store.addCopies(copies);
+
+		CatalogChanges changes = store.getChangesSince(listing.getVersion());
+		assertFalse(changes.isFullListing());
+		assertEquals(4, changes.getBooks().size());
+
+		for (StockBook book : changes.getBooks()) {
+			assertTrue(book.getISBN() >= 1 && book.getISBN() <= 4);
+		}
+
+		CatalogChanges noChanges = store.getChangesSince(changes.getVersion());
+		assertFalse(noChanges.isFullListing());
+		assertTrue(noChanges.getBooks().isEmpty());
+	}
+
+	/**
+	 * Tests that every shard streams its books in chunks.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testStreamBooksFromShards() throws Exception {
+		List<Integer> isbns = new ArrayList<>();
+
+		for (int port : SHARD_PORTS) {
+			StockManagerHTTPProxy shard = new StockManagerHTTPProxy("http://localhost:" + port + "/stock");
+			List<Integer> shardIsbns = new ArrayList<>();
+
+			try {
+				shard.streamBooks(3, book -> shardIsbns.add(book.getISBN()));
+			} finally {
+				shard.stop();
+			}
+
+			// Each shard streams its books in ISBN order.
+			for (int i = 1; i < shardIsbns.size(); i++) {
+				assertTrue(shardIsbns.get(i - 1) < shardIsbns.get(i));
+			}
+
+			isbns.addAll(shardIsbns);
+		}
+
+		assertEquals(NUM_BOOKS, new HashSet<>(isbns).size());
+		assertEquals(NUM_BOOKS, isbns.size());
+	}
+
+	/**
+	 * Tests a purchase spanning several shards.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testBuyAcrossShards() throws BookStoreException {
+		Set<BookCopy> booksToBuy = new HashSet<>();
+
+		for (int isbn = 1; isbn <= NUM_BOOKS; isbn++) {
+			booksToBuy.add(new BookCopy(isbn, 2));
+		}
+
+		store.buyBooks(booksToBuy);
+
+		for (StockBook book : store.getBooks()) {
+			assertEquals(NUM_COPIES - 2, book.getNumCopies());
+		}
+	}
+
+	/**
+	 * Tests that a purchase failing on one shard changes no shard.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testBuyAcrossShardsIsAllOrNothing() throws BookStoreException {
+		Set<BookCopy> booksToBuy = new HashSet<>();
+
+		for (int isbn = 1; isbn < NUM_BOOKS; isbn++) {
+			booksToBuy.add(new BookCopy(isbn, 1));
+		}
+
+		// One book cannot be bought.
+		booksToBuy.add(new BookCopy(NUM_BOOKS, NUM_COPIES + 1));
+
+		try {
+			store.buyBooks(booksToBuy);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		for (StockBook book : store.getBooks()) {
+			assertEquals(NUM_COPIES, book.getNumCopies());
+		}
+	}
+
+	/**
+	 * Tests that adding books is undone on all shards if one shard rejects its
+	 * books.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testAddBooksAcrossShardsIsAllOrNothing() throws BookStoreException {
+		Set<StockBook> booksToAdd = new HashSet<>();
+
+		for (int isbn = NUM_BOOKS + 1; isbn <= 2 * NUM_BOOKS; isbn++) {
+			booksToAdd.add(new ImmutableStockBook(isbn, "Book " + isbn, "Author " + isbn, 10f, NUM_COPIES, 0, 0, 0,
+					false));
+		}
+
+		// One book is already in the store.
+		booksToAdd.add(new ImmutableStockBook(1, "Book 1", "Author 1", 10f, NUM_COPIES, 0, 0, 0, false));
+
+		try {
+			store.addBooks(booksToAdd);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		assertEquals(NUM_BOOKS, store.getBooks().size());
+	}
+
+	/**
+	 * Stops the sharded store and the shard servers.
+	 */
+	@AfterClass
+	public static void tearDownAfterClass() {
+		if (store != null) {
+			store.stop();
+		}
+
+		servers.forEach(Process::destroy);
+	}
+}
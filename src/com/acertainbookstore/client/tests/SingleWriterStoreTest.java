@@ -0,0 +1,216 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.CatalogChanges;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.RingBuffer;
+import com.acertainbookstore.business.SingleWriterConcurrentCertainBookStore;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link SingleWriterStoreTest} tests the ring buffer and the store whose
+ * mutations are applied by a single writer thread.
+ */
+public class SingleWriterStoreTest {
+
+	/** The number of concurrent callers. */
+	private static final int NUM_CALLERS = 8;
+
+	/** The ISBN of the book of the tests. */
+	private static final int ISBN = 3044590;
+
+	/** The store. */
+	private SingleWriterConcurrentCertainBookStore store;
+
+	/** The threads of the callers. */
+	private ExecutorService executor;
+
+	/**
+	 * Sets up the store and the threads.
+	 */
+	@Before
+	public void setUp() {
+		store = new SingleWriterConcurrentCertainBookStore();
+		executor = Executors.newFixedThreadPool(NUM_CALLERS);
+	}
+
+	/**
+	 * Stops the store and the threads.
+	 */
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+		store.stop();
+	}
+
+	/**
+	 * Tests that the events of many producers are all taken once, in the order
+	 * every producer published them, including when the buffer is full.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testRingBuffer() throws Exception {
+		final int eventsPerProducer = 10000;
+		RingBuffer<int[]> ringBuffer = new RingBuffer<>(16);
+
+		for (int i = 0; i < NUM_CALLERS; i++) {
+			final int producer = i;
+			executor.submit(() -> {
+				for (int j = 0; j < eventsPerProducer; j++) {
+					ringBuffer.publish(new int[] { producer, j });
+				}
+			});
+		}
+
+		int[] nextEvents = new int[NUM_CALLERS];
+		long deadline = System.currentTimeMillis() + 60000;
+
+		for (int taken = 0; taken < NUM_CALLERS * eventsPerProducer;) {
+			int[] event = ringBuffer.poll();
+
+			if (event == null) {
+				assertTrue(System.currentTimeMillis() < deadline);
+				continue;
+			}
+
+			assertEquals(nextEvents[event[0]]++, event[1]);
+			taken++;
+		}
+
+		assertTrue(ringBuffer.isEmpty());
+	}
+
+	/**
+	 * Tests that concurrent purchases sell every copy exactly once, that a
+	 * caller reads its own purchase once it returns, and that the writer
+	 * publishes fewer snapshots than it applies commands.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testConcurrentPurchases() throws Exception {
+		final int purchasesPerCaller = 20;
+		final int numCopies = NUM_CALLERS * purchasesPerCaller;
+		Set<StockBook> books = new HashSet<>();
+		books.add(new ImmutableStockBook(ISBN, "Flash Sale", "Ann Author", 10, numCopies, 0, 0, 0, false));
+		store.addBooks(books);
+
+		Set<Integer> isbns = new HashSet<>();
+		isbns.add(ISBN);
+		List<Future<?>> outcomes = new ArrayList<>();
+
+		for (int i = 0; i < NUM_CALLERS; i++) {
+			outcomes.add(executor.submit(() -> {
+				Set<BookCopy> order = new HashSet<>();
+				order.add(new BookCopy(ISBN, 1));
+				int lastNumCopies = numCopies;
+
+				for (int j = 0; j < purchasesPerCaller; j++) {
+					store.buyBooks(order);
+					int currentNumCopies = store.getBooksByISBN(isbns).get(0).getNumCopies();
+					assertTrue(currentNumCopies < lastNumCopies);
+					lastNumCopies = currentNumCopies;
+				}
+
+				return null;
+			}));
+		}
+
+		for (Future<?> outcome : outcomes) {
+			outcome.get(60, TimeUnit.SECONDS);
+		}
+
+		assertEquals(0, store.getBooksByISBN(isbns).get(0).getNumCopies());
+
+		Set<BookCopy> order = new HashSet<>();
+		order.add(new BookCopy(ISBN, 1));
+
+		try {
+			store.buyBooks(order);
+			fail("A book out of stock was sold");
+		} catch (BookStoreException ex) {
+			assertEquals(1, store.getBooksByISBN(isbns).get(0).getNumSaleMisses());
+		}
+
+		assertEquals(numCopies + 2, store.getNumCommands());
+		assertTrue(store.getNumSnapshots() <= store.getNumCommands());
+	}
+
+	/**
+	 * Tests that the changes since a version are read from a published
+	 * snapshot, including removed books.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testChangesSince() throws Exception {
+		Set<StockBook> books = new HashSet<>();
+		books.add(new ImmutableStockBook(ISBN, "Flash Sale", "Ann Author", 10, 5, 0, 0, 0, false));
+		books.add(new ImmutableStockBook(ISBN + 1, "Last Call", "Ann Author", 10, 5, 0, 0, 0, false));
+		store.addBooks(books);
+		long version = store.getChangesSince(0).getVersion();
+
+		Set<BookCopy> order = new HashSet<>();
+		order.add(new BookCopy(ISBN, 2));
+		store.buyBooks(order);
+
+		Set<Integer> removed = new HashSet<>();
+		removed.add(ISBN + 1);
+		store.removeBooks(removed);
+
+		CatalogChanges changes = store.getChangesSince(version);
+		assertEquals(1, changes.getBooks().size());
+		assertEquals(3, changes.getBooks().get(0).getNumCopies());
+		assertEquals(1, changes.getRemovedISBNs().size());
+		assertEquals(1, store.searchBooks("flash sale", 0, 10).size());
+		assertTrue(store.searchBooks("last call", 0, 10).isEmpty());
+	}
+
+	/**
+	 * Tests that an error thrown while applying a command fails its caller
+	 * only, and that the writer keeps applying the next commands.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testErrorKeepsWriterRunning() throws Exception {
+		StockBook brokenBook = (StockBook) Proxy.newProxyInstance(StockBook.class.getClassLoader(),
+				new Class<?>[] { StockBook.class }, (proxy, method, args) -> {
+					throw new AssertionError("Broken book");
+				});
+		try {
+			store.addBooks(Collections.singleton(brokenBook));
+			fail();
+		} catch (AssertionError ex) {
+			assertEquals("Broken book", ex.getMessage());
+		}
+
+		Set<StockBook> books = new HashSet<>();
+		books.add(new ImmutableStockBook(ISBN, "Flash Sale", "Ann Author", 10, 5, 0, 0, 0, false));
+		store.addBooks(books);
+		assertEquals(1, store.getBooks().size());
+	}
+}
@@ -0,0 +1,211 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.business.StockChangeEvent;
+import com.acertainbookstore.client.BookStoreHTTPProxy;
+import com.acertainbookstore.client.StockChangeSubscription;
+import com.acertainbookstore.client.StockManagerHTTPProxy;
+import com.acertainbookstore.server.BookStoreHTTPServer;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link StockChangeSubscriptionTest} tests the {@link StockChangeSubscription}
+ * to the stock changes of a local {@link BookStoreHTTPServer} process.
+ *
+ * @see StockManagerHTTPProxy#subscribeStockChanges(java.util.function.Consumer)
+ */
+public class StockChangeSubscriptionTest {
+
+	/** The port of the server. */
+	private static final int PORT = 8108;
+
+	/** The Constant TEST_ISBN. */
+	private static final int TEST_ISBN = 3044560;
+
+	/** The Constant NUM_COPIES. */
+	private static final int NUM_COPIES = 5;
+
+	/** The server process. */
+	private static Process server;
+
+	/** The store. */
+	private static BookStoreHTTPProxy client;
+
+	/** The stock manager. */
+	private static StockManagerHTTPProxy storeManager;
+
+	/**
+	 * Starts the server.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		ProcessBuilder processBuilder = new ProcessBuilder(java,
+				"-D" + BookStoreConstants.PROPERTY_KEY_SERVER_PORT + "=" + PORT, "-cp",
+				System.getProperty("java.class.path"), BookStoreHTTPServer.class.getName());
+		processBuilder.redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.DISCARD);
+		server = processBuilder.start();
+
+		String serverAddress = "http://localhost:" + PORT;
+		client = new BookStoreHTTPProxy(serverAddress);
+		storeManager = new StockManagerHTTPProxy(serverAddress + "/stock");
+
+		// Wait until the server accepts requests.
+		for (int attempt = 0;; attempt++) {
+			try {
+				storeManager.getBooks();
+				break;
+			} catch (BookStoreException ex) {
+				if (attempt == 100) {
+					throw ex;
+				}
+
+				Thread.sleep(100);
+			}
+		}
+	}
+
+	/**
+	 * Method to add the default book, executed before every test case is run.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Before
+	public void initializeBooks() throws BookStoreException {
+		Set<StockBook> booksToAdd = new HashSet<>();
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN, "Harry Potter and JUnit", "JK Unit", (float) 10, NUM_COPIES,
+				0, 0, 0, false));
+		storeManager.addBooks(booksToAdd);
+	}
+
+	/**
+	 * Method to clean up the book store, execute after every test case is run.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@After
+	public void cleanupBooks() throws BookStoreException {
+		storeManager.removeAllBooks();
+	}
+
+	/**
+	 * Tests that every subscriber is pushed the stock changes, including a
+	 * sell-out and a sale miss.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testSubscribeStockChanges() throws Exception {
+		BlockingQueue<StockChangeEvent> firstEvents = new LinkedBlockingQueue<>();
+		BlockingQueue<StockChangeEvent> secondEvents = new LinkedBlockingQueue<>();
+
+		try (StockChangeSubscription first = storeManager.subscribeStockChanges(firstEvents::add);
+				StockChangeSubscription second = storeManager.subscribeStockChanges(secondEvents::add)) {
+			StockChangeEvent subscribed = firstEvents.poll(10, TimeUnit.SECONDS);
+			assertEquals(StockChangeEvent.Type.SUBSCRIBED, subscribed.getType());
+			assertEquals(StockChangeEvent.Type.SUBSCRIBED, secondEvents.poll(10, TimeUnit.SECONDS).getType());
+
+			Set<BookCopy> copies = new HashSet<>();
+			copies.add(new BookCopy(TEST_ISBN, NUM_COPIES));
+			client.buyBooks(copies);
+
+			for (BlockingQueue<StockChangeEvent> events : Arrays.asList(firstEvents, secondEvents)) {
+				StockChangeEvent soldOut = events.poll(10, TimeUnit.SECONDS);
+				assertEquals(StockChangeEvent.Type.CHANGED, soldOut.getType());
+				assertEquals(TEST_ISBN, soldOut.getISBN());
+				assertEquals(0, soldOut.getNumCopies());
+				assertTrue(soldOut.getVersion() > subscribed.getVersion());
+			}
+
+			try {
+				client.buyBooks(copies);
+				fail();
+			} catch (BookStoreException ex) {
+				;
+			}
+
+			StockChangeEvent saleMiss = firstEvents.poll(10, TimeUnit.SECONDS);
+			assertEquals(TEST_ISBN, saleMiss.getISBN());
+			assertEquals(NUM_COPIES, saleMiss.getNumSaleMisses());
+
+			assertTrue(first.isOpen());
+			assertTrue(second.isOpen());
+		}
+	}
+
+	/**
+	 * Tests that a closed subscription stops reading events, while the other
+	 * subscriptions keep receiving them.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testClose() throws Exception {
+		BlockingQueue<StockChangeEvent> closedEvents = new LinkedBlockingQueue<>();
+		BlockingQueue<StockChangeEvent> openEvents = new LinkedBlockingQueue<>();
+		StockChangeSubscription closed = storeManager.subscribeStockChanges(closedEvents::add);
+
+		try (StockChangeSubscription open = storeManager.subscribeStockChanges(openEvents::add)) {
+			assertEquals(StockChangeEvent.Type.SUBSCRIBED, closedEvents.poll(10, TimeUnit.SECONDS).getType());
+			assertEquals(StockChangeEvent.Type.SUBSCRIBED, openEvents.poll(10, TimeUnit.SECONDS).getType());
+
+			closed.close();
+
+			for (int attempt = 0; closed.isOpen(); attempt++) {
+				assertTrue(attempt < 100);
+				Thread.sleep(100);
+			}
+
+			Set<BookCopy> copies = new HashSet<>();
+			copies.add(new BookCopy(TEST_ISBN, 1));
+			client.buyBooks(copies);
+
+			StockChangeEvent changed = openEvents.poll(10, TimeUnit.SECONDS);
+			assertEquals(TEST_ISBN, changed.getISBN());
+			assertEquals(NUM_COPIES - 1, changed.getNumCopies());
+			assertTrue(open.isOpen());
+			assertTrue(closedEvents.isEmpty());
+		} finally {
+			closed.close();
+		}
+	}
+
+	/**
+	 * Stops the proxies and the server.
+	 */
+	@AfterClass
+	public static void tearDownAfterClass() {
+		if (client != null) {
+			client.stop();
+			storeManager.stop();
+		}
+
+		server.destroy();
+	}
+}
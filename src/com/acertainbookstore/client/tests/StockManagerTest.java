@@ -16,6 +16,8 @@ import org.junit.Test;
 import com.acertainbookstore.business.Book;
 import com.acertainbookstore.business.BookCopy;
 import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookQuery;
+import com.acertainbookstore.business.CatalogChanges;
 import com.acertainbookstore.business.SingleLockConcurrentCertainBookStore;
 import com.acertainbookstore.business.ImmutableStockBook;
 import com.acertainbookstore.business.StockBook;
@@ -475,6 +477,186 @@ public class StockManagerTest {
 		assertTrue(booksInStoreList.size() == 0);
 	}
 
+	/**
+	 * Tests that queries filter by price, author, stock and editor picks, in
+	 * price order.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testQueryBooks() throws BookStoreException {
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 1, "Cheap JUnit", "JK Unit", (float) 5, NUM_COPIES, 0, 0, 0,
+				false));
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 2, "Pricey JUnit", "JK Unit", (float) 20, NUM_COPIES, 0, 0,
+				0, false));
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 3, "Cheap Other", "Other Author", (float) 5, NUM_COPIES, 0,
+				0, 0, false));
+		storeManager.addBooks(booksToAdd);
+
+		// Books under 10 by JK Unit, cheapest first.
+		List<StockBook> books = storeManager.queryBooks(new BookQuery(0, 10, "JK Unit", false, false, -1, 10));
+		assertEquals(2, books.size());
+		assertEquals(TEST_ISBN + 1, books.get(0).getISBN());
+		assertEquals((int) TEST_ISBN, books.get(1).getISBN());
+
+		// Sold out books are left out of in stock queries.
+		Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+		booksToBuy.add(new BookCopy(TEST_ISBN + 1, NUM_COPIES));
+		client.buyBooks(booksToBuy);
+
+		books = storeManager.queryBooks(new BookQuery(0, 10, "JK Unit", true, false, -1, 10));
+		assertEquals(1, books.size());
+		assertEquals((int) TEST_ISBN, books.get(0).getISBN());
+
+		addEditorPick(TEST_ISBN + 2, true);
+		books = storeManager.queryBooks(new BookQuery(0, Float.MAX_VALUE, null, false, true, -1, 10));
+		assertEquals(1, books.size());
+		assertEquals(TEST_ISBN + 2, books.get(0).getISBN());
+
+		assertTrue(storeManager.queryBooks(new BookQuery(0, 10, "Nobody", false, false, -1, 10)).isEmpty());
+	}
+
+	/**
+	 * Tests that query pages continue after the last book of the previous
+	 * page, even if the catalog changes in between.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testQueryBooksPages() throws BookStoreException {
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 1, "Cheap JUnit", "JK Unit", (float) 5, NUM_COPIES, 0, 0, 0,
+				false));
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 2, "Pricey JUnit", "JK Unit", (float) 20, NUM_COPIES, 0, 0,
+				0, false));
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 3, "Cheap Other", "Other Author", (float) 5, NUM_COPIES, 0,
+				0, 0, false));
+		storeManager.addBooks(booksToAdd);
+
+		BookQuery query = new BookQuery(0, Float.MAX_VALUE, null, false, false, -1, 2);
+		List<StockBook> firstPage = storeManager.queryBooks(query);
+		assertEquals(2, firstPage.size());
+		assertEquals(TEST_ISBN + 1, firstPage.get(0).getISBN());
+		assertEquals(TEST_ISBN + 3, firstPage.get(1).getISBN());
+
+		// A book added before the cursor is not returned, one added after it is.
+		booksToAdd.clear();
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 4, "Cheapest", "JK Unit", (float) 1, NUM_COPIES, 0, 0, 0,
+				false));
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 5, "Middle", "JK Unit", (float) 15, NUM_COPIES, 0, 0, 0,
+				false));
+		storeManager.addBooks(booksToAdd);
+
+		List<StockBook> secondPage = storeManager.queryBooks(query.startingAfter(firstPage.get(1)));
+		assertEquals(2, secondPage.size());
+		assertEquals((int) TEST_ISBN, secondPage.get(0).getISBN());
+		assertEquals(TEST_ISBN + 5, secondPage.get(1).getISBN());
+
+		List<StockBook> thirdPage = storeManager.queryBooks(query.startingAfter(secondPage.get(1)));
+		assertEquals(1, thirdPage.size());
+		assertEquals(TEST_ISBN + 2, thirdPage.get(0).getISBN());
+
+		assertTrue(storeManager.queryBooks(query.startingAfter(thirdPage.get(0))).isEmpty());
+	}
+
+	/**
+	 * Tests that the books are listed in ISBN order one page at a time.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testGetBooksPages() throws BookStoreException {
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+
+		for (int i = 1; i <= 4; i++) {
+			booksToAdd.add(new ImmutableStockBook(TEST_ISBN - i, "Book " + i, "Author " + i, (float) 10, NUM_COPIES, 0,
+					0, 0, false));
+		}
+
+		storeManager.addBooks(booksToAdd);
+
+		List<StockBook> firstPage = storeManager.getBooks(0, 2);
+		assertEquals(2, firstPage.size());
+		assertEquals(TEST_ISBN - 4, firstPage.get(0).getISBN());
+		assertEquals(TEST_ISBN - 3, firstPage.get(1).getISBN());
+
+		List<StockBook> secondPage = storeManager.getBooks(firstPage.get(1).getISBN(), 2);
+		assertEquals(TEST_ISBN - 2, secondPage.get(0).getISBN());
+		assertEquals(TEST_ISBN - 1, secondPage.get(1).getISBN());
+
+		List<StockBook> lastPage = storeManager.getBooks(secondPage.get(1).getISBN(), 2);
+		assertEquals(1, lastPage.size());
+		assertEquals((int) TEST_ISBN, lastPage.get(0).getISBN());
+
+		try {
+			storeManager.getBooks(0, -1);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+	}
+
+	/**
+	 * Tests that only the books changed since a version are returned, and that
+	 * an unknown version gets a full listing.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testGetChangesSince() throws BookStoreException {
+		CatalogChanges listing = storeManager.getChangesSince(-1);
+		assertTrue(listing.isFullListing());
+		assertEquals(1, listing.getBooks().size());
+		assertEquals((int) TEST_ISBN, listing.getBooks().get(0).getISBN());
+
+		CatalogChanges noChanges = storeManager.getChangesSince(listing.getVersion());
+		assertFalse(noChanges.isFullListing());
+		assertTrue(noChanges.getBooks().isEmpty());
+		assertTrue(noChanges.getRemovedISBNs().isEmpty());
+		assertEquals(listing.getVersion(), noChanges.getVersion());
+
+		Set<BookCopy> bookCopiesSet = new HashSet<BookCopy>();
+		bookCopiesSet.add(new BookCopy(TEST_ISBN, 1));
+		storeManager.addCopies(bookCopiesSet);
+
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 1, "Harry Potter and JUnit", "JK Unit", (float) 10,
+				NUM_COPIES, 0, 0, 0, false));
+		storeManager.addBooks(booksToAdd);
+
+		CatalogChanges changes = storeManager.getChangesSince(listing.getVersion());
+		assertFalse(changes.isFullListing());
+		assertEquals(2, changes.getBooks().size());
+		assertTrue(changes.getRemovedISBNs().isEmpty());
+		assertTrue(changes.getVersion() > listing.getVersion());
+
+		for (StockBook book : changes.getBooks()) {
+			if (book.getISBN() == TEST_ISBN) {
+				assertEquals(NUM_COPIES + 1, book.getNumCopies());
+			} else {
+				assertEquals(TEST_ISBN + 1, book.getISBN());
+			}
+		}
+
+		Set<Integer> isbnSet = new HashSet<Integer>();
+		isbnSet.add(TEST_ISBN + 1);
+		storeManager.removeBooks(isbnSet);
+
+		CatalogChanges removal = storeManager.getChangesSince(changes.getVersion());
+		assertFalse(removal.isFullListing());
+		assertTrue(removal.getBooks().isEmpty());
+		assertEquals(1, removal.getRemovedISBNs().size());
+		assertEquals(TEST_ISBN + 1, (int) removal.getRemovedISBNs().get(0));
+
+		// A version the store has not reached yet is unknown.
+		assertTrue(storeManager.getChangesSince(removal.getVersion() + 1).isFullListing());
+	}
+
 	/**
 	 * Tear down after class.
 	 *
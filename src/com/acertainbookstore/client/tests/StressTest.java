@@ -0,0 +1,143 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.acertainbookstore.business.FaultInjector;
+import com.acertainbookstore.client.workload.StressSchedule;
+import com.acertainbookstore.client.workload.StressTester;
+import com.acertainbookstore.client.workload.WorkloadTarget;
+
+/**
+ * {@link StressTest} runs a few short random schedules against every local
+ * concurrent store, and checks that a failing schedule is shrunk. Longer runs
+ * are started with the <code>stress</code> target of the build.
+ */
+public class StressTest {
+
+	/** The number of threads. */
+	private static final int NUM_THREADS = 8;
+
+	/** The number of steps of every thread. */
+	private static final int STEPS_PER_THREAD = 100;
+
+	/** The number of schedules run against every store. */
+	private static final int NUM_SCHEDULES = 3;
+
+	/**
+	 * Slows the purchases and restocks down so that the calls overlap.
+	 */
+	@Before
+	public void setUp() {
+		FaultInjector.BUY_BOOKS_BOOK.delay(StressTester.DELAY_MILLIS, StressTester.DELAY_PROBABILITY);
+		FaultInjector.ADD_COPIES_BOOK.delay(StressTester.DELAY_MILLIS, StressTester.DELAY_PROBABILITY);
+	}
+
+	/**
+	 * Clears the faults injected.
+	 */
+	@After
+	public void tearDown() {
+		FaultInjector.clearAll();
+	}
+
+	/**
+	 * Runs random schedules against a store and checks that they pass.
+	 *
+	 * @param target
+	 *            the store
+	 * @throws InterruptedException
+	 *             the interrupted exception
+	 */
+	private static void checkStore(WorkloadTarget target) throws InterruptedException {
+		StressTester tester = new StressTester(target);
+
+		for (int i = 0; i < NUM_SCHEDULES; i++) {
+			StressSchedule schedule = StressSchedule.generate(new Random(i), NUM_THREADS, STEPS_PER_THREAD,
+					StressTester.NUM_PAIRS, StressTester.NUM_CHURN_BOOKS);
+			assertEquals(target + " seed " + i, "[]", tester.run(schedule).toString());
+		}
+	}
+
+	/**
+	 * Tests the single lock store.
+	 *
+	 * @throws InterruptedException
+	 *             the interrupted exception
+	 */
+	@Test
+	public void testSingleLockStore() throws InterruptedException {
+		checkStore(WorkloadTarget.SINGLE_LOCK);
+	}
+
+	/**
+	 * Tests the two-level locking store.
+	 *
+	 * @throws InterruptedException
+	 *             the interrupted exception
+	 */
+	@Test
+	public void testTwoLevelLockingStore() throws InterruptedException {
+		checkStore(WorkloadTarget.TWO_LEVEL_LOCK);
+	}
+
+	/**
+	 * Tests the optimistic store.
+	 *
+	 * @throws InterruptedException
+	 *             the interrupted exception
+	 */
+	@Test
+	public void testOptimisticStore() throws InterruptedException {
+		checkStore(WorkloadTarget.OPTIMISTIC);
+	}
+
+	/**
+	 * Tests the transactional memory store.
+	 *
+	 * @throws InterruptedException
+	 *             the interrupted exception
+	 */
+	@Test
+	public void testTransactionalStore() throws InterruptedException {
+		checkStore(WorkloadTarget.TRANSACTIONAL);
+	}
+
+	/**
+	 * Tests the single writer store.
+	 *
+	 * @throws InterruptedException
+	 *             the interrupted exception
+	 */
+	@Test
+	public void testSingleWriterStore() throws InterruptedException {
+		checkStore(WorkloadTarget.SINGLE_WRITER);
+	}
+
+	/**
+	 * Tests that a purchase failing half way is caught, and that the failing
+	 * schedule is shrunk to a single purchase.
+	 *
+	 * @throws InterruptedException
+	 *             the interrupted exception
+	 */
+	@Test
+	public void testShrinksFailingSchedule() throws InterruptedException {
+		// An exception between the books of a purchase leaves it half done.
+		FaultInjector.clearAll();
+		FaultInjector.BUY_BOOKS_BOOK.fail(0.5);
+		StressTester tester = new StressTester(WorkloadTarget.SINGLE_LOCK);
+		StressSchedule schedule = StressSchedule.generate(new Random(1), 4, 20, StressTester.NUM_PAIRS,
+				StressTester.NUM_CHURN_BOOKS);
+		assertNotNull(tester.reproduce(schedule, 10));
+
+		StressSchedule minimal = tester.shrink(schedule, 50);
+		assertEquals(minimal.toString(), 1, minimal.size());
+		assertEquals("BUY_PAIRS", minimal.getThreads().get(0).get(0).getOperation().name());
+	}
+}
@@ -0,0 +1,280 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.business.TransactionalConcurrentCertainBookStore;
+import com.acertainbookstore.business.TransactionalMemory;
+import com.acertainbookstore.business.TransactionalMemory.Ref;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link TransactionalMemoryTest} tests the software transactional memory and
+ * the store built on it: atomic blocks, their retries and their exceptions.
+ */
+public class TransactionalMemoryTest {
+
+	/** The number of concurrent callers. */
+	private static final int NUM_CALLERS = 8;
+
+	/** The threads of the callers. */
+	private ExecutorService executor;
+
+	/**
+	 * Sets up the threads.
+	 */
+	@Before
+	public void setUp() {
+		executor = Executors.newFixedThreadPool(NUM_CALLERS + 1);
+	}
+
+	/**
+	 * Stops the threads.
+	 */
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Tests that concurrent transfers between refs keep their sum, both for
+	 * the transfers and for the readers observing them.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testTransfers() throws Exception {
+		final int numRefs = 4;
+		final int transfersPerCaller = 2000;
+		TransactionalMemory memory = new TransactionalMemory();
+		List<Ref<Integer>> refs = new ArrayList<>();
+
+		for (int i = 0; i < numRefs; i++) {
+			refs.add(memory.newRef(100));
+		}
+
+		AtomicBoolean done = new AtomicBoolean(false);
+		Future<Integer> reader = executor.submit(() -> {
+			int numReads = 0;
+
+			while (!done.get()) {
+				int sum = memory.atomic(transaction -> {
+					int total = 0;
+
+					for (Ref<Integer> ref : refs) {
+						total += transaction.get(ref);
+					}
+
+					return total;
+				});
+
+				assertEquals(100 * numRefs, sum);
+				numReads++;
+			}
+
+			return numReads;
+		});
+
+		List<Future<?>> callers = new ArrayList<>();
+
+		for (int i = 0; i < NUM_CALLERS; i++) {
+			final int caller = i;
+			callers.add(executor.submit(() -> {
+				for (int j = 0; j < transfersPerCaller; j++) {
+					Ref<Integer> from = refs.get((caller + j) % numRefs);
+					Ref<Integer> to = refs.get((caller + j + 1) % numRefs);
+					memory.atomic(transaction -> {
+						transaction.set(from, transaction.get(from) - 1);
+						transaction.set(to, transaction.get(to) + 1);
+						return null;
+					});
+				}
+
+				return null;
+			}));
+		}
+
+		for (Future<?> caller : callers) {
+			caller.get(60, TimeUnit.SECONDS);
+		}
+
+		done.set(true);
+		assertTrue(reader.get(60, TimeUnit.SECONDS) > 0);
+
+		int sum = 0;
+
+		for (Ref<Integer> ref : refs) {
+			sum += memory.atomic(transaction -> transaction.get(ref));
+		}
+
+		assertEquals(100 * numRefs, sum);
+		assertTrue(memory.getNumCommits() >= NUM_CALLERS * transfersPerCaller);
+	}
+
+	/**
+	 * Tests that a block failing with an exception abandons its writes.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testExceptionAbandonsWrites() throws Exception {
+		TransactionalMemory memory = new TransactionalMemory();
+		Ref<Integer> ref = memory.newRef(1);
+
+		try {
+			memory.atomic(transaction -> {
+				transaction.set(ref, 2);
+				assertEquals(2, (int) transaction.get(ref));
+				throw new BookStoreException("Abandoned");
+			});
+			fail("The exception was not thrown");
+		} catch (BookStoreException ex) {
+			assertEquals("Abandoned", ex.getMessage());
+		}
+
+		assertEquals(1, (int) memory.atomic(transaction -> transaction.get(ref)));
+	}
+
+	/**
+	 * Tests that a block losing every optimistic attempt to a concurrent
+	 * writer runs holding the commit lock after
+	 * {@link TransactionalMemory#MAX_OPTIMISTIC_ATTEMPTS} retries, and then
+	 * commits a consistent snapshot.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testRetriedBlockRunsPessimistically() throws Exception {
+		TransactionalMemory memory = new TransactionalMemory();
+		Ref<Integer> hot = memory.newRef(0);
+		Ref<Integer> copy = memory.newRef(-1);
+		AtomicLong numWrites = new AtomicLong(0);
+		AtomicBoolean stopped = new AtomicBoolean(false);
+
+		Future<?> writer = executor.submit(() -> {
+			while (!stopped.get()) {
+				memory.atomic(transaction -> {
+					transaction.set(hot, transaction.get(hot) + 1);
+					return null;
+				});
+				numWrites.incrementAndGet();
+			}
+
+			return null;
+		});
+
+		int copied;
+
+		try {
+			copied = memory.atomic(transaction -> {
+				int value = transaction.get(hot);
+				long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(10);
+				long writesBefore = numWrites.get();
+
+				// Let the writer commit in between, unless it is locked out.
+				while (numWrites.get() == writesBefore && System.nanoTime() - deadline < 0) {
+					Thread.yield();
+				}
+
+				transaction.set(copy, value);
+				return value;
+			});
+
+			assertEquals(copied, (int) memory.atomic(transaction -> transaction.get(copy)));
+			assertEquals(1, memory.getNumPessimisticRuns());
+			assertTrue(memory.getNumRetries() >= TransactionalMemory.MAX_OPTIMISTIC_ATTEMPTS);
+		} finally {
+			stopped.set(true);
+		}
+
+		writer.get(5, TimeUnit.SECONDS);
+		assertTrue(memory.atomic(transaction -> transaction.get(hot)) >= copied);
+	}
+
+	/**
+	 * Tests that concurrent purchases in the transactional store sell every
+	 * copy exactly once, while the orders that cannot be satisfied record
+	 * their misses and buy nothing.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testConcurrentPurchases() throws Exception {
+		final int isbn = 3044580;
+		final int otherISBN = 3044581;
+		final int purchasesPerCaller = 20;
+		TransactionalConcurrentCertainBookStore store = new TransactionalConcurrentCertainBookStore();
+
+		Set<StockBook> books = new HashSet<>();
+		books.add(new ImmutableStockBook(isbn, "Flash Sale", "Ann Author", 10, NUM_CALLERS * purchasesPerCaller, 0, 0,
+				0, false));
+		books.add(new ImmutableStockBook(otherISBN, "Sold Out", "Ann Author", 10, NUM_CALLERS, 0, 0, 0, false));
+		store.addBooks(books);
+
+		List<Future<Integer>> outcomes = new ArrayList<>();
+
+		for (int i = 0; i < NUM_CALLERS; i++) {
+			outcomes.add(executor.submit(() -> {
+				int numFailed = 0;
+
+				for (int j = 0; j < purchasesPerCaller; j++) {
+					Set<BookCopy> order = new HashSet<>();
+					order.add(new BookCopy(isbn, 1));
+
+					// The second book runs out after one purchase per caller on average.
+					order.add(new BookCopy(otherISBN, 1));
+
+					try {
+						store.buyBooks(order);
+					} catch (BookStoreException ex) {
+						numFailed++;
+					}
+				}
+
+				return numFailed;
+			}));
+		}
+
+		int numFailed = 0;
+
+		for (Future<Integer> outcome : outcomes) {
+			numFailed += outcome.get(60, TimeUnit.SECONDS);
+		}
+
+		Set<Integer> isbns = new HashSet<>();
+		isbns.add(isbn);
+		isbns.add(otherISBN);
+		assertEquals(NUM_CALLERS * (purchasesPerCaller - 1), numFailed);
+
+		for (StockBook book : store.getBooksByISBN(isbns)) {
+			if (book.getISBN() == isbn) {
+				assertEquals(NUM_CALLERS * (purchasesPerCaller - 1), book.getNumCopies());
+				assertEquals(0, book.getNumSaleMisses());
+			} else {
+				assertEquals(0, book.getNumCopies());
+				assertEquals(numFailed, book.getNumSaleMisses());
+			}
+		}
+	}
+}
@@ -0,0 +1,115 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.acertainbookstore.business.SingleLockConcurrentCertainBookStore;
+import com.acertainbookstore.client.workload.OperationStatistics;
+import com.acertainbookstore.client.workload.WorkloadConfiguration;
+import com.acertainbookstore.client.workload.WorkloadDriver;
+import com.acertainbookstore.client.workload.WorkloadOperation;
+import com.acertainbookstore.client.workload.ZipfianGenerator;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link WorkloadDriverTest} tests the {@link WorkloadDriver} and its
+ * {@link ZipfianGenerator} against a local store.
+ */
+public class WorkloadDriverTest {
+
+	/**
+	 * Tests that the Zipfian generator favours the first ranks and stays in
+	 * range.
+	 */
+	@Test
+	public void testZipfianGeneratorIsSkewed() {
+		ZipfianGenerator generator = new ZipfianGenerator(100, 1.0);
+		Random random = new Random(1);
+		int[] counts = new int[100];
+
+		for (int i = 0; i < 100000; i++) {
+			counts[generator.next(random)]++;
+		}
+
+		// Rank 0 is drawn about twice as often as rank 1 and ten times as
+		// often as rank 9.
+		assertTrue(counts[0] > counts[1] * 1.7);
+		assertTrue(counts[0] > counts[9] * 7);
+		assertTrue(counts[99] > 0);
+	}
+
+	/**
+	 * Tests that a closed loop run measures every operation of the mix.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 * @throws InterruptedException
+	 *             the interrupted exception
+	 */
+	@Test
+	public void testClosedLoopRun() throws BookStoreException, InterruptedException {
+		WorkloadConfiguration configuration = new WorkloadConfiguration();
+		configuration.setNumClients(4);
+		configuration.setNumBooks(50);
+		configuration.setWarmupSeconds(0);
+		configuration.setDurationSeconds(1);
+
+		Map<WorkloadOperation, OperationStatistics> statistics = runWorkload(configuration);
+
+		for (WorkloadOperation operation : WorkloadOperation.values()) {
+			OperationStatistics operationStatistics = statistics.get(operation);
+			assertTrue(operation.name(), operationStatistics.getCount() > 0);
+			assertTrue(operationStatistics.getPercentileNanos(50) <= operationStatistics.getPercentileNanos(99));
+		}
+	}
+
+	/**
+	 * Tests that an open loop run issues operations at about the arrival rate.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 * @throws InterruptedException
+	 *             the interrupted exception
+	 */
+	@Test
+	public void testOpenLoopRun() throws BookStoreException, InterruptedException {
+		WorkloadConfiguration configuration = new WorkloadConfiguration();
+		configuration.setNumClients(8);
+		configuration.setNumBooks(50);
+		configuration.setOpenLoop(true);
+		configuration.setArrivalRate(200);
+		configuration.setWarmupSeconds(0);
+		configuration.setDurationSeconds(2);
+
+		long count = 0;
+
+		for (OperationStatistics operationStatistics : runWorkload(configuration).values()) {
+			count += operationStatistics.getCount();
+		}
+
+		assertTrue(count > 200 && count < 600);
+	}
+
+	/**
+	 * Runs a workload against a new local store.
+	 *
+	 * @param configuration
+	 *            the configuration
+	 * @return the statistics of every operation
+	 * @throws BookStoreException
+	 *             the book store exception
+	 * @throws InterruptedException
+	 *             the interrupted exception
+	 */
+	private static Map<WorkloadOperation, OperationStatistics> runWorkload(WorkloadConfiguration configuration)
+			throws BookStoreException, InterruptedException {
+		SingleLockConcurrentCertainBookStore store = new SingleLockConcurrentCertainBookStore();
+		WorkloadDriver driver = new WorkloadDriver(configuration, store, store);
+		driver.initializeCatalog();
+		return driver.run();
+	}
+}
@@ -0,0 +1,136 @@
+package com.acertainbookstore.client.workload;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.SingleLockConcurrentCertainBookStore;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.business.TwoLevelLockingConcurrentCertainBookStore;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link AllocationBenchmark} measures the bytes allocated per book by the
+ * listings of the lock-based stores, which hand out cached immutable copies of
+ * their books. The first listing creates the copies, so it costs what every
+ * listing cost before the copies were cached; the next listings only allocate
+ * the list, and a listing after every book was made an editor pick recreates
+ * the stock copies but not the book copies.
+ *
+ * <p>
+ * The allocations are read from the thread allocation counter of the JVM, the
+ * counter the garbage collection profilers report. The number of books is
+ * read from the system properties as for the {@link WorkloadDriver}.
+ */
+public class AllocationBenchmark {
+
+	/** The number of books if none is given. */
+	public static final int DEFAULT_NUM_BOOKS = 1000;
+
+	/** The number of listings measured once the copies are cached. */
+	public static final int NUM_LISTINGS = 20;
+
+	/** The stores measured. */
+	private static final WorkloadTarget[] TARGETS = { WorkloadTarget.SINGLE_LOCK, WorkloadTarget.TWO_LEVEL_LOCK };
+
+	/**
+	 * Prevents the instantiation of a new {@link AllocationBenchmark}.
+	 */
+	private AllocationBenchmark() {
+		// Prevent instances from being created.
+	}
+
+	/**
+	 * Gets the bytes allocated by the current thread so far.
+	 *
+	 * @return the bytes allocated
+	 */
+	private static long allocatedBytes() {
+		return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+				.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/**
+	 * Lists the books and returns the bytes allocated per book.
+	 *
+	 * @param stockManager
+	 *            the stock manager
+	 * @param numListings
+	 *            the number of listings
+	 * @return the bytes allocated per book and listing
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private static double measureListings(StockManager stockManager, int numListings) throws BookStoreException {
+		long numBooks = 0;
+		long startBytes = allocatedBytes();
+
+		for (int i = 0; i < numListings; i++) {
+			numBooks += stockManager.getBooks().size();
+		}
+
+		return (double) (allocatedBytes() - startBytes) / numBooks;
+	}
+
+	/**
+	 * Measures the listings of a new local store and prints the results.
+	 *
+	 * @param configuration
+	 *            the configuration
+	 * @throws Exception
+	 *             the exception
+	 */
+	private static void run(WorkloadConfiguration configuration) throws Exception {
+		BookStore bookStore;
+		StockManager stockManager;
+
+		if (configuration.getTarget() == WorkloadTarget.SINGLE_LOCK) {
+			SingleLockConcurrentCertainBookStore singleLockStore = new SingleLockConcurrentCertainBookStore();
+			bookStore = singleLockStore;
+			stockManager = singleLockStore;
+		} else {
+			TwoLevelLockingConcurrentCertainBookStore twoLevelLockStore = new TwoLevelLockingConcurrentCertainBookStore();
+			bookStore = twoLevelLockStore;
+			stockManager = twoLevelLockStore;
+		}
+
+		new WorkloadDriver(configuration, bookStore, stockManager).initializeCatalog();
+		double firstListing = measureListings(stockManager, 1);
+		double cachedListings = measureListings(stockManager, NUM_LISTINGS);
+
+		Set<BookEditorPick> editorPicks = new HashSet<>();
+
+		for (StockBook book : stockManager.getBooks()) {
+			editorPicks.add(new BookEditorPick(book.getISBN(), true));
+		}
+
+		stockManager.updateEditorPicks(editorPicks);
+		double listingAfterChange = measureListings(stockManager, 1);
+
+		System.out.printf("%n%s, %d books%n", configuration.getTarget(), configuration.getNumBooks());
+		System.out.printf("first listing        %8.1f bytes per book%n", firstListing);
+		System.out.printf("cached listings      %8.1f bytes per book%n", cachedListings);
+		System.out.printf("listing after change %8.1f bytes per book%n", listingAfterChange);
+	}
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args
+	 *            the arguments, unused
+	 * @throws Exception
+	 *             the exception
+	 */
+	public static void main(String[] args) throws Exception {
+		for (WorkloadTarget target : TARGETS) {
+			WorkloadConfiguration configuration = WorkloadConfiguration.fromSystemProperties();
+			configuration.setTarget(target);
+			configuration.setNumBooks(
+					Integer.getInteger(WorkloadConfiguration.PROPERTY_KEY_NUM_BOOKS, DEFAULT_NUM_BOOKS));
+			run(configuration);
+		}
+	}
+}
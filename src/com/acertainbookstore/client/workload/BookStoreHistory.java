@@ -0,0 +1,300 @@
+package com.acertainbookstore.client.workload;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreRetryableException;
+
+/**
+ * {@link BookStoreHistory} runs operations against a {@link BookStore} and a
+ * {@link StockManager} and records every one of them with the times it was
+ * invoked and returned and its outcome, so that the history can be checked by
+ * a {@link LinearizabilityChecker}. Any number of threads may run operations
+ * through the same history.
+ */
+public class BookStoreHistory {
+
+	/**
+	 * {@link Type} lists the operations recorded.
+	 */
+	public enum Type {
+
+		/** BookStore#buyBooks. */
+		BUY_BOOKS,
+
+		/** StockManager#addCopies. */
+		ADD_COPIES,
+
+		/** StockManager#getBooks, observing the copies of every book. */
+		GET_BOOKS;
+	}
+
+	/**
+	 * {@link Outcome} lists the outcomes of an operation.
+	 */
+	public enum Outcome {
+
+		/** The operation returned normally. */
+		SUCCEEDED,
+
+		/** The operation was rejected, e.g. for a lack of copies. */
+		FAILED,
+
+		/**
+		 * The operation was aborted with a
+		 * {@link BookStoreRetryableException} and did not change the store.
+		 */
+		ABORTED;
+
+		/**
+		 * Gets the outcome of an operation that threw an exception.
+		 *
+		 * @param ex
+		 *            the exception
+		 * @return the outcome
+		 */
+		private static Outcome of(BookStoreException ex) {
+			return (ex instanceof BookStoreRetryableException) ? ABORTED : FAILED;
+		}
+	}
+
+	/**
+	 * {@link Operation} is a recorded operation. The times are in
+	 * nanoseconds, from {@link System#nanoTime()}.
+	 */
+	public static final class Operation {
+
+		/** The type. */
+		private final Type type;
+
+		/** The copies bought or added, or null for a listing. */
+		private final Set<BookCopy> bookCopies;
+
+		/** The time the operation was invoked. */
+		private final long invocationNanos;
+
+		/** The time the operation returned. */
+		private final long responseNanos;
+
+		/** The outcome. */
+		private final Outcome outcome;
+
+		/** The number of copies of every book listed, or null. */
+		private final Map<Integer, Integer> observedCopies;
+
+		/**
+		 * Instantiates a new {@link Operation}.
+		 *
+		 * @param type
+		 *            the type
+		 * @param bookCopies
+		 *            the copies bought or added, or null for a listing
+		 * @param invocationNanos
+		 *            the time the operation was invoked
+		 * @param responseNanos
+		 *            the time the operation returned
+		 * @param outcome
+		 *            the outcome
+		 * @param observedCopies
+		 *            the number of copies of every book listed, or null
+		 */
+		public Operation(Type type, Set<BookCopy> bookCopies, long invocationNanos, long responseNanos,
+				Outcome outcome, Map<Integer, Integer> observedCopies) {
+			this.type = type;
+			this.bookCopies = bookCopies;
+			this.invocationNanos = invocationNanos;
+			this.responseNanos = responseNanos;
+			this.outcome = outcome;
+			this.observedCopies = observedCopies;
+		}
+
+		/**
+		 * Gets the type.
+		 *
+		 * @return the type
+		 */
+		public Type getType() {
+			return type;
+		}
+
+		/**
+		 * Gets the copies bought or added.
+		 *
+		 * @return the copies, or null for a listing
+		 */
+		public Set<BookCopy> getBookCopies() {
+			return bookCopies;
+		}
+
+		/**
+		 * Gets the time the operation was invoked.
+		 *
+		 * @return the time in nanoseconds
+		 */
+		public long getInvocationNanos() {
+			return invocationNanos;
+		}
+
+		/**
+		 * Gets the time the operation returned.
+		 *
+		 * @return the time in nanoseconds
+		 */
+		public long getResponseNanos() {
+			return responseNanos;
+		}
+
+		/**
+		 * Gets the outcome.
+		 *
+		 * @return the outcome
+		 */
+		public Outcome getOutcome() {
+			return outcome;
+		}
+
+		/**
+		 * Gets the number of copies of every book listed.
+		 *
+		 * @return the copies by ISBN, or null if the operation is not a
+		 *         successful listing
+		 */
+		public Map<Integer, Integer> getObservedCopies() {
+			return observedCopies;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			StringBuilder builder = new StringBuilder(type.toString());
+
+			if (bookCopies != null) {
+				builder.append(' ');
+
+				for (BookCopy bookCopy : bookCopies) {
+					builder.append(bookCopy.getISBN()).append('x').append(bookCopy.getNumCopies()).append(' ');
+				}
+			}
+
+			if (observedCopies != null) {
+				builder.append(' ').append(observedCopies).append(' ');
+			}
+
+			return builder.append(outcome).append(" [").append(invocationNanos).append(", ")
+					.append(responseNanos).append(']').toString();
+		}
+	}
+
+	/** The book store. */
+	private final BookStore bookStore;
+
+	/** The stock manager. */
+	private final StockManager stockManager;
+
+	/** The recorded operations. */
+	private final ConcurrentLinkedQueue<Operation> operations = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Instantiates a new {@link BookStoreHistory}.
+	 *
+	 * @param bookStore
+	 *            the book store
+	 * @param stockManager
+	 *            the stock manager
+	 */
+	public BookStoreHistory(BookStore bookStore, StockManager stockManager) {
+		this.bookStore = bookStore;
+		this.stockManager = stockManager;
+	}
+
+	/**
+	 * Buys books and records the purchase.
+	 *
+	 * @param bookCopies
+	 *            the copies to buy
+	 * @return the outcome
+	 */
+	public Outcome buyBooks(Set<BookCopy> bookCopies) {
+		long invocationNanos = System.nanoTime();
+		Outcome outcome = Outcome.SUCCEEDED;
+
+		try {
+			bookStore.buyBooks(bookCopies);
+		} catch (BookStoreException ex) {
+			outcome = Outcome.of(ex);
+		}
+
+		operations.add(new Operation(Type.BUY_BOOKS, bookCopies, invocationNanos, System.nanoTime(), outcome, null));
+		return outcome;
+	}
+
+	/**
+	 * Adds copies and records the change.
+	 *
+	 * @param bookCopies
+	 *            the copies to add
+	 * @return the outcome
+	 */
+	public Outcome addCopies(Set<BookCopy> bookCopies) {
+		long invocationNanos = System.nanoTime();
+		Outcome outcome = Outcome.SUCCEEDED;
+
+		try {
+			stockManager.addCopies(bookCopies);
+		} catch (BookStoreException ex) {
+			outcome = Outcome.of(ex);
+		}
+
+		operations.add(new Operation(Type.ADD_COPIES, bookCopies, invocationNanos, System.nanoTime(), outcome, null));
+		return outcome;
+	}
+
+	/**
+	 * Lists the books and records the number of copies of every one.
+	 *
+	 * @return the copies by ISBN, or null if the listing failed
+	 */
+	public Map<Integer, Integer> getBooks() {
+		long invocationNanos = System.nanoTime();
+		Map<Integer, Integer> observedCopies = null;
+		Outcome outcome = Outcome.SUCCEEDED;
+
+		try {
+			List<StockBook> books = stockManager.getBooks();
+			observedCopies = new HashMap<>();
+
+			for (StockBook book : books) {
+				observedCopies.put(book.getISBN(), book.getNumCopies());
+			}
+		} catch (BookStoreException ex) {
+			outcome = Outcome.of(ex);
+		}
+
+		operations.add(new Operation(Type.GET_BOOKS, null, invocationNanos, System.nanoTime(), outcome,
+				observedCopies));
+		return observedCopies;
+	}
+
+	/**
+	 * Gets the recorded operations, in the order they returned.
+	 *
+	 * @return the operations
+	 */
+	public List<Operation> getOperations() {
+		return Collections.unmodifiableList(new ArrayList<>(operations));
+	}
+}
@@ -0,0 +1,143 @@
+package com.acertainbookstore.client.workload;
+
+import java.util.Map;
+
+import com.acertainbookstore.business.OptimisticConcurrentCertainBookStore;
+import com.acertainbookstore.business.SingleLockConcurrentCertainBookStore;
+import com.acertainbookstore.business.SingleWriterConcurrentCertainBookStore;
+import com.acertainbookstore.business.TransactionalConcurrentCertainBookStore;
+import com.acertainbookstore.business.TwoLevelLockingConcurrentCertainBookStore;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+
+/**
+ * {@link ContentionBenchmark} runs the same workload against the local
+ * concurrent stores, the lock-based ones, the optimistic one, the
+ * transactional memory one and the single writer one, at low and at high
+ * contention, and prints the report of every run.
+ *
+ * <p>
+ * At low contention the clients draw uniformly from a large catalog, so they
+ * rarely touch the same books; at high contention they draw from a handful of
+ * books following a skewed distribution, so most operations overlap. The
+ * other parameters, e.g. the number of clients or the duration, are read from
+ * the system properties as for the {@link WorkloadDriver}.
+ */
+public class ContentionBenchmark {
+
+	/** The number of books at low contention. */
+	public static final int LOW_CONTENTION_NUM_BOOKS = 1000;
+
+	/** The Zipfian exponent at low contention. */
+	public static final double LOW_CONTENTION_ZIPF_EXPONENT = 0;
+
+	/** The number of books at high contention. */
+	public static final int HIGH_CONTENTION_NUM_BOOKS = 16;
+
+	/** The Zipfian exponent at high contention. */
+	public static final double HIGH_CONTENTION_ZIPF_EXPONENT = 1.2;
+
+	/** The stores compared. */
+	private static final WorkloadTarget[] TARGETS = { WorkloadTarget.SINGLE_LOCK, WorkloadTarget.TWO_LEVEL_LOCK,
+			WorkloadTarget.OPTIMISTIC, WorkloadTarget.TRANSACTIONAL, WorkloadTarget.SINGLE_WRITER };
+
+	/**
+	 * Prevents the instantiation of a new {@link ContentionBenchmark}.
+	 */
+	private ContentionBenchmark() {
+		// Prevent instances from being created.
+	}
+
+	/**
+	 * Runs the workload against a new local store and prints its report.
+	 *
+	 * @param configuration
+	 *            the configuration
+	 * @throws Exception
+	 *             the exception
+	 */
+	private static void run(WorkloadConfiguration configuration) throws Exception {
+		BookStore bookStore;
+		StockManager stockManager;
+		OptimisticConcurrentCertainBookStore optimisticStore = null;
+		TransactionalConcurrentCertainBookStore transactionalStore = null;
+		SingleWriterConcurrentCertainBookStore singleWriterStore = null;
+
+		switch (configuration.getTarget()) {
+		case SINGLE_LOCK:
+			SingleLockConcurrentCertainBookStore singleLockStore = new SingleLockConcurrentCertainBookStore();
+			bookStore = singleLockStore;
+			stockManager = singleLockStore;
+			break;
+
+		case TWO_LEVEL_LOCK:
+			TwoLevelLockingConcurrentCertainBookStore twoLevelLockStore = new TwoLevelLockingConcurrentCertainBookStore();
+			bookStore = twoLevelLockStore;
+			stockManager = twoLevelLockStore;
+			break;
+
+		case TRANSACTIONAL:
+			transactionalStore = new TransactionalConcurrentCertainBookStore();
+			bookStore = transactionalStore;
+			stockManager = transactionalStore;
+			break;
+
+		case SINGLE_WRITER:
+			singleWriterStore = new SingleWriterConcurrentCertainBookStore();
+			bookStore = singleWriterStore;
+			stockManager = singleWriterStore;
+			break;
+
+		default:
+			optimisticStore = new OptimisticConcurrentCertainBookStore();
+			bookStore = optimisticStore;
+			stockManager = optimisticStore;
+			break;
+		}
+
+		System.out.printf("%n%s, %d books, Zipfian exponent %.2f, %d clients%n", configuration.getTarget(),
+				configuration.getNumBooks(), configuration.getZipfExponent(), configuration.getNumClients());
+
+		WorkloadDriver driver = new WorkloadDriver(configuration, bookStore, stockManager);
+		driver.initializeCatalog();
+		Map<WorkloadOperation, OperationStatistics> statistics = driver.run();
+		driver.printReport(statistics, System.out);
+
+		if (optimisticStore != null) {
+			System.out.printf("commits %d, conflicts %d, pessimistic runs %d%n", optimisticStore.getNumCommits(),
+					optimisticStore.getNumConflicts(), optimisticStore.getNumPessimisticRuns());
+		}
+
+		if (transactionalStore != null) {
+			System.out.printf("commits %d, retries %d%n", transactionalStore.getMemory().getNumCommits(),
+					transactionalStore.getMemory().getNumRetries());
+		}
+
+		if (singleWriterStore != null) {
+			System.out.printf("commands %d, snapshots %d%n", singleWriterStore.getNumCommands(),
+					singleWriterStore.getNumSnapshots());
+			singleWriterStore.stop();
+		}
+	}
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args
+	 *            the arguments, unused
+	 * @throws Exception
+	 *             the exception
+	 */
+	public static void main(String[] args) throws Exception {
+		for (boolean highContention : new boolean[] { false, true }) {
+			for (WorkloadTarget target : TARGETS) {
+				WorkloadConfiguration configuration = WorkloadConfiguration.fromSystemProperties();
+				configuration.setTarget(target);
+				configuration.setNumBooks(highContention ? HIGH_CONTENTION_NUM_BOOKS : LOW_CONTENTION_NUM_BOOKS);
+				configuration.setZipfExponent(
+						highContention ? HIGH_CONTENTION_ZIPF_EXPONENT : LOW_CONTENTION_ZIPF_EXPONENT);
+				run(configuration);
+			}
+		}
+	}
+}
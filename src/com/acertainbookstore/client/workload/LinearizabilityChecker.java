@@ -0,0 +1,374 @@
+package com.acertainbookstore.client.workload;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.SerialCertainBookStore;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.client.workload.BookStoreHistory.Operation;
+import com.acertainbookstore.client.workload.BookStoreHistory.Outcome;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link LinearizabilityChecker} checks a {@link BookStoreHistory} recorded
+ * against a concurrent store by searching for an order of its operations that
+ * a {@link SerialCertainBookStore}, run one operation at a time, reproduces
+ * with the same outcomes: the same purchases succeed and fail and every
+ * listing observes the same number of copies of every book. Aborted
+ * operations did not change the store and are left out of the order.
+ *
+ * <p>
+ * The history is linearizable if such an order also respects real time, i.e.
+ * an operation that returned before another one was invoked comes first; it
+ * is serializable if any order will do. The search follows Wing and Gong,
+ * trying at every step the operations that may come next, and remembers the
+ * sets of operations already ordered together with the resulting stock, so
+ * that a state reached through different orders is only explored once.
+ *
+ * <p>
+ * The store of the history must hold exactly the books given to the checker,
+ * with their initial number of copies, when the history starts. Since the
+ * model runs on the public methods of the store, the books must have at least
+ * one copy initially, as for any book added to a store. The search is
+ * exponential in the worst case, so the histories should be small, e.g. a few
+ * hundred operations on a handful of books.
+ */
+public class LinearizabilityChecker {
+
+	/** The default maximum number of states explored. */
+	public static final int DEFAULT_MAX_STATES = 1 << 20;
+
+	/** Orders the books by ISBN. */
+	private static final Comparator<StockBook> BY_ISBN = Comparator.comparingInt(StockBook::getISBN);
+
+	/** The books, in the order of the stock arrays. */
+	private final StockBook[] books;
+
+	/** The initial number of copies of every book. */
+	private final int[] initialCopies;
+
+	/** The maximum number of states explored before giving up. */
+	private final int maxStates;
+
+	/** The sequential model the operations are run against. */
+	private final SerialCertainBookStore model = new SerialCertainBookStore();
+
+	/** The number of copies of every book in the model. */
+	private int[] modelCopies;
+
+	/**
+	 * {@link SearchState} is a set of operations already ordered with the
+	 * stock they leave.
+	 */
+	private static final class SearchState {
+
+		/** The operations ordered. */
+		private final BitSet ordered;
+
+		/** The number of copies of every book. */
+		private final int[] copies;
+
+		/**
+		 * Instantiates a new {@link SearchState}.
+		 *
+		 * @param ordered
+		 *            the operations ordered, copied
+		 * @param copies
+		 *            the number of copies of every book
+		 */
+		private SearchState(BitSet ordered, int[] copies) {
+			this.ordered = (BitSet) ordered.clone();
+			this.copies = copies;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.lang.Object#hashCode()
+		 */
+		@Override
+		public int hashCode() {
+			return 31 * ordered.hashCode() + Arrays.hashCode(copies);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.lang.Object#equals(java.lang.Object)
+		 */
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof SearchState)) {
+				return false;
+			}
+
+			SearchState other = (SearchState) obj;
+			return ordered.equals(other.ordered) && Arrays.equals(copies, other.copies);
+		}
+	}
+
+	/**
+	 * Instantiates a new {@link LinearizabilityChecker}.
+	 *
+	 * @param initialBooks
+	 *            the books of the store when the history starts
+	 * @throws IllegalArgumentException
+	 *             if the books are not valid books of a store
+	 */
+	public LinearizabilityChecker(List<StockBook> initialBooks) {
+		this(initialBooks, DEFAULT_MAX_STATES);
+	}
+
+	/**
+	 * Instantiates a new {@link LinearizabilityChecker}.
+	 *
+	 * @param initialBooks
+	 *            the books of the store when the history starts
+	 * @param maxStates
+	 *            the maximum number of states explored before giving up
+	 * @throws IllegalArgumentException
+	 *             if the books are not valid books of a store
+	 */
+	public LinearizabilityChecker(List<StockBook> initialBooks, int maxStates) {
+		books = initialBooks.toArray(new StockBook[0]);
+		Arrays.sort(books, BY_ISBN);
+		initialCopies = new int[books.length];
+
+		for (int i = 0; i < books.length; i++) {
+			initialCopies[i] = books[i].getNumCopies();
+		}
+
+		this.maxStates = maxStates;
+
+		try {
+			model.addBooks(new HashSet<>(initialBooks));
+		} catch (BookStoreException ex) {
+			throw new IllegalArgumentException("The books cannot be added to the model", ex);
+		}
+
+		modelCopies = initialCopies;
+	}
+
+	/**
+	 * Searches for an order of the operations that respects real time and is
+	 * reproduced by the sequential model.
+	 *
+	 * @param history
+	 *            the operations
+	 * @return the order, or null if the history is not linearizable
+	 * @throws IllegalStateException
+	 *             if the search explored the maximum number of states
+	 */
+	public List<Operation> linearize(List<Operation> history) {
+		return search(history, true);
+	}
+
+	/**
+	 * Searches for any order of the operations that is reproduced by the
+	 * sequential model.
+	 *
+	 * @param history
+	 *            the operations
+	 * @return the order, or null if the history is not serializable
+	 * @throws IllegalStateException
+	 *             if the search explored the maximum number of states
+	 */
+	public List<Operation> serialize(List<Operation> history) {
+		return search(history, false);
+	}
+
+	/**
+	 * Searches for an order of the operations.
+	 *
+	 * @param history
+	 *            the operations
+	 * @param realTime
+	 *            whether the order must respect real time
+	 * @return the order, or null if there is none
+	 */
+	private List<Operation> search(List<Operation> history, boolean realTime) {
+		Operation[] operations = history.stream().filter(operation -> operation.getOutcome() != Outcome.ABORTED)
+				.sorted(Comparator.comparingLong(Operation::getInvocationNanos)).toArray(Operation[]::new);
+		List<Operation> order = new ArrayList<>(operations.length);
+
+		if (search(operations, new BitSet(operations.length), initialCopies, realTime, order, new HashSet<>())) {
+			return order;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Extends an order of some of the operations to all of them, depth first.
+	 *
+	 * @param operations
+	 *            the operations, by invocation time
+	 * @param ordered
+	 *            the operations already ordered
+	 * @param copies
+	 *            the number of copies of every book after them
+	 * @param realTime
+	 *            whether the order must respect real time
+	 * @param order
+	 *            the operations already ordered, in order
+	 * @param visited
+	 *            the states already explored without success
+	 * @return true, if the order was extended to all the operations
+	 */
+	private boolean search(Operation[] operations, BitSet ordered, int[] copies, boolean realTime,
+			List<Operation> order, Set<SearchState> visited) {
+		if (order.size() == operations.length) {
+			return true;
+		}
+
+		if (!visited.add(new SearchState(ordered, copies))) {
+			return false;
+		}
+
+		if (visited.size() > maxStates) {
+			throw new IllegalStateException("Gave up after " + maxStates + " states");
+		}
+
+		// An operation may come next only if no operation left returned
+		// before it was invoked.
+		long firstResponseNanos = Long.MAX_VALUE;
+
+		if (realTime) {
+			for (int i = ordered.nextClearBit(0); i < operations.length; i = ordered.nextClearBit(i + 1)) {
+				firstResponseNanos = Math.min(firstResponseNanos, operations[i].getResponseNanos());
+			}
+		}
+
+		for (int i = ordered.nextClearBit(0); i < operations.length; i = ordered.nextClearBit(i + 1)) {
+			if (operations[i].getInvocationNanos() > firstResponseNanos) {
+				break;
+			}
+
+			int[] nextCopies = apply(copies, operations[i]);
+
+			if (nextCopies == null) {
+				continue;
+			}
+
+			ordered.set(i);
+			order.add(operations[i]);
+
+			if (search(operations, ordered, nextCopies, realTime, order, visited)) {
+				return true;
+			}
+
+			ordered.clear(i);
+			order.remove(order.size() - 1);
+		}
+
+		return false;
+	}
+
+	/**
+	 * Runs an operation against the sequential model holding a stock.
+	 *
+	 * @param copies
+	 *            the number of copies of every book
+	 * @param operation
+	 *            the operation
+	 * @return the number of copies of every book after the operation, or null
+	 *         if its outcome differs from the recorded one
+	 */
+	private int[] apply(int[] copies, Operation operation) {
+		moveModelTo(copies);
+		Outcome outcome = Outcome.SUCCEEDED;
+
+		try {
+			switch (operation.getType()) {
+			case BUY_BOOKS:
+				model.buyBooks(operation.getBookCopies());
+				break;
+
+			case ADD_COPIES:
+				model.addCopies(operation.getBookCopies());
+				break;
+
+			default:
+				break;
+			}
+		} catch (BookStoreException ex) {
+			outcome = Outcome.FAILED;
+		}
+
+		int[] nextCopies = readModel();
+
+		if (outcome != operation.getOutcome()) {
+			return null;
+		}
+
+		Map<Integer, Integer> observedCopies = operation.getObservedCopies();
+
+		if (observedCopies != null) {
+			if (observedCopies.size() != books.length) {
+				return null;
+			}
+
+			for (int i = 0; i < books.length; i++) {
+				Integer observed = observedCopies.get(books[i].getISBN());
+
+				if (observed == null || observed != nextCopies[i]) {
+					return null;
+				}
+			}
+		}
+
+		return nextCopies;
+	}
+
+	/**
+	 * Brings the sequential model to a stock by buying and adding the copies
+	 * that differ from its current one.
+	 *
+	 * @param copies
+	 *            the number of copies of every book
+	 */
+	private void moveModelTo(int[] copies) {
+		Set<BookCopy> toBuy = new HashSet<>();
+		Set<BookCopy> toAdd = new HashSet<>();
+
+		for (int i = 0; i < books.length; i++) {
+			if (copies[i] < modelCopies[i]) {
+				toBuy.add(new BookCopy(books[i].getISBN(), modelCopies[i] - copies[i]));
+			} else if (copies[i] > modelCopies[i]) {
+				toAdd.add(new BookCopy(books[i].getISBN(), copies[i] - modelCopies[i]));
+			}
+		}
+
+		try {
+			model.buyBooks(toBuy);
+			model.addCopies(toAdd);
+		} catch (BookStoreException ex) {
+			throw new IllegalStateException("The model cannot hold the stock " + Arrays.toString(copies), ex);
+		}
+
+		modelCopies = copies;
+	}
+
+	/**
+	 * Reads the stock of the sequential model.
+	 *
+	 * @return the number of copies of every book
+	 */
+	private int[] readModel() {
+		int[] copies = new int[books.length];
+
+		for (StockBook book : model.getBooks()) {
+			copies[Arrays.binarySearch(books, book, BY_ISBN)] = book.getNumCopies();
+		}
+
+		modelCopies = copies;
+		return copies;
+	}
+}
@@ -0,0 +1,119 @@
+package com.acertainbookstore.client.workload;
+
+import java.util.Arrays;
+
+/**
+ * {@link OperationStatistics} records the latencies and outcomes of one
+ * {@link WorkloadOperation}. It is not thread-safe: every client records into
+ * its own instance and the instances are merged once the run is over.
+ */
+public class OperationStatistics {
+
+	/** The latencies in nanoseconds; only the first numSamples are used. */
+	private long[] latencies = new long[1024];
+
+	/** The number of recorded latencies. */
+	private int numSamples = 0;
+
+	/** The number of operations that failed. */
+	private long numFailures = 0;
+
+	/** Whether the latencies are sorted. */
+	private boolean sorted = true;
+
+	/**
+	 * Records an operation.
+	 *
+	 * @param latencyNanos
+	 *            the latency in nanoseconds
+	 * @param succeeded
+	 *            whether the operation succeeded
+	 */
+	public void record(long latencyNanos, boolean succeeded) {
+		if (numSamples == latencies.length) {
+			latencies = Arrays.copyOf(latencies, latencies.length * 2);
+		}
+
+		latencies[numSamples++] = latencyNanos;
+		sorted = false;
+
+		if (!succeeded) {
+			numFailures++;
+		}
+	}
+
+	/**
+	 * Adds the recorded operations of other statistics to these ones.
+	 *
+	 * @param other
+	 *            the other statistics
+	 */
+	public void merge(OperationStatistics other) {
+		if (numSamples + other.numSamples > latencies.length) {
+			latencies = Arrays.copyOf(latencies, Math.max(latencies.length * 2, numSamples + other.numSamples));
+		}
+
+		System.arraycopy(other.latencies, 0, latencies, numSamples, other.numSamples);
+		numSamples += other.numSamples;
+		numFailures += other.numFailures;
+		sorted = false;
+	}
+
+	/**
+	 * Gets the number of recorded operations.
+	 *
+	 * @return the number of operations
+	 */
+	public long getCount() {
+		return numSamples;
+	}
+
+	/**
+	 * Gets the number of failed operations.
+	 *
+	 * @return the number of failures
+	 */
+	public long getNumFailures() {
+		return numFailures;
+	}
+
+	/**
+	 * Gets the mean latency in nanoseconds.
+	 *
+	 * @return the mean latency, or 0 if nothing was recorded
+	 */
+	public double getMeanNanos() {
+		if (numSamples == 0) {
+			return 0;
+		}
+
+		double sum = 0;
+
+		for (int i = 0; i < numSamples; i++) {
+			sum += latencies[i];
+		}
+
+		return sum / numSamples;
+	}
+
+	/**
+	 * Gets a latency percentile in nanoseconds, using the nearest-rank method.
+	 *
+	 * @param percentile
+	 *            the percentile, between 0 and 100
+	 * @return the latency, or 0 if nothing was recorded
+	 */
+	public long getPercentileNanos(double percentile) {
+		if (numSamples == 0) {
+			return 0;
+		}
+
+		if (!sorted) {
+			Arrays.sort(latencies, 0, numSamples);
+			sorted = true;
+		}
+
+		int rank = (int) Math.ceil(percentile / 100 * numSamples);
+		return latencies[Math.min(Math.max(rank, 1), numSamples) - 1];
+	}
+}
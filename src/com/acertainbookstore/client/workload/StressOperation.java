@@ -0,0 +1,96 @@
+package com.acertainbookstore.client.workload;
+
+/**
+ * {@link StressOperation} lists the steps issued by the {@link StressTester},
+ * covering every method of the
+ * {@link com.acertainbookstore.interfaces.BookStore} and
+ * {@link com.acertainbookstore.interfaces.StockManager} APIs. The paired books
+ * are always bought and restocked two by two, with the same number of copies,
+ * so that every atomic read sees both books of a pair with the same stock;
+ * the churn books are removed and added back while the others run.
+ */
+public enum StressOperation {
+
+	/** Buys the same number of copies of both books of some pairs. */
+	BUY_PAIRS(20),
+
+	/** Adds the same number of copies to both books of some pairs. */
+	ADD_PAIR_COPIES(10),
+
+	/** Buys copies of a churn book. */
+	BUY_CHURN(5),
+
+	/** Adds copies to a churn book. */
+	ADD_CHURN_COPIES(3),
+
+	/** Adds churn books back to the catalog. */
+	ADD_CHURN_BOOKS(3),
+
+	/** Removes churn books from the catalog. */
+	REMOVE_CHURN_BOOKS(3),
+
+	/**
+	 * Removes every book from the catalog. It is not drawn with the others
+	 * but put in some of the schedules once, since the stock of the pairs is
+	 * only checked at the end of a schedule that keeps its books.
+	 */
+	REMOVE_ALL_BOOKS(0),
+
+	/** Lists the whole catalog. */
+	LIST_BOOKS(10),
+
+	/** Lists a page of the catalog. */
+	LIST_BOOKS_PAGE(3),
+
+	/** Looks up the stock of some pairs by ISBN. */
+	GET_STOCK_BOOKS_BY_ISBN(10),
+
+	/** Looks up books by ISBN through the customer API. */
+	GET_BOOKS(5),
+
+	/** Rates books. */
+	RATE_BOOKS(3),
+
+	/** Gets the top rated books. */
+	GET_TOP_RATED_BOOKS(2),
+
+	/** Marks or unmarks editor picks. */
+	UPDATE_EDITOR_PICKS(2),
+
+	/** Gets editor picks. */
+	GET_EDITOR_PICKS(2),
+
+	/** Gets the books in demand. */
+	GET_BOOKS_IN_DEMAND(2),
+
+	/** Searches books by title and author. */
+	SEARCH_BOOKS(2),
+
+	/** Queries books by price and stock. */
+	QUERY_BOOKS(2),
+
+	/** Fetches the catalog changes since a version. */
+	GET_CHANGES_SINCE(2);
+
+	/** The default weight of the step in a schedule. */
+	private final int weight;
+
+	/**
+	 * Instantiates a new {@link StressOperation}.
+	 *
+	 * @param weight
+	 *            the default weight of the step in a schedule
+	 */
+	StressOperation(int weight) {
+		this.weight = weight;
+	}
+
+	/**
+	 * Gets the default weight of the step in a schedule.
+	 *
+	 * @return the weight
+	 */
+	public int getWeight() {
+		return weight;
+	}
+}
@@ -0,0 +1,296 @@
+package com.acertainbookstore.client.workload;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * {@link StressSchedule} is the list of steps every thread of a
+ * {@link StressTester} run issues, in order. A schedule is drawn from a seed,
+ * so a failing run can be repeated, and shrunk by dropping steps while the
+ * run keeps failing.
+ */
+public final class StressSchedule {
+
+	/**
+	 * {@link Step} is one call issued by a thread.
+	 */
+	public static final class Step {
+
+		/** The operation. */
+		private final StressOperation operation;
+
+		/** The indexes of the pairs or churn books touched, distinct. */
+		private final int[] targets;
+
+		/**
+		 * The number of copies, the rating, the number of books asked for or
+		 * the version, depending on the operation.
+		 */
+		private final int amount;
+
+		/**
+		 * Instantiates a new {@link Step}.
+		 *
+		 * @param operation
+		 *            the operation
+		 * @param targets
+		 *            the indexes of the pairs or churn books touched
+		 * @param amount
+		 *            the number of copies, the rating, the number of books
+		 *            asked for or the version
+		 */
+		public Step(StressOperation operation, int[] targets, int amount) {
+			this.operation = operation;
+			this.targets = targets;
+			this.amount = amount;
+		}
+
+		/**
+		 * Gets the operation.
+		 *
+		 * @return the operation
+		 */
+		public StressOperation getOperation() {
+			return operation;
+		}
+
+		/**
+		 * Gets the indexes of the pairs or churn books touched.
+		 *
+		 * @return the indexes, not to be changed
+		 */
+		public int[] getTargets() {
+			return targets;
+		}
+
+		/**
+		 * Gets the number of copies, the rating, the number of books asked for
+		 * or the version, depending on the operation.
+		 *
+		 * @return the amount
+		 */
+		public int getAmount() {
+			return amount;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return operation + " " + Arrays.toString(targets) + " x" + amount;
+		}
+	}
+
+	/** One schedule in this many clears the catalog once. */
+	public static final int REMOVE_ALL_BOOKS_ODDS = 4;
+
+	/** The steps of every thread. */
+	private final List<List<Step>> threads;
+
+	/**
+	 * Instantiates a new {@link StressSchedule}.
+	 *
+	 * @param threads
+	 *            the steps of every thread
+	 */
+	public StressSchedule(List<List<Step>> threads) {
+		List<List<Step>> copies = new ArrayList<>(threads.size());
+
+		for (List<Step> steps : threads) {
+			copies.add(Collections.unmodifiableList(new ArrayList<>(steps)));
+		}
+
+		this.threads = Collections.unmodifiableList(copies);
+	}
+
+	/**
+	 * Draws a schedule following the default weights of the operations, one
+	 * in {@link #REMOVE_ALL_BOOKS_ODDS} clearing the catalog once.
+	 *
+	 * @param random
+	 *            the random generator
+	 * @param numThreads
+	 *            the number of threads
+	 * @param stepsPerThread
+	 *            the number of steps of every thread
+	 * @param numPairs
+	 *            the number of pairs of books
+	 * @param numChurnBooks
+	 *            the number of churn books
+	 * @return the schedule
+	 */
+	public static StressSchedule generate(Random random, int numThreads, int stepsPerThread, int numPairs,
+			int numChurnBooks) {
+		StressOperation[] operations = StressOperation.values();
+		int totalWeight = 0;
+
+		for (StressOperation operation : operations) {
+			totalWeight += operation.getWeight();
+		}
+
+		List<List<Step>> threads = new ArrayList<>(numThreads);
+
+		for (int i = 0; i < numThreads; i++) {
+			List<Step> steps = new ArrayList<>(stepsPerThread);
+
+			for (int j = 0; j < stepsPerThread; j++) {
+				int draw = random.nextInt(totalWeight);
+				int k = 0;
+
+				while (draw >= operations[k].getWeight()) {
+					draw -= operations[k].getWeight();
+					k++;
+				}
+
+				steps.add(generateStep(random, operations[k], numPairs, numChurnBooks));
+			}
+
+			threads.add(steps);
+		}
+
+		if (numThreads > 0 && stepsPerThread > 0 && random.nextInt(REMOVE_ALL_BOOKS_ODDS) == 0) {
+			List<Step> steps = threads.get(random.nextInt(numThreads));
+			steps.set(random.nextInt(stepsPerThread), new Step(StressOperation.REMOVE_ALL_BOOKS, new int[0], 0));
+		}
+
+		return new StressSchedule(threads);
+	}
+
+	/**
+	 * Draws the arguments of a step.
+	 *
+	 * @param random
+	 *            the random generator
+	 * @param operation
+	 *            the operation
+	 * @param numPairs
+	 *            the number of pairs of books
+	 * @param numChurnBooks
+	 *            the number of churn books
+	 * @return the step
+	 */
+	private static Step generateStep(Random random, StressOperation operation, int numPairs, int numChurnBooks) {
+		switch (operation) {
+		case BUY_PAIRS:
+		case ADD_PAIR_COPIES:
+			return new Step(operation, distinct(random, numPairs, 1 + random.nextInt(2)), 1 + random.nextInt(3));
+
+		case BUY_CHURN:
+		case ADD_CHURN_COPIES:
+		case ADD_CHURN_BOOKS:
+		case REMOVE_CHURN_BOOKS:
+			return new Step(operation, distinct(random, numChurnBooks, 1 + random.nextInt(2)),
+					1 + random.nextInt(3));
+
+		case GET_STOCK_BOOKS_BY_ISBN:
+		case GET_BOOKS:
+		case UPDATE_EDITOR_PICKS:
+			return new Step(operation, distinct(random, numPairs, 1 + random.nextInt(2)), random.nextInt(2));
+
+		case RATE_BOOKS:
+			return new Step(operation, distinct(random, numPairs, 1 + random.nextInt(2)), random.nextInt(6));
+
+		case LIST_BOOKS_PAGE:
+			return new Step(operation, new int[] { random.nextInt(2 * numPairs + numChurnBooks) },
+					1 + random.nextInt(4));
+
+		case GET_CHANGES_SINCE:
+			return new Step(operation, new int[0], random.nextInt(20));
+
+		default:
+			return new Step(operation, new int[0], 1 + random.nextInt(4));
+		}
+	}
+
+	/**
+	 * Draws distinct indexes.
+	 *
+	 * @param random
+	 *            the random generator
+	 * @param bound
+	 *            the bound of the indexes, exclusive
+	 * @param count
+	 *            the number of indexes, capped at the bound
+	 * @return the indexes
+	 */
+	private static int[] distinct(Random random, int bound, int count) {
+		List<Integer> indexes = new ArrayList<>(bound);
+
+		for (int i = 0; i < bound; i++) {
+			indexes.add(i);
+		}
+
+		Collections.shuffle(indexes, random);
+		return indexes.subList(0, Math.min(count, bound)).stream().mapToInt(Integer::intValue).toArray();
+	}
+
+	/**
+	 * Gets the steps of every thread.
+	 *
+	 * @return the steps, by thread
+	 */
+	public List<List<Step>> getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Gets the number of steps of all the threads.
+	 *
+	 * @return the number of steps
+	 */
+	public int size() {
+		return threads.stream().mapToInt(List::size).sum();
+	}
+
+	/**
+	 * Returns the schedule without some consecutive steps of a thread. A
+	 * thread left with no step is dropped.
+	 *
+	 * @param thread
+	 *            the index of the thread
+	 * @param fromStep
+	 *            the index of the first step dropped
+	 * @param toStep
+	 *            the index after the last step dropped
+	 * @return the smaller schedule
+	 */
+	public StressSchedule without(int thread, int fromStep, int toStep) {
+		List<List<Step>> smaller = new ArrayList<>(threads);
+		List<Step> steps = new ArrayList<>(threads.get(thread));
+		steps.subList(fromStep, toStep).clear();
+
+		if (steps.isEmpty()) {
+			smaller.remove(thread);
+		} else {
+			smaller.set(thread, steps);
+		}
+
+		return new StressSchedule(smaller);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+
+		for (int i = 0; i < threads.size(); i++) {
+			builder.append("thread ").append(i).append(':').append(System.lineSeparator());
+
+			for (Step step : threads.get(i)) {
+				builder.append("  ").append(step).append(System.lineSeparator());
+			}
+		}
+
+		return builder.toString();
+	}
+}
@@ -0,0 +1,749 @@
+package com.acertainbookstore.client.workload;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookQuery;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.FaultInjector;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.OptimisticConcurrentCertainBookStore;
+import com.acertainbookstore.business.SingleLockConcurrentCertainBookStore;
+import com.acertainbookstore.business.SingleWriterConcurrentCertainBookStore;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.business.TransactionalConcurrentCertainBookStore;
+import com.acertainbookstore.business.TwoLevelLockingConcurrentCertainBookStore;
+import com.acertainbookstore.client.workload.StressSchedule.Step;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link StressTester} runs random schedules of all the store operations from
+ * many threads against a fresh local store, and checks invariants while they
+ * run and once they end:
+ *
+ * <ul>
+ * <li>no call throws anything but a {@link BookStoreException}, and every
+ * thread finishes in time, so a deadlock or a lost wake-up is caught;</li>
+ * <li>no read sees a negative number of copies, an unknown ISBN or the same
+ * book twice;</li>
+ * <li>every atomic read sees both books of a pair or neither, with the same
+ * number of copies, since the pairs are only bought and restocked two by
+ * two;</li>
+ * <li>at the end, the copies of every pair are the initial ones plus the
+ * copies added minus the copies bought by the calls that returned normally,
+ * or the pairs are gone if the catalog was cleared.</li>
+ * </ul>
+ *
+ * <p>
+ * A failing schedule is shrunk by dropping threads and steps while some of a
+ * number of runs still fail, so the schedule reported is about the smallest
+ * one that reproduces the failure. The parameters of {@link #main(String[])}
+ * are read from the system properties named after the constants below, e.g.
+ * <code>-Dstress.duration=600</code>. Unless faults are set through
+ * {@link BookStoreConstants#PROPERTY_KEY_FAULTS}, the purchases and
+ * restocks are slowed down at random inside their critical sections, so that
+ * the calls overlap often enough to expose races.
+ */
+public class StressTester {
+
+	/** The property listing the stores to run against, comma-separated. */
+	public static final String PROPERTY_KEY_TARGETS = "stress.targets";
+
+	/** The property holding the number of threads. */
+	public static final String PROPERTY_KEY_NUM_THREADS = "stress.threads";
+
+	/** The property holding the number of steps of every thread. */
+	public static final String PROPERTY_KEY_STEPS_PER_THREAD = "stress.steps";
+
+	/** The property holding the duration of the runs of a store in seconds. */
+	public static final String PROPERTY_KEY_DURATION = "stress.duration";
+
+	/** The property holding the number of runs a shrunk schedule gets. */
+	public static final String PROPERTY_KEY_ATTEMPTS = "stress.attempts";
+
+	/** The property holding the seed of the schedules. */
+	public static final String PROPERTY_KEY_SEED = "stress.seed";
+
+	/** The number of pairs of books. */
+	public static final int NUM_PAIRS = 4;
+
+	/** The number of churn books. */
+	public static final int NUM_CHURN_BOOKS = 4;
+
+	/** The ISBN of the first book. */
+	public static final int FIRST_ISBN = 5060000;
+
+	/** The initial number of copies of the paired books. */
+	public static final int INITIAL_COPIES = 20;
+
+	/** The number of copies of the churn books when added. */
+	public static final int CHURN_COPIES = 5;
+
+	/** The delay injected per book into some purchases and restocks. */
+	public static final long DELAY_MILLIS = 1;
+
+	/** The probability of the delay. */
+	public static final double DELAY_PROBABILITY = 0.2;
+
+	/** The default time given to the threads of a run to finish. */
+	public static final long DEFAULT_TIMEOUT_MILLIS = 120000;
+
+	/** The store to run against. */
+	private final WorkloadTarget target;
+
+	/** The time given to the threads of a run to finish. */
+	private final long timeoutMillis;
+
+	/**
+	 * Instantiates a new {@link StressTester}.
+	 *
+	 * @param target
+	 *            the store to run against, a local concurrent one
+	 */
+	public StressTester(WorkloadTarget target) {
+		this(target, DEFAULT_TIMEOUT_MILLIS);
+	}
+
+	/**
+	 * Instantiates a new {@link StressTester}.
+	 *
+	 * @param target
+	 *            the store to run against, a local concurrent one
+	 * @param timeoutMillis
+	 *            the time given to the threads of a run to finish
+	 */
+	public StressTester(WorkloadTarget target, long timeoutMillis) {
+		this.target = target;
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	/**
+	 * Gets the ISBN of a book of a pair.
+	 *
+	 * @param pair
+	 *            the index of the pair
+	 * @param second
+	 *            whether the book is the second of the pair
+	 * @return the ISBN
+	 */
+	public static int pairISBN(int pair, boolean second) {
+		return FIRST_ISBN + 2 * pair + (second ? 1 : 0);
+	}
+
+	/**
+	 * Gets the ISBN of a churn book.
+	 *
+	 * @param churnBook
+	 *            the index of the churn book
+	 * @return the ISBN
+	 */
+	public static int churnISBN(int churnBook) {
+		return FIRST_ISBN + 2 * NUM_PAIRS + churnBook;
+	}
+
+	/**
+	 * Creates a churn book.
+	 *
+	 * @param churnBook
+	 *            the index of the churn book
+	 * @return the book
+	 */
+	private static StockBook churnBook(int churnBook) {
+		return new ImmutableStockBook(churnISBN(churnBook), "Stress churn " + churnBook, "Stress Author", 5,
+				CHURN_COPIES, 0, 0, 0, false);
+	}
+
+	/**
+	 * Runs a schedule against a fresh store and checks the invariants.
+	 *
+	 * @param schedule
+	 *            the schedule
+	 * @return the violations found, empty if the run passed
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the threads
+	 */
+	public List<String> run(StressSchedule schedule) throws InterruptedException {
+		BookStore bookStore;
+		StockManager stockManager;
+		SingleWriterConcurrentCertainBookStore singleWriterStore = null;
+
+		switch (target) {
+		case SINGLE_LOCK:
+			SingleLockConcurrentCertainBookStore singleLockStore = new SingleLockConcurrentCertainBookStore();
+			bookStore = singleLockStore;
+			stockManager = singleLockStore;
+			break;
+
+		case TWO_LEVEL_LOCK:
+			TwoLevelLockingConcurrentCertainBookStore twoLevelLockStore = new TwoLevelLockingConcurrentCertainBookStore();
+			bookStore = twoLevelLockStore;
+			stockManager = twoLevelLockStore;
+			break;
+
+		case OPTIMISTIC:
+			OptimisticConcurrentCertainBookStore optimisticStore = new OptimisticConcurrentCertainBookStore();
+			bookStore = optimisticStore;
+			stockManager = optimisticStore;
+			break;
+
+		case TRANSACTIONAL:
+			TransactionalConcurrentCertainBookStore transactionalStore = new TransactionalConcurrentCertainBookStore();
+			bookStore = transactionalStore;
+			stockManager = transactionalStore;
+			break;
+
+		case SINGLE_WRITER:
+			singleWriterStore = new SingleWriterConcurrentCertainBookStore();
+			bookStore = singleWriterStore;
+			stockManager = singleWriterStore;
+			break;
+
+		default:
+			throw new IllegalArgumentException("Not a local concurrent store: " + target);
+		}
+
+		try {
+			return run(schedule, bookStore, stockManager);
+		} finally {
+			if (singleWriterStore != null) {
+				singleWriterStore.stop();
+			}
+		}
+	}
+
+	/**
+	 * Runs a schedule against a store and checks the invariants.
+	 *
+	 * @param schedule
+	 *            the schedule
+	 * @param bookStore
+	 *            the book store
+	 * @param stockManager
+	 *            the stock manager
+	 * @return the violations found
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the threads
+	 */
+	private List<String> run(StressSchedule schedule, BookStore bookStore, StockManager stockManager)
+			throws InterruptedException {
+		Set<StockBook> books = new HashSet<>();
+
+		for (int i = 0; i < NUM_PAIRS; i++) {
+			for (boolean second : new boolean[] { false, true }) {
+				books.add(new ImmutableStockBook(pairISBN(i, second), "Stress pair " + i, "Stress Author", 10 + i,
+						INITIAL_COPIES, 0, 0, 0, false));
+			}
+		}
+
+		for (int i = 0; i < NUM_CHURN_BOOKS; i++) {
+			books.add(churnBook(i));
+		}
+
+		List<String> violations = new ArrayList<>();
+
+		try {
+			stockManager.addBooks(books);
+		} catch (BookStoreException ex) {
+			violations.add("initial addBooks threw " + ex);
+			return violations;
+		}
+
+		List<List<Step>> threadSteps = schedule.getThreads();
+		int[][] pairDeltas = new int[threadSteps.size()][NUM_PAIRS];
+		AtomicBoolean removedAll = new AtomicBoolean();
+		ConcurrentLinkedQueue<String> runViolations = new ConcurrentLinkedQueue<>();
+		CountDownLatch start = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<>();
+
+		for (int i = 0; i < threadSteps.size(); i++) {
+			int thread = i;
+			Thread worker = new Thread(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException ex) {
+					return;
+				}
+
+				List<Step> steps = threadSteps.get(thread);
+
+				for (int j = 0; j < steps.size(); j++) {
+					String context = "thread " + thread + " step " + j + " (" + steps.get(j) + ")";
+
+					try {
+						execute(steps.get(j), bookStore, stockManager, pairDeltas[thread], removedAll, context,
+								runViolations);
+					} catch (BookStoreException ex) {
+						// Rejected or aborted, without effect.
+					} catch (RuntimeException ex) {
+						runViolations.add(context + " threw " + ex);
+					}
+				}
+			}, "stress-" + thread);
+			worker.setDaemon(true);
+			threads.add(worker);
+		}
+
+		threads.forEach(Thread::start);
+		start.countDown();
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+
+		for (Thread thread : threads) {
+			thread.join(Math.max(1, deadline - System.currentTimeMillis()));
+
+			if (thread.isAlive()) {
+				violations.addAll(runViolations);
+				violations.add(thread.getName() + " did not finish within " + timeoutMillis + " ms");
+				return violations;
+			}
+		}
+
+		violations.addAll(runViolations);
+		checkFinalStock(stockManager, pairDeltas, removedAll.get(), violations);
+		return violations;
+	}
+
+	/**
+	 * Issues a step.
+	 *
+	 * @param step
+	 *            the step
+	 * @param bookStore
+	 *            the book store
+	 * @param stockManager
+	 *            the stock manager
+	 * @param pairDeltas
+	 *            the copies added minus the copies bought of every pair by
+	 *            the thread
+	 * @param removedAll
+	 *            set once the catalog is cleared
+	 * @param context
+	 *            the description of the step in the violations
+	 * @param violations
+	 *            the violations found
+	 * @throws BookStoreException
+	 *             if the store rejects or aborts the step
+	 */
+	private static void execute(Step step, BookStore bookStore, StockManager stockManager, int[] pairDeltas,
+			AtomicBoolean removedAll, String context, Collection<String> violations) throws BookStoreException {
+		int[] targets = step.getTargets();
+		int amount = step.getAmount();
+		Set<BookCopy> bookCopies = new HashSet<>();
+		Set<Integer> isbns = new HashSet<>();
+
+		switch (step.getOperation()) {
+		case BUY_PAIRS:
+		case ADD_PAIR_COPIES:
+			for (int pair : targets) {
+				bookCopies.add(new BookCopy(pairISBN(pair, false), amount));
+				bookCopies.add(new BookCopy(pairISBN(pair, true), amount));
+			}
+
+			boolean buy = step.getOperation() == StressOperation.BUY_PAIRS;
+
+			if (buy) {
+				bookStore.buyBooks(bookCopies);
+			} else {
+				stockManager.addCopies(bookCopies);
+			}
+
+			for (int pair : targets) {
+				pairDeltas[pair] += buy ? -amount : amount;
+			}
+			break;
+
+		case BUY_CHURN:
+		case ADD_CHURN_COPIES:
+			for (int churnBook : targets) {
+				bookCopies.add(new BookCopy(churnISBN(churnBook), amount));
+			}
+
+			if (step.getOperation() == StressOperation.BUY_CHURN) {
+				bookStore.buyBooks(bookCopies);
+			} else {
+				stockManager.addCopies(bookCopies);
+			}
+			break;
+
+		case ADD_CHURN_BOOKS:
+			Set<StockBook> churnBooks = new HashSet<>();
+
+			for (int churnBook : targets) {
+				churnBooks.add(churnBook(churnBook));
+			}
+
+			stockManager.addBooks(churnBooks);
+			break;
+
+		case REMOVE_CHURN_BOOKS:
+			for (int churnBook : targets) {
+				isbns.add(churnISBN(churnBook));
+			}
+
+			stockManager.removeBooks(isbns);
+			break;
+
+		case REMOVE_ALL_BOOKS:
+			stockManager.removeAllBooks();
+			removedAll.set(true);
+			break;
+
+		case LIST_BOOKS:
+			checkBooks(stockManager.getBooks(), true, context, violations);
+			break;
+
+		case LIST_BOOKS_PAGE:
+			List<StockBook> page = stockManager.getBooks(FIRST_ISBN - 1 + targets[0], amount);
+			checkBooks(page, false, context, violations);
+
+			if (page.size() > amount) {
+				violations.add(context + " listed " + page.size() + " books");
+			}
+			break;
+
+		case GET_STOCK_BOOKS_BY_ISBN:
+			for (int pair : targets) {
+				isbns.add(pairISBN(pair, false));
+				isbns.add(pairISBN(pair, true));
+			}
+
+			List<StockBook> stockBooks = stockManager.getBooksByISBN(isbns);
+			checkBooks(stockBooks, true, context, violations);
+			checkISBNs(stockBooks, isbns, context, violations);
+			break;
+
+		case GET_BOOKS:
+			for (int pair : targets) {
+				isbns.add(pairISBN(pair, amount == 1));
+			}
+
+			checkISBNs(bookStore.getBooks(isbns), isbns, context, violations);
+			break;
+
+		case RATE_BOOKS:
+			Set<BookRating> ratings = new HashSet<>();
+
+			for (int pair : targets) {
+				ratings.add(new BookRating(pairISBN(pair, false), amount));
+			}
+
+			bookStore.rateBooks(ratings);
+			break;
+
+		case GET_TOP_RATED_BOOKS:
+			checkBooks(bookStore.getTopRatedBooks(amount), false, context, violations);
+			break;
+
+		case UPDATE_EDITOR_PICKS:
+			Set<BookEditorPick> editorPicks = new HashSet<>();
+
+			for (int pair : targets) {
+				editorPicks.add(new BookEditorPick(pairISBN(pair, false), amount == 1));
+			}
+
+			stockManager.updateEditorPicks(editorPicks);
+			break;
+
+		case GET_EDITOR_PICKS:
+			checkBooks(bookStore.getEditorPicks(amount), false, context, violations);
+			break;
+
+		case GET_BOOKS_IN_DEMAND:
+			checkBooks(stockManager.getBooksInDemand(), false, context, violations);
+			break;
+
+		case SEARCH_BOOKS:
+			checkBooks(bookStore.searchBooks("Stress", 0, amount), false, context, violations);
+			break;
+
+		case QUERY_BOOKS:
+			checkBooks(stockManager.queryBooks(new BookQuery(0, Float.MAX_VALUE, null, amount % 2 == 0, false, -1,
+					amount)), false, context, violations);
+			break;
+
+		case GET_CHANGES_SINCE:
+			checkBooks(stockManager.getChangesSince(amount).getBooks(), false, context, violations);
+			break;
+
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Checks that books read are known, distinct and, for stock books, have
+	 * no negative number of copies, and optionally that the pairs are whole.
+	 *
+	 * @param books
+	 *            the books read
+	 * @param atomic
+	 *            whether the read is atomic, so that it sees both books of a
+	 *            pair or neither, with the same number of copies
+	 * @param context
+	 *            the description of the read in the violations
+	 * @param violations
+	 *            the violations found
+	 */
+	private static void checkBooks(List<? extends Book> books, boolean atomic, String context,
+			Collection<String> violations) {
+		Map<Integer, Book> byISBN = new HashMap<>();
+
+		for (Book book : books) {
+			int isbn = book.getISBN();
+
+			if (isbn < FIRST_ISBN || isbn >= churnISBN(NUM_CHURN_BOOKS)) {
+				violations.add(context + " read the unknown ISBN " + isbn);
+			}
+
+			if (byISBN.put(isbn, book) != null) {
+				violations.add(context + " read the ISBN " + isbn + " twice");
+			}
+
+			if (book instanceof StockBook && ((StockBook) book).getNumCopies() < 0) {
+				violations.add(context + " read " + ((StockBook) book).getNumCopies() + " copies of " + isbn);
+			}
+		}
+
+		if (!atomic) {
+			return;
+		}
+
+		for (int i = 0; i < NUM_PAIRS; i++) {
+			StockBook first = (StockBook) byISBN.get(pairISBN(i, false));
+			StockBook second = (StockBook) byISBN.get(pairISBN(i, true));
+
+			if ((first == null) != (second == null)) {
+				violations.add(context + " read half of pair " + i);
+			} else if (first != null && first.getNumCopies() != second.getNumCopies()) {
+				violations.add(context + " read pair " + i + " with " + first.getNumCopies() + " and "
+						+ second.getNumCopies() + " copies");
+			}
+		}
+	}
+
+	/**
+	 * Checks that a lookup by ISBN returned exactly the books asked for.
+	 *
+	 * @param books
+	 *            the books returned
+	 * @param isbns
+	 *            the ISBNs asked for
+	 * @param context
+	 *            the description of the lookup in the violations
+	 * @param violations
+	 *            the violations found
+	 */
+	private static void checkISBNs(List<? extends Book> books, Set<Integer> isbns, String context,
+			Collection<String> violations) {
+		Set<Integer> returned = new HashSet<>();
+
+		for (Book book : books) {
+			returned.add(book.getISBN());
+		}
+
+		if (books.size() != isbns.size() || !returned.equals(isbns)) {
+			violations.add(context + " asked for " + isbns + " but got " + returned);
+		}
+	}
+
+	/**
+	 * Checks the stock once all the threads ended.
+	 *
+	 * @param stockManager
+	 *            the stock manager
+	 * @param pairDeltas
+	 *            the copies added minus the copies bought of every pair, by
+	 *            thread
+	 * @param removedAll
+	 *            whether the catalog was cleared
+	 * @param violations
+	 *            the violations found
+	 */
+	private static void checkFinalStock(StockManager stockManager, int[][] pairDeltas, boolean removedAll,
+			List<String> violations) {
+		List<StockBook> books;
+
+		try {
+			books = stockManager.getBooks();
+		} catch (BookStoreException ex) {
+			violations.add("final listing threw " + ex);
+			return;
+		}
+
+		checkBooks(books, true, "final listing", violations);
+		Map<Integer, StockBook> byISBN = new HashMap<>();
+
+		for (StockBook book : books) {
+			byISBN.put(book.getISBN(), book);
+		}
+
+		for (int i = 0; i < NUM_PAIRS; i++) {
+			int expected = INITIAL_COPIES;
+
+			for (int[] threadDeltas : pairDeltas) {
+				expected += threadDeltas[i];
+			}
+
+			for (boolean second : new boolean[] { false, true }) {
+				StockBook book = byISBN.get(pairISBN(i, second));
+
+				if (removedAll) {
+					if (book != null) {
+						violations.add("final listing still has " + book.getISBN() + " after removeAllBooks");
+					}
+				} else if (book == null) {
+					violations.add("final listing lost " + pairISBN(i, second));
+				} else if (book.getNumCopies() != expected) {
+					violations.add("final listing has " + book.getNumCopies() + " copies of " + book.getISBN()
+							+ " instead of " + expected);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks if a schedule fails in at least one of a number of runs.
+	 *
+	 * @param schedule
+	 *            the schedule
+	 * @param attempts
+	 *            the number of runs
+	 * @return the violations of the first failing run, or null if all passed
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the threads
+	 */
+	public List<String> reproduce(StressSchedule schedule, int attempts) throws InterruptedException {
+		for (int i = 0; i < attempts; i++) {
+			List<String> violations = run(schedule);
+
+			if (!violations.isEmpty()) {
+				return violations;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Shrinks a failing schedule by dropping threads, then halves, quarters
+	 * and so on down to single steps of every thread, as long as the smaller
+	 * schedule still fails in one of a number of runs.
+	 *
+	 * @param schedule
+	 *            the failing schedule
+	 * @param attempts
+	 *            the number of runs a smaller schedule gets to fail
+	 * @return the smallest failing schedule found
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the threads
+	 */
+	public StressSchedule shrink(StressSchedule schedule, int attempts) throws InterruptedException {
+		boolean shrunk = true;
+
+		while (shrunk) {
+			shrunk = false;
+
+			for (int thread = schedule.getThreads().size() - 1; thread >= 0; thread--) {
+				for (int chunk = schedule.getThreads().get(thread).size(); chunk >= 1; chunk /= 2) {
+					int from = 0;
+
+					// A dropped thread leaves the index on a thread already
+					// shrunk, or past the last one.
+					while (thread < schedule.getThreads().size() && from < schedule.getThreads().get(thread).size()) {
+						int to = Math.min(from + chunk, schedule.getThreads().get(thread).size());
+						StressSchedule candidate = schedule.without(thread, from, to);
+
+						if (reproduce(candidate, attempts) != null) {
+							schedule = candidate;
+							shrunk = true;
+						} else {
+							from += chunk;
+						}
+					}
+				}
+			}
+		}
+
+		return schedule;
+	}
+
+	/**
+	 * Runs random schedules against every store for a while, and prints the
+	 * smallest failing schedule of every store that failed.
+	 *
+	 * @param args
+	 *            the arguments, unused
+	 * @throws Exception
+	 *             the exception
+	 */
+	public static void main(String[] args) throws Exception {
+		String targets = System.getProperty(PROPERTY_KEY_TARGETS,
+				"SINGLE_LOCK,TWO_LEVEL_LOCK,OPTIMISTIC,TRANSACTIONAL,SINGLE_WRITER");
+		int numThreads = Integer.getInteger(PROPERTY_KEY_NUM_THREADS, 8);
+		int stepsPerThread = Integer.getInteger(PROPERTY_KEY_STEPS_PER_THREAD, 200);
+		int durationSeconds = Integer.getInteger(PROPERTY_KEY_DURATION, 60);
+		int attempts = Integer.getInteger(PROPERTY_KEY_ATTEMPTS, 20);
+		long seed = Long.getLong(PROPERTY_KEY_SEED, System.nanoTime());
+		boolean failed = false;
+
+		if (System.getProperty(BookStoreConstants.PROPERTY_KEY_FAULTS) == null) {
+			FaultInjector.BUY_BOOKS_BOOK.delay(DELAY_MILLIS, DELAY_PROBABILITY);
+			FaultInjector.ADD_COPIES_BOOK.delay(DELAY_MILLIS, DELAY_PROBABILITY);
+		}
+
+		for (String name : targets.split(",")) {
+			WorkloadTarget target = WorkloadTarget.valueOf(name.trim().toUpperCase());
+			StressTester tester = new StressTester(target);
+			long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(durationSeconds);
+			int runs = 0;
+
+			System.out.printf("%n%s, %d threads, %d steps per thread, seed %d%n", target, numThreads,
+					stepsPerThread, seed);
+
+			while (System.currentTimeMillis() < deadline) {
+				long runSeed = seed + runs++;
+				StressSchedule schedule = StressSchedule.generate(new Random(runSeed), numThreads, stepsPerThread,
+						NUM_PAIRS, NUM_CHURN_BOOKS);
+				List<String> violations = tester.run(schedule);
+
+				if (!violations.isEmpty()) {
+					failed = true;
+					System.out.printf("run %d (seed %d) failed:%n", runs, runSeed);
+					violations.forEach(violation -> System.out.println("  " + violation));
+
+					StressSchedule minimal = tester.shrink(schedule, attempts);
+					List<String> minimalViolations = tester.reproduce(minimal, attempts);
+					System.out.printf("smallest failing schedule, %d steps:%n%s", minimal.size(), minimal);
+
+					if (minimalViolations != null) {
+						minimalViolations.forEach(violation -> System.out.println("  " + violation));
+					} else {
+						System.out.printf("  (passed %d more runs)%n", attempts);
+					}
+					break;
+				}
+			}
+
+			System.out.printf("%d runs%n", runs);
+		}
+
+		if (failed) {
+			System.exit(1);
+		}
+	}
+}
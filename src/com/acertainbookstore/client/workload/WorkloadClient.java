@@ -0,0 +1,230 @@
+package com.acertainbookstore.client.workload;
+
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link WorkloadClient} is one simulated customer or manager of the
+ * {@link WorkloadDriver}. It draws operations from the configured mix and ISBNs
+ * from the Zipfian popularity distribution, and records the outcome of every
+ * operation in its own {@link OperationStatistics}.
+ */
+public class WorkloadClient {
+
+	/** The number of copies added by a restock. */
+	private static final int NUM_COPIES_PER_RESTOCK = 10;
+
+	/** The configuration. */
+	private final WorkloadConfiguration configuration;
+
+	/** The book store. */
+	private final BookStore bookStore;
+
+	/** The stock manager. */
+	private final StockManager stockManager;
+
+	/** The ISBN popularity distribution, shared by all clients. */
+	private final ZipfianGenerator popularity;
+
+	/** The source of randomness of this client. */
+	private final Random random;
+
+	/** The operations, in the order of cumulativeWeights. */
+	private final WorkloadOperation[] operations = WorkloadOperation.values();
+
+	/** The cumulative weights of the operations. */
+	private final int[] cumulativeWeights = new int[operations.length];
+
+	/** The statistics of every operation. */
+	private final Map<WorkloadOperation, OperationStatistics> statistics = new EnumMap<>(WorkloadOperation.class);
+
+	/**
+	 * Instantiates a new {@link WorkloadClient}.
+	 *
+	 * @param configuration
+	 *            the configuration
+	 * @param bookStore
+	 *            the book store
+	 * @param stockManager
+	 *            the stock manager
+	 * @param popularity
+	 *            the ISBN popularity distribution
+	 * @param seed
+	 *            the seed of the client
+	 */
+	public WorkloadClient(WorkloadConfiguration configuration, BookStore bookStore, StockManager stockManager,
+			ZipfianGenerator popularity, long seed) {
+		this.configuration = configuration;
+		this.bookStore = bookStore;
+		this.stockManager = stockManager;
+		this.popularity = popularity;
+		this.random = new Random(seed);
+		int sum = 0;
+
+		for (int i = 0; i < operations.length; i++) {
+			sum += configuration.getWeight(operations[i]);
+			cumulativeWeights[i] = sum;
+			statistics.put(operations[i], new OperationStatistics());
+		}
+
+		if (sum <= 0) {
+			throw new IllegalArgumentException("The operation mix must have a positive weight");
+		}
+	}
+
+	/**
+	 * Draws the next operation from the mix.
+	 *
+	 * @return the operation
+	 */
+	public WorkloadOperation nextOperation() {
+		int draw = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+
+		for (int i = 0;; i++) {
+			if (draw < cumulativeWeights[i]) {
+				return operations[i];
+			}
+		}
+	}
+
+	/**
+	 * Draws a think time from an exponential distribution with the configured
+	 * mean.
+	 *
+	 * @return the think time in milliseconds
+	 */
+	public long nextThinkTimeMillis() {
+		double mean = configuration.getThinkTimeMillis();
+		return (mean <= 0) ? 0 : Math.round(-mean * Math.log(1 - random.nextDouble()));
+	}
+
+	/**
+	 * Executes an operation.
+	 *
+	 * @param operation
+	 *            the operation
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public void execute(WorkloadOperation operation) throws BookStoreException {
+		switch (operation) {
+		case BUY_BOOKS:
+			bookStore.buyBooks(toCopies(nextIsbns(), 1));
+			break;
+
+		case GET_BOOKS:
+			bookStore.getBooks(nextIsbns());
+			break;
+
+		case GET_EDITOR_PICKS:
+			bookStore.getEditorPicks(configuration.getBooksPerOperation());
+			break;
+
+		case ADD_COPIES:
+			stockManager.addCopies(toCopies(nextIsbns(), NUM_COPIES_PER_RESTOCK));
+			break;
+
+		case LIST_BOOKS:
+			stockManager.getBooks();
+			break;
+
+		case GET_STOCK_BOOKS_BY_ISBN:
+			stockManager.getBooksByISBN(nextIsbns());
+			break;
+
+		case UPDATE_EDITOR_PICKS:
+			Set<BookEditorPick> editorPicks = new HashSet<>();
+
+			for (int isbn : nextIsbns()) {
+				editorPicks.add(new BookEditorPick(isbn, random.nextBoolean()));
+			}
+
+			stockManager.updateEditorPicks(editorPicks);
+			break;
+
+		default:
+			throw new IllegalArgumentException("Unknown operation: " + operation);
+		}
+	}
+
+	/**
+	 * Executes an operation and records its outcome.
+	 *
+	 * @param operation
+	 *            the operation
+	 * @param startNanos
+	 *            the time the operation is considered started at, which in the
+	 *            open loop model is its intended start time
+	 * @param measured
+	 *            whether the operation counts towards the statistics
+	 */
+	public void executeAndRecord(WorkloadOperation operation, long startNanos, boolean measured) {
+		boolean succeeded = true;
+
+		try {
+			execute(operation);
+		} catch (BookStoreException ex) {
+			succeeded = false;
+		}
+
+		if (measured) {
+			statistics.get(operation).record(System.nanoTime() - startNanos, succeeded);
+		}
+	}
+
+	/**
+	 * Gets the statistics of an operation.
+	 *
+	 * @param operation
+	 *            the operation
+	 * @return the statistics
+	 */
+	public OperationStatistics getStatistics(WorkloadOperation operation) {
+		return statistics.get(operation);
+	}
+
+	/**
+	 * Draws the ISBNs touched by an operation from the popularity
+	 * distribution. Popular ISBNs may be drawn more than once, so the set can
+	 * be smaller than the configured number of books per operation.
+	 *
+	 * @return the ISBNs
+	 */
+	private Set<Integer> nextIsbns() {
+		Set<Integer> isbns = new HashSet<>();
+
+		for (int i = 0; i < configuration.getBooksPerOperation(); i++) {
+			isbns.add(WorkloadDriver.FIRST_ISBN + popularity.next(random));
+		}
+
+		return isbns;
+	}
+
+	/**
+	 * Converts ISBNs to book copies.
+	 *
+	 * @param isbns
+	 *            the ISBNs
+	 * @param numCopies
+	 *            the number of copies of every ISBN
+	 * @return the book copies
+	 */
+	private static Set<BookCopy> toCopies(Set<Integer> isbns, int numCopies) {
+		Set<BookCopy> copies = new HashSet<>();
+
+		for (int isbn : isbns) {
+			copies.add(new BookCopy(isbn, numCopies));
+		}
+
+		return copies;
+	}
+}
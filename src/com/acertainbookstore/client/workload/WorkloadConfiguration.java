@@ -0,0 +1,406 @@
+package com.acertainbookstore.client.workload;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * {@link WorkloadConfiguration} holds the parameters of a run of the
+ * {@link WorkloadDriver}. Every parameter can be set through a system property
+ * named after the constants below, e.g. <code>-Dworkload.clients=16</code>,
+ * and the weight of an operation through <code>-Dworkload.mix.BUY_BOOKS=10</code>.
+ */
+public class WorkloadConfiguration {
+
+	/** The property prefix of the operation weights. */
+	public static final String PROPERTY_KEY_MIX_PREFIX = "workload.mix.";
+
+	/** The property naming the store to run against. */
+	public static final String PROPERTY_KEY_TARGET = "workload.target";
+
+	/** The property holding the server address of the HTTP targets. */
+	public static final String PROPERTY_KEY_SERVER_ADDRESS = "workload.server";
+
+	/** The property holding the number of clients. */
+	public static final String PROPERTY_KEY_NUM_CLIENTS = "workload.clients";
+
+	/** The property holding the number of books in the catalog. */
+	public static final String PROPERTY_KEY_NUM_BOOKS = "workload.books";
+
+	/** The property holding the number of books touched by an operation. */
+	public static final String PROPERTY_KEY_BOOKS_PER_OPERATION = "workload.booksperoperation";
+
+	/** The property holding the Zipfian exponent of the ISBN popularity. */
+	public static final String PROPERTY_KEY_ZIPF_EXPONENT = "workload.zipf";
+
+	/** The property holding the mean think time in milliseconds. */
+	public static final String PROPERTY_KEY_THINK_TIME = "workload.thinktime";
+
+	/** The property selecting the open loop model. */
+	public static final String PROPERTY_KEY_OPEN_LOOP = "workload.openloop";
+
+	/** The property holding the arrival rate of the open loop model. */
+	public static final String PROPERTY_KEY_ARRIVAL_RATE = "workload.rate";
+
+	/** The property holding the warm-up duration in seconds. */
+	public static final String PROPERTY_KEY_WARMUP = "workload.warmup";
+
+	/** The property holding the measured duration in seconds. */
+	public static final String PROPERTY_KEY_DURATION = "workload.duration";
+
+	/** The property holding the seed of the random generators. */
+	public static final String PROPERTY_KEY_SEED = "workload.seed";
+
+	/** The store to run against. */
+	private WorkloadTarget target = WorkloadTarget.SINGLE_LOCK;
+
+	/** The server address of the HTTP targets. */
+	private String serverAddress = "http://localhost:8081";
+
+	/** The number of clients. */
+	private int numClients = 8;
+
+	/** The number of books in the catalog. */
+	private int numBooks = 1000;
+
+	/** The number of books touched by an operation. */
+	private int booksPerOperation = 3;
+
+	/** The Zipfian exponent of the ISBN popularity. */
+	private double zipfExponent = 0.99;
+
+	/** The mean think time in milliseconds, drawn exponentially. */
+	private double thinkTimeMillis = 0;
+
+	/** Whether the clients follow the open loop model. */
+	private boolean openLoop = false;
+
+	/** The arrival rate of the open loop model, in operations per second. */
+	private double arrivalRate = 1000;
+
+	/** The warm-up duration in seconds. */
+	private int warmupSeconds = 5;
+
+	/** The measured duration in seconds. */
+	private int durationSeconds = 30;
+
+	/** The seed of the random generators. */
+	private long seed = 42;
+
+	/** The relative weights of the operations. */
+	private final Map<WorkloadOperation, Integer> weights = new EnumMap<>(WorkloadOperation.class);
+
+	/**
+	 * Instantiates a new {@link WorkloadConfiguration} with a mix dominated by
+	 * customer interactions.
+	 */
+	public WorkloadConfiguration() {
+		weights.put(WorkloadOperation.BUY_BOOKS, 30);
+		weights.put(WorkloadOperation.GET_BOOKS, 40);
+		weights.put(WorkloadOperation.GET_EDITOR_PICKS, 15);
+		weights.put(WorkloadOperation.ADD_COPIES, 6);
+		weights.put(WorkloadOperation.LIST_BOOKS, 2);
+		weights.put(WorkloadOperation.GET_STOCK_BOOKS_BY_ISBN, 5);
+		weights.put(WorkloadOperation.UPDATE_EDITOR_PICKS, 2);
+	}
+
+	/**
+	 * Creates a {@link WorkloadConfiguration} from the system properties,
+	 * keeping the default of every parameter that is not set.
+	 *
+	 * @return the configuration
+	 */
+	public static WorkloadConfiguration fromSystemProperties() {
+		WorkloadConfiguration configuration = new WorkloadConfiguration();
+		String target = System.getProperty(PROPERTY_KEY_TARGET);
+
+		if (target != null) {
+			configuration.setTarget(WorkloadTarget.valueOf(target.toUpperCase()));
+		}
+
+		configuration.setServerAddress(System.getProperty(PROPERTY_KEY_SERVER_ADDRESS, configuration.serverAddress));
+		configuration.setNumClients(Integer.getInteger(PROPERTY_KEY_NUM_CLIENTS, configuration.numClients));
+		configuration.setNumBooks(Integer.getInteger(PROPERTY_KEY_NUM_BOOKS, configuration.numBooks));
+		configuration.setBooksPerOperation(
+				Integer.getInteger(PROPERTY_KEY_BOOKS_PER_OPERATION, configuration.booksPerOperation));
+		configuration.setZipfExponent(getDouble(PROPERTY_KEY_ZIPF_EXPONENT, configuration.zipfExponent));
+		configuration.setThinkTimeMillis(getDouble(PROPERTY_KEY_THINK_TIME, configuration.thinkTimeMillis));
+		configuration.setOpenLoop(Boolean.parseBoolean(
+				System.getProperty(PROPERTY_KEY_OPEN_LOOP, Boolean.toString(configuration.openLoop))));
+		configuration.setArrivalRate(getDouble(PROPERTY_KEY_ARRIVAL_RATE, configuration.arrivalRate));
+		configuration.setWarmupSeconds(Integer.getInteger(PROPERTY_KEY_WARMUP, configuration.warmupSeconds));
+		configuration.setDurationSeconds(Integer.getInteger(PROPERTY_KEY_DURATION, configuration.durationSeconds));
+		configuration.setSeed(Long.getLong(PROPERTY_KEY_SEED, configuration.seed));
+
+		for (WorkloadOperation operation : WorkloadOperation.values()) {
+			configuration.setWeight(operation,
+					Integer.getInteger(PROPERTY_KEY_MIX_PREFIX + operation.name(), configuration.getWeight(operation)));
+		}
+
+		return configuration;
+	}
+
+	/**
+	 * Gets a system property as a double.
+	 *
+	 * @param key
+	 *            the property
+	 * @param defaultValue
+	 *            the value used when the property is not set
+	 * @return the value
+	 */
+	private static double getDouble(String key, double defaultValue) {
+		String value = System.getProperty(key);
+		return (value == null) ? defaultValue : Double.parseDouble(value);
+	}
+
+	/**
+	 * Gets the target.
+	 *
+	 * @return the target
+	 */
+	public WorkloadTarget getTarget() {
+		return target;
+	}
+
+	/**
+	 * Sets the target.
+	 *
+	 * @param target
+	 *            the new target
+	 */
+	public void setTarget(WorkloadTarget target) {
+		this.target = target;
+	}
+
+	/**
+	 * Gets the server address.
+	 *
+	 * @return the server address
+	 */
+	public String getServerAddress() {
+		return serverAddress;
+	}
+
+	/**
+	 * Sets the server address.
+	 *
+	 * @param serverAddress
+	 *            the new server address
+	 */
+	public void setServerAddress(String serverAddress) {
+		this.serverAddress = serverAddress;
+	}
+
+	/**
+	 * Gets the number of clients.
+	 *
+	 * @return the number of clients
+	 */
+	public int getNumClients() {
+		return numClients;
+	}
+
+	/**
+	 * Sets the number of clients.
+	 *
+	 * @param numClients
+	 *            the new number of clients
+	 */
+	public void setNumClients(int numClients) {
+		this.numClients = numClients;
+	}
+
+	/**
+	 * Gets the number of books.
+	 *
+	 * @return the number of books
+	 */
+	public int getNumBooks() {
+		return numBooks;
+	}
+
+	/**
+	 * Sets the number of books.
+	 *
+	 * @param numBooks
+	 *            the new number of books
+	 */
+	public void setNumBooks(int numBooks) {
+		this.numBooks = numBooks;
+	}
+
+	/**
+	 * Gets the number of books per operation.
+	 *
+	 * @return the number of books per operation
+	 */
+	public int getBooksPerOperation() {
+		return booksPerOperation;
+	}
+
+	/**
+	 * Sets the number of books per operation.
+	 *
+	 * @param booksPerOperation
+	 *            the new number of books per operation
+	 */
+	public void setBooksPerOperation(int booksPerOperation) {
+		this.booksPerOperation = booksPerOperation;
+	}
+
+	/**
+	 * Gets the Zipfian exponent.
+	 *
+	 * @return the Zipfian exponent
+	 */
+	public double getZipfExponent() {
+		return zipfExponent;
+	}
+
+	/**
+	 * Sets the Zipfian exponent.
+	 *
+	 * @param zipfExponent
+	 *            the new Zipfian exponent
+	 */
+	public void setZipfExponent(double zipfExponent) {
+		this.zipfExponent = zipfExponent;
+	}
+
+	/**
+	 * Gets the mean think time in milliseconds.
+	 *
+	 * @return the mean think time
+	 */
+	public double getThinkTimeMillis() {
+		return thinkTimeMillis;
+	}
+
+	/**
+	 * Sets the mean think time in milliseconds.
+	 *
+	 * @param thinkTimeMillis
+	 *            the new mean think time
+	 */
+	public void setThinkTimeMillis(double thinkTimeMillis) {
+		this.thinkTimeMillis = thinkTimeMillis;
+	}
+
+	/**
+	 * Checks if the clients follow the open loop model.
+	 *
+	 * @return true, if the clients follow the open loop model
+	 */
+	public boolean isOpenLoop() {
+		return openLoop;
+	}
+
+	/**
+	 * Sets whether the clients follow the open loop model.
+	 *
+	 * @param openLoop
+	 *            whether the clients follow the open loop model
+	 */
+	public void setOpenLoop(boolean openLoop) {
+		this.openLoop = openLoop;
+	}
+
+	/**
+	 * Gets the arrival rate.
+	 *
+	 * @return the arrival rate
+	 */
+	public double getArrivalRate() {
+		return arrivalRate;
+	}
+
+	/**
+	 * Sets the arrival rate.
+	 *
+	 * @param arrivalRate
+	 *            the new arrival rate
+	 */
+	public void setArrivalRate(double arrivalRate) {
+		this.arrivalRate = arrivalRate;
+	}
+
+	/**
+	 * Gets the warm-up duration in seconds.
+	 *
+	 * @return the warm-up duration
+	 */
+	public int getWarmupSeconds() {
+		return warmupSeconds;
+	}
+
+	/**
+	 * Sets the warm-up duration in seconds.
+	 *
+	 * @param warmupSeconds
+	 *            the new warm-up duration
+	 */
+	public void setWarmupSeconds(int warmupSeconds) {
+		this.warmupSeconds = warmupSeconds;
+	}
+
+	/**
+	 * Gets the measured duration in seconds.
+	 *
+	 * @return the measured duration
+	 */
+	public int getDurationSeconds() {
+		return durationSeconds;
+	}
+
+	/**
+	 * Sets the measured duration in seconds.
+	 *
+	 * @param durationSeconds
+	 *            the new measured duration
+	 */
+	public void setDurationSeconds(int durationSeconds) {
+		this.durationSeconds = durationSeconds;
+	}
+
+	/**
+	 * Gets the seed.
+	 *
+	 * @return the seed
+	 */
+	public long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * Sets the seed.
+	 *
+	 * @param seed
+	 *            the new seed
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * Gets the weight of an operation.
+	 *
+	 * @param operation
+	 *            the operation
+	 * @return the weight
+	 */
+	public int getWeight(WorkloadOperation operation) {
+		return weights.getOrDefault(operation, 0);
+	}
+
+	/**
+	 * Sets the weight of an operation.
+	 *
+	 * @param operation
+	 *            the operation
+	 * @param weight
+	 *            the new weight
+	 */
+	public void setWeight(WorkloadOperation operation, int weight) {
+		weights.put(operation, weight);
+	}
+}
@@ -0,0 +1,370 @@
+package com.acertainbookstore.client.workload;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.OptimisticConcurrentCertainBookStore;
+import com.acertainbookstore.business.SerialCertainBookStore;
+import com.acertainbookstore.business.SingleLockConcurrentCertainBookStore;
+import com.acertainbookstore.business.SingleWriterConcurrentCertainBookStore;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.business.TransactionalConcurrentCertainBookStore;
+import com.acertainbookstore.business.TwoLevelLockingConcurrentCertainBookStore;
+import com.acertainbookstore.client.BookStoreHTTPProxy;
+import com.acertainbookstore.client.StockManagerHTTPProxy;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link WorkloadDriver} generates load against a store and reports the
+ * throughput and latency percentiles of every {@link WorkloadOperation}.
+ *
+ * <p>
+ * In the closed loop model every client issues an operation, waits for it to
+ * complete, thinks, and issues the next one, so the offered load adapts to the
+ * store. In the open loop model operations arrive following a Poisson process
+ * at the configured rate regardless of how fast the store answers, and are
+ * executed by a pool of clients; latencies are measured from the intended
+ * arrival time, so time spent queueing behind a slow store is included.
+ *
+ * <p>
+ * Run it with e.g.
+ * <code>java -Dworkload.target=HTTP -Dworkload.clients=16 com.acertainbookstore.client.workload.WorkloadDriver</code>;
+ * see {@link WorkloadConfiguration} for the available properties.
+ */
+public class WorkloadDriver {
+
+	/** The ISBN of the most popular book of the catalog. */
+	public static final int FIRST_ISBN = 1;
+
+	/** The number of copies of every book when the catalog is created. */
+	private static final int INITIAL_NUM_COPIES = 100;
+
+	/** The configuration. */
+	private final WorkloadConfiguration configuration;
+
+	/** The book store. */
+	private final BookStore bookStore;
+
+	/** The stock manager. */
+	private final StockManager stockManager;
+
+	/** The ISBN popularity distribution. */
+	private final ZipfianGenerator popularity;
+
+	/** The clients of the run. */
+	private final List<WorkloadClient> clients = new ArrayList<>();
+
+	/**
+	 * Instantiates a new {@link WorkloadDriver}.
+	 *
+	 * @param configuration
+	 *            the configuration
+	 * @param bookStore
+	 *            the book store
+	 * @param stockManager
+	 *            the stock manager
+	 */
+	public WorkloadDriver(WorkloadConfiguration configuration, BookStore bookStore, StockManager stockManager) {
+		this.configuration = configuration;
+		this.bookStore = bookStore;
+		this.stockManager = stockManager;
+		this.popularity = new ZipfianGenerator(configuration.getNumBooks(), configuration.getZipfExponent());
+	}
+
+	/**
+	 * Replaces the catalog of the store with the books the workload draws
+	 * from.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public void initializeCatalog() throws BookStoreException {
+		stockManager.removeAllBooks();
+		Set<StockBook> books = new HashSet<>();
+
+		for (int i = 0; i < configuration.getNumBooks(); i++) {
+			int isbn = FIRST_ISBN + i;
+			books.add(new ImmutableStockBook(isbn, "Book " + isbn, "Author " + (isbn % 100), (float) (5 + isbn % 50),
+					INITIAL_NUM_COPIES, 0, 0, 0, false));
+		}
+
+		stockManager.addBooks(books);
+	}
+
+	/**
+	 * Runs the workload: a warm-up period that is not measured, followed by
+	 * the measured period.
+	 *
+	 * @return the statistics of every operation over the measured period
+	 * @throws InterruptedException
+	 *             the interrupted exception
+	 */
+	public Map<WorkloadOperation, OperationStatistics> run() throws InterruptedException {
+		long startNanos = System.nanoTime();
+		long measureStartNanos = startNanos + TimeUnit.SECONDS.toNanos(configuration.getWarmupSeconds());
+		long endNanos = measureStartNanos + TimeUnit.SECONDS.toNanos(configuration.getDurationSeconds());
+
+		if (configuration.isOpenLoop()) {
+			runOpenLoop(startNanos, measureStartNanos, endNanos);
+		} else {
+			runClosedLoop(measureStartNanos, endNanos);
+		}
+
+		Map<WorkloadOperation, OperationStatistics> statistics = new EnumMap<>(WorkloadOperation.class);
+
+		for (WorkloadOperation operation : WorkloadOperation.values()) {
+			OperationStatistics merged = new OperationStatistics();
+
+			for (WorkloadClient client : clients) {
+				merged.merge(client.getStatistics(operation));
+			}
+
+			statistics.put(operation, merged);
+		}
+
+		return statistics;
+	}
+
+	/**
+	 * Runs the workload in the closed loop model.
+	 *
+	 * @param measureStartNanos
+	 *            the start of the measured period
+	 * @param endNanos
+	 *            the end of the run
+	 * @throws InterruptedException
+	 *             the interrupted exception
+	 */
+	private void runClosedLoop(long measureStartNanos, long endNanos) throws InterruptedException {
+		List<Thread> threads = new ArrayList<>();
+
+		for (int i = 0; i < getNumClients(); i++) {
+			WorkloadClient client = newClient(i);
+
+			threads.add(new Thread(() -> {
+				while (System.nanoTime() < endNanos) {
+					long thinkTimeMillis = client.nextThinkTimeMillis();
+
+					if (thinkTimeMillis > 0) {
+						LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(thinkTimeMillis));
+					}
+
+					long operationStartNanos = System.nanoTime();
+					client.executeAndRecord(client.nextOperation(), operationStartNanos,
+							operationStartNanos >= measureStartNanos && operationStartNanos < endNanos);
+				}
+			}));
+		}
+
+		threads.forEach(Thread::start);
+
+		for (Thread thread : threads) {
+			thread.join();
+		}
+	}
+
+	/**
+	 * Runs the workload in the open loop model.
+	 *
+	 * @param startNanos
+	 *            the start of the run
+	 * @param measureStartNanos
+	 *            the start of the measured period
+	 * @param endNanos
+	 *            the end of the run
+	 * @throws InterruptedException
+	 *             the interrupted exception
+	 */
+	private void runOpenLoop(long startNanos, long measureStartNanos, long endNanos) throws InterruptedException {
+		AtomicInteger nextClient = new AtomicInteger(0);
+		ThreadLocal<WorkloadClient> threadClient = ThreadLocal.withInitial(() -> newClient(nextClient.getAndIncrement()));
+		ExecutorService pool = Executors.newFixedThreadPool(getNumClients());
+		Random arrivals = new Random(configuration.getSeed());
+		double meanInterArrivalNanos = TimeUnit.SECONDS.toNanos(1) / configuration.getArrivalRate();
+		long arrivalNanos = startNanos;
+
+		try {
+			while (true) {
+				arrivalNanos += (long) (-meanInterArrivalNanos * Math.log(1 - arrivals.nextDouble()));
+
+				if (arrivalNanos >= endNanos) {
+					break;
+				}
+
+				long waitNanos = arrivalNanos - System.nanoTime();
+
+				if (waitNanos > 0) {
+					LockSupport.parkNanos(waitNanos);
+				}
+
+				long intendedStartNanos = arrivalNanos;
+				pool.execute(() -> {
+					WorkloadClient client = threadClient.get();
+					client.executeAndRecord(client.nextOperation(), intendedStartNanos,
+							intendedStartNanos >= measureStartNanos);
+				});
+			}
+		} finally {
+			pool.shutdown();
+			pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	/**
+	 * Gets the number of clients, which is one for the serial store since it
+	 * is not thread-safe.
+	 *
+	 * @return the number of clients
+	 */
+	private int getNumClients() {
+		return (configuration.getTarget() == WorkloadTarget.SERIAL) ? 1 : configuration.getNumClients();
+	}
+
+	/**
+	 * Creates a client and registers it for the final statistics.
+	 *
+	 * @param index
+	 *            the index of the client
+	 * @return the client
+	 */
+	private WorkloadClient newClient(int index) {
+		WorkloadClient client = new WorkloadClient(configuration, bookStore, stockManager, popularity,
+				configuration.getSeed() + 1 + index);
+
+		synchronized (clients) {
+			clients.add(client);
+		}
+
+		return client;
+	}
+
+	/**
+	 * Prints the throughput and latency percentiles of every operation.
+	 *
+	 * @param statistics
+	 *            the statistics of every operation
+	 * @param out
+	 *            the stream to print to
+	 */
+	public void printReport(Map<WorkloadOperation, OperationStatistics> statistics, PrintStream out) {
+		double seconds = configuration.getDurationSeconds();
+		OperationStatistics total = new OperationStatistics();
+
+		out.printf("%-24s %10s %8s %10s %9s %9s %9s %9s %9s %9s%n", "operation", "count", "failed", "ops/s",
+				"mean ms", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+
+		for (Map.Entry<WorkloadOperation, OperationStatistics> entry : statistics.entrySet()) {
+			printRow(entry.getKey().name(), entry.getValue(), seconds, out);
+			total.merge(entry.getValue());
+		}
+
+		printRow("TOTAL", total, seconds, out);
+	}
+
+	/**
+	 * Prints one row of the report.
+	 *
+	 * @param name
+	 *            the name of the row
+	 * @param statistics
+	 *            the statistics
+	 * @param seconds
+	 *            the measured duration in seconds
+	 * @param out
+	 *            the stream to print to
+	 */
+	private static void printRow(String name, OperationStatistics statistics, double seconds, PrintStream out) {
+		out.printf("%-24s %10d %8d %10.1f %9.3f %9.3f %9.3f %9.3f %9.3f %9.3f%n", name, statistics.getCount(),
+				statistics.getNumFailures(), statistics.getCount() / seconds, statistics.getMeanNanos() / 1e6,
+				statistics.getPercentileNanos(50) / 1e6, statistics.getPercentileNanos(90) / 1e6,
+				statistics.getPercentileNanos(99) / 1e6, statistics.getPercentileNanos(99.9) / 1e6,
+				statistics.getPercentileNanos(100) / 1e6);
+	}
+
+	/**
+	 * Creates the stores selected by the configuration, runs the workload and
+	 * prints the report.
+	 *
+	 * @param args
+	 *            the arguments, unused
+	 * @throws Exception
+	 *             the exception
+	 */
+	public static void main(String[] args) throws Exception {
+		WorkloadConfiguration configuration = WorkloadConfiguration.fromSystemProperties();
+		BookStore bookStore;
+		StockManager stockManager;
+		BookStoreHTTPProxy bookStoreProxy = null;
+		StockManagerHTTPProxy stockManagerProxy = null;
+
+		switch (configuration.getTarget()) {
+		case SERIAL:
+			SerialCertainBookStore serialStore = new SerialCertainBookStore();
+			bookStore = serialStore;
+			stockManager = serialStore;
+			break;
+
+		case SINGLE_LOCK:
+			SingleLockConcurrentCertainBookStore singleLockStore = new SingleLockConcurrentCertainBookStore();
+			bookStore = singleLockStore;
+			stockManager = singleLockStore;
+			break;
+
+		case TWO_LEVEL_LOCK:
+			TwoLevelLockingConcurrentCertainBookStore twoLevelLockStore = new TwoLevelLockingConcurrentCertainBookStore();
+			bookStore = twoLevelLockStore;
+			stockManager = twoLevelLockStore;
+			break;
+
+		case OPTIMISTIC:
+			OptimisticConcurrentCertainBookStore optimisticStore = new OptimisticConcurrentCertainBookStore();
+			bookStore = optimisticStore;
+			stockManager = optimisticStore;
+			break;
+
+		case TRANSACTIONAL:
+			TransactionalConcurrentCertainBookStore transactionalStore = new TransactionalConcurrentCertainBookStore();
+			bookStore = transactionalStore;
+			stockManager = transactionalStore;
+			break;
+
+		case SINGLE_WRITER:
+			SingleWriterConcurrentCertainBookStore singleWriterStore = new SingleWriterConcurrentCertainBookStore();
+			bookStore = singleWriterStore;
+			stockManager = singleWriterStore;
+			break;
+
+		default:
+			bookStoreProxy = new BookStoreHTTPProxy(configuration.getServerAddress());
+			stockManagerProxy = new StockManagerHTTPProxy(configuration.getServerAddress() + "/stock");
+			bookStore = bookStoreProxy;
+			stockManager = stockManagerProxy;
+			break;
+		}
+
+		try {
+			WorkloadDriver driver = new WorkloadDriver(configuration, bookStore, stockManager);
+			driver.initializeCatalog();
+			driver.printReport(driver.run(), System.out);
+		} finally {
+			if (bookStoreProxy != null) {
+				bookStoreProxy.stop();
+				stockManagerProxy.stop();
+			}
+		}
+	}
+}
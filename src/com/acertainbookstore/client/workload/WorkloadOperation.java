@@ -0,0 +1,53 @@
+package com.acertainbookstore.client.workload;
+
+/**
+ * {@link WorkloadOperation} lists the interactions issued by the
+ * {@link WorkloadDriver}, either by customers through the
+ * {@link com.acertainbookstore.interfaces.BookStore} API or by managers
+ * through the {@link com.acertainbookstore.interfaces.StockManager} API.
+ */
+public enum WorkloadOperation {
+
+	/** A customer buys books. */
+	BUY_BOOKS(true),
+
+	/** A customer looks up books by ISBN. */
+	GET_BOOKS(true),
+
+	/** A customer asks for editor picks. */
+	GET_EDITOR_PICKS(true),
+
+	/** A manager restocks books. */
+	ADD_COPIES(false),
+
+	/** A manager lists the whole catalog. */
+	LIST_BOOKS(false),
+
+	/** A manager looks up stock books by ISBN. */
+	GET_STOCK_BOOKS_BY_ISBN(false),
+
+	/** A manager marks or unmarks editor picks. */
+	UPDATE_EDITOR_PICKS(false);
+
+	/** Whether the operation is a customer interaction. */
+	private final boolean customer;
+
+	/**
+	 * Instantiates a new {@link WorkloadOperation}.
+	 *
+	 * @param customer
+	 *            whether the operation is a customer interaction
+	 */
+	WorkloadOperation(boolean customer) {
+		this.customer = customer;
+	}
+
+	/**
+	 * Checks if the operation is a customer interaction.
+	 *
+	 * @return true, if it is a customer interaction
+	 */
+	public boolean isCustomer() {
+		return customer;
+	}
+}
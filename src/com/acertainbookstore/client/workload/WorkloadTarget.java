@@ -0,0 +1,30 @@
+package com.acertainbookstore.client.workload;
+
+/**
+ * {@link WorkloadTarget} lists the stores the {@link WorkloadDriver} can run
+ * against: a store in the same process, or the HTTP proxies of a running
+ * {@link com.acertainbookstore.server.BookStoreHTTPServer}.
+ */
+public enum WorkloadTarget {
+
+	/** A local SerialCertainBookStore, driven by a single client. */
+	SERIAL,
+
+	/** A local SingleLockConcurrentCertainBookStore. */
+	SINGLE_LOCK,
+
+	/** A local TwoLevelLockingConcurrentCertainBookStore. */
+	TWO_LEVEL_LOCK,
+
+	/** A local OptimisticConcurrentCertainBookStore. */
+	OPTIMISTIC,
+
+	/** A local TransactionalConcurrentCertainBookStore. */
+	TRANSACTIONAL,
+
+	/** A local SingleWriterConcurrentCertainBookStore. */
+	SINGLE_WRITER,
+
+	/** The HTTP proxies of a running server. */
+	HTTP;
+}
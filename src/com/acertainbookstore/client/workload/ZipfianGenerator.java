@@ -0,0 +1,55 @@
+package com.acertainbookstore.client.workload;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * {@link ZipfianGenerator} draws ranks in <code>[0, n)</code> following a
+ * Zipfian distribution, where rank <code>k</code> is drawn with a probability
+ * proportional to <code>1 / (k + 1)^s</code>. An exponent of 0 gives a uniform
+ * distribution; the larger the exponent, the more popular the first ranks.
+ */
+public class ZipfianGenerator {
+
+	/** The cumulative probability of every rank. */
+	private final double[] cumulativeProbabilities;
+
+	/**
+	 * Instantiates a new {@link ZipfianGenerator}.
+	 *
+	 * @param numItems
+	 *            the number of ranks
+	 * @param exponent
+	 *            the exponent
+	 */
+	public ZipfianGenerator(int numItems, double exponent) {
+		if (numItems < 1 || exponent < 0) {
+			throw new IllegalArgumentException("numItems must be positive and exponent non-negative");
+		}
+
+		cumulativeProbabilities = new double[numItems];
+		double sum = 0;
+
+		for (int rank = 0; rank < numItems; rank++) {
+			sum += 1.0 / Math.pow(rank + 1, exponent);
+			cumulativeProbabilities[rank] = sum;
+		}
+
+		for (int rank = 0; rank < numItems; rank++) {
+			cumulativeProbabilities[rank] /= sum;
+		}
+	}
+
+	/**
+	 * Draws the next rank.
+	 *
+	 * @param random
+	 *            the source of randomness
+	 * @return the rank
+	 */
+	public int next(Random random) {
+		int index = Arrays.binarySearch(cumulativeProbabilities, random.nextDouble());
+		int rank = (index >= 0) ? index : -index - 1;
+		return Math.min(rank, cumulativeProbabilities.length - 1);
+	}
+}
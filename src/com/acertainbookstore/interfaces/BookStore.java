@@ -67,4 +67,21 @@ public interface BookStore {
 	 *             the book store exception
 	 */
 	public List<Book> getEditorPicks(int numBooks) throws BookStoreException;
+
+	/**
+	 * Searches the books whose title and author contain every term of the
+	 * query, where a term of the query also matches the words it is a prefix
+	 * of. The matches are ordered by ISBN and returned one page at a time.
+	 *
+	 * @param query
+	 *            the query
+	 * @param offset
+	 *            the number of matches to skip
+	 * @param numBooks
+	 *            the maximum number of books to return
+	 * @return the matching books
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public List<Book> searchBooks(String query, int offset, int numBooks) throws BookStoreException;
 }
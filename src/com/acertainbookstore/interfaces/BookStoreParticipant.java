@@ -0,0 +1,49 @@
+package com.acertainbookstore.interfaces;
+
+import java.util.Set;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link BookStoreParticipant} declares the two-phase commit methods a
+ * bookstore shard exposes to the coordinator of a purchase that spans several
+ * shards. These methods need to be implemented by both server and client ends.
+ */
+public interface BookStoreParticipant {
+
+	/**
+	 * Prepares the purchase of the set of books in the transaction. If the
+	 * purchase is possible the copies are reserved until the transaction is
+	 * committed or aborted; otherwise nothing is reserved.
+	 *
+	 * @param transactionId
+	 *            the transaction id
+	 * @param booksToBuy
+	 *            the books to buy
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public void prepareBuyBooks(String transactionId, Set<BookCopy> booksToBuy) throws BookStoreException;
+
+	/**
+	 * Commits the prepared purchase of the transaction.
+	 *
+	 * @param transactionId
+	 *            the transaction id
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public void commitBuyBooks(String transactionId) throws BookStoreException;
+
+	/**
+	 * Aborts the transaction, releasing the copies reserved by it. Aborting a
+	 * transaction that was never prepared has no effect.
+	 *
+	 * @param transactionId
+	 *            the transaction id
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public void abortBuyBooks(String transactionId) throws BookStoreException;
+}
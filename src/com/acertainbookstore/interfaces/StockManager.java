@@ -5,6 +5,8 @@ import java.util.Set;
 
 import com.acertainbookstore.business.BookCopy;
 import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookQuery;
+import com.acertainbookstore.business.CatalogChanges;
 import com.acertainbookstore.business.StockBook;
 import com.acertainbookstore.utils.BookStoreException;
 
@@ -43,6 +45,23 @@ public interface StockManager {
 	 */
 	public List<StockBook> getBooks() throws BookStoreException;
 
+	/**
+	 * Gets a page of the books in the bookstore, ordered by ISBN. The ISBN of
+	 * the last book of a page is the continuation token of the next page; since
+	 * the pages are read one at a time, a listing sees books added or removed
+	 * in between if they are beyond the token.
+	 *
+	 * @param afterISBN
+	 *            the ISBN of the last book of the previous page, or 0 for the
+	 *            first page
+	 * @param numBooks
+	 *            the maximum number of books in the page
+	 * @return the books, fewer than numBooks only on the last page
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public List<StockBook> getBooks(int afterISBN, int numBooks) throws BookStoreException;
+
 	/**
 	 * Gets the books matching the set of ISBNs given, is different to getBooks
 	 * in the BookStore interface because of the return type of the books.
@@ -91,4 +110,31 @@ public interface StockManager {
 	 *             the book store exception
 	 */
 	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException;
+
+	/**
+	 * Gets a page of the books matching the attributes of a query, ordered by
+	 * price and then ISBN.
+	 *
+	 * @param query
+	 *            the query
+	 * @return the matching books
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public List<StockBook> queryBooks(BookQuery query) throws BookStoreException;
+
+	/**
+	 * Gets the books added, changed or removed since a version of the catalog.
+	 * Every mutation of the bookstore creates a new version, and the changes
+	 * are kept in a bounded journal; if the changes since the version are no
+	 * longer in it, a full listing of the books is returned instead.
+	 *
+	 * @param version
+	 *            the version of the catalog known by the client, or -1 for a
+	 *            full listing
+	 * @return the changes and the version they bring the client to
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public CatalogChanges getChangesSince(long version) throws BookStoreException;
 }
@@ -0,0 +1,27 @@
+package com.acertainbookstore.interfaces;
+
+import java.util.Set;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link StockRestorer} declares how a server puts back into stock the copies
+ * it took out for a purchase that did not happen, such as a two-phase commit
+ * purchase aborted after its copies were reserved. It is implemented by the
+ * stores of the server only, and is not exposed to the clients.
+ */
+public interface StockRestorer {
+
+	/**
+	 * Puts back copies of the existing books. Unlike
+	 * {@link StockManager#addCopies(Set)}, it is not a restock, so the sale
+	 * misses of the books are kept.
+	 *
+	 * @param bookCopiesSet
+	 *            the book copies set
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public void restoreCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException;
+}
@@ -0,0 +1,151 @@
+package com.acertainbookstore.server;
+
+/**
+ * {@link AdaptiveConcurrencyLimit} bounds the number of requests of one kind
+ * processed at the same time, and adapts the bound to the measured latency
+ * with an additive-increase/multiplicative-decrease rule.
+ *
+ * <p>
+ * The limit tracks a baseline latency, the lowest latency seen recently. A
+ * request whose latency exceeds the baseline by a large enough queueing delay
+ * signals that requests wait on each other, e.g. for a lock, so the limit is
+ * multiplied by {@link #BACKOFF_RATIO}, at most once per window of
+ * <code>limit</code> completions. Otherwise, if the limit was close to being
+ * reached, it grows by one per window. Requests beyond the limit are rejected
+ * at once instead of waiting for a thread.
+ */
+public class AdaptiveConcurrencyLimit {
+
+	/** The factor applied to the limit when latency grows. */
+	public static final double BACKOFF_RATIO = 0.9;
+
+	/**
+	 * The ratio between the latency and the baseline above which requests are
+	 * considered to be queueing.
+	 */
+	public static final double LATENCY_TOLERANCE = 2.0;
+
+	/**
+	 * The smallest queueing delay considered, so that the jitter of very fast
+	 * requests does not shrink the limit.
+	 */
+	public static final long MIN_QUEUEING_DELAY_NANOS = 2_000_000;
+
+	/**
+	 * The number of samples over which the baseline drifts up towards higher
+	 * latencies, so that it follows a slower store.
+	 */
+	public static final int BASELINE_WINDOW = 1000;
+
+	/** The smallest limit. */
+	private final int minLimit;
+
+	/** The largest limit. */
+	private final int maxLimit;
+
+	/** The current limit. */
+	private double limit;
+
+	/** The number of requests being processed. */
+	private int inFlight = 0;
+
+	/** The baseline latency in nanoseconds, or -1 before the first sample. */
+	private double baselineNanos = -1;
+
+	/** The number of completions since the limit was last decreased. */
+	private int completionsSinceBackoff = 0;
+
+	/** The number of requests rejected. */
+	private long numRejected = 0;
+
+	/**
+	 * Instantiates a new {@link AdaptiveConcurrencyLimit}.
+	 *
+	 * @param initialLimit
+	 *            the initial limit
+	 * @param minLimit
+	 *            the smallest limit
+	 * @param maxLimit
+	 *            the largest limit
+	 */
+	public AdaptiveConcurrencyLimit(int initialLimit, int minLimit, int maxLimit) {
+		if (minLimit <= 0 || minLimit > initialLimit || initialLimit > maxLimit) {
+			throw new IllegalArgumentException("Limits must satisfy 0 < min <= initial <= max");
+		}
+
+		this.limit = initialLimit;
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+	}
+
+	/**
+	 * Admits a request if the limit has not been reached.
+	 *
+	 * @return true, if the request is admitted and must be released
+	 */
+	public synchronized boolean tryAcquire() {
+		if (inFlight >= getLimit()) {
+			numRejected++;
+			return false;
+		}
+
+		inFlight++;
+		return true;
+	}
+
+	/**
+	 * Releases an admitted request and adapts the limit to its latency.
+	 *
+	 * @param latencyNanos
+	 *            the latency of the request in nanoseconds
+	 */
+	public synchronized void release(long latencyNanos) {
+		boolean nearLimit = inFlight * 2 >= getLimit();
+		inFlight--;
+		completionsSinceBackoff++;
+
+		if (baselineNanos < 0 || latencyNanos < baselineNanos) {
+			baselineNanos = latencyNanos;
+		} else {
+			baselineNanos += (latencyNanos - baselineNanos) / BASELINE_WINDOW;
+		}
+
+		double queueingDelay = latencyNanos - baselineNanos;
+
+		if (queueingDelay > MIN_QUEUEING_DELAY_NANOS && queueingDelay > baselineNanos * (LATENCY_TOLERANCE - 1)) {
+			if (completionsSinceBackoff >= getLimit()) {
+				limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+				completionsSinceBackoff = 0;
+			}
+		} else if (nearLimit) {
+			limit = Math.min(maxLimit, limit + 1 / limit);
+		}
+	}
+
+	/**
+	 * Gets the current limit.
+	 *
+	 * @return the limit
+	 */
+	public synchronized int getLimit() {
+		return (int) limit;
+	}
+
+	/**
+	 * Gets the number of requests being processed.
+	 *
+	 * @return the number of requests
+	 */
+	public synchronized int getInFlight() {
+		return inFlight;
+	}
+
+	/**
+	 * Gets the number of requests rejected.
+	 *
+	 * @return the number of requests
+	 */
+	public synchronized long getNumRejected() {
+		return numRejected;
+	}
+}
@@ -0,0 +1,141 @@
+package com.acertainbookstore.server;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import com.acertainbookstore.utils.BookStoreMessageTag;
+
+/**
+ * {@link AdmissionController} decides which requests a server processes under
+ * load. Every message tag has its own {@link AdaptiveConcurrencyLimit}, so
+ * that the mutations piling up on the store locks are throttled without
+ * starving the reads, and requests beyond the limit of their tag are rejected
+ * at once with a retryable error instead of queueing for a thread.
+ *
+ * <p>
+ * Some messages are never limited: subscriptions stay open for as long as
+ * the subscriber listens, and the replicated mutations and the second phase
+ * of a two-phase commit must be applied for the servers to stay consistent.
+ */
+public class AdmissionController {
+
+	/** The initial limit of every tag. */
+	public static final int INITIAL_LIMIT = 32;
+
+	/** The smallest limit of every tag. */
+	public static final int MIN_LIMIT = 2;
+
+	/**
+	 * The largest limit of every tag, below the size of the thread pool of the
+	 * server so that one tag cannot take every thread.
+	 */
+	public static final int MAX_LIMIT = 64;
+
+	/** The limits of the limited tags. */
+	private final Map<BookStoreMessageTag, AdaptiveConcurrencyLimit> limits;
+
+	/**
+	 * Instantiates a new {@link AdmissionController} with the default limits.
+	 */
+	public AdmissionController() {
+		this(INITIAL_LIMIT, MIN_LIMIT, MAX_LIMIT);
+	}
+
+	/**
+	 * Instantiates a new {@link AdmissionController}.
+	 *
+	 * @param initialLimit
+	 *            the initial limit of every tag
+	 * @param minLimit
+	 *            the smallest limit of every tag
+	 * @param maxLimit
+	 *            the largest limit of every tag
+	 */
+	public AdmissionController(int initialLimit, int minLimit, int maxLimit) {
+		limits = new EnumMap<>(BookStoreMessageTag.class);
+
+		for (BookStoreMessageTag messageTag : BookStoreMessageTag.values()) {
+			if (isLimited(messageTag)) {
+				limits.put(messageTag, new AdaptiveConcurrencyLimit(initialLimit, minLimit, maxLimit));
+			}
+		}
+	}
+
+	/**
+	 * Instantiates a new {@link AdmissionController} admitting every request.
+	 *
+	 * @param limits
+	 *            the limits of the limited tags
+	 */
+	private AdmissionController(Map<BookStoreMessageTag, AdaptiveConcurrencyLimit> limits) {
+		this.limits = limits;
+	}
+
+	/**
+	 * Creates an {@link AdmissionController} admitting every request.
+	 *
+	 * @return the admission controller
+	 */
+	public static AdmissionController unlimited() {
+		return new AdmissionController(new EnumMap<>(BookStoreMessageTag.class));
+	}
+
+	/**
+	 * Checks if the requests of a tag are limited.
+	 *
+	 * @param messageTag
+	 *            the message tag
+	 * @return true, if the requests are limited
+	 */
+	private static boolean isLimited(BookStoreMessageTag messageTag) {
+		switch (messageTag) {
+		case SUBSCRIBESTOCKCHANGES:
+		case REPLICATE:
+		case COMMITBUYBOOKS:
+		case ABORTBUYBOOKS:
+			return false;
+
+		default:
+			return true;
+		}
+	}
+
+	/**
+	 * Admits a request if the limit of its tag has not been reached.
+	 *
+	 * @param messageTag
+	 *            the message tag
+	 * @return true, if the request is admitted and must be released
+	 */
+	public boolean tryAcquire(BookStoreMessageTag messageTag) {
+		AdaptiveConcurrencyLimit limit = limits.get(messageTag);
+		return limit == null || limit.tryAcquire();
+	}
+
+	/**
+	 * Releases an admitted request.
+	 *
+	 * @param messageTag
+	 *            the message tag
+	 * @param latencyNanos
+	 *            the latency of the request in nanoseconds
+	 */
+	public void release(BookStoreMessageTag messageTag, long latencyNanos) {
+		AdaptiveConcurrencyLimit limit = limits.get(messageTag);
+
+		if (limit != null) {
+			limit.release(latencyNanos);
+		}
+	}
+
+	/**
+	 * Gets the limit of a tag.
+	 *
+	 * @param messageTag
+	 *            the message tag
+	 * @return the limit, or null if the tag is not limited
+	 */
+	public AdaptiveConcurrencyLimit getLimit(BookStoreMessageTag messageTag) {
+		return limits.get(messageTag);
+	}
+}
@@ -1,9 +1,14 @@
 package com.acertainbookstore.server;
 
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
@@ -14,16 +19,23 @@ import org.eclipse.jetty.server.handler.AbstractHandler;
 
 import com.acertainbookstore.business.BookCopy;
 import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookQuery;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.CatalogChanges;
 import com.acertainbookstore.business.StockBook;
 import com.acertainbookstore.utils.BookStoreKryoSerializer;
 import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.BookStoreParticipant;
 import com.acertainbookstore.interfaces.BookStoreSerializer;
 import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.interfaces.StockRestorer;
 import com.acertainbookstore.utils.BookStoreXStreamSerializer;
 import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreContentEncoding;
 import com.acertainbookstore.utils.BookStoreException;
 import com.acertainbookstore.utils.BookStoreMessageTag;
 import com.acertainbookstore.utils.BookStoreResponse;
+import com.acertainbookstore.utils.BookStoreRetryableException;
 import com.acertainbookstore.utils.BookStoreUtility;
 import com.esotericsoftware.kryo.io.Input;
 
@@ -31,7 +43,9 @@ import com.esotericsoftware.kryo.io.Input;
  * {@link BookStoreHTTPMessageHandler} implements the message handler class
  * which is invoked to handle messages received by the
  * {@link BookStoreHTTPServerUtility}. It decodes the HTTP message and invokes
- * the {@link CertainBookStore} server API.
+ * the {@link CertainBookStore} server API. Identical read-only requests
+ * processed at the same time share one invocation of the API and one
+ * serialized response through a {@link BookStoreRequestCoalescer}.
  * 
  * @see AbstractHandler
  * @see BookStoreHTTPServerUtility
@@ -44,18 +58,114 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 	/** The stock manager. */
 	private StockManager stockManager = null;
 
+	/** The stock restorer, putting back the copies of aborted purchases. */
+	private StockRestorer stockRestorer = null;
+
+	/** The two-phase commit participant used when the store is a shard. */
+	private BookStoreParticipant participant = null;
+
 	/** The serializer. */
 	private static ThreadLocal<BookStoreSerializer> serializer;
 
+	/**
+	 * The catalog version, incremented whenever books are removed so that
+	 * clients can invalidate their cached books. Adding books, purchases and
+	 * the other stock changes leave the title, author and price of a book
+	 * untouched, so they do not bump it.
+	 */
+	private final AtomicLong catalogVersion = new AtomicLong(0);
+
+	/**
+	 * The cache of serialized editor picks and top rated books responses,
+	 * invalidated by every message that may change them.
+	 */
+	private final BookStoreResponseCache responseCache = new BookStoreResponseCache();
+
+	/**
+	 * Whether the server is a read-only backup that only applies the mutations
+	 * replicated by its primary.
+	 */
+	private final boolean backup;
+
+	/** The publisher pushing the stock changes to the subscribers. */
+	private final StockChangePublisher stockChangePublisher;
+
+	/** The admission controller limiting the requests processed at once. */
+	private final AdmissionController admissionController;
+
+	/** The coalescer sharing one response among identical concurrent reads. */
+	private final BookStoreRequestCoalescer requestCoalescer = new BookStoreRequestCoalescer();
+
+	/** The sequence number of the last mutation replicated to a backup. */
+	private long lastReplicatedSequence = 0;
+
+	/**
+	 * The time until which a backup serves reads, in nanoseconds, renewed by
+	 * every mutation and heartbeat of its primary. It starts expired.
+	 */
+	private volatile long leaseDeadline = System.nanoTime();
+
+	/**
+	 * Whether a backup missed or diverged on a replicated mutation, after
+	 * which it no longer applies mutations nor serves reads.
+	 */
+	private volatile boolean outOfSync = false;
+
 	/**
 	 * Instantiates a new {@link BookStoreHTTPMessageHandler}.
 	 *
 	 * @param bookStore
 	 *            the book store
+	 * @param stockManager
+	 *            the stock manager
+	 * @param stockRestorer
+	 *            the stock restorer
 	 */
-	public BookStoreHTTPMessageHandler(BookStore bookStore, StockManager stockManager) {
+	public BookStoreHTTPMessageHandler(BookStore bookStore, StockManager stockManager, StockRestorer stockRestorer) {
+		this(bookStore, stockManager, stockRestorer, false);
+	}
+
+	/**
+	 * Instantiates a new {@link BookStoreHTTPMessageHandler}.
+	 *
+	 * @param bookStore
+	 *            the book store
+	 * @param stockManager
+	 *            the stock manager
+	 * @param stockRestorer
+	 *            the stock restorer
+	 * @param backup
+	 *            whether the server is a read-only backup
+	 */
+	public BookStoreHTTPMessageHandler(BookStore bookStore, StockManager stockManager, StockRestorer stockRestorer,
+			boolean backup) {
+		this(bookStore, stockManager, stockRestorer, backup, new AdmissionController());
+	}
+
+	/**
+	 * Instantiates a new {@link BookStoreHTTPMessageHandler}.
+	 *
+	 * @param bookStore
+	 *            the book store
+	 * @param stockManager
+	 *            the stock manager
+	 * @param stockRestorer
+	 *            the stock restorer
+	 * @param backup
+	 *            whether the server is a read-only backup
+	 * @param admissionController
+	 *            the admission controller limiting the requests processed at
+	 *            once
+	 */
+	public BookStoreHTTPMessageHandler(BookStore bookStore, StockManager stockManager, StockRestorer stockRestorer,
+			boolean backup, AdmissionController admissionController) {
+		this.backup = backup;
+		this.admissionController = admissionController;
 		this.bookStore = bookStore;
 		this.stockManager = stockManager;
+		this.stockRestorer = stockRestorer;
+		this.participant = new BookStoreShardParticipant(bookStore, stockRestorer);
+		this.stockChangePublisher = new StockChangePublisher(stockManager);
 
 		// Setup the type of serializer.
 		if (BookStoreConstants.BINARY_SERIALIZATION) {
@@ -92,56 +202,138 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 		// The RequestURI before the switch.
 		if (messageTag == null) {
 			System.err.println("No message tag.");
+		} else if (backup && isMutation(messageTag)) {
+			// Backups only change through the replicated mutations.
+			rejectMutation(response);
+		} else if (backup && messageTag != BookStoreMessageTag.REPLICATE && !isInSync()) {
+			// A backup dropped by its primary would serve a frozen state.
+			rejectOutOfSync(response);
+		} else if (!admissionController.tryAcquire(messageTag)) {
+			// Rejected before reading the request, so that an overloaded
+			// server spends as little as possible on the excess requests.
+			rejectOverloaded(messageTag, response);
 		} else {
-			switch (messageTag) {
-			case REMOVEBOOKS:
-				removeBooks(request, response);
-				break;
+			long startTime = System.nanoTime();
 
-			case REMOVEALLBOOKS:
-				removeAllBooks(response);
-				break;
+			try {
+				dispatch(messageTag, request, response);
+			} finally {
+				admissionController.release(messageTag, System.nanoTime() - startTime);
+			}
 
-			case ADDBOOKS:
-				addBooks(request, response);
-				break;
+			if (isMutation(messageTag) || messageTag == BookStoreMessageTag.REPLICATE) {
+				requestCoalescer.invalidate();
+				stockChangePublisher.notifyChanged();
+			}
+		}
 
-			case ADDCOPIES:
-				addCopies(request, response);
-				break;
+		// Mark the request as handled so that the HTTP response can be sent
+		baseRequest.setHandled(true);
+	}
 
-			case LISTBOOKS:
-				listBooks(response);
-				break;
+	/**
+	 * Invokes the store API for a message.
+	 *
+	 * @param messageTag
+	 *            the message tag
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void dispatch(BookStoreMessageTag messageTag, HttpServletRequest request, HttpServletResponse response)
+			throws IOException {
+		switch (messageTag) {
+		case REMOVEBOOKS:
+			removeBooks(request, response);
+			break;
 
-			case UPDATEEDITORPICKS:
-				updateEditorPicks(request, response);
-				break;
+		case REMOVEALLBOOKS:
+			removeAllBooks(response);
+			break;
 
-			case BUYBOOKS:
-				buyBooks(request, response);
-				break;
+		case ADDBOOKS:
+			addBooks(request, response);
+			break;
 
-			case GETBOOKS:
-				getBooks(request, response);
-				break;
+		case ADDCOPIES:
+			addCopies(request, response);
+			break;
 
-			case GETEDITORPICKS:
-				getEditorPicks(request, response);
-				break;
+		case LISTBOOKS:
+			listBooks(request, response);
+			break;
 
-			case GETSTOCKBOOKSBYISBN:
-				getStockBooksByISBN(request, response);
-				break;
+		case STREAMBOOKS:
+			streamBooks(request, response);
+			break;
 
-			default:
-				System.err.println("Unsupported message tag.");
-				break;
-			}
-		}
+		case GETCHANGES:
+			getChanges(request, response);
+			break;
 
-		// Mark the request as handled so that the HTTP response can be sent
-		baseRequest.setHandled(true);
+		case SUBSCRIBESTOCKCHANGES:
+			stockChangePublisher.subscribe(request, response);
+			break;
+
+		case UPDATEEDITORPICKS:
+			updateEditorPicks(request, response);
+			break;
+
+		case BUYBOOKS:
+			buyBooks(request, response);
+			break;
+
+		case GETBOOKS:
+			getBooks(request, response);
+			break;
+
+		case GETEDITORPICKS:
+			getEditorPicks(request, response);
+			break;
+
+		case GETSTOCKBOOKSBYISBN:
+			getStockBooksByISBN(request, response);
+			break;
+
+		case RATEBOOKS:
+			rateBooks(request, response);
+			break;
+
+		case GETTOPRATEDBOOKS:
+			getTopRatedBooks(request, response);
+			break;
+
+		case SEARCHBOOKS:
+			searchBooks(request, response);
+			break;
+
+		case QUERYBOOKS:
+			queryBooks(request, response);
+			break;
+
+		case PREPAREBUYBOOKS:
+			prepareBuyBooks(request, response);
+			break;
+
+		case COMMITBUYBOOKS:
+			commitBuyBooks(request, response);
+			break;
+
+		case ABORTBUYBOOKS:
+			abortBuyBooks(request, response);
+			break;
+
+		case REPLICATE:
+			replicate(request, response);
+			break;
+
+		default:
+			System.err.println("Unsupported message tag.");
+			break;
+		}
 	}
 
 	/**
@@ -158,21 +350,154 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 	private void getStockBooksByISBN(HttpServletRequest request, HttpServletResponse response) throws IOException {
 		byte[] serializedRequestContent = getSerializedRequestContent(request);
 
-		Set<Integer> isbnSet = (Set<Integer>) serializer.get().deserialize(serializedRequestContent);
-		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+		BookStoreResponseContent serializedResponseContent = requestCoalescer.execute(BookStoreMessageTag.GETSTOCKBOOKSBYISBN, null,
+				serializedRequestContent, () -> {
+					Set<Integer> isbnSet = (Set<Integer>) serializer.get().deserialize(serializedRequestContent);
+					BookStoreResponse bookStoreResponse = newResponse();
+
+					try {
+						bookStoreResponse.setList(stockManager.getBooksByISBN(isbnSet));
+					} catch (BookStoreException ex) {
+						bookStoreResponse.setException(ex);
+					}
+
+					return serializer.get().serialize(bookStoreResponse);
+				});
+
+		writeResponse(request, response, serializedResponseContent);
+	}
+
+	/**
+	 * Gets a page of the stock books matching a query.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void queryBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		byte[] serializedRequestContent = getSerializedRequestContent(request);
+
+		BookStoreResponseContent serializedResponseContent = requestCoalescer.execute(BookStoreMessageTag.QUERYBOOKS, null,
+				serializedRequestContent, () -> {
+					BookQuery query = (BookQuery) serializer.get().deserialize(serializedRequestContent);
+					BookStoreResponse bookStoreResponse = newResponse();
+
+					try {
+						bookStoreResponse.setList(stockManager.queryBooks(query));
+					} catch (BookStoreException ex) {
+						bookStoreResponse.setException(ex);
+					}
+
+					return serializer.get().serialize(bookStoreResponse);
+				});
+
+		writeResponse(request, response, serializedResponseContent);
+	}
+
+	/**
+	 * {@link CachedBookQuery} gets the books of a request whose successful
+	 * responses are served from the response cache.
+	 */
+	@FunctionalInterface
+	private interface CachedBookQuery {
+
+		/**
+		 * Gets the books.
+		 *
+		 * @param numBooks
+		 *            the number of books requested
+		 * @return the books
+		 * @throws BookStoreException
+		 *             the book store exception
+		 */
+		List<?> query(int numBooks) throws BookStoreException;
+	}
+
+	/**
+	 * Gets the editor picks. Successful responses are served from the response
+	 * cache until the editor picks or the catalog change, so a cached random
+	 * selection of editor picks is repeated until then.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void getEditorPicks(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		getCachedBooks(request, response, BookStoreMessageTag.GETEDITORPICKS, bookStore::getEditorPicks);
+	}
+
+	/**
+	 * Gets the top rated books. Successful responses are served from the
+	 * response cache until the ratings or the catalog change.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void getTopRatedBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		getCachedBooks(request, response, BookStoreMessageTag.GETTOPRATEDBOOKS, bookStore::getTopRatedBooks);
+	}
+
+	/**
+	 * Gets the requested number of books, serving the response from the
+	 * response cache, which is keyed by the message tag and the number of
+	 * books. A successful response is cached unless the cache was invalidated
+	 * while it was computed.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @param messageTag
+	 *            the message tag
+	 * @param bookQuery
+	 *            the query getting the books on a cache miss
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void getCachedBooks(HttpServletRequest request, HttpServletResponse response,
+			BookStoreMessageTag messageTag, CachedBookQuery bookQuery) throws IOException {
+		String numBooksString = URLDecoder.decode(request.getParameter(BookStoreConstants.BOOK_NUM_PARAM), StandardCharsets.UTF_8);
+		BookStoreResponse bookStoreResponse = newResponse();
+		String cacheKey = null;
+		long cacheGeneration = responseCache.getGeneration();
 
 		try {
-			bookStoreResponse.setList(stockManager.getBooksByISBN(isbnSet));
+			int numBooks = BookStoreUtility.convertStringToInt(numBooksString);
+			cacheKey = messageTag + "?" + numBooks;
+			BookStoreResponseContent cachedResponseContent = responseCache.get(cacheKey);
+
+			if (cachedResponseContent != null) {
+				writeResponse(request, response, cachedResponseContent);
+				return;
+			}
+
+			bookStoreResponse.setList(bookQuery.query(numBooks));
 		} catch (BookStoreException ex) {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		BookStoreResponseContent serializedResponseContent = new BookStoreResponseContent(
+				serializer.get().serialize(bookStoreResponse));
+
+		if (bookStoreResponse.getException() == null) {
+			responseCache.put(cacheKey, cacheGeneration, serializedResponseContent);
+		}
+
+		writeResponse(request, response, serializedResponseContent);
 	}
 
 	/**
-	 * Gets the editor picks.
+	 * Searches books by title and author.
 	 *
 	 * @param request
 	 *            the request
@@ -181,19 +506,55 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 	 * @throws IOException
 	 *             Signals that an I/O exception has occurred.
 	 */
-	private void getEditorPicks(HttpServletRequest request, HttpServletResponse response) throws IOException {
-		String numBooksString = URLDecoder.decode(request.getParameter(BookStoreConstants.BOOK_NUM_PARAM), StandardCharsets.UTF_8);
-		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+	private void searchBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		String query = request.getParameter(BookStoreConstants.QUERY_PARAM);
+		String offsetString = request.getParameter(BookStoreConstants.OFFSET_PARAM);
+		String numBooksString = request.getParameter(BookStoreConstants.BOOK_NUM_PARAM);
+
+		BookStoreResponseContent serializedResponseContent = requestCoalescer.execute(BookStoreMessageTag.SEARCHBOOKS,
+				request.getQueryString(), null, () -> {
+					BookStoreResponse bookStoreResponse = newResponse();
+
+					try {
+						int offset = BookStoreUtility.convertStringToInt(offsetString);
+						int numBooks = BookStoreUtility.convertStringToInt(numBooksString);
+						bookStoreResponse.setList(bookStore.searchBooks(query, offset, numBooks));
+					} catch (BookStoreException ex) {
+						bookStoreResponse.setException(ex);
+					}
+
+					return serializer.get().serialize(bookStoreResponse);
+				});
+
+		writeResponse(request, response, serializedResponseContent);
+	}
+
+	/**
+	 * Rates books.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@SuppressWarnings("unchecked")
+	private void rateBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		byte[] serializedRequestContent = getSerializedRequestContent(request);
+
+		Set<BookRating> bookRatings = (Set<BookRating>) serializer.get().deserialize(serializedRequestContent);
+		BookStoreResponse bookStoreResponse = newResponse();
 
 		try {
-			int numBooks = BookStoreUtility.convertStringToInt(numBooksString);
-			bookStoreResponse.setList(bookStore.getEditorPicks(numBooks));
+			bookStore.rateBooks(bookRatings);
+			responseCache.invalidate();
 		} catch (BookStoreException ex) {
 			bookStoreResponse.setException(ex);
 		}
 
 		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		writeResponse(request, response, serializedResponseContent);
 	}
 
 	/**
@@ -210,21 +571,52 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 	private void getBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
 		byte[] serializedRequestContent = getSerializedRequestContent(request);
 
-		Set<Integer> isbnSet = (Set<Integer>) serializer.get().deserialize(serializedRequestContent);
-		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+		BookStoreResponseContent serializedResponseContent = requestCoalescer.execute(BookStoreMessageTag.GETBOOKS, null,
+				serializedRequestContent, () -> {
+					Set<Integer> isbnSet = (Set<Integer>) serializer.get().deserialize(serializedRequestContent);
+					BookStoreResponse bookStoreResponse = newResponse();
+
+					try {
+						bookStoreResponse.setList(bookStore.getBooks(isbnSet));
+					} catch (BookStoreException ex) {
+						bookStoreResponse.setException(ex);
+					}
+
+					return serializer.get().serialize(bookStoreResponse);
+				});
+
+		writeResponse(request, response, serializedResponseContent);
+	}
+
+	/**
+	 * Buys books.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@SuppressWarnings("unchecked")
+	private void buyBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		byte[] serializedRequestContent = getSerializedRequestContent(request);
+
+		Set<BookCopy> bookCopiesToBuy = (Set<BookCopy>) serializer.get().deserialize(serializedRequestContent);
+		BookStoreResponse bookStoreResponse = newResponse();
 
 		try {
-			bookStoreResponse.setList(bookStore.getBooks(isbnSet));
+			bookStore.buyBooks(bookCopiesToBuy);
 		} catch (BookStoreException ex) {
 			bookStoreResponse.setException(ex);
 		}
 
 		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		writeResponse(request, response, serializedResponseContent);
 	}
 
 	/**
-	 * Buys books.
+	 * Prepares the purchase of books in a two-phase commit.
 	 *
 	 * @param request
 	 *            the request
@@ -234,20 +626,69 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 	 *             Signals that an I/O exception has occurred.
 	 */
 	@SuppressWarnings("unchecked")
-	private void buyBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
+	private void prepareBuyBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		String transactionId = request.getParameter(BookStoreConstants.TRANSACTION_ID_PARAM);
 		byte[] serializedRequestContent = getSerializedRequestContent(request);
 
 		Set<BookCopy> bookCopiesToBuy = (Set<BookCopy>) serializer.get().deserialize(serializedRequestContent);
-		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+		BookStoreResponse bookStoreResponse = newResponse();
 
 		try {
-			bookStore.buyBooks(bookCopiesToBuy);
+			participant.prepareBuyBooks(transactionId, bookCopiesToBuy);
 		} catch (BookStoreException ex) {
 			bookStoreResponse.setException(ex);
 		}
 
 		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		writeResponse(request, response, serializedResponseContent);
+	}
+
+	/**
+	 * Commits the purchase of books in a two-phase commit.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void commitBuyBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		String transactionId = request.getParameter(BookStoreConstants.TRANSACTION_ID_PARAM);
+		BookStoreResponse bookStoreResponse = newResponse();
+
+		try {
+			participant.commitBuyBooks(transactionId);
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+		writeResponse(request, response, serializedResponseContent);
+	}
+
+	/**
+	 * Aborts the purchase of books in a two-phase commit.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void abortBuyBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		String transactionId = request.getParameter(BookStoreConstants.TRANSACTION_ID_PARAM);
+		BookStoreResponse bookStoreResponse = newResponse();
+
+		try {
+			participant.abortBuyBooks(transactionId);
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+		writeResponse(request, response, serializedResponseContent);
 	}
 
 	/**
@@ -266,36 +707,200 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 
 		Set<BookEditorPick> mapEditorPicksValues = (Set<BookEditorPick>) serializer.get()
 				.deserialize(serializedRequestContent);
-		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+		BookStoreResponse bookStoreResponse = newResponse();
 
 		try {
 			stockManager.updateEditorPicks(mapEditorPicksValues);
+			responseCache.invalidate();
 		} catch (BookStoreException ex) {
 			bookStoreResponse.setException(ex);
 		}
 
 		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		writeResponse(request, response, serializedResponseContent);
 	}
 
 	/**
-	 * Lists the books.
+	 * Lists the books, either all of them or the page following a
+	 * continuation token.
 	 *
+	 * @param request
+	 *            the request
 	 * @param response
 	 *            the response
 	 * @throws IOException
 	 *             Signals that an I/O exception has occurred.
 	 */
-	private void listBooks(HttpServletResponse response) throws IOException {
-		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+	private void listBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		String numBooksString = request.getParameter(BookStoreConstants.BOOK_NUM_PARAM);
+		String afterISBNString = request.getParameter(BookStoreConstants.AFTER_ISBN_PARAM);
+
+		BookStoreResponseContent serializedResponseContent = requestCoalescer.execute(BookStoreMessageTag.LISTBOOKS,
+				request.getQueryString(), null, () -> {
+					BookStoreResponse bookStoreResponse = newResponse();
+
+					try {
+						if (numBooksString == null) {
+							bookStoreResponse.setList(stockManager.getBooks());
+						} else {
+							// A single page following the continuation token.
+							int afterISBN = (afterISBNString == null) ? 0
+									: BookStoreUtility.convertStringToInt(afterISBNString);
+							int numBooks = BookStoreUtility.convertStringToInt(numBooksString);
+							bookStoreResponse.setList(stockManager.getBooks(afterISBN, numBooks));
+						}
+					} catch (BookStoreException ex) {
+						bookStoreResponse.setException(ex);
+					}
+
+					return serializer.get().serialize(bookStoreResponse);
+				});
+
+		writeResponse(request, response, serializedResponseContent);
+	}
+
+	/**
+	 * Gets the changes to the books since a version of the catalog.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void getChanges(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		String versionString = request.getParameter(BookStoreConstants.VERSION_PARAM);
+
+		BookStoreResponseContent serializedResponseContent = requestCoalescer.execute(BookStoreMessageTag.GETCHANGES,
+				request.getQueryString(), null, () -> {
+					BookStoreResponse bookStoreResponse = newResponse();
+
+					try {
+						long version = BookStoreUtility.convertStringToLong(versionString);
+						List<CatalogChanges> changes = new ArrayList<>();
+						changes.add(stockManager.getChangesSince(version));
+						bookStoreResponse.setList(changes);
+					} catch (BookStoreException ex) {
+						bookStoreResponse.setException(ex);
+					}
+
+					return serializer.get().serialize(bookStoreResponse);
+				});
+
+		writeResponse(request, response, serializedResponseContent);
+	}
+
+	/**
+	 * Streams the books of the bookstore one page at a time, so the listing is
+	 * never held in memory as a whole. Every page is written and flushed as a
+	 * serialized {@link BookStoreResponse} preceded by its length, which makes
+	 * Jetty send the response with chunked transfer encoding; a length of zero
+	 * ends the stream. An error is sent as a last response holding the
+	 * exception.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void streamBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		DataOutputStream out = new DataOutputStream(response.getOutputStream());
+
 		try {
-			bookStoreResponse.setList(stockManager.getBooks());
+			int pageSize = BookStoreUtility.convertStringToInt(request.getParameter(BookStoreConstants.BOOK_NUM_PARAM));
+
+			if (pageSize <= 0) {
+				throw new BookStoreException("numBooks = " + pageSize + ", but it must be positive");
+			}
+
+			List<StockBook> page = stockManager.getBooks(0, pageSize);
+
+			while (!page.isEmpty()) {
+				BookStoreResponse bookStoreResponse = newResponse();
+				bookStoreResponse.setList(page);
+				writeChunk(out, bookStoreResponse);
+
+				if (page.size() < pageSize) {
+					break;
+				}
+
+				page = stockManager.getBooks(page.get(page.size() - 1).getISBN(), pageSize);
+			}
 		} catch (BookStoreException ex) {
+			BookStoreResponse bookStoreResponse = newResponse();
 			bookStoreResponse.setException(ex);
+			writeChunk(out, bookStoreResponse);
 		}
 
+		out.writeInt(0);
+		out.flush();
+	}
+
+	/**
+	 * Writes a response as one chunk of a streamed response.
+	 *
+	 * @param out
+	 *            the output stream
+	 * @param bookStoreResponse
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void writeChunk(DataOutputStream out, BookStoreResponse bookStoreResponse) throws IOException {
 		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		out.writeInt(serializedResponseContent.length);
+		out.write(serializedResponseContent);
+		out.flush();
+	}
+
+	/**
+	 * Writes a serialized response, compressed with the first encoding the
+	 * client accepts if it is large enough for the compression to pay off.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @param serializedResponseContent
+	 *            the serialized response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void writeResponse(HttpServletRequest request, HttpServletResponse response,
+			byte[] serializedResponseContent) throws IOException {
+		writeResponse(request, response, new BookStoreResponseContent(serializedResponseContent));
+	}
+
+	/**
+	 * Writes a serialized response shared with other requests, reusing its
+	 * compressed form if another request already asked for the same encoding.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @param serializedResponseContent
+	 *            the serialized response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void writeResponse(HttpServletRequest request, HttpServletResponse response,
+			BookStoreResponseContent serializedResponseContent) throws IOException {
+		byte[] content = serializedResponseContent.getContent();
+
+		if (content.length >= BookStoreConstants.COMPRESSION_THRESHOLD_BYTES) {
+			BookStoreContentEncoding encoding = BookStoreContentEncoding.negotiate(request.getHeader("Accept-Encoding"));
+
+			if (encoding != null) {
+				content = serializedResponseContent.getContent(encoding);
+				response.setHeader("Content-Encoding", encoding.getName());
+			}
+		}
+
+		response.getOutputStream().write(content);
 	}
 
 	/**
@@ -313,7 +918,7 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 		byte[] serializedRequestContent = getSerializedRequestContent(request);
 
 		Set<BookCopy> listBookCopies = (Set<BookCopy>) serializer.get().deserialize(serializedRequestContent);
-		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+		BookStoreResponse bookStoreResponse = newResponse();
 
 		try {
 			stockManager.addCopies(listBookCopies);
@@ -322,7 +927,7 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 		}
 
 		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		writeResponse(request, response, serializedResponseContent);
 	}
 
 	/**
@@ -340,16 +945,17 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 		byte[] serializedRequestContent = getSerializedRequestContent(request);
 
 		Set<StockBook> newBooks = (Set<StockBook>) serializer.get().deserialize(serializedRequestContent);
-		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+		BookStoreResponse bookStoreResponse = newResponse();
 
 		try {
 			stockManager.addBooks(newBooks);
+			responseCache.invalidate();
 		} catch (BookStoreException ex) {
 			bookStoreResponse.setException(ex);
 		}
 
 		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		writeResponse(request, response, serializedResponseContent);
 	}
 
 	/**
@@ -361,10 +967,12 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 	 *             Signals that an I/O exception has occurred.
 	 */
 	private void removeAllBooks(HttpServletResponse response) throws IOException {
-		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+		BookStoreResponse bookStoreResponse = newResponse();
 
 		try {
 			stockManager.removeAllBooks();
+			catalogVersion.incrementAndGet();
+			responseCache.invalidate();
 		} catch (BookStoreException ex) {
 			bookStoreResponse.setException(ex);
 		}
@@ -388,18 +996,334 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 		byte[] serializedRequestContent = getSerializedRequestContent(request);
 
 		Set<Integer> bookSet = (Set<Integer>) serializer.get().deserialize(serializedRequestContent);
-		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+		BookStoreResponse bookStoreResponse = newResponse();
 
 		try {
 			stockManager.removeBooks(bookSet);
+			catalogVersion.incrementAndGet();
+			responseCache.invalidate();
 		} catch (BookStoreException ex) {
 			bookStoreResponse.setException(ex);
 		}
 
+		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+		writeResponse(request, response, serializedResponseContent);
+	}
+
+	/**
+	 * Applies a mutation, heartbeat or drop notice sent by the primary.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void replicate(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		String sequenceString = request.getParameter(BookStoreConstants.SEQUENCE_PARAM);
+		String messageTagString = request.getParameter(BookStoreConstants.MESSAGE_TAG_PARAM);
+		boolean succeeded = Boolean.parseBoolean(request.getParameter(BookStoreConstants.SUCCEEDED_PARAM));
+		byte[] serializedRequestContent = getSerializedRequestContent(request);
+
+		Object argument = serializer.get().deserialize(serializedRequestContent);
+		BookStoreResponse bookStoreResponse = newResponse();
+
+		try {
+			if (Boolean.parseBoolean(request.getParameter(BookStoreConstants.DROPPED_PARAM))) {
+				applyDrop();
+			} else if (messageTagString == null) {
+				applyHeartbeat(BookStoreUtility.convertStringToLong(sequenceString));
+			} else {
+				BookStoreMessageTag messageTag = BookStoreUtility.convertURItoMessageTag("/" + messageTagString);
+				applyReplicatedMutation(BookStoreUtility.convertStringToLong(sequenceString), messageTag, argument,
+						succeeded);
+			}
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+		writeResponse(request, response, serializedResponseContent);
+	}
+
+	/**
+	 * Checks if a backup may serve reads: it is in the feed of its primary and
+	 * heard from it within its lease.
+	 *
+	 * @return true, if the backup is in sync
+	 */
+	private boolean isInSync() {
+		return !outOfSync && System.nanoTime() - leaseDeadline < 0;
+	}
+
+	/**
+	 * Renews the lease of a backup.
+	 */
+	private void renewLease() {
+		leaseDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(BookStoreReplicator.LEASE_MILLIS);
+	}
+
+	/**
+	 * Applies the notice of the primary that it dropped the backup from its
+	 * feed, after which the backup no longer serves reads.
+	 *
+	 * @throws BookStoreException
+	 *             if the server is not a backup
+	 */
+	private synchronized void applyDrop() throws BookStoreException {
+		if (!backup) {
+			throw new BookStoreException(BookStoreConstants.MESSAGE_TAG + BookStoreMessageTag.REPLICATE
+					+ BookStoreConstants.INVALID);
+		}
+
+		outOfSync = true;
+		notifyAll();
+	}
+
+	/**
+	 * Waits until a backup has applied every mutation up to a sequence number.
+	 * The primary sends its messages in parallel, so they may arrive out of
+	 * order, but a mutation still missing after a lease is taken as lost.
+	 *
+	 * @param sequence
+	 *            the sequence number
+	 */
+	private synchronized void awaitSequence(long sequence) {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(BookStoreReplicator.LEASE_MILLIS);
+
+		try {
+			for (long remaining = deadline - System.nanoTime(); !outOfSync && lastReplicatedSequence < sequence
+					&& remaining > 0; remaining = deadline - System.nanoTime()) {
+				TimeUnit.NANOSECONDS.timedWait(this, remaining);
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Applies a heartbeat of the primary, renewing the lease of the backup
+	 * once it has applied every mutation up to the sequence number of the
+	 * heartbeat.
+	 *
+	 * @param sequence
+	 *            the sequence number of the last mutation of the primary
+	 * @throws BookStoreException
+	 *             if the server is not a backup or is out of sync
+	 */
+	private synchronized void applyHeartbeat(long sequence) throws BookStoreException {
+		if (!backup) {
+			throw new BookStoreException(BookStoreConstants.MESSAGE_TAG + BookStoreMessageTag.REPLICATE
+					+ BookStoreConstants.INVALID);
+		}
+
+		awaitSequence(sequence);
+
+		if (outOfSync || sequence > lastReplicatedSequence) {
+			outOfSync = true;
+			notifyAll();
+			throw new BookStoreException(BookStoreConstants.SEQUENCE + sequence + BookStoreConstants.OUT_OF_ORDER);
+		}
+
+		renewLease();
+	}
+
+	/**
+	 * Applies a mutation replicated by the primary, in sequence order, waiting
+	 * for the mutations before it if they have not arrived yet. The
+	 * mutation failing on the backup is not an error if it failed on the
+	 * primary too, but any other difference of outcome means that the backup
+	 * diverged, so the primary must drop it.
+	 *
+	 * @param sequence
+	 *            the sequence number of the mutation
+	 * @param messageTag
+	 *            the message tag of the mutation
+	 * @param argument
+	 *            the argument of the mutation
+	 * @param succeeded
+	 *            whether the mutation succeeded on the primary
+	 * @throws BookStoreException
+	 *             if the server is not a backup, the mutation is out of order,
+	 *             or its outcome differs from the one on the primary
+	 */
+	@SuppressWarnings("unchecked")
+	private synchronized void applyReplicatedMutation(long sequence, BookStoreMessageTag messageTag, Object argument,
+			boolean succeeded) throws BookStoreException {
+		// Restoring copies is not a client message, only a replicated one.
+		if (!backup || messageTag == null
+				|| !(isMutation(messageTag) || messageTag == BookStoreMessageTag.RESTORECOPIES)) {
+			throw new BookStoreException(BookStoreConstants.MESSAGE_TAG + messageTag + BookStoreConstants.INVALID);
+		}
+
+		awaitSequence(sequence - 1);
+
+		if (outOfSync || sequence != lastReplicatedSequence + 1) {
+			outOfSync = true;
+			notifyAll();
+			throw new BookStoreException(BookStoreConstants.SEQUENCE + sequence + BookStoreConstants.OUT_OF_ORDER);
+		}
+
+		lastReplicatedSequence = sequence;
+		notifyAll();
+
+		try {
+			switch (messageTag) {
+			case ADDBOOKS:
+				stockManager.addBooks((Set<StockBook>) argument);
+				responseCache.invalidate();
+				break;
+
+			case ADDCOPIES:
+				stockManager.addCopies((Set<BookCopy>) argument);
+				break;
+
+			case RESTORECOPIES:
+				stockRestorer.restoreCopies((Set<BookCopy>) argument);
+				break;
+
+			case UPDATEEDITORPICKS:
+				stockManager.updateEditorPicks((Set<BookEditorPick>) argument);
+				responseCache.invalidate();
+				break;
+
+			case REMOVEALLBOOKS:
+				stockManager.removeAllBooks();
+				catalogVersion.incrementAndGet();
+				responseCache.invalidate();
+				break;
+
+			case REMOVEBOOKS:
+				stockManager.removeBooks((Set<Integer>) argument);
+				catalogVersion.incrementAndGet();
+				responseCache.invalidate();
+				break;
+
+			case BUYBOOKS:
+				bookStore.buyBooks((Set<BookCopy>) argument);
+				break;
+
+			case RATEBOOKS:
+				bookStore.rateBooks((Set<BookRating>) argument);
+				responseCache.invalidate();
+				break;
+
+			default:
+				throw new BookStoreException(BookStoreConstants.MESSAGE_TAG + messageTag + BookStoreConstants.INVALID);
+			}
+		} catch (BookStoreException ex) {
+			if (succeeded) {
+				outOfSync = true;
+				throw new BookStoreException(BookStoreConstants.SEQUENCE + sequence + BookStoreConstants.DIVERGED, ex);
+			}
+
+			renewLease();
+			return;
+		}
+
+		if (!succeeded) {
+			outOfSync = true;
+			throw new BookStoreException(BookStoreConstants.SEQUENCE + sequence + BookStoreConstants.DIVERGED);
+		}
+
+		renewLease();
+	}
+
+	/**
+	 * Rejects a mutation sent by a client to a backup.
+	 *
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void rejectMutation(HttpServletResponse response) throws IOException {
+		BookStoreResponse bookStoreResponse = newResponse();
+		bookStoreResponse.setException(new BookStoreException(BookStoreConstants.READ_ONLY_BACKUP));
+
+		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+		response.getOutputStream().write(serializedResponseContent);
+	}
+
+	/**
+	 * Rejects a read sent by a client to a backup out of sync.
+	 *
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void rejectOutOfSync(HttpServletResponse response) throws IOException {
+		BookStoreResponse bookStoreResponse = newResponse();
+		bookStoreResponse.setException(new BookStoreException(BookStoreConstants.OUT_OF_SYNC_BACKUP));
+
+		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+		response.getOutputStream().write(serializedResponseContent);
+	}
+
+	/**
+	 * Rejects a request beyond the concurrency limit of its message, with a
+	 * retryable exception and the status telling HTTP clients to come back
+	 * later.
+	 *
+	 * @param messageTag
+	 *            the message tag
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void rejectOverloaded(BookStoreMessageTag messageTag, HttpServletResponse response) throws IOException {
+		response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+		response.setHeader("Retry-After", "1");
+
+		BookStoreResponse bookStoreResponse = newResponse();
+		bookStoreResponse.setException(new BookStoreRetryableException(BookStoreConstants.OVERLOADED + messageTag));
+
 		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
 		response.getOutputStream().write(serializedResponseContent);
 	}
 
+	/**
+	 * Checks if a message changes the store.
+	 *
+	 * @param messageTag
+	 *            the message tag
+	 * @return true, if the message is a mutation
+	 */
+	private static boolean isMutation(BookStoreMessageTag messageTag) {
+		switch (messageTag) {
+		case ADDBOOKS:
+		case ADDCOPIES:
+		case UPDATEEDITORPICKS:
+		case REMOVEALLBOOKS:
+		case REMOVEBOOKS:
+		case BUYBOOKS:
+		case RATEBOOKS:
+		case PREPAREBUYBOOKS:
+		case COMMITBUYBOOKS:
+		case ABORTBUYBOOKS:
+			return true;
+
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Creates a new response stamped with the current catalog version. The
+	 * version is read before the store is invoked, so a stamp is never newer
+	 * than the data it is returned with.
+	 *
+	 * @return the book store response
+	 */
+	private BookStoreResponse newResponse() {
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+		bookStoreResponse.setVersion(catalogVersion.get());
+		return bookStoreResponse;
+	}
+
 	/**
 	 * Gets the serialized request content.
 	 *
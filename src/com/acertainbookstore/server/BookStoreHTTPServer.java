@@ -1,7 +1,18 @@
 package com.acertainbookstore.server;
 
+import java.util.Arrays;
+
 import com.acertainbookstore.business.SingleLockConcurrentCertainBookStore;
+import com.acertainbookstore.business.SingleWriterConcurrentCertainBookStore;
+import com.acertainbookstore.business.LockManager;
+import com.acertainbookstore.business.OptimisticConcurrentCertainBookStore;
+import com.acertainbookstore.business.LockManager.DeadlockPolicy;
+import com.acertainbookstore.business.TransactionalConcurrentCertainBookStore;
 import com.acertainbookstore.business.TwoLevelLockingConcurrentCertainBookStore;
+import com.acertainbookstore.business.TwoLevelLockingConcurrentCertainBookStore.IsolationLevel;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.interfaces.StockRestorer;
 
 import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import com.acertainbookstore.utils.BookStoreConstants;
@@ -19,7 +30,9 @@ public class BookStoreHTTPServer {
 	
 	/** The constant, defining which locking scheme implementation to use
 	 *  true - single lock 
-	 *  false - two-level locking */
+	 *  false - two-level locking
+	 *  unless the optimistic, transactional or singlewriter property selects
+	 *  another store */
 	private static final boolean SINGLE_LOCK = true;
 
 	/**
@@ -38,17 +51,87 @@ public class BookStoreHTTPServer {
 	public static void main(String[] args) {
 		int listenOnPort = DEFAULT_PORT;
 		
-		BookStoreHTTPMessageHandler handler = null;
+		BookStore bookStore = null;
+		StockManager stockManager = null;
+		StockRestorer stockRestorer = null;
 		
-		if (SINGLE_LOCK) {
-			SingleLockConcurrentCertainBookStore bookStore = new SingleLockConcurrentCertainBookStore();
-			/* we pass bookStore to BookStoreHTTPMessageHandler constructor twice, 
+		if (Boolean.parseBoolean(System.getProperty(BookStoreConstants.PROPERTY_KEY_OPTIMISTIC))) {
+			OptimisticConcurrentCertainBookStore store = new OptimisticConcurrentCertainBookStore();
+			bookStore = store;
+			stockManager = store;
+			stockRestorer = store;
+		} else if (Boolean.parseBoolean(System.getProperty(BookStoreConstants.PROPERTY_KEY_TRANSACTIONAL))) {
+			TransactionalConcurrentCertainBookStore store = new TransactionalConcurrentCertainBookStore();
+			bookStore = store;
+			stockManager = store;
+			stockRestorer = store;
+		} else if (Boolean.parseBoolean(System.getProperty(BookStoreConstants.PROPERTY_KEY_SINGLE_WRITER))) {
+			SingleWriterConcurrentCertainBookStore store = new SingleWriterConcurrentCertainBookStore();
+			bookStore = store;
+			stockManager = store;
+			stockRestorer = store;
+		} else if (SINGLE_LOCK) {
+			boolean combineBuyBooks = Boolean
+					.parseBoolean(System.getProperty(BookStoreConstants.PROPERTY_KEY_COMBINE_BUY_BOOKS));
+			SingleLockConcurrentCertainBookStore store = new SingleLockConcurrentCertainBookStore(combineBuyBooks);
+			/* the store is passed as both the book store and the stock manager, 
 			 * since it implements both interfaces: BookStore and StockManager */
-			handler = new BookStoreHTTPMessageHandler(bookStore, bookStore);
+			bookStore = store;
+			stockManager = store;
+			stockRestorer = store;
 		} else {
-			TwoLevelLockingConcurrentCertainBookStore bookStore = new TwoLevelLockingConcurrentCertainBookStore();
-			handler = new BookStoreHTTPMessageHandler(bookStore, bookStore);
-		}		
+			// The deadlock policy, lock timeout and isolation level default
+			// to deadlock detection, 5 seconds and serializable reads.
+			String deadlockPolicyString = System.getProperty(BookStoreConstants.PROPERTY_KEY_DEADLOCK_POLICY,
+					DeadlockPolicy.DETECT.name());
+			String lockTimeoutString = System.getProperty(BookStoreConstants.PROPERTY_KEY_LOCK_TIMEOUT,
+					String.valueOf(LockManager.DEFAULT_LOCK_TIMEOUT_MILLIS));
+			String isolationString = System.getProperty(BookStoreConstants.PROPERTY_KEY_ISOLATION,
+					IsolationLevel.SERIALIZABLE.name());
+			TwoLevelLockingConcurrentCertainBookStore store;
+
+			try {
+				store = new TwoLevelLockingConcurrentCertainBookStore(
+						DeadlockPolicy.valueOf(deadlockPolicyString.toUpperCase()), Long.parseLong(lockTimeoutString),
+						IsolationLevel.valueOf(isolationString.toUpperCase()));
+			} catch (IllegalArgumentException ex) {
+				System.err.println("Unsupported locking configuration: " + ex.getMessage());
+				return;
+			}
+
+			bookStore = store;
+			stockManager = store;
+			stockRestorer = store;
+		}
+
+		// A primary replicates its mutations to the backups given by the
+		// backups property, a backup only accepts replicated mutations.
+		String backupsString = System.getProperty(BookStoreConstants.PROPERTY_KEY_BACKUPS);
+		boolean backup = Boolean.parseBoolean(System.getProperty(BookStoreConstants.PROPERTY_KEY_BACKUP));
+
+		if (backupsString != null && !backupsString.isEmpty()) {
+			try {
+				BookStoreReplicator replicator = new BookStoreReplicator(Arrays.asList(backupsString.split(",")));
+				ReplicatingCertainBookStore store = new ReplicatingCertainBookStore(bookStore, stockManager, stockRestorer,
+						replicator);
+				bookStore = store;
+				stockManager = store;
+				stockRestorer = store;
+			} catch (Exception ex) {
+				System.err.println("Could not start the replicator: " + ex);
+				return;
+			}
+		}
+
+		// Admission control is on unless the admissioncontrol property is
+		// false, e.g. to measure the store without it.
+		String admissionControlString = System.getProperty(BookStoreConstants.PROPERTY_KEY_ADMISSION_CONTROL);
+		AdmissionController admissionController = admissionControlString == null
+				|| Boolean.parseBoolean(admissionControlString) ? new AdmissionController()
+						: AdmissionController.unlimited();
+
+		BookStoreHTTPMessageHandler handler = new BookStoreHTTPMessageHandler(bookStore, stockManager, stockRestorer,
+				backup, admissionController);
 		
 		String serverPortString = System.getProperty(BookStoreConstants.PROPERTY_KEY_SERVER_PORT);
 
@@ -4,11 +4,16 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.server.handler.AbstractHandler;
 import org.eclipse.jetty.util.thread.QueuedThreadPool;
 
+import com.acertainbookstore.utils.BookStoreConstants;
+
 /**
  * {@link BookStoreHTTPServerUtility} creates Jetty server instances.
  */
@@ -21,6 +26,22 @@ public class BookStoreHTTPServerUtility {
 		// Prevent instances from being created.
 	}
 
+	/**
+	 * Creates a connector serving both HTTP/1.1 and HTTP/2 cleartext (h2c) on
+	 * the same port. HTTP/2 clients send the connection preface directly, and
+	 * HTTP/1.1 clients may upgrade.
+	 *
+	 * @param server
+	 *            the server
+	 * @return the connector
+	 */
+	private static ServerConnector createConnector(Server server) {
+		HttpConfiguration httpConfiguration = new HttpConfiguration();
+		HTTP2CServerConnectionFactory http2ConnectionFactory = new HTTP2CServerConnectionFactory(httpConfiguration);
+		http2ConnectionFactory.setMaxConcurrentStreams(BookStoreConstants.HTTP2_MAX_CONCURRENT_STREAMS);
+		return new ServerConnector(server, new HttpConnectionFactory(httpConfiguration), http2ConnectionFactory);
+	}
+
 	/**
 	 * Creates a server on the port and blocks the calling thread.
 	 *
@@ -28,18 +49,14 @@ public class BookStoreHTTPServerUtility {
 	 *            the port
 	 * @param handler
 	 *            the handler
-	 * @return true, if successful
+	 * @param threadpool
+	 *            the thread pool, or null for the default one
 	 */
 	public static void createServer(int port, AbstractHandler handler, QueuedThreadPool threadpool) {
-		Server server = null;
-		if (threadpool != null) {
-			server = new Server(threadpool);
-			ServerConnector myConnector = new ServerConnector(server);
-			myConnector.setPort(port);
-			server.addConnector(myConnector);
-		} else {
-			server = new Server(port);
-		}
+		Server server = threadpool != null ? new Server(threadpool) : new Server();
+		ServerConnector myConnector = createConnector(server);
+		myConnector.setPort(port);
+		server.addConnector(myConnector);
 
 		if (handler != null) {
 			server.setHandler(handler);
@@ -82,7 +99,11 @@ public class BookStoreHTTPServerUtility {
 			return false;
 		}
 
-		server = new Server(address);
+		server = new Server();
+		ServerConnector myConnector = createConnector(server);
+		myConnector.setHost(address.getHostString());
+		myConnector.setPort(address.getPort());
+		server.addConnector(myConnector);
 
 		if (handler != null) {
 			server.setHandler(handler);
@@ -0,0 +1,276 @@
+package com.acertainbookstore.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+import com.acertainbookstore.client.BookStoreClientConstants;
+import com.acertainbookstore.interfaces.BookStoreSerializer;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreKryoSerializer;
+import com.acertainbookstore.utils.BookStoreMessageTag;
+import com.acertainbookstore.utils.BookStoreRequest;
+import com.acertainbookstore.utils.BookStoreUtility;
+import com.acertainbookstore.utils.BookStoreXStreamSerializer;
+
+/**
+ * {@link BookStoreReplicator} streams the ordered feed of mutations applied on
+ * a primary server to its backup servers. Every mutation gets the next
+ * sequence number and is sent as a {@link BookStoreMessageTag#REPLICATE}
+ * message to every backup, together with whether it succeeded on the primary.
+ * A backup acknowledges the mutation once it has applied it with the same
+ * outcome. A backup that fails to acknowledge a mutation is out of sync and is
+ * dropped from the feed.
+ * <p>
+ * The messages go to the backups in parallel, and the acknowledgements are
+ * awaited without holding the lock ordering the mutations of the primary, so
+ * several mutations are in flight at once. A backup applies them in sequence
+ * order whatever the order they arrive in.
+ * <p>
+ * A dropped backup is told so before the mutation it missed completes, and
+ * stops serving reads, so a client never reads its own writes missing from a
+ * backup. A backup that cannot be told either is cut off from its primary:
+ * every mutation and heartbeat renews a lease outside of which a backup does
+ * not serve reads, so it stops serving its frozen state once the lease runs
+ * out. The heartbeats of the backups still in the feed carry the last sequence
+ * number, and are sent alongside the mutations rather than between them.
+ *
+ * @see ReplicatingCertainBookStore
+ * @see BookStoreHTTPMessageHandler
+ */
+public class BookStoreReplicator {
+
+	/** The interval between heartbeats in milliseconds. */
+	public static final long HEARTBEAT_INTERVAL_MILLIS = 500;
+
+	/**
+	 * The lease of a backup in milliseconds, long enough to miss a few
+	 * heartbeats.
+	 */
+	public static final long LEASE_MILLIS = 4 * HEARTBEAT_INTERVAL_MILLIS;
+
+	/** The client. */
+	private final HttpClient client;
+
+	/** The addresses of the backups still in sync. */
+	private final List<String> backupAddresses;
+
+	/** The serializer. */
+	private final ThreadLocal<BookStoreSerializer> serializer;
+
+	/** The sequence number of the last replicated mutation. */
+	private final AtomicLong sequence = new AtomicLong(0);
+
+	/**
+	 * The notices sent to the dropped backups, completed once the backup was
+	 * told or could not be reached.
+	 */
+	private final ConcurrentHashMap<String, CompletableFuture<Void>> dropNotices = new ConcurrentHashMap<>();
+
+	/** The thread sending the heartbeats. */
+	private final ScheduledExecutorService executor;
+
+	/** The threads sending the messages to the backups in parallel. */
+	private final ExecutorService senders;
+
+	/**
+	 * Instantiates a new {@link BookStoreReplicator}.
+	 *
+	 * @param backupAddresses
+	 *            the addresses of the backup servers
+	 * @throws Exception
+	 *             the exception
+	 */
+	public BookStoreReplicator(List<String> backupAddresses) throws Exception {
+		this.backupAddresses = new CopyOnWriteArrayList<>(backupAddresses);
+
+		// Setup the type of serializer.
+		if (BookStoreConstants.BINARY_SERIALIZATION) {
+			serializer = ThreadLocal.withInitial(BookStoreKryoSerializer::new);
+		} else {
+			serializer = ThreadLocal.withInitial(BookStoreXStreamSerializer::new);
+		}
+
+		client = new HttpClient();
+		client.setExecutor(new QueuedThreadPool(BookStoreClientConstants.CLIENT_MAX_THREADSPOOL_THREADS));
+		client.setConnectTimeout(BookStoreClientConstants.CLIENT_MAX_TIMEOUT_MILLISECS);
+		client.start();
+
+		senders = Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "replication-sender");
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "replication-heartbeat");
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor.scheduleWithFixedDelay(this::heartbeat, 0, HEARTBEAT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Gets the addresses of the backups still in sync.
+	 *
+	 * @return the backup addresses
+	 */
+	public List<String> getBackupAddresses() {
+		return backupAddresses;
+	}
+
+	/**
+	 * Sends a mutation that succeeded on the primary to all backups. The
+	 * caller must hold the lock ordering the mutations of the primary, but
+	 * should release it before waiting for the acknowledgements.
+	 *
+	 * @param messageTag
+	 *            the message tag of the mutation
+	 * @param argument
+	 *            the argument of the mutation
+	 * @return the future completed once every backup acknowledged the
+	 *         mutation or was dropped
+	 */
+	public CompletableFuture<Void> replicate(BookStoreMessageTag messageTag, Object argument) {
+		return replicate(messageTag, argument, true);
+	}
+
+	/**
+	 * Sends a mutation to all backups. The caller must hold the lock ordering
+	 * the mutations of the primary, but should release it before waiting for
+	 * the acknowledgements.
+	 *
+	 * @param messageTag
+	 *            the message tag of the mutation
+	 * @param argument
+	 *            the argument of the mutation
+	 * @param succeeded
+	 *            whether the mutation succeeded on the primary
+	 * @return the future completed once every backup acknowledged the
+	 *         mutation or was dropped
+	 */
+	public CompletableFuture<Void> replicate(BookStoreMessageTag messageTag, Object argument, boolean succeeded) {
+		return sendToAll(sequence.incrementAndGet(), BookStoreConstants.MESSAGE_TAG_PARAM + "=" + messageTag + "&"
+				+ BookStoreConstants.SUCCEEDED_PARAM + "=" + succeeded, argument);
+	}
+
+	/**
+	 * Sends a heartbeat to all backups, renewing their lease once they have
+	 * applied every mutation up to the sequence number of the heartbeat.
+	 */
+	private void heartbeat() {
+		sendToAll(sequence.get(), null, "").join();
+	}
+
+	/**
+	 * Sends a {@link BookStoreMessageTag#REPLICATE} message to all backups in
+	 * parallel.
+	 *
+	 * @param messageSequence
+	 *            the sequence number of the message
+	 * @param parameters
+	 *            the parameters of the mutation, or null for a heartbeat
+	 * @param argument
+	 *            the argument of the mutation
+	 * @return the future completed once every backup acknowledged the message
+	 *         or was dropped
+	 */
+	private CompletableFuture<Void> sendToAll(long messageSequence, String parameters, Object argument) {
+		List<CompletableFuture<Void>> sends = new ArrayList<>();
+
+		for (String backupAddress : backupAddresses) {
+			sends.add(CompletableFuture.runAsync(() -> send(backupAddress, messageSequence, parameters, argument),
+					senders));
+		}
+
+		return CompletableFuture.allOf(sends.toArray(new CompletableFuture<?>[sends.size()]));
+	}
+
+	/**
+	 * Sends a {@link BookStoreMessageTag#REPLICATE} message to a backup,
+	 * dropping the backup if it does not acknowledge it.
+	 *
+	 * @param backupAddress
+	 *            the address of the backup
+	 * @param messageSequence
+	 *            the sequence number of the message
+	 * @param parameters
+	 *            the parameters of the mutation, or null for a heartbeat
+	 * @param argument
+	 *            the argument of the mutation
+	 */
+	private void send(String backupAddress, long messageSequence, String parameters, Object argument) {
+		String urlString = backupAddress + "/" + BookStoreMessageTag.REPLICATE + "?"
+				+ BookStoreConstants.SEQUENCE_PARAM + "=" + messageSequence
+				+ (parameters == null ? "" : "&" + parameters);
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, argument);
+
+		try {
+			BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+		} catch (BookStoreException | RuntimeException ex) {
+			drop(backupAddress, messageSequence, ex);
+		}
+	}
+
+	/**
+	 * Drops a backup from the feed and tells it so, waiting until it was told
+	 * even if another message already dropped it.
+	 *
+	 * @param backupAddress
+	 *            the address of the backup
+	 * @param messageSequence
+	 *            the sequence number of the message the backup did not
+	 *            acknowledge
+	 * @param ex
+	 *            the reason
+	 */
+	private void drop(String backupAddress, long messageSequence, Exception ex) {
+		CompletableFuture<Void> dropNotice = new CompletableFuture<>();
+		CompletableFuture<Void> previousDropNotice = dropNotices.putIfAbsent(backupAddress, dropNotice);
+
+		if (previousDropNotice != null) {
+			previousDropNotice.join();
+			return;
+		}
+
+		System.err.println("Dropping backup " + backupAddress + " at sequence " + messageSequence + ": " + ex);
+		backupAddresses.remove(backupAddress);
+
+		String urlString = backupAddress + "/" + BookStoreMessageTag.REPLICATE + "?"
+				+ BookStoreConstants.DROPPED_PARAM + "=true";
+
+		try {
+			BookStoreUtility.performHttpExchange(client, BookStoreRequest.newPostRequest(urlString, ""),
+					serializer.get());
+		} catch (BookStoreException | RuntimeException dropEx) {
+			// The lease of the backup runs out instead.
+			;
+		} finally {
+			dropNotice.complete(null);
+		}
+	}
+
+	/**
+	 * Stops the replicator.
+	 */
+	public void stop() {
+		executor.shutdownNow();
+		senders.shutdownNow();
+
+		try {
+			client.stop();
+		} catch (Exception ex) {
+			System.err.println(ex.getStackTrace());
+		}
+	}
+}
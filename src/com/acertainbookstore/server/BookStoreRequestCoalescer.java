@@ -0,0 +1,239 @@
+package com.acertainbookstore.server;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.acertainbookstore.utils.BookStoreMessageTag;
+
+/**
+ * {@link BookStoreRequestCoalescer} coalesces concurrent identical read-only
+ * requests: the first request with a given message tag, parameters and
+ * payload computes the serialized response, and the identical requests
+ * arriving while it does wait for it and send the same response, compressed
+ * once per encoding, instead of each invoking the store and serializing the
+ * same result.
+ *
+ * <p>
+ * A request only joins a computation if no mutation has completed since the
+ * computation started, so the shared response is as recent as one computed
+ * for the request itself. The handler signals the completed mutations with
+ * {@link #invalidate()}.
+ *
+ * @see BookStoreHTTPMessageHandler
+ */
+public class BookStoreRequestCoalescer {
+
+	/**
+	 * {@link ResponseComputation} computes a serialized response.
+	 */
+	@FunctionalInterface
+	public interface ResponseComputation {
+
+		/**
+		 * Computes the serialized response.
+		 *
+		 * @return the serialized response
+		 * @throws IOException
+		 *             Signals that an I/O exception has occurred.
+		 */
+		byte[] compute() throws IOException;
+	}
+
+	/**
+	 * {@link RequestKey} identifies identical requests by their message tag,
+	 * parameters and payload.
+	 */
+	private static final class RequestKey {
+
+		/** The message tag. */
+		private final BookStoreMessageTag messageTag;
+
+		/** The query string of the request. */
+		private final String parameters;
+
+		/** The serialized request content. */
+		private final byte[] payload;
+
+		/** The hash code, computed once. */
+		private final int hashCode;
+
+		/**
+		 * Instantiates a new {@link RequestKey}.
+		 *
+		 * @param messageTag
+		 *            the message tag
+		 * @param parameters
+		 *            the query string of the request
+		 * @param payload
+		 *            the serialized request content
+		 */
+		private RequestKey(BookStoreMessageTag messageTag, String parameters, byte[] payload) {
+			this.messageTag = messageTag;
+			this.parameters = parameters;
+			this.payload = payload;
+			this.hashCode = 31 * (31 * messageTag.hashCode() + Objects.hashCode(parameters)) + Arrays.hashCode(payload);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.lang.Object#hashCode()
+		 */
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.lang.Object#equals(java.lang.Object)
+		 */
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+
+			if (!(obj instanceof RequestKey)) {
+				return false;
+			}
+
+			RequestKey other = (RequestKey) obj;
+			return hashCode == other.hashCode && messageTag == other.messageTag
+					&& Objects.equals(parameters, other.parameters) && Arrays.equals(payload, other.payload);
+		}
+	}
+
+	/**
+	 * {@link Flight} is a computation in progress, together with the
+	 * generation in which it started.
+	 */
+	private static final class Flight {
+
+		/** The generation. */
+		private final long generation;
+
+		/** The serialized response, completed by the computing request. */
+		private final CompletableFuture<BookStoreResponseContent> content = new CompletableFuture<>();
+
+		/**
+		 * Instantiates a new {@link Flight}.
+		 *
+		 * @param generation
+		 *            the generation
+		 */
+		private Flight(long generation) {
+			this.generation = generation;
+		}
+	}
+
+	/** The computations in progress. */
+	private final ConcurrentHashMap<RequestKey, Flight> flights = new ConcurrentHashMap<>();
+
+	/** The current generation, incremented after every mutation. */
+	private final AtomicLong generation = new AtomicLong(0);
+
+	/** The number of requests that shared the response of another. */
+	private final AtomicLong numCoalesced = new AtomicLong(0);
+
+	/**
+	 * Gets the serialized response of a read-only request, either computed by
+	 * an identical request in progress or by this one.
+	 *
+	 * @param messageTag
+	 *            the message tag
+	 * @param parameters
+	 *            the query string of the request, or null
+	 * @param payload
+	 *            the serialized request content
+	 * @param computation
+	 *            the computation of the serialized response
+	 * @return the serialized response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public BookStoreResponseContent execute(BookStoreMessageTag messageTag, String parameters, byte[] payload,
+			ResponseComputation computation) throws IOException {
+		RequestKey key = new RequestKey(messageTag, parameters, payload);
+		Flight flight = new Flight(generation.get());
+
+		while (true) {
+			Flight current = flights.putIfAbsent(key, flight);
+
+			if (current == null) {
+				break;
+			}
+
+			if (current.generation == flight.generation) {
+				numCoalesced.incrementAndGet();
+				return join(current);
+			}
+
+			// The computation in progress may miss a completed mutation.
+			if (flights.replace(key, current, flight)) {
+				break;
+			}
+		}
+
+		try {
+			BookStoreResponseContent content = new BookStoreResponseContent(computation.compute());
+			flight.content.complete(content);
+			return content;
+		} catch (IOException | RuntimeException | Error ex) {
+			flight.content.completeExceptionally(ex);
+			throw ex;
+		} finally {
+			flights.remove(key, flight);
+		}
+	}
+
+	/**
+	 * Waits for the response of a computation in progress.
+	 *
+	 * @param flight
+	 *            the computation
+	 * @return the serialized response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private static BookStoreResponseContent join(Flight flight) throws IOException {
+		try {
+			return flight.content.join();
+		} catch (CompletionException ex) {
+			Throwable cause = ex.getCause();
+
+			if (cause instanceof IOException) {
+				throw new IOException(cause.getMessage(), cause);
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+
+			throw ex;
+		}
+	}
+
+	/**
+	 * Starts a new generation after a mutation has completed, so that the
+	 * requests arriving from now on do not join the computations in progress.
+	 */
+	public void invalidate() {
+		generation.incrementAndGet();
+	}
+
+	/**
+	 * Gets the number of requests that shared the response of another.
+	 *
+	 * @return the number of requests
+	 */
+	public long getNumCoalesced() {
+		return numCoalesced.get();
+	}
+}
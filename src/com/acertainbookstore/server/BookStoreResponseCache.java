@@ -0,0 +1,148 @@
+package com.acertainbookstore.server;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link BookStoreResponseCache} caches serialized responses of read-only
+ * messages, keyed by message tag and parameters, together with their
+ * compressed forms. Every entry is tagged with
+ * the generation in which its response was computed; invalidating the cache
+ * starts a new generation, so a response computed concurrently with an
+ * invalidation can never be served afterwards.
+ * <p>
+ * The keys carry parameters sent by the clients, such as the number of books
+ * asked for, so the cache holds at most a fixed number of entries and does not
+ * cache the responses of new keys once it is full, until the next
+ * invalidation. A cached response is served as it is, so a response built from
+ * a random choice, such as the editor picks, repeats the same choice until
+ * then.
+ *
+ * @see BookStoreHTTPMessageHandler
+ */
+public class BookStoreResponseCache {
+
+	/**
+	 * {@link CachedResponse} holds a serialized response together with the
+	 * generation it belongs to.
+	 */
+	private static final class CachedResponse {
+
+		/** The generation. */
+		private final long generation;
+
+		/** The serialized response. */
+		private final BookStoreResponseContent content;
+
+		/**
+		 * Instantiates a new {@link CachedResponse}.
+		 *
+		 * @param generation
+		 *            the generation
+		 * @param content
+		 *            the serialized response
+		 */
+		private CachedResponse(long generation, BookStoreResponseContent content) {
+			this.generation = generation;
+			this.content = content;
+		}
+	}
+
+	/** The default maximum number of cached responses. */
+	public static final int DEFAULT_CAPACITY = 256;
+
+	/** The maximum number of cached responses. */
+	private final int capacity;
+
+	/** The cached responses. */
+	private final ConcurrentHashMap<String, CachedResponse> responses = new ConcurrentHashMap<>();
+
+	/** The current generation. */
+	private final AtomicLong generation = new AtomicLong(0);
+
+	/**
+	 * Instantiates a new {@link BookStoreResponseCache} with the default
+	 * capacity.
+	 */
+	public BookStoreResponseCache() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Instantiates a new {@link BookStoreResponseCache}.
+	 *
+	 * @param capacity
+	 *            the maximum number of cached responses
+	 */
+	public BookStoreResponseCache(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity = " + capacity + ", but it must be positive");
+		}
+
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Gets the current generation. It must be read before the response to be
+	 * cached is computed.
+	 *
+	 * @return the generation
+	 */
+	public long getGeneration() {
+		return generation.get();
+	}
+
+	/**
+	 * Gets the cached response for the key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the serialized response, or null if there is no valid entry
+	 */
+	public BookStoreResponseContent get(String key) {
+		CachedResponse cachedResponse = responses.get(key);
+
+		if (cachedResponse == null || cachedResponse.generation != generation.get()) {
+			return null;
+		}
+
+		return cachedResponse.content;
+	}
+
+	/**
+	 * Caches a serialized response computed in the given generation. The
+	 * response is dropped if the cache was invalidated in the meantime, or if
+	 * the cache is full and holds no entry for the key.
+	 *
+	 * @param key
+	 *            the key
+	 * @param responseGeneration
+	 *            the generation read before computing the response
+	 * @param content
+	 *            the serialized response
+	 */
+	public synchronized void put(String key, long responseGeneration, BookStoreResponseContent content) {
+		if (responseGeneration == generation.get()
+				&& (responses.size() < capacity || responses.containsKey(key))) {
+			responses.put(key, new CachedResponse(responseGeneration, content));
+		}
+	}
+
+	/**
+	 * Gets the number of cached responses, including those of past
+	 * generations not cleared yet.
+	 *
+	 * @return the size
+	 */
+	public int size() {
+		return responses.size();
+	}
+
+	/**
+	 * Invalidates all cached responses.
+	 */
+	public void invalidate() {
+		generation.incrementAndGet();
+		responses.clear();
+	}
+}
@@ -0,0 +1,76 @@
+package com.acertainbookstore.server;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.acertainbookstore.utils.BookStoreContentEncoding;
+
+/**
+ * {@link BookStoreResponseContent} holds a serialized response together with
+ * its compressed forms, each computed the first time a client accepting its
+ * encoding is sent the response. A response shared through the response cache
+ * or the request coalescer is thus compressed once per encoding rather than
+ * once per request.
+ *
+ * @see BookStoreResponseCache
+ * @see BookStoreRequestCoalescer
+ */
+public class BookStoreResponseContent {
+
+	/** The serialized response. */
+	private final byte[] content;
+
+	/** The compressed responses computed so far, by encoding. */
+	private final AtomicReferenceArray<byte[]> encodedContents = new AtomicReferenceArray<>(
+			BookStoreContentEncoding.values().length);
+
+	/**
+	 * Instantiates a new {@link BookStoreResponseContent}.
+	 *
+	 * @param content
+	 *            the serialized response
+	 */
+	public BookStoreResponseContent(byte[] content) {
+		this.content = content;
+	}
+
+	/**
+	 * Gets the serialized response.
+	 *
+	 * @return the serialized response
+	 */
+	public byte[] getContent() {
+		return content;
+	}
+
+	/**
+	 * Gets the serialized response compressed with an encoding, compressing it
+	 * if no request has asked for this encoding yet.
+	 *
+	 * @param encoding
+	 *            the encoding
+	 * @return the compressed response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public byte[] getContent(BookStoreContentEncoding encoding) throws IOException {
+		byte[] encodedContent = encodedContents.get(encoding.ordinal());
+
+		if (encodedContent != null) {
+			return encodedContent;
+		}
+
+		// The concurrent requests asking for the same encoding wait for a
+		// single compression.
+		synchronized (this) {
+			encodedContent = encodedContents.get(encoding.ordinal());
+
+			if (encodedContent == null) {
+				encodedContent = encoding.encode(content);
+				encodedContents.set(encoding.ordinal(), encodedContent);
+			}
+
+			return encodedContent;
+		}
+	}
+}
@@ -0,0 +1,199 @@
+package com.acertainbookstore.server;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.BookStoreParticipant;
+import com.acertainbookstore.interfaces.StockRestorer;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link BookStoreShardParticipant} implements the {@link BookStoreParticipant}
+ * side of a server on top of its store. Preparing a purchase buys the copies
+ * right away, which reserves them atomically; committing forgets the
+ * reservation and aborting puts the copies back into stock, keeping the sale
+ * misses of the books since the copies were never sold.
+ * <p>
+ * Only the coordinator decides the outcome of a transaction, so the copies of
+ * a prepared transaction stay reserved until its commit or abort arrives, and
+ * the commit of a prepared transaction always succeeds. An abort arriving
+ * while the transaction is still being prepared undoes the prepare once it
+ * ends, and the prepare then fails.
+ *
+ * @see BookStoreParticipant
+ * @see BookStoreHTTPMessageHandler
+ */
+public class BookStoreShardParticipant implements BookStoreParticipant {
+
+	/** The book store. */
+	private final BookStore bookStore;
+
+	/** The stock restorer. */
+	private final StockRestorer stockRestorer;
+
+	/** The prepared transactions. */
+	private final ConcurrentHashMap<String, PreparedTransaction> preparedTransactions = new ConcurrentHashMap<>();
+
+	/**
+	 * Instantiates a new {@link BookStoreShardParticipant}.
+	 *
+	 * @param bookStore
+	 *            the book store
+	 * @param stockRestorer
+	 *            the stock restorer
+	 */
+	public BookStoreShardParticipant(BookStore bookStore, StockRestorer stockRestorer) {
+		this.bookStore = bookStore;
+		this.stockRestorer = stockRestorer;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreParticipant#prepareBuyBooks(java.
+	 * lang.String, java.util.Set)
+	 */
+	@Override
+	public void prepareBuyBooks(String transactionId, Set<BookCopy> booksToBuy) throws BookStoreException {
+		if (transactionId == null || booksToBuy == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		// The transaction is registered before its copies are bought, so that
+		// a concurrent prepare of the same transaction cannot reserve them
+		// twice.
+		PreparedTransaction preparedTransaction = new PreparedTransaction(booksToBuy);
+
+		if (preparedTransactions.putIfAbsent(transactionId, preparedTransaction) != null) {
+			throw new BookStoreException(BookStoreConstants.TRANSACTION + transactionId + BookStoreConstants.DUPLICATED);
+		}
+
+		// The purchase is all-or-nothing, so either every copy is reserved or
+		// none is and the sale misses are recorded as for a normal purchase.
+		try {
+			bookStore.buyBooks(booksToBuy);
+		} catch (BookStoreException | RuntimeException ex) {
+			preparedTransactions.remove(transactionId, preparedTransaction);
+			throw ex;
+		}
+
+		if (!preparedTransaction.reserve()) {
+			stockRestorer.restoreCopies(booksToBuy);
+			throw new BookStoreException(BookStoreConstants.TRANSACTION_ABORTED + transactionId);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreParticipant#commitBuyBooks(java.
+	 * lang.String)
+	 */
+	@Override
+	public void commitBuyBooks(String transactionId) throws BookStoreException {
+		if (transactionId == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		PreparedTransaction preparedTransaction = preparedTransactions.get(transactionId);
+
+		// A transaction still being prepared cannot be committed yet.
+		if (preparedTransaction == null || !preparedTransaction.isReserved()
+				|| !preparedTransactions.remove(transactionId, preparedTransaction)) {
+			throw new BookStoreException(BookStoreConstants.TRANSACTION + transactionId + BookStoreConstants.NOT_AVAILABLE);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreParticipant#abortBuyBooks(java.
+	 * lang.String)
+	 */
+	@Override
+	public void abortBuyBooks(String transactionId) throws BookStoreException {
+		if (transactionId == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		PreparedTransaction preparedTransaction = preparedTransactions.remove(transactionId);
+
+		// A transaction still being prepared is undone by its prepare.
+		if (preparedTransaction != null && preparedTransaction.abort()) {
+			stockRestorer.restoreCopies(preparedTransaction.reservedCopies);
+		}
+	}
+
+	/**
+	 * Gets the number of prepared transactions neither committed nor aborted.
+	 *
+	 * @return the number of prepared transactions
+	 */
+	public int getNumPreparedTransactions() {
+		return preparedTransactions.size();
+	}
+
+	/**
+	 * {@link PreparedTransaction} holds the copies reserved by a transaction
+	 * together with the progress of its prepare.
+	 */
+	private static final class PreparedTransaction {
+
+		/** The reserved copies. */
+		private final Set<BookCopy> reservedCopies;
+
+		/** Whether the copies have been bought. */
+		private boolean reserved = false;
+
+		/** Whether the transaction was aborted. */
+		private boolean aborted = false;
+
+		/**
+		 * Instantiates a new {@link PreparedTransaction}.
+		 *
+		 * @param reservedCopies
+		 *            the reserved copies
+		 */
+		private PreparedTransaction(Set<BookCopy> reservedCopies) {
+			this.reservedCopies = reservedCopies;
+		}
+
+		/**
+		 * Records that the copies have been bought, unless the transaction was
+		 * aborted in the meantime.
+		 *
+		 * @return true, if the transaction is prepared, or false if its prepare
+		 *         must be undone
+		 */
+		private synchronized boolean reserve() {
+			reserved = !aborted;
+			return reserved;
+		}
+
+		/**
+		 * Checks whether the copies have been bought.
+		 *
+		 * @return true, if the transaction is prepared
+		 */
+		private synchronized boolean isReserved() {
+			return reserved;
+		}
+
+		/**
+		 * Records that the transaction was aborted.
+		 *
+		 * @return true, if the copies have been bought and must be restored by
+		 *         the abort
+		 */
+		private synchronized boolean abort() {
+			aborted = true;
+			return reserved;
+		}
+	}
+}
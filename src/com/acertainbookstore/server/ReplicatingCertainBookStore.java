@@ -0,0 +1,325 @@
+package com.acertainbookstore.server;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookQuery;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.CatalogChanges;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.interfaces.StockRestorer;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreMessageTag;
+
+/**
+ * {@link ReplicatingCertainBookStore} implements the {@link BookStore},
+ * {@link StockManager} and {@link StockRestorer} functionalities of a primary
+ * server on top of another store. Mutations are applied one at a time and
+ * then replicated to the backups through a {@link BookStoreReplicator} before
+ * returning, so the backups apply them in the same order and a completed
+ * mutation is visible on every backup still in sync. Only applying a mutation
+ * and numbering it happen under the lock ordering the mutations; the
+ * acknowledgements of the backups are awaited after releasing it, so the
+ * round trips of concurrent mutations overlap. Reads go to the underlying
+ * store directly.
+ *
+ * @see BookStoreReplicator
+ * @see BookStore
+ * @see StockManager
+ */
+public class ReplicatingCertainBookStore implements BookStore, StockManager, StockRestorer {
+
+	/**
+	 * {@link Mutation} is a mutation applied to the underlying store.
+	 */
+	@FunctionalInterface
+	private interface Mutation {
+
+		/**
+		 * Applies the mutation.
+		 *
+		 * @throws BookStoreException
+		 *             the book store exception
+		 */
+		void apply() throws BookStoreException;
+	}
+
+	/** The underlying book store. */
+	private final BookStore bookStore;
+
+	/** The underlying stock manager. */
+	private final StockManager stockManager;
+
+	/** The underlying stock restorer. */
+	private final StockRestorer stockRestorer;
+
+	/** The replicator. */
+	private final BookStoreReplicator replicator;
+
+	/** The lock ordering the mutations. */
+	private final ReentrantLock mutationLock = new ReentrantLock();
+
+	/**
+	 * Instantiates a new {@link ReplicatingCertainBookStore}.
+	 *
+	 * @param bookStore
+	 *            the underlying book store
+	 * @param stockManager
+	 *            the underlying stock manager
+	 * @param stockRestorer
+	 *            the underlying stock restorer
+	 * @param replicator
+	 *            the replicator
+	 */
+	public ReplicatingCertainBookStore(BookStore bookStore, StockManager stockManager, StockRestorer stockRestorer,
+			BookStoreReplicator replicator) {
+		this.bookStore = bookStore;
+		this.stockManager = stockManager;
+		this.stockRestorer = stockRestorer;
+		this.replicator = replicator;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	@Override
+	public void buyBooks(Set<BookCopy> booksToBuy) throws BookStoreException {
+		// A failed purchase may still have recorded sale misses, which the
+		// backups record by failing the same way.
+		mutate(BookStoreMessageTag.BUYBOOKS, booksToBuy, true, () -> bookStore.buyBooks(booksToBuy));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		mutate(BookStoreMessageTag.RATEBOOKS, bookRating, false, () -> bookStore.rateBooks(bookRating));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	@Override
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		return bookStore.getBooks(isbnSet);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		return bookStore.getTopRatedBooks(numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	@Override
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		return bookStore.getEditorPicks(numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#searchBooks(java.lang.
+	 * String, int, int)
+	 */
+	@Override
+	public List<Book> searchBooks(String query, int offset, int numBooks) throws BookStoreException {
+		return bookStore.searchBooks(query, offset, numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	@Override
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		mutate(BookStoreMessageTag.ADDBOOKS, bookSet, false, () -> stockManager.addBooks(bookSet));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	@Override
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		mutate(BookStoreMessageTag.ADDCOPIES, bookCopiesSet, false, () -> stockManager.addCopies(bookCopiesSet));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockRestorer#restoreCopies(java.util.
+	 * Set)
+	 */
+	@Override
+	public void restoreCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		mutate(BookStoreMessageTag.RESTORECOPIES, bookCopiesSet, false,
+				() -> stockRestorer.restoreCopies(bookCopiesSet));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	@Override
+	public List<StockBook> getBooks() throws BookStoreException {
+		return stockManager.getBooks();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks(int, int)
+	 */
+	@Override
+	public List<StockBook> getBooks(int afterISBN, int numBooks) throws BookStoreException {
+		return stockManager.getBooks(afterISBN, numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	@Override
+	public List<StockBook> getBooksByISBN(Set<Integer> isbns) throws BookStoreException {
+		return stockManager.getBooksByISBN(isbns);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		return stockManager.getBooksInDemand();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	@Override
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		mutate(BookStoreMessageTag.UPDATEEDITORPICKS, editorPicks, false,
+				() -> stockManager.updateEditorPicks(editorPicks));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#queryBooks(com.
+	 * acertainbookstore.business.BookQuery)
+	 */
+	@Override
+	public List<StockBook> queryBooks(BookQuery query) throws BookStoreException {
+		return stockManager.queryBooks(query);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getChangesSince(long)
+	 */
+	@Override
+	public CatalogChanges getChangesSince(long version) throws BookStoreException {
+		return stockManager.getChangesSince(version);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	@Override
+	public void removeAllBooks() throws BookStoreException {
+		mutate(BookStoreMessageTag.REMOVEALLBOOKS, "", false, stockManager::removeAllBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	@Override
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		mutate(BookStoreMessageTag.REMOVEBOOKS, isbnSet, false, () -> stockManager.removeBooks(isbnSet));
+	}
+
+	/**
+	 * Applies a mutation under the lock ordering the mutations and replicates
+	 * it, then waits for the backups once the lock is released.
+	 *
+	 * @param messageTag
+	 *            the message tag of the mutation
+	 * @param argument
+	 *            the argument of the mutation
+	 * @param replicateFailure
+	 *            whether a failed mutation changes the store, and is
+	 *            replicated too
+	 * @param mutation
+	 *            the mutation
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private void mutate(BookStoreMessageTag messageTag, Object argument, boolean replicateFailure, Mutation mutation)
+			throws BookStoreException {
+		CompletableFuture<Void> replication = null;
+		mutationLock.lock();
+
+		try {
+			boolean succeeded = false;
+
+			try {
+				mutation.apply();
+				succeeded = true;
+			} finally {
+				if (succeeded || replicateFailure) {
+					replication = replicator.replicate(messageTag, argument, succeeded);
+				}
+			}
+		} finally {
+			mutationLock.unlock();
+
+			if (replication != null) {
+				replication.join();
+			}
+		}
+	}
+}
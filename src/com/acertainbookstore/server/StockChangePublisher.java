@@ -0,0 +1,174 @@
+package com.acertainbookstore.server;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.acertainbookstore.business.CatalogChanges;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.business.StockChangeEvent;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link StockChangePublisher} pushes the changes to the stock of a server to
+ * its subscribers. After a mutation, the publisher asks the store for the
+ * changes since the last version it published through
+ * {@link StockManager#getChangesSince(long)}, and offers an event per changed
+ * book to every {@link StockChangeSubscriber}. The changes are read and
+ * published by a single thread; mutations arriving while it is busy are
+ * picked up together by its next run, so a burst of mutations costs a single
+ * read of the store.
+ */
+public class StockChangePublisher {
+
+	/** The maximum number of books with an event waiting for a subscriber. */
+	public static final int SUBSCRIBER_CAPACITY = 1024;
+
+	/**
+	 * The interval between heartbeats in seconds, shorter than the idle
+	 * timeout of the server connections.
+	 */
+	public static final int HEARTBEAT_INTERVAL_SECONDS = 10;
+
+	/** The stock manager. */
+	private final StockManager stockManager;
+
+	/** The subscribers. */
+	private final Set<StockChangeSubscriber> subscribers = ConcurrentHashMap.newKeySet();
+
+	/** The thread reading and publishing the changes, and sending heartbeats. */
+	private final ScheduledExecutorService executor;
+
+	/** Whether a run of the publisher is scheduled and has not started yet. */
+	private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+	/** The last version published; only used by the publisher thread. */
+	private long lastVersion = -1;
+
+	/**
+	 * Instantiates a new {@link StockChangePublisher}.
+	 *
+	 * @param stockManager
+	 *            the stock manager
+	 */
+	public StockChangePublisher(StockManager stockManager) {
+		this.stockManager = stockManager;
+		this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "stock-change-publisher");
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor.scheduleWithFixedDelay(this::heartbeat, HEARTBEAT_INTERVAL_SECONDS, HEARTBEAT_INTERVAL_SECONDS,
+				TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Starts a subscription on the request. The request is switched to
+	 * asynchronous mode and stays open until the subscriber disconnects; the
+	 * first event is a {@link StockChangeEvent.Type#SUBSCRIBED} event with the
+	 * version from which the subscriber gets the changes.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void subscribe(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		response.setContentType("text/event-stream");
+		response.setCharacterEncoding("UTF-8");
+		response.setHeader("Cache-Control", "no-cache");
+
+		AsyncContext asyncContext = request.startAsync();
+		asyncContext.setTimeout(0);
+		StockChangeSubscriber subscriber = new StockChangeSubscriber(asyncContext, SUBSCRIBER_CAPACITY,
+				subscribers::remove);
+
+		// The subscriber is added by the publisher thread after it has
+		// published the earlier changes, so it only gets the later ones.
+		executor.execute(() -> {
+			publish();
+			subscribers.add(subscriber);
+			subscriber.offer(StockChangeEvent.of(StockChangeEvent.Type.SUBSCRIBED, lastVersion));
+		});
+	}
+
+	/**
+	 * Notifies the publisher that the stock may have changed.
+	 */
+	public void notifyChanged() {
+		// Without subscribers, the changes are skipped over by the next
+		// subscription.
+		if (!subscribers.isEmpty() && scheduled.compareAndSet(false, true)) {
+			executor.execute(() -> {
+				scheduled.set(false);
+				publish();
+			});
+		}
+	}
+
+	/**
+	 * Reads the changes since the last version published and offers them to
+	 * the subscribers. Runs on the publisher thread.
+	 */
+	private void publish() {
+		CatalogChanges changes;
+
+		try {
+			changes = stockManager.getChangesSince(lastVersion);
+		} catch (BookStoreException ex) {
+			System.err.println("Could not read the stock changes: " + ex);
+			return;
+		}
+
+		boolean caughtUp = lastVersion >= 0;
+		lastVersion = changes.getVersion();
+
+		if (!caughtUp || subscribers.isEmpty()) {
+			return;
+		}
+
+		if (changes.isFullListing()) {
+			// The changes are no longer known.
+			StockChangeEvent reset = StockChangeEvent.of(StockChangeEvent.Type.RESET, lastVersion);
+			subscribers.forEach(subscriber -> subscriber.offer(reset));
+			return;
+		}
+
+		for (StockBook book : changes.getBooks()) {
+			StockChangeEvent event = StockChangeEvent.changed(lastVersion, book);
+			subscribers.forEach(subscriber -> subscriber.offer(event));
+		}
+
+		for (int isbn : changes.getRemovedISBNs()) {
+			StockChangeEvent event = StockChangeEvent.removed(lastVersion, isbn);
+			subscribers.forEach(subscriber -> subscriber.offer(event));
+		}
+	}
+
+	/**
+	 * Sends a heartbeat to every subscriber.
+	 */
+	private void heartbeat() {
+		subscribers.forEach(StockChangeSubscriber::heartbeat);
+	}
+
+	/**
+	 * Gets the number of subscribers.
+	 *
+	 * @return the number of subscribers
+	 */
+	public int getNumSubscribers() {
+		return subscribers.size();
+	}
+}
@@ -0,0 +1,292 @@
+package com.acertainbookstore.server;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+
+import com.acertainbookstore.business.StockChangeEvent;
+
+/**
+ * {@link StockChangeSubscriber} pushes the stock change events to one
+ * subscriber as server-sent events, writing to its connection with the
+ * non-blocking I/O of an asynchronous request so that no thread waits on a
+ * slow subscriber.
+ *
+ * <p>
+ * The events waiting to be written are buffered per book: a new event of a
+ * book replaces the one waiting, so a slow subscriber only gets the latest
+ * state of every book. If more books than the capacity of the buffer are
+ * waiting, the events are dropped and replaced by a single
+ * {@link StockChangeEvent.Type#RESET} event.
+ */
+public class StockChangeSubscriber implements WriteListener, AsyncListener {
+
+	/** The asynchronous context of the subscription request. */
+	private final AsyncContext asyncContext;
+
+	/** The output stream of the subscription response. */
+	private final ServletOutputStream out;
+
+	/** The maximum number of books with an event waiting. */
+	private final int capacity;
+
+	/** The callback removing the subscriber when its connection ends. */
+	private final Consumer<StockChangeSubscriber> onClose;
+
+	/** The events waiting to be written, by ISBN, oldest first. */
+	private final LinkedHashMap<Integer, StockChangeEvent> pending = new LinkedHashMap<>();
+
+	/** The event about the subscription itself, written before the others. */
+	private StockChangeEvent pendingControl = null;
+
+	/** Whether a heartbeat is waiting to be written. */
+	private boolean pendingHeartbeat = false;
+
+	/** Whether bytes have been written since the last flush. */
+	private boolean unflushed = false;
+
+	/** Whether the connection has ended. */
+	private boolean closed = false;
+
+	/** The number of events dropped since the subscription started. */
+	private long numDropped = 0;
+
+	/**
+	 * Instantiates a new {@link StockChangeSubscriber}. The output stream is
+	 * switched to non-blocking mode by registering the subscriber as its write
+	 * listener.
+	 *
+	 * @param asyncContext
+	 *            the asynchronous context of the subscription request
+	 * @param capacity
+	 *            the maximum number of books with an event waiting
+	 * @param onClose
+	 *            the callback removing the subscriber when its connection
+	 *            ends
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public StockChangeSubscriber(AsyncContext asyncContext, int capacity, Consumer<StockChangeSubscriber> onClose)
+			throws IOException {
+		this.asyncContext = asyncContext;
+		this.capacity = capacity;
+		this.onClose = onClose;
+		this.out = asyncContext.getResponse().getOutputStream();
+		asyncContext.addListener(this);
+		out.setWriteListener(this);
+	}
+
+	/**
+	 * Queues an event and writes as much as the connection accepts.
+	 *
+	 * @param event
+	 *            the event
+	 */
+	public synchronized void offer(StockChangeEvent event) {
+		if (closed) {
+			return;
+		}
+
+		switch (event.getType()) {
+		case CHANGED:
+		case REMOVED:
+			if (pendingControl != null && pendingControl.getType() == StockChangeEvent.Type.RESET) {
+				// The subscriber will catch up from the reset anyway.
+				break;
+			}
+
+			pending.remove(event.getISBN());
+
+			if (pending.size() == capacity) {
+				numDropped += pending.size() + 1;
+				pending.clear();
+				pendingControl = StockChangeEvent.of(StockChangeEvent.Type.RESET, event.getVersion());
+			} else {
+				pending.put(event.getISBN(), event);
+			}
+			break;
+
+		case RESET:
+			numDropped += pending.size();
+			pending.clear();
+			pendingControl = event;
+			break;
+
+		default:
+			pendingControl = event;
+			break;
+		}
+
+		onWritePossible();
+	}
+
+	/**
+	 * Queues a comment that keeps the connection from being closed for
+	 * idleness and detects the subscribers that went away.
+	 */
+	public synchronized void heartbeat() {
+		if (!closed) {
+			pendingHeartbeat = true;
+			onWritePossible();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see javax.servlet.WriteListener#onWritePossible()
+	 */
+	@Override
+	public synchronized void onWritePossible() {
+		try {
+			// Once isReady returns false, the container calls back when the
+			// pending write completes.
+			while (!closed && out.isReady()) {
+				String message = nextMessage();
+
+				if (message != null) {
+					out.write(message.getBytes(StandardCharsets.UTF_8));
+					unflushed = true;
+				} else if (unflushed) {
+					unflushed = false;
+					out.flush();
+				} else {
+					return;
+				}
+			}
+		} catch (IOException | IllegalStateException ex) {
+			close();
+		}
+	}
+
+	/**
+	 * Takes the next message to write.
+	 *
+	 * @return the message, or null if nothing is waiting
+	 */
+	private String nextMessage() {
+		if (pendingControl != null) {
+			StockChangeEvent event = pendingControl;
+			pendingControl = null;
+			return format(event);
+		}
+
+		Iterator<Map.Entry<Integer, StockChangeEvent>> iterator = pending.entrySet().iterator();
+
+		if (iterator.hasNext()) {
+			StockChangeEvent event = iterator.next().getValue();
+			iterator.remove();
+			return format(event);
+		}
+
+		if (pendingHeartbeat) {
+			pendingHeartbeat = false;
+			return ":\n\n";
+		}
+
+		return null;
+	}
+
+	/**
+	 * Formats an event as a server-sent event, named after its type and
+	 * identified by its version.
+	 *
+	 * @param event
+	 *            the event
+	 * @return the message
+	 */
+	private static String format(StockChangeEvent event) {
+		return "event: " + event.getType().name().toLowerCase() + "\nid: " + event.getVersion() + "\ndata: "
+				+ event.toJSON() + "\n\n";
+	}
+
+	/**
+	 * Gets the number of events dropped since the subscription started.
+	 *
+	 * @return the number of events dropped
+	 */
+	public synchronized long getNumDropped() {
+		return numDropped;
+	}
+
+	/**
+	 * Ends the subscription.
+	 */
+	public void close() {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+
+			closed = true;
+			pending.clear();
+		}
+
+		onClose.accept(this);
+
+		try {
+			asyncContext.complete();
+		} catch (IllegalStateException ex) {
+			// The request has already completed.
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see javax.servlet.WriteListener#onError(java.lang.Throwable)
+	 */
+	@Override
+	public void onError(Throwable throwable) {
+		close();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see javax.servlet.AsyncListener#onComplete(javax.servlet.AsyncEvent)
+	 */
+	@Override
+	public void onComplete(AsyncEvent event) {
+		close();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see javax.servlet.AsyncListener#onTimeout(javax.servlet.AsyncEvent)
+	 */
+	@Override
+	public void onTimeout(AsyncEvent event) {
+		close();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see javax.servlet.AsyncListener#onError(javax.servlet.AsyncEvent)
+	 */
+	@Override
+	public void onError(AsyncEvent event) {
+		close();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see javax.servlet.AsyncListener#onStartAsync(javax.servlet.AsyncEvent)
+	 */
+	@Override
+	public void onStartAsync(AsyncEvent event) {
+		// Nothing to do.
+	}
+}
@@ -19,6 +19,33 @@ public final class BookStoreConstants {
 	/** The Constant BOOK_NUM_PARAM. */
 	public static final String BOOK_NUM_PARAM = "number_of_books";
 
+	/** The Constant QUERY_PARAM. */
+	public static final String QUERY_PARAM = "query";
+
+	/** The Constant OFFSET_PARAM. */
+	public static final String OFFSET_PARAM = "offset";
+
+	/** The Constant AFTER_ISBN_PARAM. */
+	public static final String AFTER_ISBN_PARAM = "after_isbn";
+
+	/** The Constant VERSION_PARAM. */
+	public static final String VERSION_PARAM = "version";
+
+	/** The Constant TRANSACTION_ID_PARAM. */
+	public static final String TRANSACTION_ID_PARAM = "transaction_id";
+
+	/** The Constant SEQUENCE_PARAM. */
+	public static final String SEQUENCE_PARAM = "sequence";
+
+	/** The Constant MESSAGE_TAG_PARAM. */
+	public static final String MESSAGE_TAG_PARAM = "message_tag";
+
+	/** The Constant SUCCEEDED_PARAM. */
+	public static final String SUCCEEDED_PARAM = "succeeded";
+
+	/** The Constant DROPPED_PARAM. */
+	public static final String DROPPED_PARAM = "dropped";
+
 	/** The Constant XMLSTRINGLEN_PARAM. */
 	public static final String XMLSTRINGLEN_PARAM = "len";
 
@@ -39,6 +66,15 @@ public final class BookStoreConstants {
 	/** The Constant NOT_AVAILABLE when the book is not in the store. */
 	public static final String NOT_AVAILABLE = " is not available";
 
+	/** The Constant OUT_OF_ORDER when a replicated mutation is out of order. */
+	public static final String OUT_OF_ORDER = " is out of order";
+
+	/**
+	 * The Constant DIVERGED when a replicated mutation succeeded on the primary
+	 * and failed on a backup, or the other way around.
+	 */
+	public static final String DIVERGED = " diverged from the primary";
+
 	/** The Constant BOOK. */
 	public static final String BOOK = "The Book: ";
 
@@ -48,6 +84,30 @@ public final class BookStoreConstants {
 	/** The Constant NUM_COPIES. */
 	public static final String NUM_COPIES = "The Number of copies: ";
 
+	/** The Constant TRANSACTION. */
+	public static final String TRANSACTION = "The transaction: ";
+
+	/** The Constant SEQUENCE. */
+	public static final String SEQUENCE = "The sequence number: ";
+
+	/** The Constant MESSAGE_TAG. */
+	public static final String MESSAGE_TAG = "The message tag: ";
+
+	/** The Constant READ_ONLY_BACKUP. */
+	public static final String READ_ONLY_BACKUP = "backups are read-only, send mutations to the primary";
+
+	/** The Constant OUT_OF_SYNC_BACKUP. */
+	public static final String OUT_OF_SYNC_BACKUP = "the backup is out of sync with its primary, read from another server";
+
+	/** The Constant OVERLOADED. */
+	public static final String OVERLOADED = "the server is overloaded, retry later: ";
+
+	/** The Constant TRANSACTION_ABORTED. */
+	public static final String TRANSACTION_ABORTED = "the transaction was aborted, retry it: ";
+
+	/** The Constant INJECTED_FAULT. */
+	public static final String INJECTED_FAULT = "injected fault at ";
+
 	/** The Constant RATING. */
 	public static final String RATING = "The rating: ";
 
@@ -60,9 +120,96 @@ public final class BookStoreConstants {
 	/** The Constant PROPERTY_KEY_SINGLE_LOCK. */
 	public static final String PROPERTY_KEY_SINGLE_LOCK = "singlelock";
 
+	/**
+	 * The Constant PROPERTY_KEY_OPTIMISTIC, set to true to use the optimistic
+	 * concurrency control store instead of a locking one.
+	 */
+	public static final String PROPERTY_KEY_OPTIMISTIC = "optimistic";
+
+	/**
+	 * The Constant PROPERTY_KEY_TRANSACTIONAL, set to true to use the software
+	 * transactional memory store instead of a locking one.
+	 */
+	public static final String PROPERTY_KEY_TRANSACTIONAL = "transactional";
+
+	/**
+	 * The Constant PROPERTY_KEY_SINGLE_WRITER, set to true to use the store
+	 * whose mutations are applied by a single writer thread.
+	 */
+	public static final String PROPERTY_KEY_SINGLE_WRITER = "singlewriter";
+
 	/** The Constant PROPERTY_KEY_SERVER_PORT. */
 	public static final String PROPERTY_KEY_SERVER_PORT = "port";
 
+	/**
+	 * The Constant PROPERTY_KEY_BACKUPS, a comma-separated list of the backup
+	 * addresses of a primary server.
+	 */
+	public static final String PROPERTY_KEY_BACKUPS = "backups";
+
+	/** The Constant PROPERTY_KEY_BACKUP, set to true on a backup server. */
+	public static final String PROPERTY_KEY_BACKUP = "backup";
+
+	/**
+	 * The Constant PROPERTY_KEY_COMBINE_BUY_BOOKS, set to true to apply
+	 * concurrent purchases in batches in the single lock store.
+	 */
+	public static final String PROPERTY_KEY_COMBINE_BUY_BOOKS = "combinebuybooks";
+
+	/**
+	 * The Constant PROPERTY_KEY_DEADLOCK_POLICY, the deadlock policy of the
+	 * two-level locking store: detect, wait_die or wound_wait.
+	 */
+	public static final String PROPERTY_KEY_DEADLOCK_POLICY = "deadlockpolicy";
+
+	/**
+	 * The Constant PROPERTY_KEY_LOCK_TIMEOUT, the lock timeout of the
+	 * two-level locking store in milliseconds.
+	 */
+	public static final String PROPERTY_KEY_LOCK_TIMEOUT = "locktimeout";
+
+	/**
+	 * The Constant PROPERTY_KEY_ISOLATION, the isolation level of the
+	 * two-level locking store: serializable or read_committed.
+	 */
+	public static final String PROPERTY_KEY_ISOLATION = "isolation";
+
+	/**
+	 * The Constant PROPERTY_KEY_ADMISSION_CONTROL, set to false to admit every
+	 * request.
+	 */
+	public static final String PROPERTY_KEY_ADMISSION_CONTROL = "admissioncontrol";
+
+	/**
+	 * The Constant PROPERTY_KEY_FAULTS, the faults injected into the stores,
+	 * e.g. buyBooks.book=delay:1,addCopies=throw@0.01.
+	 */
+	public static final String PROPERTY_KEY_FAULTS = "faults";
+
+	/**
+	 * The Constant PROPERTY_KEY_HTTP2, set to true to send the requests of the
+	 * HTTP proxies over HTTP/2 cleartext.
+	 */
+	public static final String PROPERTY_KEY_HTTP2 = "http2";
+
+	/**
+	 * The Constant HTTP2_MAX_CONCURRENT_STREAMS, the number of requests a
+	 * client may have in flight on one HTTP/2 connection.
+	 */
+	public static final int HTTP2_MAX_CONCURRENT_STREAMS = 128;
+
+	/**
+	 * The Constant PROPERTY_KEY_COMPRESSION, the compressions of the responses
+	 * the HTTP proxies accept, in order of preference, e.g. deflate,gzip.
+	 */
+	public static final String PROPERTY_KEY_COMPRESSION = "compression";
+
+	/**
+	 * The Constant COMPRESSION_THRESHOLD_BYTES, the size under which a
+	 * response is sent as it is, whatever the client accepts.
+	 */
+	public static final int COMPRESSION_THRESHOLD_BYTES = 32 * 1024;
+
 	/** The Constant EPSILON used for floating point number comparison */
 	public static final float EPSILON = 0.000001F;
 
@@ -0,0 +1,200 @@
+package com.acertainbookstore.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * {@link BookStoreContentEncoding} lists the compressions of the responses a
+ * client may accept. The client names them in the order it prefers in the
+ * Accept-Encoding header of its requests, and the server compresses the
+ * responses above {@link BookStoreConstants#COMPRESSION_THRESHOLD_BYTES} with
+ * the first one it supports, naming it in the Content-Encoding header.
+ */
+public enum BookStoreContentEncoding {
+
+	/**
+	 * Deflate at its fastest level, which trades some ratio for the least
+	 * CPU on both sides.
+	 */
+	DEFLATE("deflate") {
+		@Override
+		protected OutputStream newOutputStream(OutputStream out) {
+			return new DeflaterOutputStream(out, new Deflater(Deflater.BEST_SPEED)) {
+				@Override
+				public void close() throws IOException {
+					super.close();
+					def.end();
+				}
+			};
+		}
+
+		@Override
+		protected InputStream newInputStream(InputStream in) {
+			return new InflaterInputStream(in);
+		}
+	},
+
+	/** Gzip at its default level, for the best ratio. */
+	GZIP("gzip") {
+		@Override
+		protected OutputStream newOutputStream(OutputStream out) throws IOException {
+			return new GZIPOutputStream(out);
+		}
+
+		@Override
+		protected InputStream newInputStream(InputStream in) throws IOException {
+			return new GZIPInputStream(in);
+		}
+	};
+
+	/** The name of the absence of encoding in the HTTP headers. */
+	public static final String IDENTITY = "identity";
+
+	/** The name of the encoding in the HTTP headers. */
+	private final String name;
+
+	/**
+	 * Instantiates a new {@link BookStoreContentEncoding}.
+	 *
+	 * @param name
+	 *            the name of the encoding in the HTTP headers
+	 */
+	BookStoreContentEncoding(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Gets the name of the encoding in the HTTP headers.
+	 *
+	 * @return the name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Wraps a stream to compress the content written to it.
+	 *
+	 * @param out
+	 *            the stream
+	 * @return the compressing stream
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	protected abstract OutputStream newOutputStream(OutputStream out) throws IOException;
+
+	/**
+	 * Wraps a stream to decompress the content read from it.
+	 *
+	 * @param in
+	 *            the stream
+	 * @return the decompressing stream
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	protected abstract InputStream newInputStream(InputStream in) throws IOException;
+
+	/**
+	 * Compresses a content.
+	 *
+	 * @param content
+	 *            the content
+	 * @return the compressed content
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public byte[] encode(byte[] content) throws IOException {
+		ByteArrayOutputStream encoded = new ByteArrayOutputStream(content.length / 4);
+
+		try (OutputStream out = newOutputStream(encoded)) {
+			out.write(content);
+		}
+
+		return encoded.toByteArray();
+	}
+
+	/**
+	 * Decompresses a content.
+	 *
+	 * @param content
+	 *            the compressed content
+	 * @return the content
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public byte[] decode(byte[] content) throws IOException {
+		try (InputStream in = newInputStream(new ByteArrayInputStream(content))) {
+			return in.readAllBytes();
+		}
+	}
+
+	/**
+	 * Gets the encoding named in a header.
+	 *
+	 * @param name
+	 *            the name of the encoding
+	 * @return the encoding, or null if it is not supported
+	 */
+	public static BookStoreContentEncoding forName(String name) {
+		for (BookStoreContentEncoding encoding : values()) {
+			if (encoding.name.equalsIgnoreCase(name)) {
+				return encoding;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Picks the encoding of a response from the Accept-Encoding header of the
+	 * request: the first supported one the client lists, skipping those it
+	 * refuses with a quality of zero.
+	 *
+	 * @param acceptEncoding
+	 *            the Accept-Encoding header, or null
+	 * @return the encoding, or null to send the response as it is
+	 */
+	public static BookStoreContentEncoding negotiate(String acceptEncoding) {
+		if (BookStoreUtility.isEmpty(acceptEncoding)) {
+			return null;
+		}
+
+		for (String coding : acceptEncoding.split(",")) {
+			String[] parameters = coding.split(";");
+			BookStoreContentEncoding encoding = forName(parameters[0].trim());
+
+			if (encoding != null && !isRefused(parameters)) {
+				return encoding;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Checks if the parameters of a coding give it a quality of zero.
+	 *
+	 * @param parameters
+	 *            the coding followed by its parameters
+	 * @return true, if the coding is refused
+	 */
+	private static boolean isRefused(String[] parameters) {
+		for (int i = 1; i < parameters.length; i++) {
+			String parameter = parameters[i].trim();
+
+			if (parameter.startsWith("q=")) {
+				return BookStoreUtility.convertStringToFloat(parameter.substring(2), 1) == 0;
+			}
+		}
+
+		return false;
+	}
+}
@@ -9,6 +9,7 @@ import com.acertainbookstore.interfaces.BookStoreSerializer;
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.serializers.JavaSerializer;
 import org.objenesis.strategy.StdInstantiatorStrategy;
 
 /**
@@ -29,6 +30,10 @@ public final class BookStoreKryoSerializer implements BookStoreSerializer {
 		binaryStream = new Kryo();
 		binaryStream.setInstantiatorStrategy(new Kryo.DefaultInstantiatorStrategy(new StdInstantiatorStrategy()));
 		binaryStream.register(ImmutableStockBook.class);
+
+		// Exceptions use Java serialization, since the field serializer cannot
+		// access the private fields of Throwable on recent JVMs.
+		binaryStream.addDefaultSerializer(Throwable.class, JavaSerializer.class);
 	}
 
 	/*
@@ -12,6 +12,15 @@ public enum BookStoreMessageTag {
 	/** The tag for the list books message. */
 	LISTBOOKS,
 
+	/** The tag for the stream books message, listing books in chunks. */
+	STREAMBOOKS,
+
+	/** The tag for the get changes message, listing changes since a version. */
+	GETCHANGES,
+
+	/** The tag for the subscribe message, pushing stock changes as they happen. */
+	SUBSCRIBESTOCKCHANGES,
+
 	/** The tag for the add copies message. */
 	ADDCOPIES,
 
@@ -34,5 +43,35 @@ public enum BookStoreMessageTag {
 	REMOVEBOOKS,
 
 	/** The tag for the get stock books by ISBN message. */
-	GETSTOCKBOOKSBYISBN;
+	GETSTOCKBOOKSBYISBN,
+
+	/** The tag for the rate books message. */
+	RATEBOOKS,
+
+	/** The tag for the top rated books message. */
+	GETTOPRATEDBOOKS,
+
+	/** The tag for the search books message. */
+	SEARCHBOOKS,
+
+	/** The tag for the query books message. */
+	QUERYBOOKS,
+
+	/** The tag for the prepare buy books message of a two-phase commit. */
+	PREPAREBUYBOOKS,
+
+	/** The tag for the commit buy books message of a two-phase commit. */
+	COMMITBUYBOOKS,
+
+	/** The tag for the abort buy books message of a two-phase commit. */
+	ABORTBUYBOOKS,
+
+	/**
+	 * The tag for copies put back into stock by an aborted purchase, only
+	 * sent within a replicated mutation.
+	 */
+	RESTORECOPIES,
+
+	/** The tag for a mutation replicated from a primary to a backup. */
+	REPLICATE;
 }
@@ -17,6 +17,12 @@ public class BookStoreResponse {
 	/** The list. */
 	private List<?> list;
 
+	/**
+	 * The catalog version of the server when the request was processed, used
+	 * by clients to invalidate cached books.
+	 */
+	private long version;
+
 	/**
 	 * Instantiates a new {@link BookStoreResponse}.
 	 *
@@ -75,4 +81,23 @@ public class BookStoreResponse {
 	public void setException(BookStoreException exception) {
 		this.exception = exception;
 	}
+
+	/**
+	 * Gets the catalog version.
+	 *
+	 * @return the catalog version
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Sets the catalog version.
+	 *
+	 * @param version
+	 *            the new catalog version
+	 */
+	public void setVersion(long version) {
+		this.version = version;
+	}
 }
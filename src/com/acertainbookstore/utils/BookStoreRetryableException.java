@@ -0,0 +1,34 @@
+package com.acertainbookstore.utils;
+
+/**
+ * {@link BookStoreRetryableException} signals a book store error that did not
+ * change the store and is likely to go away, e.g. a request rejected because
+ * the server is overloaded. The request can be sent again after a backoff.
+ */
+public class BookStoreRetryableException extends BookStoreException {
+
+	/** The Constant serialVersionUID. */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Instantiates a new {@link BookStoreRetryableException}.
+	 *
+	 * @param message
+	 *            the message
+	 */
+	public BookStoreRetryableException(String message) {
+		super(message);
+	}
+
+	/**
+	 * Instantiates a new {@link BookStoreRetryableException}.
+	 *
+	 * @param message
+	 *            the message
+	 * @param cause
+	 *            the cause
+	 */
+	public BookStoreRetryableException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
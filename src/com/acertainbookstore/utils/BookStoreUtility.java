@@ -1,14 +1,19 @@
 package com.acertainbookstore.utils;
 
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 
 import org.eclipse.jetty.client.HttpClient;
 import org.eclipse.jetty.client.api.ContentProvider;
 import org.eclipse.jetty.client.api.ContentResponse;
 import org.eclipse.jetty.client.api.Request;
 import org.eclipse.jetty.client.util.BytesContentProvider;
+import org.eclipse.jetty.client.util.InputStreamResponseListener;
+import org.eclipse.jetty.http.HttpHeader;
 import org.eclipse.jetty.http.HttpMethod;
 
 import com.acertainbookstore.client.BookStoreClientConstants;
@@ -128,6 +133,27 @@ public final class BookStoreUtility {
 		return returnValue;
 	}
 
+	/**
+	 * Converts a string to a long if possible else it throws an exception.
+	 *
+	 * @param str
+	 *            the string
+	 * @return the long
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public static long convertStringToLong(String str) throws BookStoreException {
+		long returnValue = 0;
+
+		try {
+			returnValue = Long.parseLong(str);
+		} catch (Exception ex) {
+			throw new BookStoreException(ex);
+		}
+
+		return returnValue;
+	}
+
 	/**
 	 * Convert a request URI to the message tags supported in CertainBookStore.
 	 *
@@ -149,7 +175,7 @@ public final class BookStoreUtility {
 	}
 
 	/**
-	 * Perform HTTP exchange.
+	 * Perform HTTP exchange, accepting an uncompressed response only.
 	 *
 	 * @param client
 	 *            the client
@@ -163,6 +189,29 @@ public final class BookStoreUtility {
 	 */
 	public static BookStoreResponse performHttpExchange(HttpClient client, BookStoreRequest bookStoreRequest,
 			BookStoreSerializer serializer) throws BookStoreException {
+		return performHttpExchange(client, bookStoreRequest, serializer, null);
+	}
+
+	/**
+	 * Perform HTTP exchange, accepting a response compressed with one of the
+	 * encodings listed.
+	 *
+	 * @param client
+	 *            the client
+	 * @param bookStoreRequest
+	 *            the book store request
+	 * @param serializer
+	 *            the serializer
+	 * @param acceptEncoding
+	 *            the Accept-Encoding header listing the
+	 *            {@link BookStoreContentEncoding} accepted, or null to accept
+	 *            none
+	 * @return the book store response
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public static BookStoreResponse performHttpExchange(HttpClient client, BookStoreRequest bookStoreRequest,
+			BookStoreSerializer serializer, String acceptEncoding) throws BookStoreException {
 		Request request;
 
 		switch (bookStoreRequest.getMethod()) {
@@ -185,6 +234,10 @@ public final class BookStoreUtility {
 			throw new IllegalArgumentException("HTTP Method not supported.");
 		}
 
+		// Replaces the gzip the client asks for by itself.
+		request.header(HttpHeader.ACCEPT_ENCODING, null);
+		request.header(HttpHeader.ACCEPT_ENCODING,
+				isEmpty(acceptEncoding) ? BookStoreContentEncoding.IDENTITY : acceptEncoding);
 		ContentResponse response;
 
 		try {
@@ -197,10 +250,65 @@ public final class BookStoreUtility {
 			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_EXCEPTION, ex);
 		}
 
+		byte[] content = response.getContent();
+		String contentEncoding = response.getHeaders().get(HttpHeader.CONTENT_ENCODING);
+
+		// The client has already decoded the encodings it has a decoder for.
+		if (contentEncoding != null && client.getContentDecoderFactories().stream()
+				.noneMatch(factory -> factory.getEncoding().equalsIgnoreCase(contentEncoding))) {
+			content = decodeContent(content, contentEncoding);
+		}
+
+		return deserializeResponse(content, serializer);
+	}
+
+	/**
+	 * Decompresses the content of a response.
+	 *
+	 * @param content
+	 *            the content of the response
+	 * @param contentEncoding
+	 *            the Content-Encoding header of the response, or null
+	 * @return the decompressed content
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public static byte[] decodeContent(byte[] content, String contentEncoding) throws BookStoreException {
+		if (isEmpty(contentEncoding) || contentEncoding.equalsIgnoreCase(BookStoreContentEncoding.IDENTITY)) {
+			return content;
+		}
+
+		BookStoreContentEncoding encoding = BookStoreContentEncoding.forName(contentEncoding);
+
+		if (encoding == null) {
+			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_RESPONSE_DECODING);
+		}
+
+		try {
+			return encoding.decode(content);
+		} catch (IOException ex) {
+			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_RESPONSE_DECODING, ex);
+		}
+	}
+
+	/**
+	 * Deserializes the content of a response, and throws the exception it
+	 * holds if any.
+	 *
+	 * @param content
+	 *            the content of the response
+	 * @param serializer
+	 *            the serializer
+	 * @return the book store response
+	 * @throws BookStoreException
+	 *             the book store exception, including the one of the response
+	 */
+	public static BookStoreResponse deserializeResponse(byte[] content, BookStoreSerializer serializer)
+			throws BookStoreException {
 		BookStoreResponse bookStoreResponse;
 
 		try {
-			bookStoreResponse = (BookStoreResponse) serializer.deserialize(response.getContent());
+			bookStoreResponse = (BookStoreResponse) serializer.deserialize(content);
 		} catch (IOException ex) {
 			throw new BookStoreException("Deserialization error", ex);
 		}
@@ -213,4 +321,57 @@ public final class BookStoreUtility {
 
 		return bookStoreResponse;
 	}
+
+	/**
+	 * Performs an HTTP exchange whose response is streamed as a sequence of
+	 * chunks, each holding a serialized {@link BookStoreResponse} preceded by
+	 * its length and ended by a length of zero. Every response is passed to
+	 * the consumer as soon as it is read, so the whole stream is never held in
+	 * memory.
+	 *
+	 * @param client
+	 *            the client
+	 * @param urlString
+	 *            the URL of the GET request
+	 * @param serializer
+	 *            the serializer
+	 * @param consumer
+	 *            the consumer of the responses
+	 * @throws BookStoreException
+	 *             the book store exception, including the one of a response
+	 */
+	public static void performStreamingHttpExchange(HttpClient client, String urlString,
+			BookStoreSerializer serializer, Consumer<BookStoreResponse> consumer) throws BookStoreException {
+		InputStreamResponseListener listener = new InputStreamResponseListener();
+		client.newRequest(urlString).method(HttpMethod.GET).send(listener);
+
+		try {
+			listener.get(BookStoreClientConstants.CLIENT_MAX_TIMEOUT_MILLISECS, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException ex) {
+			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_SENDING, ex);
+		} catch (TimeoutException ex) {
+			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_TIMEOUT, ex);
+		} catch (ExecutionException ex) {
+			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_EXCEPTION, ex);
+		}
+
+		// Closing the stream early, e.g. on an exception, aborts the response.
+		try (DataInputStream in = new DataInputStream(listener.getInputStream())) {
+			for (int length = in.readInt(); length > 0; length = in.readInt()) {
+				byte[] chunk = new byte[length];
+				in.readFully(chunk);
+
+				BookStoreResponse bookStoreResponse = (BookStoreResponse) serializer.deserialize(chunk);
+				BookStoreException exception = bookStoreResponse.getException();
+
+				if (exception != null) {
+					throw exception;
+				}
+
+				consumer.accept(bookStoreResponse);
+			}
+		} catch (IOException ex) {
+			throw new BookStoreException("Deserialization error", ex);
+		}
+	}
 }